@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.api;
+
+import com.cloudant.client.api.model.BulkOptions;
+import com.cloudant.client.api.model.BulkResult;
+import com.cloudant.client.api.model.Response;
+import com.cloudant.client.org.lightcouch.CouchDbClient;
+import com.cloudant.client.org.lightcouch.CouchDbException;
+import com.cloudant.client.org.lightcouch.internal.CouchDbUtil;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Splits a large list of documents into {@code _bulk_docs} requests by document count and
+ * serialized size and sends them with bounded concurrency, resubmitting only the documents that
+ * failed with a transient error.
+ * <P>
+ * A whole request is only sent again after a 429 response or if the connection could not be
+ * made. After any other failure the server may already have written the documents, so sending
+ * them again would duplicate documents without an ID and turn the others into conflicts. Each
+ * resend waits a random time up to a limit that doubles with each attempt, to at most 30
+ * seconds.
+ * </P>
+ * <P>
+ * When called from a task on the client's asynchronous executor the chunks are sent in turn on
+ * the calling thread, as waiting for tasks queued behind the caller on a small executor would
+ * never finish.
+ * </P>
+ * <P>
+ * The documents are read from an iterator as permits for their chunk become available, so an
+ * import from a stream only holds the chunks in flight in memory.
+ * </P>
+ */
+class ChunkedBulk {
+
+    private static final Logger log = Logger.getLogger(ChunkedBulk.class.getCanonicalName());
+
+    /**
+     * Per-document errors in a _bulk_docs response that may succeed if the document is sent
+     * again. Errors such as conflict or forbidden will fail again so are not retried.
+     */
+    private static final Set<String> TRANSIENT_ERRORS = Collections.unmodifiableSet(new
+            HashSet<String>(Arrays.asList("timeout", "too_many_requests", "unknown_error",
+            "internal_server_error", "service_unavailable")));
+
+    private static final long INITIAL_BACKOFF_MILLIS = 250;
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+    private static final Random random = new Random();
+
+    private final Database database;
+    private final CloudantClient client;
+    private final BulkOptions options;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger retriedDocuments = new AtomicInteger();
+    private final AtomicInteger documentCount = new AtomicInteger();
+    private final AtomicInteger failureCount = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    ChunkedBulk(Database database, CloudantClient client, BulkOptions options) {
+        this.database = database;
+        this.client = client;
+        this.options = options;
+    }
+
+    BulkResult execute(List<?> objects) {
+        final Response[] results = new Response[objects.size()];
+        long elapsed = run(objects.iterator(), new Results() {
+            @Override
+            public void completed(Doc doc, Response response) {
+                results[(int) doc.index] = response;
+            }
+
+            @Override
+            public void chunkCompleted() {
+            }
+        });
+        return new BulkResult(Arrays.asList(results), failureCount.get(), requests.get(),
+                retriedDocuments.get(), bytes.get(), elapsed);
+    }
+
+    BulkResult execute(Iterator<?> objects, final ImportListener listener) {
+        long elapsed = run(objects, new Results() {
+            // listener calls are serialized so that it does not need to be thread safe
+            @Override
+            public synchronized void completed(Doc doc, Response response) {
+                if (listener != null && response.getError() != null) {
+                    listener.documentFailed(doc.index, doc.source, response);
+                }
+            }
+
+            @Override
+            public synchronized void chunkCompleted() {
+                if (listener != null) {
+                    listener.progress(documentCount.get(), failureCount.get());
+                }
+            }
+        });
+        return new BulkResult(documentCount.get(), failureCount.get(), requests.get(),
+                retriedDocuments.get(), bytes.get(), elapsed);
+    }
+
+    /**
+     * @return the elapsed time in nanoseconds
+     */
+    private long run(Iterator<?> objects, Results results) {
+        long start = System.nanoTime();
+        Semaphore permits = new Semaphore(options.getConcurrency());
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        Gson gson = client.getGson();
+        long chunkBytesLimit = options.getChunkBytes();
+        boolean inline = CouchDbClient.isAsyncThread();
+        try {
+            // Documents are only serialized as their chunk is built, so at most concurrency + 1
+            // chunks of JSON are held in memory at a time.
+            List<Doc> chunk = new ArrayList<Doc>();
+            long chunkBytes = 0;
+            for (long i = 0; objects.hasNext(); i++) {
+                Object object = objects.next();
+                JsonElement json = gson.toJsonTree(object);
+                long size = CouchDbUtil.utf8Length(json.toString());
+                if (!chunk.isEmpty() && (chunk.size() >= options.getChunkSize() ||
+                        (chunkBytesLimit > 0 && chunkBytes + size > chunkBytesLimit))) {
+                    if (inline) {
+                        send(chunk, results);
+                    } else {
+                        removeCompleted(futures);
+                        futures.add(submit(chunk, results, permits));
+                    }
+                    chunk = new ArrayList<Doc>();
+                    chunkBytes = 0;
+                }
+                chunk.add(new Doc(i, object, json, size));
+                chunkBytes += size;
+            }
+            if (!chunk.isEmpty()) {
+                if (inline) {
+                    send(chunk, results);
+                } else {
+                    futures.add(submit(chunk, results, permits));
+                }
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel(futures);
+            throw new CouchDbException("Interrupted while waiting for bulk requests.", e);
+        } catch (ExecutionException e) {
+            cancel(futures);
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new CouchDbException("Error sending bulk request.", e.getCause());
+        } catch (RuntimeException e) {
+            cancel(futures);
+            throw e;
+        }
+        return System.nanoTime() - start;
+    }
+
+    private Future<Void> submit(final List<Doc> chunk, final Results results, final
+    Semaphore permits) throws InterruptedException, ExecutionException {
+        permits.acquire();
+        Throwable t = failure.get();
+        if (t != null) {
+            // A chunk has already failed permanently so stop sending more
+            permits.release();
+            throw new ExecutionException(t);
+        }
+        try {
+            return client.executeAsync(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        send(chunk, results);
+                        return null;
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                        throw e;
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the chunk will never be sent, so stop the other chunks as if it had failed
+            permits.release();
+            failure.compareAndSet(null, e);
+            throw new ExecutionException(e);
+        }
+    }
+
+    private void send(List<Doc> chunk, Results results) throws InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            List<JsonElement> documents = new ArrayList<JsonElement>(chunk.size());
+            for (Doc doc : chunk) {
+                documents.add(doc.json);
+                bytes.addAndGet(doc.size);
+            }
+            requests.incrementAndGet();
+            boolean canRetry = attempt < options.getRetries();
+            List<Response> responses;
+            try {
+                responses = database.bulk(documents);
+            } catch (CouchDbException e) {
+                if (canRetry && canResend(e)) {
+                    log.log(Level.FINE, "Retrying bulk request of " + chunk.size() + " documents"
+                            , e);
+                    retriedDocuments.addAndGet(chunk.size());
+                    backoff(attempt);
+                    continue;
+                }
+                throw e;
+            }
+            List<Doc> retry = new ArrayList<Doc>();
+            for (int i = 0; i < chunk.size(); i++) {
+                Response response = responses.get(i);
+                if (canRetry && response.getError() != null && TRANSIENT_ERRORS.contains
+                        (response.getError())) {
+                    retry.add(chunk.get(i));
+                } else {
+                    documentCount.incrementAndGet();
+                    if (response.getError() != null) {
+                        failureCount.incrementAndGet();
+                    }
+                    results.completed(chunk.get(i), response);
+                }
+            }
+            if (retry.isEmpty()) {
+                results.chunkCompleted();
+                return;
+            }
+            log.fine("Retrying " + retry.size() + " documents that failed with transient errors");
+            retriedDocuments.addAndGet(retry.size());
+            chunk = retry;
+            backoff(attempt);
+        }
+    }
+
+    /**
+     * @return true if the server cannot have written any of the documents of the failed request
+     */
+    private static boolean canResend(CouchDbException e) {
+        if (e.getStatusCode() == 429) {
+            return true;
+        }
+        Throwable cause = e.getCause();
+        return e.getStatusCode() == 0 && (cause instanceof ConnectException || cause instanceof
+                UnknownHostException || cause instanceof NoRouteToHostException);
+    }
+
+    private static void backoff(int attempt) throws InterruptedException {
+        // Full jitter: a random wait up to an exponentially increasing, capped limit
+        long limit = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(attempt,
+                30));
+        Thread.sleep((long) (random.nextDouble() * limit));
+    }
+
+    /**
+     * Removes the futures of chunks that have been sent, so that an import does not keep one for
+     * every chunk.
+     */
+    private static void removeCompleted(List<Future<Void>> futures) throws InterruptedException,
+            ExecutionException {
+        for (Iterator<Future<Void>> i = futures.iterator(); i.hasNext(); ) {
+            Future<Void> future = i.next();
+            if (future.isDone()) {
+                future.get();
+                i.remove();
+            }
+        }
+    }
+
+    private static void cancel(List<Future<Void>> futures) {
+        for (Future<Void> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Receives the final response for each document.
+     */
+    private interface Results {
+
+        void completed(Doc doc, Response response);
+
+        /**
+         * Called when every document of a chunk has its final response.
+         */
+        void chunkCompleted();
+    }
+
+    private static final class Doc {
+        private final long index;
+        private final Object source;
+        private final JsonElement json;
+        private final long size;
+
+        Doc(long index, Object source, JsonElement json, long size) {
+            this.index = index;
+            this.source = source;
+            this.json = json;
+            this.size = size;
+        }
+    }
+}
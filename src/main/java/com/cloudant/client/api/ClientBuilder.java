@@ -1,20 +1,28 @@
 package com.cloudant.client.api;
 
+import com.cloudant.client.api.model.CircuitBreakerPolicy;
+import com.cloudant.client.api.model.DocumentCachePolicy;
+import com.cloudant.client.api.model.HedgePolicy;
 import com.cloudant.client.api.model.Index;
 import com.cloudant.client.api.model.Permissions;
 import com.cloudant.client.api.model.Shard;
+import com.cloudant.client.api.model.WarmUpOptions;
 import com.cloudant.client.api.views.Key;
 import com.cloudant.client.internal.util.IndexDeserializer;
 import com.cloudant.client.internal.util.SecurityDeserializer;
 import com.cloudant.client.internal.util.ShardDeserializer;
 import com.cloudant.client.org.lightcouch.CouchDbException;
 import com.cloudant.client.org.lightcouch.CouchDbProperties;
+import com.cloudant.http.CircuitBreakerListener;
 import com.cloudant.http.HttpConnectionInterceptor;
 import com.cloudant.http.HttpConnectionRequestInterceptor;
 import com.cloudant.http.HttpConnectionResponseInterceptor;
+import com.cloudant.http.RequestTimingListener;
 import com.cloudant.http.interceptors.CookieInterceptor;
+import com.cloudant.http.interceptors.GzipInterceptor;
 import com.cloudant.http.interceptors.ProxyAuthInterceptor;
 import com.cloudant.http.interceptors.SSLCustomizerInterceptor;
+import com.cloudant.http.interceptors.ThrottleInterceptor;
 import com.cloudant.http.interceptors.TimeoutCustomizationInterceptor;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
@@ -25,6 +33,7 @@ import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLSocketFactory;
@@ -105,6 +114,10 @@ public class ClientBuilder {
      * Read timeout defaults to 5 minutes
      **/
     public static final long DEFAULT_READ_TIMEOUT = 5l;
+    /**
+     * Idle connections are kept in the pool for 3 minutes by default
+     **/
+    public static final long DEFAULT_CONNECTION_KEEP_ALIVE = 3l;
 
     private List<HttpConnectionRequestInterceptor> requestInterceptors = new ArrayList
             <HttpConnectionRequestInterceptor>();
@@ -118,6 +131,7 @@ public class ClientBuilder {
      * Defaults to {@link #DEFAULT_MAX_CONNECTIONS}
      **/
     private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private int feedConnectionPoolSize = 0;
     private URL proxyURL;
     private String proxyUser;
     private String proxyPassword;
@@ -127,6 +141,26 @@ public class ClientBuilder {
     private TimeUnit connectTimeoutUnit = TimeUnit.MINUTES;
     private long readTimeout = DEFAULT_READ_TIMEOUT;
     private TimeUnit readTimeoutUnit = TimeUnit.MINUTES;
+    private long connectionKeepAlive = DEFAULT_CONNECTION_KEEP_ALIVE;
+    private TimeUnit connectionKeepAliveUnit = TimeUnit.MINUTES;
+    private ExecutorService asyncExecutor;
+    private ThrottleInterceptor throttle = null;
+    private GzipInterceptor gzip = null;
+    private RequestTimingListener requestTimingListener = null;
+    private HedgePolicy lookupHedgePolicy = null;
+    private HedgePolicy queryHedgePolicy = null;
+    private List<URL> endpoints = new ArrayList<URL>();
+    private boolean pinWritesToPrimary = true;
+    private long endpointProbeInterval = 30;
+    private TimeUnit endpointProbeIntervalUnit = TimeUnit.SECONDS;
+    private CircuitBreakerPolicy circuitBreakerPolicy = null;
+    private CircuitBreakerListener circuitBreakerListener = null;
+    private WarmUpOptions warmUpOptions = null;
+    private boolean coalesceReads = false;
+    private long requestDeadline = 0;
+    private TimeUnit requestDeadlineUnit = TimeUnit.MILLISECONDS;
+    private DocumentCachePolicy documentCachePolicy = null;
+    private int revisionCacheSize = 0;
 
     /**
      * Constructs a new ClientBuilder for building a CloudantClient instance to connect to the
@@ -225,7 +259,30 @@ public class ClientBuilder {
 
         //Set connect options
         props.setMaxConnections(maxConnections);
+        props.setFeedConnectionPoolSize(feedConnectionPoolSize);
+        props.setConnectionKeepAliveMillis(connectionKeepAliveUnit.toMillis(connectionKeepAlive));
         props.setProxyURL(proxyURL);
+        props.setAsyncExecutor(asyncExecutor);
+        props.setRequestTimingListener(requestTimingListener);
+        props.setLookupHedgePolicy(lookupHedgePolicy);
+        props.setQueryHedgePolicy(queryHedgePolicy);
+        props.setEndpoints(endpoints);
+        props.setPinWritesToPrimary(pinWritesToPrimary);
+        props.setEndpointProbeIntervalMillis(endpointProbeIntervalUnit.toMillis
+                (endpointProbeInterval));
+        props.setCircuitBreakerPolicy(circuitBreakerPolicy);
+        props.setCircuitBreakerListener(circuitBreakerListener);
+        props.setWarmUpOptions(warmUpOptions);
+        props.setCoalesceReads(coalesceReads);
+        props.setRequestDeadlineMillis(requestDeadlineUnit.toMillis(requestDeadline));
+        props.setDocumentCachePolicy(documentCachePolicy);
+        props.setRevisionCacheSize(revisionCacheSize);
+        if (throttle != null) {
+            props.addRequestInterceptors(throttle);
+        }
+        if (gzip != null) {
+            props.addRequestInterceptors(gzip);
+        }
         if (proxyUser != null) {
             //if there was proxy auth information create an interceptor for it
             props.addRequestInterceptors(new ProxyAuthInterceptor(proxyUser,
@@ -326,6 +383,32 @@ public class ClientBuilder {
         return this;
     }
 
+    /**
+     * Give continuous, long-poll and eventsource change feeds a separate connection pool from
+     * other requests, keeping up to the given number of idle connections for them. Connections
+     * of finished feeds are then reused by feeds rather than by short requests, and a burst of
+     * short requests does not evict them.
+     * <P>
+     * The size only bounds the idle connections kept in the pool. It does not limit the number
+     * of feeds open at the same time, each open feed holds its own connection.
+     * </P>
+     * <P>
+     * Note: this setting only applies if using the optional OkHttp dependency. If OkHttp is not
+     * present then feeds share the JVM pool with other requests.
+     * </P>
+     * Defaults to 0, feeds use the pool for other requests.
+     *
+     * @param feedConnectionPoolSize the maximum number of idle connections to keep for feeds, or
+     *                               0 to use the pool for other requests
+     * @return this ClientBuilder object for setting additional options
+     * @see CloudantClient#getFeedConnectionPoolStats()
+     * @since 2.4.0
+     */
+    public ClientBuilder feedConnectionPoolSize(int feedConnectionPoolSize) {
+        this.feedConnectionPoolSize = feedConnectionPoolSize;
+        return this;
+    }
+
     /**
      * Sets a proxy url for the client connection.
      *
@@ -497,4 +580,490 @@ public class ClientBuilder {
         return this;
     }
 
+    /**
+     * Sets the executor used to run the asynchronous API methods, for example
+     * {@link Database#findAsync(Class, String)} or
+     * {@link com.cloudant.client.api.views.ViewRequest#getResponseAsync()}.
+     * <P>
+     * Each asynchronous request occupies one thread of the executor while it is in flight, so the
+     * size of the executor bounds the number of concurrent requests; additional requests are queued
+     * by the executor. The lifecycle of a supplied executor is the responsibility of the caller, it
+     * is not shutdown by {@link CloudantClient#shutdown()}.
+     * </P>
+     * <P>
+     * Example creating a {@link CloudantClient} that uses a pool of 10 threads for asynchronous
+     * requests:
+     * </P>
+     * <pre>
+     * {@code
+     * CloudantClient client = ClientBuilder.account("yourCloudantAccount")
+     *      .username("yourUsername")
+     *      .password("yourPassword")
+     *      .asyncExecutor(Executors.newFixedThreadPool(10))
+     *      .build();
+     * }
+     * </pre>
+     * Defaults to a fixed size pool of daemon threads, one for each of the
+     * {@link #maxConnections(int)}, which is shutdown by {@link CloudantClient#shutdown()}.
+     *
+     * @param asyncExecutor the executor to run asynchronous requests
+     * @return this ClientBuilder object for setting additional options
+     * @since 2.4.0
+     */
+    public ClientBuilder asyncExecutor(ExecutorService asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+        return this;
+    }
+
+    /**
+     * Limits the rate at which the client sends each class of request, so that it stays within
+     * the throughput limits of a Cloudant plan instead of receiving 429 Too Many Requests
+     * responses. Requests over the limit wait in the calling thread until they can be sent.
+     * <P>
+     * Queries are requests to {@code _find}, {@code _view}, {@code _search}, {@code _all_docs} or
+     * {@code _bulk_get}, with either GET or POST. Lookups are other GET or HEAD requests and
+     * writes are requests with any other method.
+     * </P>
+     * <P>
+     * Example creating a {@link CloudantClient} limited to 100 lookups, 50 writes and 5 queries
+     * per second:
+     * </P>
+     * <pre>
+     * {@code
+     * CloudantClient client = ClientBuilder.account("yourCloudantAccount")
+     *      .username("yourUsername")
+     *      .password("yourPassword")
+     *      .throttle(100, 50, 5)
+     *      .build();
+     * }
+     * </pre>
+     * To read the queue depth and wait time statistics create a {@link ThrottleInterceptor} and
+     * add it with {@link #interceptors(HttpConnectionInterceptor...)} instead.
+     *
+     * @param lookupsPerSecond the maximum rate of lookup requests, or 0 for no limit
+     * @param writesPerSecond  the maximum rate of write requests, or 0 for no limit
+     * @param queriesPerSecond the maximum rate of query requests, or 0 for no limit
+     * @return this ClientBuilder object for setting additional options
+     * @see ThrottleInterceptor
+     * @since 2.4.0
+     */
+    public ClientBuilder throttle(double lookupsPerSecond, double writesPerSecond, double
+            queriesPerSecond) {
+        this.throttle = new ThrottleInterceptor(lookupsPerSecond, writesPerSecond,
+                queriesPerSecond);
+        return this;
+    }
+
+
+    /**
+     * Enables gzip compression of requests and responses. Responses are requested with gzip
+     * encoding and decompressed transparently, request bodies that are at least the threshold
+     * size are compressed. Compression is useful for large, compressible requests and responses,
+     * such as {@code _bulk_docs} requests and view results, over slow network links.
+     * <P>
+     * Example creating a {@link CloudantClient} that compresses request bodies of 1 KiB or more:
+     * </P>
+     * <pre>
+     * {@code
+     * CloudantClient client = ClientBuilder.account("yourCloudantAccount")
+     *      .username("yourUsername")
+     *      .password("yourPassword")
+     *      .gzip(1024)
+     *      .build();
+     * }
+     * </pre>
+     * To read the bytes sent and received and the compression ratios create a
+     * {@link GzipInterceptor} and add it with {@link #interceptors(HttpConnectionInterceptor...)}
+     * instead.
+     *
+     * @param requestThreshold the minimum size in bytes of a request body to compress
+     * @return this ClientBuilder object for setting additional options
+     * @see GzipInterceptor
+     * @since 2.4.0
+     */
+    public ClientBuilder gzip(int requestThreshold) {
+        this.gzip = new GzipInterceptor(requestThreshold);
+        return this;
+    }
+
+
+    /**
+     * Sets how long an idle connection is kept in the connection pool for reuse before it is
+     * evicted and closed. A keep-alive longer than the server's idle timeout (about 2.5 minutes
+     * for Cloudant) can cause requests to fail on connections the server has already closed,
+     * a shorter keep-alive closes connections that could have been reused.
+     * <P>
+     * Note: this setting only applies if using the optional OkHttp dependency. If OkHttp is not
+     * present then the JVM configuration is used for pooling. Consult the JVM documentation for
+     * the {@code http.keepAlive} property for further details.
+     * </P>
+     * <P>
+     * Example creating a {@link CloudantClient} that evicts connections idle for 30 seconds:
+     * </P>
+     * <pre>
+     * {@code
+     * CloudantClient client = ClientBuilder.account("yourCloudantAccount")
+     *      .username("yourUsername")
+     *      .password("yourPassword")
+     *      .connectionKeepAlive(30, TimeUnit.SECONDS)
+     *      .build();
+     * }
+     * </pre>
+     * Defaults to {@link #DEFAULT_CONNECTION_KEEP_ALIVE} with {@link TimeUnit#MINUTES}.
+     *
+     * @param keepAlive     the time to keep idle connections in the pool
+     * @param keepAliveUnit unit of keepAlive
+     * @return this ClientBuilder object for setting additional options
+     * @see CloudantClient#getConnectionPoolStats()
+     * @see CloudantClient#evictIdleConnections()
+     * @since 2.4.0
+     */
+    public ClientBuilder connectionKeepAlive(long keepAlive, TimeUnit keepAliveUnit) {
+        this.connectionKeepAlive = keepAlive;
+        this.connectionKeepAliveUnit = keepAliveUnit;
+        return this;
+    }
+
+
+    /**
+     * Sets a listener that is called with the time spent in each phase of every request made by
+     * the client, for example to find the cause of slow requests. The phases include getting a
+     * connection, writing the request, waiting for the first byte of the response, reading the
+     * response and deserializing it.
+     * <P>
+     * The listener is called when the response body stream of a request is closed, on the
+     * thread that closes it.
+     * </P>
+     * <P>
+     * Example creating a {@link CloudantClient} that logs requests taking longer than a second:
+     * </P>
+     * <pre>
+     * {@code
+     * CloudantClient client = ClientBuilder.account("yourCloudantAccount")
+     *      .username("yourUsername")
+     *      .password("yourPassword")
+     *      .requestTimingListener(new RequestTimingListener() {
+     *          public void requestCompleted(RequestTimings timings) {
+     *              if (timings.getTotalTime(TimeUnit.SECONDS) >= 1) {
+     *                  logger.warning("Slow request: " + timings);
+     *              }
+     *          }
+     *      })
+     *      .build();
+     * }
+     * </pre>
+     *
+     * @param requestTimingListener the listener to call when each request completes
+     * @return this ClientBuilder object for setting additional options
+     * @see com.cloudant.http.RequestTimings
+     * @since 2.4.0
+     */
+    public ClientBuilder requestTimingListener(RequestTimingListener requestTimingListener) {
+        this.requestTimingListener = requestTimingListener;
+        return this;
+    }
+
+    /**
+     * Hedges GET requests for documents, attachments and other lookups: if there is no response
+     * within a percentile of recent response times a duplicate request is sent and the first
+     * response received is used. Hedging reduces the tail latency caused by a slow server or
+     * connection at the cost of a limited number of extra requests.
+     * <P>
+     * Example creating a {@link CloudantClient} that hedges up to 5% of document lookups taking
+     * longer than the 95th percentile response time:
+     * </P>
+     * <pre>
+     * {@code
+     * CloudantClient client = ClientBuilder.account("yourCloudantAccount")
+     *      .username("yourUsername")
+     *      .password("yourPassword")
+     *      .hedgeLookups(new HedgePolicy().percentile(95).budget(0.05))
+     *      .build();
+     * }
+     * </pre>
+     *
+     * @param policy the hedging policy for lookups
+     * @return this ClientBuilder object for setting additional options
+     * @see #hedgeQueries(HedgePolicy)
+     * @since 2.4.0
+     */
+    public ClientBuilder hedgeLookups(HedgePolicy policy) {
+        this.lookupHedgePolicy = policy;
+        return this;
+    }
+
+    /**
+     * Hedges GET requests to {@code _view}, {@code _all_docs} and {@code _search}, see
+     * {@link #hedgeLookups(HedgePolicy)}. Queries made with a POST request, for example with
+     * multiple keys, are not hedged.
+     *
+     * @param policy the hedging policy for queries
+     * @return this ClientBuilder object for setting additional options
+     * @see #hedgeLookups(HedgePolicy)
+     * @since 2.4.0
+     */
+    public ClientBuilder hedgeQueries(HedgePolicy policy) {
+        this.queryHedgePolicy = policy;
+        return this;
+    }
+
+    /**
+     * Adds endpoints serving the same databases as the client's URL, for example the other
+     * accounts of a set of geo-replicated accounts. The same credentials are used for each
+     * endpoint.
+     * <P>
+     * Requests are routed to the healthy endpoint with the lowest moving average response time.
+     * An endpoint is marked unhealthy when a request to it fails with a connection error or a 5xx
+     * response, and the request fails over to another endpoint if it can be sent again safely:
+     * GET and HEAD requests fail over in either case, other requests only if the connection could
+     * not be made and writes are not pinned to the primary endpoint. All endpoints are probed
+     * periodically to bring recovered endpoints back.
+     * </P>
+     * <P>
+     * Example creating a {@link CloudantClient} that reads from the closest of two accounts and
+     * writes to the first:
+     * </P>
+     * <pre>
+     * {@code
+     * CloudantClient client = ClientBuilder.account("yourCloudantAccount")
+     *      .username("yourUsername")
+     *      .password("yourPassword")
+     *      .endpoints(new URL("https://yourOtherCloudantAccount.cloudant.com"))
+     *      .build();
+     * }
+     * </pre>
+     *
+     * @param urls the URLs of the other endpoints
+     * @return this ClientBuilder object for setting additional options
+     * @see #pinWritesToPrimary(boolean)
+     * @see #endpointProbeInterval(long, TimeUnit)
+     * @see CloudantClient#getEndpointStats()
+     * @since 2.4.0
+     */
+    public ClientBuilder endpoints(URL... urls) {
+        for (URL endpoint : urls) {
+            if (endpoint.getUserInfo() != null) {
+                throw new IllegalArgumentException("Endpoint URLs must not include credentials, " +
+                        "the client's credentials are used for every endpoint.");
+            }
+            int port = (endpoint.getPort() < 0) ? endpoint.getDefaultPort() : endpoint.getPort();
+            try {
+                this.endpoints.add(new URL(endpoint.getProtocol() + "://" + endpoint.getHost() +
+                        ":" + port));
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Sets whether requests other than GET and HEAD are only sent to the primary endpoint, the
+     * URL this builder was created with, when there are several {@link #endpoints(URL...)}.
+     * Pinning writes avoids conflicts between replicated copies of a document. Defaults to true.
+     *
+     * @param pinWritesToPrimary true to send writes only to the primary endpoint
+     * @return this ClientBuilder object for setting additional options
+     * @since 2.4.0
+     */
+    public ClientBuilder pinWritesToPrimary(boolean pinWritesToPrimary) {
+        this.pinWritesToPrimary = pinWritesToPrimary;
+        return this;
+    }
+
+    /**
+     * Sets the time between health probes of the {@link #endpoints(URL...)}. Defaults to 30
+     * seconds.
+     *
+     * @param interval     the time between probes
+     * @param intervalUnit unit of interval
+     * @return this ClientBuilder object for setting additional options
+     * @since 2.4.0
+     */
+    public ClientBuilder endpointProbeInterval(long interval, TimeUnit intervalUnit) {
+        this.endpointProbeInterval = interval;
+        this.endpointProbeIntervalUnit = intervalUnit;
+        return this;
+    }
+
+    /**
+     * Adds a circuit breaker for each host the client sends requests to. When too many of the
+     * recent requests to a host failed with a 5xx response or an I/O error, or were slow, the
+     * breaker opens and requests to the host fail immediately with a
+     * {@link com.cloudant.client.org.lightcouch.CircuitBreakerOpenException} instead of waiting
+     * for a read timeout. After a while a few trial requests are let through to find out whether
+     * the host has recovered. When there are several {@link #endpoints(URL...)} requests are not
+     * routed to endpoints whose breaker is open.
+     * <P>
+     * Example creating a {@link CloudantClient} that stops sending requests to a host for a
+     * minute when half of its responses take longer than 5 seconds:
+     * </P>
+     * <pre>
+     * {@code
+     * CloudantClient client = ClientBuilder.account("yourCloudantAccount")
+     *      .username("yourUsername")
+     *      .password("yourPassword")
+     *      .circuitBreaker(new CircuitBreakerPolicy()
+     *          .slowCallDuration(5, TimeUnit.SECONDS)
+     *          .openDuration(1, TimeUnit.MINUTES))
+     *      .build();
+     * }
+     * </pre>
+     *
+     * @param policy the policy for each host's circuit breaker
+     * @return this ClientBuilder object for setting additional options
+     * @see #circuitBreakerListener(CircuitBreakerListener)
+     * @since 2.4.0
+     */
+    public ClientBuilder circuitBreaker(CircuitBreakerPolicy policy) {
+        this.circuitBreakerPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Sets a listener to call when the {@link #circuitBreaker(CircuitBreakerPolicy)} of a host
+     * opens, becomes half-open or closes.
+     *
+     * @param listener the listener to call with state changes
+     * @return this ClientBuilder object for setting additional options
+     * @since 2.4.0
+     */
+    public ClientBuilder circuitBreakerListener(CircuitBreakerListener listener) {
+        this.circuitBreakerListener = listener;
+        return this;
+    }
+
+    /**
+     * Warms up the client when it is built so that the first requests made with it do not pay
+     * for opening connections, getting a session cookie or creating the Gson type adapters of
+     * model classes. By default {@link #build()} returns when the warm-up has finished; an
+     * asynchronous warm-up runs on the {@link #asyncExecutor(ExecutorService)} and its progress
+     * is available from {@link CloudantClient#getWarmUp()}. A failed warm-up is logged and does
+     * not prevent the client from being used.
+     * <P>
+     * Example creating a {@link CloudantClient} with 4 open connections:
+     * </P>
+     * <pre>
+     * {@code
+     * CloudantClient client = ClientBuilder.account("yourCloudantAccount")
+     *      .username("yourUsername")
+     *      .password("yourPassword")
+     *      .warmUp(new WarmUpOptions().connections(4).types(Animal.class))
+     *      .build();
+     * }
+     * </pre>
+     *
+     * @param options the warm-up options
+     * @return this ClientBuilder object for setting additional options
+     * @since 2.4.0
+     */
+    public ClientBuilder warmUp(WarmUpOptions options) {
+        this.warmUpOptions = options;
+        return this;
+    }
+
+    /**
+     * Sets whether identical GET requests made at the same time, for example by many threads
+     * reading a popular document or view, share a single request to the server. Requests that
+     * arrive while an identical request is waiting for its response wait for that response
+     * instead of being sent. Defaults to false.
+     * <P>
+     * When requests are coalesced the shared response body is read into memory and each request
+     * gets a copy of it; a response that no other request is waiting for is streamed as usual.
+     * Feeds, and GET requests made with {@link CloudantClient#executeRequest} that have their
+     * own request properties or interceptors, are not coalesced.
+     * </P>
+     *
+     * @param coalesceReads true to coalesce identical concurrent GET requests
+     * @return this ClientBuilder object for setting additional options
+     * @since 2.4.0
+     */
+    public ClientBuilder coalesceReads(boolean coalesceReads) {
+        this.coalesceReads = coalesceReads;
+        return this;
+    }
+
+    /**
+     * Sets the default deadline of requests, the total time allowed for a request from when it
+     * is sent until its response has been read. Unlike the {@link #readTimeout(long, TimeUnit)}
+     * the deadline includes the time spent on retries, getting a session cookie and reading
+     * the whole response body. When the deadline passes the connection is closed and a
+     * {@link com.cloudant.client.org.lightcouch.DeadlineExceededException} is thrown.
+     * Defaults to no deadline.
+     * <P>
+     * Change feeds that hold the connection open, such as continuous changes, do not get the
+     * default deadline; a deadline can still be set for them with
+     * {@link CloudantClient#withDeadline(long, TimeUnit, java.util.concurrent.Callable)}.
+     * </P>
+     * <p>Example:
+     * <pre>
+     * {@code
+     * CloudantClient client = ClientBuilder.account("yourCloudantAccount")
+     *      .username("yourUsername")
+     *      .password("yourPassword")
+     *      .requestDeadline(2, TimeUnit.SECONDS)
+     *      .build();
+     * }
+     * </pre>
+     *
+     * @param deadline     the time allowed for each request, or 0 for no deadline
+     * @param deadlineUnit the unit of the deadline
+     * @return this ClientBuilder object for setting additional options
+     * @see CloudantClient#withDeadline(long, TimeUnit, java.util.concurrent.Callable)
+     * @since 2.4.0
+     */
+    public ClientBuilder requestDeadline(long deadline, TimeUnit deadlineUnit) {
+        if (deadline < 0) {
+            throw new IllegalArgumentException("deadline must not be negative");
+        }
+        this.requestDeadline = deadline;
+        this.requestDeadlineUnit = deadlineUnit;
+        return this;
+    }
+
+    /**
+     * Sets a policy for caching documents read with {@link Database#find(Class, String)}, so
+     * that documents read repeatedly are revalidated with a conditional request instead of
+     * being sent again by the server, or are returned without a request at all. Defaults to no
+     * document cache.
+     * <p>Example:
+     * <pre>
+     * {@code
+     * CloudantClient client = ClientBuilder.account("yourCloudantAccount")
+     *      .username("yourUsername")
+     *      .password("yourPassword")
+     *      .documentCache(new DocumentCachePolicy().maximumSize(64 * 1024 * 1024))
+     *      .build();
+     * }
+     * </pre>
+     *
+     * @param documentCachePolicy the policy for the document cache
+     * @return this ClientBuilder object for setting additional options
+     * @see CloudantClient#getDocumentCacheStats()
+     * @since 2.4.0
+     */
+    public ClientBuilder documentCache(DocumentCachePolicy documentCachePolicy) {
+        this.documentCachePolicy = documentCachePolicy;
+        return this;
+    }
+
+    /**
+     * Sets the number of documents to remember the latest revision of, from the responses to
+     * writes and reads of the documents. The revisions are used by
+     * {@link Database#upsert(Object)} to update documents without reading them first. The least
+     * recently used revisions are forgotten when the limit is reached. Defaults to 0, no
+     * revisions are cached.
+     *
+     * @param maxDocuments the number of documents to cache the revision of
+     * @return this ClientBuilder object for setting additional options
+     * @since 2.4.0
+     */
+    public ClientBuilder revisionCache(int maxDocuments) {
+        if (maxDocuments < 0) {
+            throw new IllegalArgumentException("maxDocuments must not be negative");
+        }
+        this.revisionCacheSize = maxDocuments;
+        return this;
+    }
+
 }
@@ -19,9 +19,13 @@ import static com.cloudant.client.org.lightcouch.internal.CouchDbUtil.getRespons
 import static com.cloudant.client.org.lightcouch.internal.CouchDbUtil.getResponseList;
 
 import com.cloudant.client.api.model.ApiKey;
+import com.cloudant.client.api.model.ConnectionPoolStats;
+import com.cloudant.client.api.model.DocumentCacheStats;
+import com.cloudant.client.api.model.EndpointStats;
 import com.cloudant.client.api.model.IndexField;
 import com.cloudant.client.api.model.Membership;
 import com.cloudant.client.api.model.Task;
+import com.cloudant.client.api.model.WarmUpOptions;
 import com.cloudant.client.internal.URIBase;
 import com.cloudant.client.org.lightcouch.Changes;
 import com.cloudant.client.org.lightcouch.CouchDbClient;
@@ -39,6 +43,9 @@ import java.io.InputStream;
 import java.net.URI;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Exposes the Cloudant client API
@@ -129,6 +136,8 @@ public class CloudantClient {
 
     CouchDbClient couchDbClient;
 
+    private final Future<Void> warmUp;
+
     /**
      * Constructs a new instance of this class and connects to the cloudant server with the
      * specified credentials
@@ -140,6 +149,11 @@ public class CloudantClient {
 
         // set the gsonbuilder that includes additional cloudant deserializers
         couchDbClient.setGsonBuilder(gsonBuilder);
+
+        // warm up last, so that the type adapters are created by the final Gson
+        WarmUpOptions warmUpOptions = props.getWarmUpOptions();
+        this.warmUp = couchDbClient.warmUp((warmUpOptions != null) ? warmUpOptions : new
+                WarmUpOptions().connections(0));
     }
 
     /**
@@ -330,6 +344,152 @@ public class CloudantClient {
         return couchDbClient.execute(request);
     }
 
+    /**
+     * Executes an operation asynchronously using the executor configured by
+     * {@link ClientBuilder#asyncExecutor(java.util.concurrent.ExecutorService)}. This method
+     * provides a mechanism to make any blocking operation non-blocking for the calling thread.
+     * <pre>
+     * {@code
+     * Future<List<String>> allDbs = client.executeAsync(new Callable<List<String>>() {
+     *     public List<String> call() {
+     *         return client.getAllDbs();
+     *     }
+     * });
+     * }
+     * </pre>
+     *
+     * @param operation the operation to execute
+     * @param <T>       the result type of the operation
+     * @return a Future for the result of the operation, exceptions thrown by the operation are
+     * available as the cause of an {@link java.util.concurrent.ExecutionException} from
+     * {@link Future#get()}
+     * @since 2.4.0
+     */
+    public <T> Future<T> executeAsync(Callable<T> operation) {
+        return couchDbClient.submit(operation);
+    }
+
+    /**
+     * Runs an operation with a deadline, the total time allowed for all the requests the
+     * operation makes on the calling thread, including reading their responses. Each request is
+     * given the time left before the deadline, or its own deadline if that is earlier. When the
+     * deadline passes the request in progress is aborted and a
+     * {@link com.cloudant.client.org.lightcouch.DeadlineExceededException} is thrown.
+     * <pre>
+     * {@code
+     * Foo foo = client.withDeadline(500, TimeUnit.MILLISECONDS, new Callable<Foo>() {
+     *     public Foo call() {
+     *         return db.find(Foo.class, "foo");
+     *     }
+     * });
+     * }
+     * </pre>
+     *
+     * @param timeout   the time allowed for the operation
+     * @param unit      the unit of the timeout
+     * @param operation the operation to run
+     * @param <T>       the result type of the operation
+     * @return the result of the operation
+     * @throws Exception if the operation threw an exception
+     * @see ClientBuilder#requestDeadline(long, TimeUnit)
+     * @see HttpConnection#setDeadline(long, TimeUnit)
+     * @since 2.4.0
+     */
+    public <T> T withDeadline(long timeout, TimeUnit unit, Callable<T> operation) throws
+            Exception {
+        return couchDbClient.withDeadline(timeout, unit, operation);
+    }
+
+    /**
+     * Get the progress of the warm-up configured with {@link ClientBuilder#warmUp(WarmUpOptions)}.
+     * <P>
+     * Example waiting for an asynchronous warm-up before serving requests:
+     * </P>
+     * <pre>
+     * {@code
+     * try {
+     *     client.getWarmUp().get(30, TimeUnit.SECONDS);
+     * } catch (ExecutionException e) {
+     *     // the first requests will open connections and get a session cookie instead
+     * }
+     * }
+     * </pre>
+     *
+     * @return a Future that completes when the warm-up has finished, which is already complete
+     * if no warm-up was configured or it was not asynchronous; {@link Future#get()} throws an
+     * {@link java.util.concurrent.ExecutionException} if the warm-up failed
+     * @since 2.4.0
+     */
+    public Future<Void> getWarmUp() {
+        return warmUp;
+    }
+
+    /**
+     * Get statistics for the document cache of this client, for example to check how many reads
+     * were answered without the server sending the document.
+     *
+     * @return a snapshot of the document cache statistics, or {@code null} if the client does
+     * not have a document cache
+     * @see ClientBuilder#documentCache(com.cloudant.client.api.model.DocumentCachePolicy)
+     * @since 2.4.0
+     */
+    public DocumentCacheStats getDocumentCacheStats() {
+        return couchDbClient.getDocumentCacheStats();
+    }
+
+    /**
+     * Get statistics for the connection pool of this client, for example to check whether
+     * connections are being reused or frequently opened and closed.
+     * <P>
+     * Note: statistics are only available if using the optional OkHttp dependency. If OkHttp is
+     * not present then the JVM configuration is used for pooling and this method returns
+     * {@code null}.
+     * </P>
+     *
+     * @return a snapshot of the connection pool statistics, or {@code null} if they are not
+     * available
+     * @see ClientBuilder#connectionKeepAlive(long, TimeUnit)
+     * @since 2.4.0
+     */
+    public ConnectionPoolStats getConnectionPoolStats() {
+        return couchDbClient.getConnectionPoolStats();
+    }
+
+    /**
+     * Get statistics for the separate connection pool used by continuous, long-poll and
+     * eventsource change feeds.
+     *
+     * @return a snapshot of the feed connection pool statistics, or {@code null} if feeds use the
+     * same pool as other requests
+     * @see ClientBuilder#feedConnectionPoolSize(int)
+     * @since 2.4.0
+     */
+    public ConnectionPoolStats getFeedConnectionPoolStats() {
+        return couchDbClient.getFeedConnectionPoolStats();
+    }
+
+    /**
+     * Closes the idle connections in the connection pools of this client, for example after a
+     * network change that would make them unusable. Connections in use are not affected.
+     *
+     * @since 2.4.0
+     */
+    public void evictIdleConnections() {
+        couchDbClient.evictIdleConnections();
+    }
+
+    /**
+     * Get the state of each endpoint requests are routed to, the first is the primary endpoint.
+     *
+     * @return a snapshot of the statistics for each endpoint, or an empty list if the client has
+     * only one endpoint
+     * @see ClientBuilder#endpoints(java.net.URL...)
+     * @since 2.4.0
+     */
+    public List<EndpointStats> getEndpointStats() {
+        return couchDbClient.getEndpointStats();
+    }
+
     /**
      * Shuts down the connection manager used by this client instance.
      */
@@ -21,7 +21,10 @@ import static com.cloudant.client.org.lightcouch.internal.CouchDbUtil.getAsStrin
 import static com.cloudant.client.org.lightcouch.internal.CouchDbUtil.getResponse;
 import static com.cloudant.client.org.lightcouch.internal.CouchDbUtil.getResponseList;
 
+import com.cloudant.client.api.model.BulkOptions;
+import com.cloudant.client.api.model.BulkResult;
 import com.cloudant.client.api.model.DbInfo;
+import com.cloudant.client.api.model.FindAllOptions;
 import com.cloudant.client.api.model.FindByIndexOptions;
 import com.cloudant.client.api.model.Index;
 import com.cloudant.client.api.model.IndexField;
@@ -58,9 +61,14 @@ import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 /**
@@ -538,6 +546,36 @@ public class Database {
         return db.find(classType, id);
     }
 
+    /**
+     * Asynchronously retrieve the document with the specified ID from the database and
+     * deserialize to an instance of the POJO of type T.
+     * <P>Example usage:</P>
+     * <pre>
+     * {@code
+     * Future<Foo> futureFoo = db.findAsync(Foo.class, "exampleId");
+     * //do other work, then wait for the result
+     * Foo foo = futureFoo.get();
+     * }
+     * </pre>
+     *
+     * @param <T>       object type
+     * @param classType the class of type T
+     * @param id        the document id
+     * @return a Future for the object of type T, a {@link NoDocumentException} is the cause of the
+     * {@link java.util.concurrent.ExecutionException} if the document is not found in the database
+     * @see #find(Class, String)
+     * @see ClientBuilder#asyncExecutor(java.util.concurrent.ExecutorService)
+     * @since 2.4.0
+     */
+    public <T> Future<T> findAsync(final Class<T> classType, final String id) {
+        return client.executeAsync(new Callable<T>() {
+            @Override
+            public T call() {
+                return find(classType, id);
+            }
+        });
+    }
+
     /**
      * Retrieve the document with the specified ID from the database and deserialize to an
      * instance of the POJO of type T. Uses the additional parameters specified when making the
@@ -610,6 +648,70 @@ public class Database {
         return db.findAny(classType, uri);
     }
 
+    /**
+     * Fetches many documents by ID, with the default {@link FindAllOptions}.
+     *
+     * @param ids       the document IDs
+     * @param classType the class of type T
+     * @param <T>       the type of Java object to return
+     * @return an iterator over the documents that were found
+     * @see #findAll(Collection, Class, FindAllOptions)
+     * @since 2.4.0
+     */
+    public <T> DocumentIterator<T> findAll(Collection<String> ids, Class<T> classType) {
+        return findAll(ids, classType, new FindAllOptions());
+    }
+
+    /**
+     * Fetches many documents by ID, using {@code POST _all_docs?include_docs=true} requests
+     * for chunks of the IDs that are sent concurrently. This replaces a request per document
+     * with a request per chunk.
+     * <P>
+     * The documents are returned as their chunk is received, not in the order of the IDs. Each
+     * document is only returned once if its ID is repeated. The IDs of documents that do not
+     * exist or have been deleted are reported by the iterator separately once all the
+     * documents have been read.
+     * </P>
+     * <P>
+     * The iterator must be closed, as shown below, even if an exception is thrown while reading
+     * it. The chunks are fetched on the client's asynchronous executor, and the next chunk is
+     * only requested as one is read, so at most {@code concurrency} chunks of documents are
+     * held in memory. When called from a task on that executor the chunks are instead fetched
+     * on the calling thread as they are read.
+     * </P>
+     * <P>Example usage:</P>
+     * <pre>
+     * {@code
+     * DocumentIterator<Foo> foos = db.findAll(ids, Foo.class,
+     *         new FindAllOptions().chunkSize(500).concurrency(4));
+     * try {
+     *     while (foos.hasNext()) {
+     *         Foo foo = foos.next();
+     *     }
+     *     List<String> missing = foos.getMissingIds();
+     * } finally {
+     *     foos.close();
+     * }
+     * }
+     * </pre>
+     *
+     * @param ids       the document IDs
+     * @param classType the class of type T
+     * @param options   the chunk size and concurrency options
+     * @param <T>       the type of Java object to return
+     * @return an iterator over the documents that were found
+     * @since 2.4.0
+     */
+    public <T> DocumentIterator<T> findAll(Collection<String> ids, Class<T> classType,
+                                           FindAllOptions options) {
+        assertNotEmpty(ids, "ids");
+        assertNotEmpty(classType, "Class");
+        assertNotEmpty(options, "options");
+        URI uri = new DatabaseURIHelper(getDBUri()).path("_all_docs").query("include_docs",
+                true).build();
+        return new DocumentFetcher<T>(client, uri, ids, classType, options);
+    }
+
     /**
      * Finds the document with the specified document ID and returns it as an {@link InputStream}.
      * <p><b>Note</b>: The stream must be closed after use to release the connection.</p>
@@ -724,6 +826,26 @@ public class Database {
         return response;
     }
 
+    /**
+     * Asynchronously saves a document in the database.
+     *
+     * @param object the object to save
+     * @return a Future for the {@link com.cloudant.client.api.model.Response}, a
+     * {@link DocumentConflictException} is the cause of the
+     * {@link java.util.concurrent.ExecutionException} if a conflict is detected during the save
+     * @see #save(Object)
+     * @see ClientBuilder#asyncExecutor(java.util.concurrent.ExecutorService)
+     * @since 2.4.0
+     */
+    public Future<com.cloudant.client.api.model.Response> saveAsync(final Object object) {
+        return client.executeAsync(new Callable<com.cloudant.client.api.model.Response>() {
+            @Override
+            public com.cloudant.client.api.model.Response call() {
+                return save(object);
+            }
+        });
+    }
+
     /**
      * Saves a document in the database similarly to {@link Database#save(Object)} but using a
      * specific write quorum.
@@ -795,20 +917,10 @@ public class Database {
      * Documents - quorum</a>
      */
     public com.cloudant.client.api.model.Response post(Object object, int writeQuorum) {
-        assertNotEmpty(object, "object");
-        InputStream response = null;
-        try {
-            URI uri = new DatabaseURIHelper(db.getDBUri()).query("w", writeQuorum).build();
-            response = client.couchDbClient.executeToInputStream(createPost(uri, client.getGson()
-                            .toJson(object),
-                    "application/json"));
-            Response couchDbResponse = getResponse(response, Response.class, client.getGson());
-            com.cloudant.client.api.model.Response cloudantResponse = new com.cloudant.client.api
-                    .model.Response(couchDbResponse);
-            return cloudantResponse;
-        } finally {
-            close(response);
-        }
+        Response couchDbResponse = db.post(object, writeQuorum);
+        com.cloudant.client.api.model.Response response = new com.cloudant.client.api.model
+                .Response(couchDbResponse);
+        return response;
     }
 
     /**
@@ -851,6 +963,60 @@ public class Database {
         return response;
     }
 
+    /**
+     * Saves a document, or replaces the current revision of the document if it already exists,
+     * without reading the document first. The object must have an {@code _id} value; any
+     * {@code _rev} value it has is ignored.
+     * <P>
+     * The revision to replace is the latest revision the client has seen for the document in
+     * the responses to its reads and writes, if a revision cache is enabled with
+     * {@link ClientBuilder#revisionCache(int)}. If the revision is not known, or the document
+     * has been changed by another client, the write fails with a conflict; the current
+     * revision is then read with a {@code HEAD} request and the write is sent again.
+     * </P>
+     * <P>Example usage:</P>
+     * <pre>
+     * {@code
+     * Foo foo = new Foo("exampleId");
+     * foo.setSomeProperty(true);
+     * Response response = db.upsert(foo);
+     * }
+     * </pre>
+     *
+     * @param object the object to save or update
+     * @return {@link com.cloudant.client.api.model.Response}
+     * @throws DocumentConflictException if the document was changed again between reading its
+     *                                   revision and the write
+     * @since 2.4.0
+     */
+    public com.cloudant.client.api.model.Response upsert(Object object) {
+        Response couchDbResponse = db.upsert(object);
+        com.cloudant.client.api.model.Response response = new com.cloudant.client.api.model
+                .Response(couchDbResponse);
+        return response;
+    }
+
+    /**
+     * Asynchronously updates an object in the database, the object must have the correct
+     * {@code _id} and {@code _rev} values.
+     *
+     * @param object the object to update
+     * @return a Future for the {@link com.cloudant.client.api.model.Response}, a
+     * {@link DocumentConflictException} is the cause of the
+     * {@link java.util.concurrent.ExecutionException} if a conflict is detected during the update
+     * @see #update(Object)
+     * @see ClientBuilder#asyncExecutor(java.util.concurrent.ExecutorService)
+     * @since 2.4.0
+     */
+    public Future<com.cloudant.client.api.model.Response> updateAsync(final Object object) {
+        return client.executeAsync(new Callable<com.cloudant.client.api.model.Response>() {
+            @Override
+            public com.cloudant.client.api.model.Response call() {
+                return update(object);
+            }
+        });
+    }
+
     /**
      * Updates an object in the database similarly to {@link #update(Object)}, but specifying the
      * write quorum.
@@ -897,6 +1063,25 @@ public class Database {
         return response;
     }
 
+    /**
+     * Asynchronously removes a document from the database, the object must have the correct
+     * {@code _id} and {@code _rev} values.
+     *
+     * @param object the document to remove as an object
+     * @return a Future for the {@link com.cloudant.client.api.model.Response}
+     * @see #remove(Object)
+     * @see ClientBuilder#asyncExecutor(java.util.concurrent.ExecutorService)
+     * @since 2.4.0
+     */
+    public Future<com.cloudant.client.api.model.Response> removeAsync(final Object object) {
+        return client.executeAsync(new Callable<com.cloudant.client.api.model.Response>() {
+            @Override
+            public com.cloudant.client.api.model.Response call() {
+                return remove(object);
+            }
+        });
+    }
+
     /**
      * Removes the document from the database with the specified {@code _id} and {@code _rev}
      * values.
@@ -954,6 +1139,184 @@ public class Database {
         return cloudantResponseList;
     }
 
+    /**
+     * Uses the {@code _bulk_docs} endpoint to insert a large number of documents into the
+     * database using multiple HTTP requests.
+     * <P>
+     * The documents are split into chunks by document count and serialized size as specified by
+     * the {@link BulkOptions} and the chunks are sent concurrently using the client's
+     * asynchronous executor. Only the documents in a chunk that failed with a transient error,
+     * for example a timeout, are resubmitted. Documents that fail with errors that would not
+     * succeed on retry, such as a conflict, are reported in their {@link
+     * com.cloudant.client.api.model.Response}. A whole request is only resent after a 429
+     * response or if the connection could not be made, because after any other failure the
+     * server may already have written the documents.
+     * </P>
+     * <P>
+     * If called from a task running on the client's asynchronous executor the chunks are sent
+     * one at a time on the calling thread.
+     * </P>
+     * <P>
+     * If a request fails with a non-transient error, or still fails after the configured number
+     * of retries, the remaining chunks are not sent and the exception is thrown. Documents from
+     * chunks that were already sent will have been written.
+     * </P>
+     * <P>Example usage:</P>
+     * <pre>
+     * {@code
+     * BulkResult result = db.bulk(newDocs, new BulkOptions().chunkSize(1000).concurrency(4));
+     * for (Response response : result.getResponses()) {
+     *     // check response.getError()
+     * }
+     * }
+     * </pre>
+     *
+     * @param objects the {@link List} of objects
+     * @param options the chunk size, concurrency and retry options
+     * @return a {@link BulkResult} with one response per object and aggregate statistics
+     * @see #bulk(List)
+     * @since 2.4.0
+     */
+    public BulkResult bulk(List<?> objects, BulkOptions options) {
+        assertNotEmpty(objects, "objects");
+        assertNotEmpty(options, "options");
+        return new ChunkedBulk(this, client, options).execute(objects);
+    }
+
+    /**
+     * Imports documents from newline-delimited JSON, one document object per line, using
+     * {@code _bulk_docs} requests.
+     *
+     * @param ndjson   the UTF-8 encoded documents, the stream is not closed
+     * @param options  the chunk size, concurrency and retry options
+     * @param listener receives the progress and the documents that failed, or null
+     * @return a {@link BulkResult} with the statistics of the import
+     * @see #bulkImport(Iterator, BulkOptions, ImportListener)
+     * @since 2.4.0
+     */
+    public BulkResult bulkImport(InputStream ndjson, BulkOptions options, ImportListener
+            listener) {
+        assertNotEmpty(ndjson, "ndjson");
+        try {
+            return bulkImport(new InputStreamReader(ndjson, "UTF-8"), options, listener);
+        } catch (UnsupportedEncodingException e) {
+            // This should never happen as every implementation of the java platform is required
+            // to support UTF-8.
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Imports documents from newline-delimited JSON, one document object per line, using
+     * {@code _bulk_docs} requests. Blank lines are skipped. A line that is not a JSON object
+     * stops the import with a {@link CouchDbException} giving its line number.
+     *
+     * @param ndjson   the documents, the reader is not closed
+     * @param options  the chunk size, concurrency and retry options
+     * @param listener receives the progress and the documents that failed, or null
+     * @return a {@link BulkResult} with the statistics of the import
+     * @see #bulkImport(Iterator, BulkOptions, ImportListener)
+     * @since 2.4.0
+     */
+    public BulkResult bulkImport(Reader ndjson, BulkOptions options, ImportListener listener) {
+        assertNotEmpty(ndjson, "ndjson");
+        return bulkImport(new NdjsonIterator(ndjson), options, listener);
+    }
+
+    /**
+     * Imports any number of documents using {@code _bulk_docs} requests, without needing them
+     * all in memory.
+     * <P>
+     * The documents are read from the iterator and sent in chunks as described for {@link
+     * #bulk(List, BulkOptions)}. The iterator is only advanced when fewer than the configured
+     * concurrency of chunks are in flight, so at most {@code concurrency + 1} chunks of
+     * documents are held in memory however many documents are imported. The responses are not
+     * kept: the listener is told of each document that failed and of the progress as each chunk
+     * completes.
+     * </P>
+     * <P>
+     * If a request fails with a non-transient error, or still fails after the configured number
+     * of retries, no more documents are read and the exception is thrown. Documents from chunks
+     * that were already sent will have been written.
+     * </P>
+     * <P>Example usage:</P>
+     * <pre>
+     * {@code
+     * BulkResult result = db.bulkImport(new FileInputStream("docs.ndjson"),
+     *         new BulkOptions().chunkSize(1000).concurrency(4), new ImportListener() {
+     *     public void documentFailed(long index, Object document, Response response) {
+     *         // record response.getError() for the document
+     *     }
+     *
+     *     public void progress(long documents, long failures) {
+     *         // report the progress
+     *     }
+     * });
+     * }
+     * </pre>
+     *
+     * @param objects  the documents to import
+     * @param options  the chunk size, concurrency and retry options
+     * @param listener receives the progress and the documents that failed, or null
+     * @return a {@link BulkResult} with the statistics of the import
+     * @since 2.4.0
+     */
+    public BulkResult bulkImport(Iterator<?> objects, BulkOptions options, ImportListener
+            listener) {
+        assertNotEmpty(objects, "objects");
+        assertNotEmpty(options, "options");
+        return new ChunkedBulk(this, client, options).execute(objects, listener);
+    }
+
+    /**
+     * Asynchronously uses the {@code _bulk_docs} endpoint to insert multiple documents into the
+     * database in a single HTTP request.
+     *
+     * @param objects the {@link List} of objects
+     * @return a Future for the {@code List<Response>} with one response per object
+     * @see #bulk(List)
+     * @see ClientBuilder#asyncExecutor(java.util.concurrent.ExecutorService)
+     * @since 2.4.0
+     */
+    public Future<List<com.cloudant.client.api.model.Response>> bulkAsync(final List<?> objects) {
+        return client.executeAsync(new Callable<List<com.cloudant.client.api.model.Response>>() {
+            @Override
+            public List<com.cloudant.client.api.model.Response> call() {
+                return bulk(objects);
+            }
+        });
+    }
+
+    /**
+     * Creates a {@link WriteCoalescer} that combines individual document writes from any number
+     * of threads into {@code _bulk_docs} requests against this database.
+     * <P>
+     * A batch is sent after its first document has waited for {@code maxDelay}, or as soon as it
+     * contains {@code maxDocuments} documents or {@code maxBytes} of serialized JSON, whichever
+     * happens first. Batches are sent using the client's asynchronous executor.
+     * </P>
+     * <P>Example usage:</P>
+     * <pre>
+     * {@code
+     * WriteCoalescer coalescer = db.writeCoalescer(50, TimeUnit.MILLISECONDS, 500, 1024 * 1024);
+     * Future<Response> response = coalescer.save(foo);
+     * }
+     * </pre>
+     *
+     * @param maxDelay     the longest time a write waits before its batch is sent
+     * @param unit         the unit of {@code maxDelay}
+     * @param maxDocuments the maximum number of documents in a batch
+     * @param maxBytes     the approximate maximum size of the documents in a batch, or 0 for no
+     *                     size limit
+     * @return a new WriteCoalescer that should be closed when it is no longer needed
+     * @see ClientBuilder#asyncExecutor(java.util.concurrent.ExecutorService)
+     * @since 2.4.0
+     */
+    public WriteCoalescer writeCoalescer(long maxDelay, TimeUnit unit, int maxDocuments, long
+            maxBytes) {
+        return new WriteCoalescer(this, client, maxDelay, unit, maxDocuments, maxBytes);
+    }
+
     /**
      * Creates an attachment from the specified InputStream and a new document with a generated
      * document ID.
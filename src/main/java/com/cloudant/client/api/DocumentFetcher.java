@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.api;
+
+import com.cloudant.client.api.model.FindAllOptions;
+import com.cloudant.client.org.lightcouch.CouchDbClient;
+import com.cloudant.client.org.lightcouch.internal.CouchDbUtil;
+import com.cloudant.http.Http;
+import com.cloudant.http.HttpConnection;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Fetches documents by ID with {@code POST _all_docs?include_docs=true} requests for chunks of
+ * the IDs, on the client's asynchronous executor.
+ * <P>
+ * Each task fetches the documents of one chunk into a list and returns. At most
+ * {@code concurrency} chunks are being fetched or waiting to be consumed, and the consumer
+ * submits the task for the next chunk when it takes one. No task ever waits for the consumer, so
+ * a slow consumer or an iterator that is abandoned without being closed does not hold executor
+ * threads, and only the documents of those chunks are held in memory.
+ * </P>
+ * <P>
+ * When created from a task on the client's asynchronous executor the chunks are fetched in turn
+ * on the consuming thread, as waiting for tasks queued behind the caller on a small executor
+ * would never finish.
+ * </P>
+ */
+class DocumentFetcher<T> implements DocumentIterator<T> {
+
+    private final CloudantClient client;
+    private final URI allDocsUri;
+    private final Class<T> classType;
+    private final int concurrency;
+    private final boolean inline;
+    private final List<List<String>> chunks = new ArrayList<List<String>>();
+    // the chunks that have been fetched and not yet consumed, in the order they were received
+    private final BlockingQueue<Chunk<T>> fetched = new LinkedBlockingQueue<Chunk<T>>();
+    // guarded by fetched
+    private final List<Future<Void>> fetchers = new ArrayList<Future<Void>>();
+    private int nextChunk = 0;
+    private int running = 0;
+    // guarded by themselves
+    private final List<String> missingIds = new ArrayList<String>();
+    private final List<String> deletedIds = new ArrayList<String>();
+    private int unreadChunks;
+    private Iterator<T> documents = Collections.<T>emptyList().iterator();
+    private volatile boolean closed = false;
+
+    DocumentFetcher(CloudantClient client, URI allDocsUri, Collection<String> ids, Class<T>
+            classType, FindAllOptions options) {
+        this.client = client;
+        this.allDocsUri = allDocsUri;
+        this.classType = classType;
+        this.concurrency = options.getConcurrency();
+        this.inline = CouchDbClient.isAsyncThread();
+        // each document is only returned once even if its ID is repeated
+        List<String> uniqueIds = new ArrayList<String>(new LinkedHashSet<String>(ids));
+        for (int i = 0; i < uniqueIds.size(); i += options.getChunkSize()) {
+            chunks.add(new ArrayList<String>(uniqueIds.subList(i, Math.min(uniqueIds.size(), i +
+                    options.getChunkSize()))));
+        }
+        this.unreadChunks = chunks.size();
+        if (!inline) {
+            synchronized (fetched) {
+                fetchMore();
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!documents.hasNext()) {
+            if (closed || unreadChunks == 0) {
+                return false;
+            }
+            Chunk<T> chunk;
+            if (inline) {
+                chunk = fetch(chunks.get(nextChunk++));
+            } else {
+                try {
+                    chunk = fetched.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new RuntimeException(e);
+                }
+                synchronized (fetched) {
+                    fetchMore();
+                }
+            }
+            unreadChunks--;
+            if (chunk.error != null) {
+                close();
+                //iterators can't throw a checked exception, so wrap in a runtime
+                throw (chunk.error instanceof RuntimeException) ? (RuntimeException) chunk.error :
+                        new RuntimeException(chunk.error);
+            }
+            documents = chunk.documents.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (hasNext()) {
+            return documents.next();
+        } else {
+            throw new NoSuchElementException("No more documents");
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            documents = Collections.<T>emptyList().iterator();
+            synchronized (fetched) {
+                for (Future<Void> fetcher : fetchers) {
+                    fetcher.cancel(true);
+                }
+                fetchers.clear();
+                fetched.clear();
+            }
+        }
+    }
+
+    @Override
+    public List<String> getMissingIds() {
+        synchronized (missingIds) {
+            return new ArrayList<String>(missingIds);
+        }
+    }
+
+    @Override
+    public List<String> getDeletedIds() {
+        synchronized (deletedIds) {
+            return new ArrayList<String>(deletedIds);
+        }
+    }
+
+    /**
+     * Submits tasks to fetch the next chunks until {@code concurrency} chunks are being fetched
+     * or waiting to be consumed, or every chunk has been submitted. Must be called while holding
+     * the lock on fetched.
+     */
+    private void fetchMore() {
+        for (Iterator<Future<Void>> i = fetchers.iterator(); i.hasNext(); ) {
+            if (i.next().isDone()) {
+                i.remove();
+            }
+        }
+        while (!closed && nextChunk < chunks.size() && running + fetched.size() < concurrency) {
+            final List<String> ids = chunks.get(nextChunk);
+            try {
+                fetchers.add(client.executeAsync(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        Chunk<T> chunk = fetch(ids);
+                        synchronized (fetched) {
+                            running--;
+                            if (!closed) {
+                                fetched.add(chunk);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                // the consumer gets the error in place of the remaining chunks
+                nextChunk = chunks.size();
+                fetched.add(new Chunk<T>(null, e));
+                return;
+            }
+            nextChunk++;
+            running++;
+        }
+    }
+
+    /**
+     * Fetches the documents of a chunk of IDs, recording the IDs of missing and deleted
+     * documents.
+     *
+     * @return the documents, or the error fetching them
+     */
+    private Chunk<T> fetch(List<String> ids) {
+        Gson gson = client.getGson();
+        JsonObject keys = new JsonObject();
+        keys.add("keys", gson.toJsonTree(ids));
+        HttpConnection request = Http.POST(allDocsUri, "application/json");
+        request.setRequestBody(keys.toString());
+        List<T> found = new ArrayList<T>(ids.size());
+        InputStream response = null;
+        try {
+            response = client.executeRequest(request).responseAsInputStream();
+            // the rows are read one at a time so a response is never held in memory
+            JsonReader reader = new JsonReader(new InputStreamReader(response, "UTF-8"));
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"rows".equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    T document = row(gson, (JsonObject) gson.fromJson(reader, JsonObject.class));
+                    if (document != null) {
+                        found.add(document);
+                    }
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+            return new Chunk<T>(found, null);
+        } catch (Exception e) {
+            return new Chunk<T>(null, e);
+        } finally {
+            CouchDbUtil.close(response);
+        }
+    }
+
+    /**
+     * @return the document of the row, or null if it is missing or deleted
+     */
+    private T row(Gson gson, JsonObject row) {
+        String id = row.get("key").getAsString();
+        JsonObject value = row.has("value") && row.get("value").isJsonObject() ? row
+                .getAsJsonObject("value") : null;
+        JsonElement doc = row.get("doc");
+        if (value != null && value.has("deleted") && value.get("deleted").getAsBoolean()) {
+            synchronized (deletedIds) {
+                deletedIds.add(id);
+            }
+        } else if (row.has("error") || doc == null || doc.isJsonNull()) {
+            synchronized (missingIds) {
+                missingIds.add(id);
+            }
+        } else {
+            return gson.fromJson(doc, classType);
+        }
+        return null;
+    }
+
+    private static final class Chunk<T> {
+        private final List<T> documents;
+        private final Exception error;
+
+        Chunk(List<T> documents, Exception error) {
+            this.documents = documents;
+            this.error = error;
+        }
+    }
+}
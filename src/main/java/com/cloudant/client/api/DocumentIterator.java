@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.api;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An iterator over documents fetched by ID, which are returned as they are received from the
+ * server rather than in the order of the IDs.
+ * <P>
+ * The IDs of documents that do not exist, or have been deleted, are not returned by the
+ * iterator but are available from {@link #getMissingIds()} and {@link #getDeletedIds()} once
+ * {@link #hasNext()} has returned {@code false}.
+ * </P>
+ * <P>
+ * The iterator <strong>must</strong> be closed, normally in a {@code finally} block. Until
+ * it is closed or all the documents have been read, the threads fetching the documents are held
+ * open with their connections.
+ * </P>
+ * <P>
+ * An error fetching documents while advancing the iterator is thrown as a {@link
+ * RuntimeException}.
+ * </P>
+ *
+ * @param <T> the type of the documents
+ * @see Database#findAll(java.util.Collection, Class)
+ * @since 2.4.0
+ */
+public interface DocumentIterator<T> extends Iterator<T>, Closeable {
+
+    /**
+     * @return the IDs of documents that were not found in the database
+     */
+    List<String> getMissingIds();
+
+    /**
+     * @return the IDs of documents that have been deleted
+     */
+    List<String> getDeletedIds();
+
+    /**
+     * Stops fetching documents and discards any that have not been read.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+
+package com.cloudant.client.api;
+
+import com.cloudant.client.api.model.BulkOptions;
+import com.cloudant.client.api.model.Response;
+
+/**
+ * Receives the progress and the failed documents of an import started with {@link
+ * Database#bulkImport(java.util.Iterator, BulkOptions, ImportListener)}.
+ * <P>
+ * The methods are called from the client's asynchronous executor threads as each chunk of
+ * documents completes, but never concurrently, so an implementation does not need to be thread
+ * safe. The import waits while a method runs, so they should return quickly.
+ * </P>
+ *
+ * @since 2.4.0
+ */
+public interface ImportListener {
+
+    /**
+     * Called for each document that could not be written, after any retries.
+     *
+     * @param index    the position of the document in the input, counting from 0
+     * @param document the document object, or the {@link com.google.gson.JsonObject} parsed from
+     *                 a line of newline-delimited JSON
+     * @param response the response for the document, with the error and reason
+     */
+    void documentFailed(long index, Object document, Response response);
+
+    /**
+     * Called each time a chunk of documents has been written.
+     *
+     * @param documents the number of documents written so far, including failures
+     * @param failures  the number of documents that failed so far
+     */
+    void progress(long documents, long failures);
+}
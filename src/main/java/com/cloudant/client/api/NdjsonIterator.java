@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+
+package com.cloudant.client.api;
+
+import com.cloudant.client.org.lightcouch.CouchDbException;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the documents of newline-delimited JSON, one JSON object per line, reading
+ * each line only when the next document is needed. Blank lines are skipped.
+ */
+class NdjsonIterator implements Iterator<JsonObject> {
+
+    private final BufferedReader reader;
+    private final JsonParser parser = new JsonParser();
+    private long lineNumber = 0;
+    private JsonObject next = null;
+    private boolean ended = false;
+
+    NdjsonIterator(Reader reader) {
+        this.reader = (reader instanceof BufferedReader) ? (BufferedReader) reader : new
+                BufferedReader(reader);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && !ended) {
+            String line;
+            try {
+                line = reader.readLine();
+            } catch (IOException e) {
+                throw new CouchDbException("Error reading documents to import.", e);
+            }
+            if (line == null) {
+                ended = true;
+            } else {
+                lineNumber++;
+                if (line.trim().length() > 0) {
+                    next = parse(line);
+                }
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public JsonObject next() {
+        if (hasNext()) {
+            JsonObject document = next;
+            next = null;
+            return document;
+        } else {
+            throw new NoSuchElementException("No more documents");
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private JsonObject parse(String line) {
+        JsonElement json;
+        try {
+            json = parser.parse(line);
+        } catch (JsonParseException e) {
+            throw new CouchDbException("Invalid JSON on line " + lineNumber + " of the " +
+                    "documents to import.", e);
+        }
+        if (!json.isJsonObject()) {
+            throw new CouchDbException("Line " + lineNumber + " of the documents to import is " +
+                    "not a JSON object.");
+        }
+        return json.getAsJsonObject();
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.api;
+
+import static com.cloudant.client.org.lightcouch.internal.CouchDbUtil.assertNotEmpty;
+import static com.cloudant.client.org.lightcouch.internal.CouchDbUtil.utf8Length;
+
+import com.cloudant.client.api.model.Response;
+import com.google.gson.JsonElement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects individual document writes made from one or more threads and sends them to the
+ * database as a single {@code _bulk_docs} request.
+ * <P>
+ * A batch is sent when the first document in it has waited for the configured delay, or
+ * earlier if the batch reaches the configured number of documents or serialized bytes. Each
+ * write returns a {@link Future} that completes with the per-document {@link Response} from the
+ * bulk request once the batch has been sent.
+ * </P>
+ * <P>
+ * As with {@link Database#bulk(List)} a failure for an individual document, for example a
+ * conflict, is reported in the {@link Response#getError()} and {@link Response#getReason()} of
+ * that document's response rather than as an exception. An exception is only delivered, as the
+ * cause of an {@link ExecutionException}, if the bulk request as a whole fails.
+ * </P>
+ * <P>
+ * Documents are serialized when they are submitted, so changes made to an object after it has
+ * been passed to {@link #save(Object)} or {@link #update(Object)} are not written.
+ * </P>
+ * <P>Example usage:</P>
+ * <pre>
+ * {@code
+ * WriteCoalescer coalescer = db.writeCoalescer(50, TimeUnit.MILLISECONDS, 500, 1024 * 1024);
+ * Future<Response> pending = coalescer.save(new Foo());
+ * // other threads can also submit writes to the same coalescer
+ * Response response = pending.get();
+ * // flush any outstanding writes and release the timer thread
+ * coalescer.close();
+ * }
+ * </pre>
+ *
+ * @see Database#writeCoalescer(long, TimeUnit, int, long)
+ * @since 2.4.0
+ */
+public class WriteCoalescer {
+
+    private static final AtomicInteger COALESCER_COUNT = new AtomicInteger();
+
+    private final Database database;
+    private final CloudantClient client;
+    private final long maxDelayNanos;
+    private final int maxDocuments;
+    private final long maxBytes;
+    private final ScheduledExecutorService timer;
+
+    // Guarded by this
+    private Batch current;
+    private boolean closed = false;
+
+    WriteCoalescer(Database database, CloudantClient client, long maxDelay, TimeUnit unit, int
+            maxDocuments, long maxBytes) {
+        if (maxDelay < 0) {
+            throw new IllegalArgumentException("maxDelay must not be negative");
+        }
+        if (maxDocuments < 1) {
+            throw new IllegalArgumentException("maxDocuments must be at least 1");
+        }
+        this.database = database;
+        this.client = client;
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.maxDocuments = maxDocuments;
+        this.maxBytes = maxBytes;
+        final int id = COALESCER_COUNT.incrementAndGet();
+        this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "cloudant-write-coalescer-" + id);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Queues a new or updated document to be written in the next batch.
+     *
+     * @param object the document to write
+     * @return a Future for the document's {@link Response}
+     * @throws IllegalStateException if this coalescer has been closed
+     */
+    public Future<Response> save(Object object) {
+        assertNotEmpty(object, "object");
+        JsonElement document = client.getGson().toJsonTree(object);
+        // Only pay for the string form of the document when a byte limit is in use
+        long size = (maxBytes > 0) ? utf8Length(document.toString()) : 0;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("The WriteCoalescer has been closed.");
+            }
+            if (current != null && maxBytes > 0 && !current.documents.isEmpty()
+                    && current.bytes + size > maxBytes) {
+                // Adding this document would take the batch over the byte limit
+                send();
+            }
+            if (current == null) {
+                final Batch batch = new Batch();
+                batch.timeout = timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (WriteCoalescer.this) {
+                            // The batch may already have been sent because it filled up
+                            if (current == batch) {
+                                send();
+                            }
+                        }
+                    }
+                }, maxDelayNanos, TimeUnit.NANOSECONDS);
+                current = batch;
+            }
+            Future<Response> result = new DocumentFuture(current, current.documents.size());
+            current.documents.add(document);
+            current.bytes += size;
+            if (current.documents.size() >= maxDocuments || (maxBytes > 0 && current.bytes >=
+                    maxBytes)) {
+                send();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Queues an update to an existing document to be written in the next batch. The object must
+     * have both an {@code _id} and {@code _rev} value.
+     *
+     * @param object the document to update
+     * @return a Future for the document's {@link Response}
+     * @throws IllegalStateException if this coalescer has been closed
+     * @see #save(Object)
+     */
+    public Future<Response> update(Object object) {
+        return save(object);
+    }
+
+    /**
+     * Sends any queued writes immediately without waiting for the batch delay.
+     */
+    public synchronized void flush() {
+        if (current != null) {
+            send();
+        }
+    }
+
+    /**
+     * Sends any queued writes and stops accepting new ones. Futures for writes already queued
+     * will still complete.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            flush();
+        }
+        timer.shutdown();
+    }
+
+    /**
+     * Hands the current batch to the client's asynchronous executor. Must be called while
+     * holding the lock on this.
+     */
+    private void send() {
+        Batch batch = current;
+        current = null;
+        batch.timeout.cancel(false);
+        try {
+            client.executeAsync(Executors.callable(batch.request));
+        } catch (RejectedExecutionException e) {
+            // the batch will never run, so fail its writes rather than leave them waiting
+            batch.request.failed(e);
+        }
+    }
+
+    private final class Batch {
+        private final List<JsonElement> documents = new ArrayList<JsonElement>();
+        private long bytes = 0;
+        private ScheduledFuture<?> timeout;
+        private final BatchRequest request = new BatchRequest(new Callable<List<Response>>() {
+            @Override
+            public List<Response> call() {
+                return database.bulk(documents);
+            }
+        });
+    }
+
+    private static final class BatchRequest extends FutureTask<List<Response>> {
+
+        BatchRequest(Callable<List<Response>> callable) {
+            super(callable);
+        }
+
+        void failed(Throwable t) {
+            setException(t);
+        }
+    }
+
+    /**
+     * A view of one document's response within the Future for a whole batch.
+     */
+    private static final class DocumentFuture implements Future<Response> {
+
+        private final Batch batch;
+        private final int index;
+
+        DocumentFuture(Batch batch, int index) {
+            this.batch = batch;
+            this.index = index;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            // Other documents share the request, so an individual write cannot be cancelled
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return batch.request.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return batch.request.isDone();
+        }
+
+        @Override
+        public Response get() throws InterruptedException, ExecutionException {
+            return batch.request.get().get(index);
+        }
+
+        @Override
+        public Response get(long timeout, TimeUnit unit) throws InterruptedException,
+                ExecutionException, TimeoutException {
+            return batch.request.get(timeout, unit).get(index);
+        }
+    }
+}
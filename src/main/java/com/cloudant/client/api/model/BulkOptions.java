@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.api.model;
+
+import com.cloudant.client.api.Database;
+
+/**
+ * Options for splitting a large {@link Database#bulk(java.util.List, BulkOptions)} request into
+ * chunks that are sent concurrently.
+ * <p>Example:
+ * <pre>
+ * BulkResult result = database.bulk(documents,
+ *     new BulkOptions()
+ *         .chunkSize(1000)
+ *         .chunkBytes(4 * 1024 * 1024)
+ *         .concurrency(4)
+ *         .retries(3));
+ * </pre>
+ *
+ * @see Database#bulk(java.util.List, BulkOptions)
+ * @since 2.4.0
+ */
+public class BulkOptions {
+
+    private int chunkSize = 500;
+    private long chunkBytes = 1024 * 1024;
+    private int concurrency = 4;
+    private int retries = 3;
+
+    /**
+     * @param chunkSize the maximum number of documents in each {@code _bulk_docs} request,
+     *                  defaults to 500
+     * @return this to set additional options
+     */
+    public BulkOptions chunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be at least 1");
+        }
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * A chunk is ended before a document that would take it over this size, so a single document
+     * larger than the limit is sent in a chunk of its own.
+     *
+     * @param chunkBytes the approximate maximum size of the serialized documents in each
+     *                   {@code _bulk_docs} request, or 0 for no size limit, defaults to 1 MiB
+     * @return this to set additional options
+     */
+    public BulkOptions chunkBytes(long chunkBytes) {
+        this.chunkBytes = chunkBytes;
+        return this;
+    }
+
+    /**
+     * The number of requests in progress is also limited by the size of the client's
+     * asynchronous executor.
+     *
+     * @param concurrency the maximum number of chunks sent at the same time, defaults to 4
+     * @return this to set additional options
+     * @see com.cloudant.client.api.ClientBuilder#asyncExecutor(java.util.concurrent.ExecutorService)
+     */
+    public BulkOptions concurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * @param retries the number of times documents that failed with a transient error are
+     *                resubmitted after a random wait of up to 30 seconds, defaults to 3
+     * @return this to set additional options
+     */
+    public BulkOptions retries(int retries) {
+        if (retries < 0) {
+            throw new IllegalArgumentException("retries must not be negative");
+        }
+        this.retries = retries;
+        return this;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public long getChunkBytes() {
+        return chunkBytes;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+}
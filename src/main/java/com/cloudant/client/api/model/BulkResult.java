@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.api.model;
+
+import com.cloudant.client.api.Database;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of a chunked {@link Database#bulk(List, BulkOptions)} request or a {@link
+ * Database#bulkImport(java.util.Iterator, BulkOptions, com.cloudant.client.api.ImportListener)}.
+ * <p>
+ * Contains one {@link Response} per input document, in the same order as the input, together
+ * with aggregate statistics for the whole operation. The responses of an import are not kept,
+ * failures are reported to its listener instead.
+ * </p>
+ *
+ * @see Database#bulk(List, BulkOptions)
+ * @since 2.4.0
+ */
+public class BulkResult {
+
+    private final List<Response> responses;
+    private final int documents;
+    private final int failures;
+    private final int requests;
+    private final int retriedDocuments;
+    private final long bytes;
+    private final long elapsedNanos;
+
+    public BulkResult(List<Response> responses, int failures, int requests, int
+            retriedDocuments, long bytes, long elapsedNanos) {
+        this.responses = responses;
+        this.documents = responses.size();
+        this.failures = failures;
+        this.requests = requests;
+        this.retriedDocuments = retriedDocuments;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Creates the result of an import, which does not keep the responses.
+     */
+    public BulkResult(int documents, int failures, int requests, int retriedDocuments, long
+            bytes, long elapsedNanos) {
+        this.responses = Collections.emptyList();
+        this.documents = documents;
+        this.failures = failures;
+        this.requests = requests;
+        this.retriedDocuments = retriedDocuments;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return one response per input document, in input order, or an empty list for an import
+     */
+    public List<Response> getResponses() {
+        return responses;
+    }
+
+    /**
+     * @return the number of documents written
+     */
+    public int getDocumentCount() {
+        return documents;
+    }
+
+    /**
+     * @return the number of documents whose final response has an error
+     */
+    public int getFailureCount() {
+        return failures;
+    }
+
+    /**
+     * @return the number of {@code _bulk_docs} requests made, including retries
+     */
+    public int getRequestCount() {
+        return requests;
+    }
+
+    /**
+     * @return the number of times a document was resubmitted after a transient failure
+     */
+    public int getRetriedDocumentCount() {
+        return retriedDocuments;
+    }
+
+    /**
+     * @return the approximate number of bytes of document JSON sent, including retries
+     */
+    public long getBytesSent() {
+        return bytes;
+    }
+
+    /**
+     * @param unit the unit to return the elapsed time in
+     * @return the time taken by the whole operation
+     */
+    public long getElapsedTime(TimeUnit unit) {
+        return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the average number of documents written per second
+     */
+    public double getDocumentsPerSecond() {
+        return (elapsedNanos > 0) ? documents * 1e9 / elapsedNanos : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkResult [documents=" + getDocumentCount() + ", failures=" + failures + ", " +
+                "requests=" + requests + ", retriedDocuments=" + retriedDocuments + ", bytes=" +
+                bytes + ", elapsedMillis=" + getElapsedTime(TimeUnit.MILLISECONDS) + "]";
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.api.model;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Policy for the circuit breaker kept for each host a client sends requests to.
+ * <P>
+ * The outcomes of the most recent requests to the host are recorded; a request fails if it gets a
+ * 5xx response or an I/O error, and is slow if its response takes longer than the slow call
+ * duration. When the fraction of failed or slow requests reaches its threshold the breaker opens
+ * and requests to the host fail immediately with a
+ * {@link com.cloudant.client.org.lightcouch.CircuitBreakerOpenException}. After the open duration
+ * the breaker is half-open and lets a few trial requests through: if they all succeed quickly it
+ * closes, otherwise it opens again.
+ * </P>
+ * <p>Example:
+ * <pre>
+ * CloudantClient client = ClientBuilder.account("yourCloudantAccount")
+ *     .username("yourUsername")
+ *     .password("yourPassword")
+ *     .circuitBreaker(new CircuitBreakerPolicy()
+ *         .failureRateThreshold(0.5)
+ *         .slowCallDuration(5, TimeUnit.SECONDS)
+ *         .openDuration(30, TimeUnit.SECONDS))
+ *     .build();
+ * </pre>
+ *
+ * @see com.cloudant.client.api.ClientBuilder#circuitBreaker(CircuitBreakerPolicy)
+ * @since 2.4.0
+ */
+public class CircuitBreakerPolicy {
+
+    private int windowSize = 20;
+    private int minimumCalls = 10;
+    private double failureRateThreshold = 0.5;
+    private double slowCallRateThreshold = 0.5;
+    private long slowCallDurationNanos = TimeUnit.SECONDS.toNanos(10);
+    private long openDurationNanos = TimeUnit.SECONDS.toNanos(30);
+    private int halfOpenCalls = 3;
+
+    /**
+     * @param windowSize the number of most recent requests to a host to calculate the failure
+     *                   and slow call rates from, defaults to 20
+     * @return this to set additional options
+     */
+    public CircuitBreakerPolicy windowSize(int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize must be greater than 0");
+        }
+        this.windowSize = windowSize;
+        return this;
+    }
+
+    /**
+     * @param minimumCalls the number of requests to a host that must be recorded before the
+     *                     breaker can open, defaults to 10
+     * @return this to set additional options
+     */
+    public CircuitBreakerPolicy minimumCalls(int minimumCalls) {
+        if (minimumCalls <= 0) {
+            throw new IllegalArgumentException("minimumCalls must be greater than 0");
+        }
+        this.minimumCalls = minimumCalls;
+        return this;
+    }
+
+    /**
+     * @param failureRateThreshold the fraction of failed requests that opens the breaker,
+     *                             greater than 0 and at most 1, defaults to 0.5
+     * @return this to set additional options
+     */
+    public CircuitBreakerPolicy failureRateThreshold(double failureRateThreshold) {
+        this.failureRateThreshold = checkRate("failureRateThreshold", failureRateThreshold);
+        return this;
+    }
+
+    /**
+     * @param slowCallRateThreshold the fraction of slow requests that opens the breaker, greater
+     *                              than 0 and at most 1, defaults to 0.5
+     * @return this to set additional options
+     */
+    public CircuitBreakerPolicy slowCallRateThreshold(double slowCallRateThreshold) {
+        this.slowCallRateThreshold = checkRate("slowCallRateThreshold", slowCallRateThreshold);
+        return this;
+    }
+
+    /**
+     * @param slowCallDuration the time to receive a response after which a request is slow,
+     *                         defaults to 10 seconds
+     * @param unit             the unit of slowCallDuration
+     * @return this to set additional options
+     */
+    public CircuitBreakerPolicy slowCallDuration(long slowCallDuration, TimeUnit unit) {
+        if (slowCallDuration <= 0) {
+            throw new IllegalArgumentException("slowCallDuration must be greater than 0");
+        }
+        this.slowCallDurationNanos = unit.toNanos(slowCallDuration);
+        return this;
+    }
+
+    /**
+     * @param openDuration the time the breaker stays open before letting trial requests
+     *                     through, defaults to 30 seconds
+     * @param unit         the unit of openDuration
+     * @return this to set additional options
+     */
+    public CircuitBreakerPolicy openDuration(long openDuration, TimeUnit unit) {
+        if (openDuration < 0) {
+            throw new IllegalArgumentException("openDuration must not be negative");
+        }
+        this.openDurationNanos = unit.toNanos(openDuration);
+        return this;
+    }
+
+    /**
+     * @param halfOpenCalls the number of trial requests that must succeed to close the breaker,
+     *                      defaults to 3
+     * @return this to set additional options
+     */
+    public CircuitBreakerPolicy halfOpenCalls(int halfOpenCalls) {
+        if (halfOpenCalls <= 0) {
+            throw new IllegalArgumentException("halfOpenCalls must be greater than 0");
+        }
+        this.halfOpenCalls = halfOpenCalls;
+        return this;
+    }
+
+    private static double checkRate(String name, double rate) {
+        if (rate <= 0 || rate > 1) {
+            throw new IllegalArgumentException(name + " must be greater than 0 and at most 1");
+        }
+        return rate;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    public double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    public double getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    public long getSlowCallDuration(TimeUnit unit) {
+        return unit.convert(slowCallDurationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getOpenDuration(TimeUnit unit) {
+        return unit.convert(openDurationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public int getHalfOpenCalls() {
+        return halfOpenCalls;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.api.model;
+
+import com.cloudant.client.api.CloudantClient;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A snapshot of the state of the connection pool of a {@link CloudantClient}.
+ * <p>
+ * The counts of connections opened and closed are totals since the client was created. A high
+ * rate of connections opened relative to requests indicates that connections are not being
+ * reused, for example because the keep-alive is shorter than the time between requests or
+ * because response streams are not being closed.
+ * </p>
+ *
+ * @see CloudantClient#getConnectionPoolStats()
+ * @since 2.4.0
+ */
+public class ConnectionPoolStats {
+
+    private final int idleConnections;
+    private final int activeConnections;
+    private final long openedConnections;
+    private final long closedConnections;
+    private final long connectNanos;
+
+    public ConnectionPoolStats(int idleConnections, int activeConnections, long
+            openedConnections, long closedConnections, long connectNanos) {
+        this.idleConnections = idleConnections;
+        this.activeConnections = activeConnections;
+        this.openedConnections = openedConnections;
+        this.closedConnections = closedConnections;
+        this.connectNanos = connectNanos;
+    }
+
+    /**
+     * @return the number of open connections in the pool waiting to be reused
+     */
+    public int getIdleConnections() {
+        return idleConnections;
+    }
+
+    /**
+     * @return the number of open connections that are in use by requests
+     */
+    public int getActiveConnections() {
+        return activeConnections;
+    }
+
+    /**
+     * @return the total number of connections opened to the server
+     */
+    public long getOpenedConnections() {
+        return openedConnections;
+    }
+
+    /**
+     * @return the total number of connections closed, including idle connections evicted from
+     * the pool
+     */
+    public long getClosedConnections() {
+        return closedConnections;
+    }
+
+    /**
+     * Requests wait for a new connection to be opened when there is no idle connection in the
+     * pool to reuse.
+     *
+     * @param unit the unit to return the time in
+     * @return the total time requests have spent waiting for new connections to be opened
+     */
+    public long getConnectTime(TimeUnit unit) {
+        return unit.convert(connectNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPoolStats [idle=" + idleConnections + ", active=" + activeConnections
+                + ", opened=" + openedConnections + ", closed=" + closedConnections
+                + ", connectTimeMillis=" + getConnectTime(TimeUnit.MILLISECONDS) + "]";
+    }
+}
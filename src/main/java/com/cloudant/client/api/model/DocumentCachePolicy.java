@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.api.model;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Policy for a client's document cache, which keeps the response bodies of documents read with
+ * {@link com.cloudant.client.api.Database#find(Class, String)} together with their ETag.
+ * <P>
+ * A cached document is returned without a request to the server until it is older than the
+ * revalidation interval. After that the next read sends a conditional request with an
+ * {@code If-None-Match} header, and if the document has not changed the server responds with
+ * {@code 304 Not Modified} and no body. Documents not validated with the server within the time
+ * to live are removed, and the least recently used documents are removed when the total size of
+ * the cached bodies exceeds the maximum size.
+ * </P>
+ * <P>
+ * Documents written with the same client are removed from the cache, including by saving an
+ * attachment or by an update handler invoked with the document's ID or that reports the ID of
+ * the document it wrote. Changes made by other clients are only seen when a document is
+ * revalidated. With the default revalidation interval
+ * of 0 every read is revalidated, so reads never return a stale document.
+ * </P>
+ * <p>Example:
+ * <pre>
+ * CloudantClient client = ClientBuilder.account("yourCloudantAccount")
+ *     .username("yourUsername")
+ *     .password("yourPassword")
+ *     .documentCache(new DocumentCachePolicy()
+ *         .maximumSize(64 * 1024 * 1024)
+ *         .revalidateAfter(5, TimeUnit.SECONDS))
+ *     .build();
+ * </pre>
+ *
+ * @see com.cloudant.client.api.ClientBuilder#documentCache(DocumentCachePolicy)
+ * @see com.cloudant.client.api.CloudantClient#getDocumentCacheStats()
+ * @since 2.4.0
+ */
+public class DocumentCachePolicy {
+
+    private long maximumSize = 16 * 1024 * 1024;
+    private long timeToLiveNanos = TimeUnit.MINUTES.toNanos(10);
+    private long revalidateAfterNanos = 0;
+
+    /**
+     * @param maximumSize the maximum total size in bytes of the cached document bodies, defaults
+     *                    to 16 MiB
+     * @return this to set additional options
+     */
+    public DocumentCachePolicy maximumSize(long maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be greater than 0");
+        }
+        this.maximumSize = maximumSize;
+        return this;
+    }
+
+    /**
+     * @param timeToLive the time after a document was last received or revalidated that it is
+     *                   removed from the cache, defaults to 10 minutes
+     * @param unit       the unit of timeToLive
+     * @return this to set additional options
+     */
+    public DocumentCachePolicy timeToLive(long timeToLive, TimeUnit unit) {
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException("timeToLive must be greater than 0");
+        }
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+        return this;
+    }
+
+    /**
+     * @param revalidateAfter the time after a document was last received or revalidated that it
+     *                        is returned without a request to the server, defaults to 0 so that
+     *                        every read is revalidated
+     * @param unit            the unit of revalidateAfter
+     * @return this to set additional options
+     */
+    public DocumentCachePolicy revalidateAfter(long revalidateAfter, TimeUnit unit) {
+        if (revalidateAfter < 0) {
+            throw new IllegalArgumentException("revalidateAfter must not be negative");
+        }
+        this.revalidateAfterNanos = unit.toNanos(revalidateAfter);
+        return this;
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getTimeToLive(TimeUnit unit) {
+        return unit.convert(timeToLiveNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getRevalidateAfter(TimeUnit unit) {
+        return unit.convert(revalidateAfterNanos, TimeUnit.NANOSECONDS);
+    }
+}
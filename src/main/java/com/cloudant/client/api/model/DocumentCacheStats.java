@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.api.model;
+
+import com.cloudant.client.api.CloudantClient;
+
+/**
+ * A snapshot of the state of the document cache of a {@link CloudantClient}.
+ * <p>
+ * The counts of hits, revalidations and misses are totals since the client was created. Every
+ * read of a document through the cache is counted once: as a hit if it was returned without a
+ * request, a revalidation if the server confirmed the cached document was current, or a miss if
+ * the document was received from the server.
+ * </p>
+ *
+ * @see CloudantClient#getDocumentCacheStats()
+ * @since 2.4.0
+ */
+public class DocumentCacheStats {
+
+    private final long hits;
+    private final long revalidations;
+    private final long misses;
+    private final long evictions;
+    private final int documents;
+    private final long size;
+
+    public DocumentCacheStats(long hits, long revalidations, long misses, long evictions, int
+            documents, long size) {
+        this.hits = hits;
+        this.revalidations = revalidations;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.documents = documents;
+        this.size = size;
+    }
+
+    /**
+     * @return the number of reads returned from the cache without a request to the server
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of reads returned from the cache after the server responded
+     * {@code 304 Not Modified}
+     */
+    public long getRevalidations() {
+        return revalidations;
+    }
+
+    /**
+     * @return the number of reads for which the document was received from the server, because
+     * it was not cached or had changed
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of documents removed from the cache to keep it within its maximum
+     * size or because their time to live passed
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of documents in the cache
+     */
+    public int getDocuments() {
+        return documents;
+    }
+
+    /**
+     * @return the total size in bytes of the cached document bodies
+     */
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentCacheStats [hits=" + hits + ", revalidations=" + revalidations
+                + ", misses=" + misses + ", evictions=" + evictions + ", documents=" + documents
+                + ", size=" + size + "]";
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.api.model;
+
+import com.cloudant.client.api.CloudantClient;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A snapshot of the state of one of the endpoints a {@link CloudantClient} routes requests to.
+ * <p>
+ * The counts of requests and failures are totals since the client was created. Each attempt of
+ * a request is counted, so a request that fails over is counted for each endpoint it was sent
+ * to.
+ * </p>
+ *
+ * @see CloudantClient#getEndpointStats()
+ * @since 2.4.0
+ */
+public class EndpointStats {
+
+    private final URL url;
+    private final boolean healthy;
+    private final long latencyNanos;
+    private final long requests;
+    private final long failures;
+
+    public EndpointStats(URL url, boolean healthy, long latencyNanos, long requests, long
+            failures) {
+        this.url = url;
+        this.healthy = healthy;
+        this.latencyNanos = latencyNanos;
+        this.requests = requests;
+        this.failures = failures;
+    }
+
+    /**
+     * @return the URL of the endpoint
+     */
+    public URL getUrl() {
+        return url;
+    }
+
+    /**
+     * @return false if the last request or health probe sent to the endpoint failed
+     */
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    /**
+     * @param unit the unit to return the time in
+     * @return the moving average of the endpoint's response time, or 0 if no response has been
+     * received from it
+     */
+    public long getLatency(TimeUnit unit) {
+        return unit.convert(latencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the total number of requests sent to the endpoint
+     */
+    public long getRequestCount() {
+        return requests;
+    }
+
+    /**
+     * @return the total number of connection errors, 5xx responses and failed health probes
+     */
+    public long getFailureCount() {
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        return "EndpointStats [url=" + url + ", healthy=" + healthy + ", latencyMillis="
+                + getLatency(TimeUnit.MILLISECONDS) + ", requests=" + requests + ", failures="
+                + failures + "]";
+    }
+}
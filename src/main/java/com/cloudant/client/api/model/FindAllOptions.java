@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.api.model;
+
+import com.cloudant.client.api.Database;
+
+/**
+ * Options for splitting a {@link Database#findAll(java.util.Collection, Class, FindAllOptions)}
+ * request for many documents into chunks that are fetched concurrently.
+ * <p>Example:
+ * <pre>
+ * DocumentIterator&lt;Foo&gt; foos = database.findAll(ids, Foo.class,
+ *     new FindAllOptions()
+ *         .chunkSize(500)
+ *         .concurrency(8));
+ * </pre>
+ *
+ * @see Database#findAll(java.util.Collection, Class, FindAllOptions)
+ * @since 2.4.0
+ */
+public class FindAllOptions {
+
+    private int chunkSize = 200;
+    private int concurrency = 4;
+
+    /**
+     * @param chunkSize the maximum number of document IDs in each request, defaults to 200
+     * @return this to set additional options
+     */
+    public FindAllOptions chunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be at least 1");
+        }
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * Chunks are fetched on the client's asynchronous executor, and at most this many are being
+     * fetched or waiting to be read at the same time. The chunks are fetched one at a time when
+     * {@code findAll} is called from a task on that executor.
+     *
+     * @param concurrency the maximum number of chunks fetched at the same time, defaults to 4
+     * @return this to set additional options
+     */
+    public FindAllOptions concurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.api.model;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Policy for hedging idempotent GET requests: if no response has been received after a delay a
+ * duplicate request is sent, the first response to arrive is used and the other request is
+ * cancelled.
+ * <P>
+ * The delay is a percentile of the recent response times of requests of the same type, so that
+ * only the slowest requests are hedged. No requests are hedged until enough response times have
+ * been recorded. The budget limits the extra load to a fraction of the requests.
+ * </P>
+ * <p>Example:
+ * <pre>
+ * CloudantClient client = ClientBuilder.account("yourCloudantAccount")
+ *     .username("yourUsername")
+ *     .password("yourPassword")
+ *     .hedgeLookups(new HedgePolicy()
+ *         .percentile(95)
+ *         .minDelay(20, TimeUnit.MILLISECONDS)
+ *         .budget(0.05))
+ *     .build();
+ * </pre>
+ *
+ * @see com.cloudant.client.api.ClientBuilder#hedgeLookups(HedgePolicy)
+ * @see com.cloudant.client.api.ClientBuilder#hedgeQueries(HedgePolicy)
+ * @since 2.4.0
+ */
+public class HedgePolicy {
+
+    private double percentile = 95;
+    private long minDelayNanos = TimeUnit.MILLISECONDS.toNanos(10);
+    private double budget = 0.05;
+
+    /**
+     * @param percentile the percentile of recent response times to wait for before sending a
+     *                   duplicate request, greater than 0 and at most 100, defaults to 95
+     * @return this to set additional options
+     */
+    public HedgePolicy percentile(double percentile) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be greater than 0 and at most " +
+                    "100");
+        }
+        this.percentile = percentile;
+        return this;
+    }
+
+    /**
+     * @param minDelay the minimum time to wait before sending a duplicate request, defaults to
+     *                 10 milliseconds
+     * @param unit     the unit of minDelay
+     * @return this to set additional options
+     */
+    public HedgePolicy minDelay(long minDelay, TimeUnit unit) {
+        if (minDelay < 0) {
+            throw new IllegalArgumentException("minDelay must not be negative");
+        }
+        this.minDelayNanos = unit.toNanos(minDelay);
+        return this;
+    }
+
+    /**
+     * @param budget the maximum number of duplicate requests as a fraction of requests, from 0 to
+     *               1, defaults to 0.05
+     * @return this to set additional options
+     */
+    public HedgePolicy budget(double budget) {
+        if (budget < 0 || budget > 1) {
+            throw new IllegalArgumentException("budget must be from 0 to 1");
+        }
+        this.budget = budget;
+        return this;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    public long getMinDelay(TimeUnit unit) {
+        return unit.convert(minDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public double getBudget() {
+        return budget;
+    }
+}
@@ -14,6 +14,7 @@
 
 package com.cloudant.client.api.model;
 
+import com.cloudant.http.RequestTimings;
 
 /**
  * Contains the response returned from CouchDB.
@@ -71,6 +72,15 @@ public class Response {
         return response.getStatusCode();
     }
 
+    /**
+     * @return the time spent in each phase of the request that returned this response, or
+     * {@code null} if the timings are not available
+     * @since 2.4.0
+     */
+    public RequestTimings getTimings() {
+        return response.getTimings();
+    }
+
     /**
      * @return <tt>id</tt> and <tt>rev</tt> concatenated.
      */
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.api.model;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Options for warming up a client when it is built, so that the first requests made with it do
+ * not pay for opening connections, getting a session cookie or creating the Gson type adapters of
+ * model classes.
+ * <P>
+ * The warm-up sends concurrent requests for the server root, which opens connections and, if
+ * the client has credentials, gets a session cookie. The connections are returned to the pool
+ * when all the requests have received their response. No more connections than the client's
+ * {@code maxConnections} are kept.
+ * </P>
+ * <p>Example:
+ * <pre>
+ * CloudantClient client = ClientBuilder.account("yourCloudantAccount")
+ *     .username("yourUsername")
+ *     .password("yourPassword")
+ *     .warmUp(new WarmUpOptions()
+ *         .connections(4)
+ *         .types(Foo.class, Bar.class))
+ *     .build();
+ * </pre>
+ *
+ * @see com.cloudant.client.api.ClientBuilder#warmUp(WarmUpOptions)
+ * @see com.cloudant.client.api.CloudantClient#getWarmUp()
+ * @since 2.4.0
+ */
+public class WarmUpOptions {
+
+    private int connections = 1;
+    private List<Type> types = new ArrayList<Type>();
+    private boolean async = false;
+
+    /**
+     * @param connections the number of connections to open, or 0 to not send any requests,
+     *                    defaults to 1
+     * @return this to set additional options
+     */
+    public WarmUpOptions connections(int connections) {
+        if (connections < 0) {
+            throw new IllegalArgumentException("connections must not be negative");
+        }
+        this.connections = connections;
+        return this;
+    }
+
+    /**
+     * @param types the document classes, or other types, to create Gson type adapters for
+     * @return this to set additional options
+     */
+    public WarmUpOptions types(Type... types) {
+        this.types.addAll(Arrays.asList(types));
+        return this;
+    }
+
+    /**
+     * @param async true to warm up in the background and return the client from
+     *              {@code build()} immediately, or false to finish warming up first, defaults to
+     *              false
+     * @return this to set additional options
+     */
+    public WarmUpOptions async(boolean async) {
+        this.async = async;
+        return this;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public List<Type> getTypes() {
+        return Collections.unmodifiableList(types);
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+}
@@ -39,4 +39,42 @@ public interface AllDocsRequest {
      * @since 2.0.0
      */
     AllDocsResponse getResponse() throws IOException;
+
+    /**
+     * Performs the request by splitting the document IDs into ranges that are read concurrently,
+     * returning an iterator over the rows of all of the ranges.
+     * <P>
+     * The key of each row is the document ID and the value is the document revision. If the
+     * request includes docs they are available from each row.
+     * </P>
+     * <P>
+     * Example usage to export all the documents in a database:
+     * </P>
+     * <pre>
+     * {@code
+     * ViewRowIterator<String, String> rows = db.getAllDocsRequestBuilder()
+     *                              .includeDocs(true)
+     *                              .build()
+     *                              .getPartitionedRowIterator(4, false);
+     * try {
+     *     while (rows.hasNext()) {
+     *         Foo foo = rows.next().getDocumentAsType(Foo.class);
+     *     }
+     * } finally {
+     *     rows.close();
+     * }
+     * }
+     * </pre>
+     *
+     * @param partitions the number of document ID ranges to read concurrently
+     * @param ordered    {@code true} to return the rows in document ID order
+     * @return an iterator over the result rows
+     * @throws IOException           if there is an error communicating with the server while
+     *                               sampling the split points
+     * @throws IllegalStateException if the request sets key, keys, skip, limit or descending
+     * @see ViewRequest#getPartitionedRowIterator(int, boolean)
+     * @since 2.4.0
+     */
+    ViewRowIterator<String, String> getPartitionedRowIterator(int partitions, boolean ordered)
+            throws IOException;
 }
@@ -15,6 +15,7 @@
 package com.cloudant.client.api.views;
 
 import java.io.IOException;
+import java.util.concurrent.Future;
 
 /**
  * Enables retrieving view responses.
@@ -45,6 +46,160 @@ public interface ViewRequest<K, V> {
      */
     ViewResponse<K, V> getResponse() throws IOException;
 
+    /**
+     * Performs the request asynchronously using the executor of the client.
+     * <P>
+     * Example usage:
+     * </P>
+     * <pre>
+     * {@code
+     * Future<ViewResponse<String, String>> futureResponse =
+     *                   db.getViewRequestBuilder("designDoc","viewName")
+     *                   .newRequest(Key.Type.STRING, String.class)
+     *                   .build()
+     *                   .getResponseAsync();
+     * //do other work, then wait for the response
+     * ViewResponse<String, String> response = futureResponse.get();
+     * }
+     * </pre>
+     *
+     * @return a Future for the response object, an {@link IOException} is the cause of the
+     * {@link java.util.concurrent.ExecutionException} if there is an error communicating with the
+     * server
+     * @see com.cloudant.client.api.ClientBuilder#asyncExecutor(java.util.concurrent.ExecutorService)
+     * @since 2.4.0
+     */
+    Future<ViewResponse<K, V>> getResponseAsync();
+
+    /**
+     * Performs the request and returns an iterator that parses the result rows one at a time as
+     * they are read from the server.
+     * <P>
+     * Unlike {@link #getResponse()} the rows are not all held in memory, so this is suitable for
+     * processing responses with a very large number of rows. If the request was built with a
+     * {@link PaginatedRequestBuilder} only the rows of the first page are returned.
+     * </P>
+     * <P>
+     * Example usage:
+     * </P>
+     * <pre>
+     * {@code
+     * ViewRowIterator<String, String> rows = db.getViewRequestBuilder("designDoc","viewName")
+     *                   .newRequest(Key.Type.STRING, String.class)
+     *                   .build()
+     *                   .getRowIterator();
+     * try {
+     *     while (rows.hasNext()) {
+     *         ViewResponse.Row<String, String> row = rows.next();
+     *         // process the row
+     *     }
+     * } finally {
+     *     rows.close();
+     * }
+     * }
+     * </pre>
+     *
+     * @return an iterator over the result rows
+     * @throws IOException if there is an error communicating with the server
+     * @since 2.4.0
+     */
+    ViewRowIterator<K, V> getRowIterator() throws IOException;
+
+    /**
+     * Performs the request and returns an iterator over the rows of every page of the response,
+     * fetching following pages in the background while the rows of the current page are
+     * processed.
+     * <P>
+     * This is intended for requests built with a {@link PaginatedRequestBuilder}, where it
+     * overlaps the latency of requesting the next page with processing of the current page. For
+     * other requests all of the rows are in the first page. Pages are fetched using the client's
+     * asynchronous executor and at most {@code prefetchPages} pages are held in memory ahead of
+     * the page being iterated. Close the iterator to stop fetching pages if it is abandoned
+     * before the last row. When called from an operation running on the client's asynchronous
+     * executor the pages are instead fetched on the calling thread as the rows are iterated.
+     * </P>
+     * <P>
+     * Example usage:
+     * </P>
+     * <pre>
+     * {@code
+     * ViewRowIterator<String, String> rows = db.getViewRequestBuilder("designDoc","viewName")
+     *                   .newPaginatedRequest(Key.Type.STRING, String.class)
+     *                   .rowsPerPage(1000)
+     *                   .build()
+     *                   .getPagedRowIterator(2);
+     * try {
+     *     while (rows.hasNext()) {
+     *         ViewResponse.Row<String, String> row = rows.next();
+     *         // process the row
+     *     }
+     * } finally {
+     *     rows.close();
+     * }
+     * }
+     * </pre>
+     *
+     * @param prefetchPages the maximum number of pages to fetch ahead of the page being iterated,
+     *                      must be at least 1
+     * @return an iterator over the rows of all pages
+     * @see com.cloudant.client.api.ClientBuilder#asyncExecutor(java.util.concurrent.ExecutorService)
+     * @since 2.4.0
+     */
+    ViewRowIterator<K, V> getPagedRowIterator(int prefetchPages);
+
+    /**
+     * Performs the request by splitting the view into key ranges that are read concurrently,
+     * returning an iterator over the rows of all of the ranges.
+     * <P>
+     * The split points are sampled by looking up keys interpolated between the first and last
+     * keys of the request, so this costs {@code partitions + 1} small requests before the ranges
+     * are read, whatever the size of the view. The ranges are read a page at a time using the
+     * client's asynchronous executor, which should have at least {@code partitions} threads for
+     * them all to be read at the same time. With {@code ordered} set to {@code true} the rows are
+     * returned in the order of the view, otherwise rows are returned as soon as they are read
+     * from any range. The next pages are only fetched as rows are read, so no thread waits for
+     * them to be read. When called from an operation running on the client's asynchronous executor the
+     * ranges are instead read in turn on the calling thread.
+     * </P>
+     * <P>
+     * The request can set startkey and endkey to scan part of the view, but must not be
+     * paginated or set key, keys, skip, limit or descending. If the view is reduced, or its keys
+     * are not strings, numbers or arrays of them, it is read as a single range.
+     * </P>
+     * <P>
+     * Example usage:
+     * </P>
+     * <pre>
+     * {@code
+     * ViewRowIterator<String, String> rows = db.getViewRequestBuilder("designDoc","viewName")
+     *                   .newRequest(Key.Type.STRING, String.class)
+     *                   .reduce(false)
+     *                   .build()
+     *                   .getPartitionedRowIterator(4, false);
+     * try {
+     *     while (rows.hasNext()) {
+     *         ViewResponse.Row<String, String> row = rows.next();
+     *         // process the row
+     *     }
+     * } finally {
+     *     rows.close();
+     * }
+     * }
+     * </pre>
+     *
+     * @param partitions the number of key ranges to read concurrently
+     * @param ordered    {@code true} to return the rows in view order
+     * @return an iterator over the result rows
+     * @throws IOException           if there is an error communicating with the server while
+     *                               sampling the split points
+     * @throws IllegalStateException if the request sets key, keys, skip, limit or descending or
+     *                               is paginated
+     * @see com.cloudant.client.api.ClientBuilder#asyncExecutor(java.util.concurrent.ExecutorService)
+     * @since 2.4.0
+     */
+    ViewRowIterator<K, V> getPartitionedRowIterator(int partitions, boolean ordered) throws
+            IOException;
+
     /**
      * Performs view request for the page represented by a pagination token obtained from a
      * previous request.
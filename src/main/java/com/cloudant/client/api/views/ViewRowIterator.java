@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.api.views;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * An iterator over the rows of a view response that are read from the server one at a time.
+ * <P>
+ * Rows are parsed as the iterator advances so the memory used does not depend on the number of
+ * rows in the response. The underlying HTTP response is closed automatically when the last row
+ * has been read, but the iterator should be closed if it is abandoned before then.
+ * </P>
+ * <P>
+ * An error reading from the server while advancing the iterator is thrown as a {@link
+ * RuntimeException} with the {@link java.io.IOException} as its cause.
+ * </P>
+ *
+ * @param <K> the type of key emitted by the view
+ * @param <V> the type of value emitted by the view
+ * @see ViewRequest#getRowIterator()
+ * @since 2.4.0
+ */
+public interface ViewRowIterator<K, V> extends Iterator<ViewResponse.Row<K, V>>, Closeable {
+}
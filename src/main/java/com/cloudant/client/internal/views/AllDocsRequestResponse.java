@@ -19,6 +19,7 @@ import com.cloudant.client.api.views.AllDocsRequest;
 import com.cloudant.client.api.views.AllDocsResponse;
 import com.cloudant.client.api.views.ViewRequest;
 import com.cloudant.client.api.views.ViewResponse;
+import com.cloudant.client.api.views.ViewRowIterator;
 
 import java.io.IOException;
 import java.util.HashMap;
@@ -31,10 +32,12 @@ import java.util.Map;
  */
 public class AllDocsRequestResponse implements AllDocsRequest, AllDocsResponse {
 
+    private final ViewQueryParameters<String, Revision> parameters;
     private final ViewRequest<String, Revision> request;
     private ViewResponse<String, Revision> response = null;
 
     AllDocsRequestResponse(ViewQueryParameters<String, Revision> parameters) {
+        this.parameters = parameters;
         request = new ViewRequestImpl<String, Revision>(parameters);
     }
 
@@ -45,6 +48,35 @@ public class AllDocsRequestResponse implements AllDocsRequest, AllDocsResponse {
         return this;
     }
 
+    @Override
+    public ViewRowIterator<String, String> getPartitionedRowIterator(int partitions, boolean
+            ordered) throws IOException {
+        // _all_docs keys are unique document IDs so the split points do not need a doc ID
+        final ViewRowIterator<String, Revision> rows = new PartitionedRowIterator<String,
+                Revision>(parameters, partitions, ordered, false);
+        return new ViewRowIterator<String, String>() {
+            @Override
+            public boolean hasNext() {
+                return rows.hasNext();
+            }
+
+            @Override
+            public ViewResponse.Row<String, String> next() {
+                return new RevisionRow(rows.next());
+            }
+
+            @Override
+            public void remove() {
+                rows.remove();
+            }
+
+            @Override
+            public void close() throws IOException {
+                rows.close();
+            }
+        };
+    }
+
     @Override
     public List<Document> getDocs() {
         return response.getDocs();
@@ -69,6 +101,44 @@ public class AllDocsRequestResponse implements AllDocsRequest, AllDocsResponse {
         return response.getKeys();
     }
 
+    /**
+     * Presents an _all_docs row with the revision string as the value.
+     */
+    private static final class RevisionRow implements ViewResponse.Row<String, String> {
+
+        private final ViewResponse.Row<String, Revision> row;
+
+        RevisionRow(ViewResponse.Row<String, Revision> row) {
+            this.row = row;
+        }
+
+        @Override
+        public String getId() {
+            return row.getId();
+        }
+
+        @Override
+        public String getKey() {
+            return row.getKey();
+        }
+
+        @Override
+        public String getValue() {
+            Revision revision = row.getValue();
+            return (revision != null) ? revision.get() : null;
+        }
+
+        @Override
+        public Document getDocument() {
+            return row.getDocument();
+        }
+
+        @Override
+        public <D> D getDocumentAsType(Class<D> docType) {
+            return row.getDocumentAsType(docType);
+        }
+    }
+
     /*
          * Object representation of rev field from a JSON object.
          * <P>
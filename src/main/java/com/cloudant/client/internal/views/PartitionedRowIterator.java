@@ -0,0 +1,568 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.internal.views;
+
+import com.cloudant.client.api.views.ViewResponse;
+import com.cloudant.client.api.views.ViewRowIterator;
+import com.cloudant.client.org.lightcouch.CouchDbClient;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Scans a view or _all_docs by splitting the key range of the query into ranges that are read
+ * concurrently.
+ * <P>
+ * The split points are found without reading the rows before them. Candidate keys are
+ * interpolated between the first and last keys of the queried range and each candidate is
+ * looked up with a {@code startkey} and {@code limit=1} request, so every sample costs the same
+ * however large the view is. The {@code offset} of each sampled row orders the split points and
+ * discards any outside of the queried range, so candidates that collate differently on the
+ * server than they were interpolated still give valid, if less even, ranges. Keys that are not
+ * strings, numbers or arrays of them cannot be interpolated and are read as a single range.
+ * </P>
+ * <P>
+ * Each range is then read a page at a time, each page by its own task on the client's
+ * asynchronous executor that fetches it and returns. The pages of a range are fetched in sequence
+ * as each page request starts at the row after the previous page. In ordered mode every range
+ * has its own queue of pages and the queues are drained in key order, and a range only fetches
+ * its next page once the consumer has taken the one waiting in its queue. In unordered mode all
+ * ranges share one queue and pages are fetched while fewer pages are waiting or being fetched
+ * than there are ranges. Either way the consumer submits the next pages as it takes one, and no
+ * task ever waits for the consumer, so an iterator that is abandoned without being closed does
+ * not hold executor threads.
+ * </P>
+ * <P>
+ * When created from a task on the client's asynchronous executor the samples and the ranges are
+ * read in turn on the calling thread, as waiting for tasks queued behind the caller on a small
+ * executor would never finish.
+ * </P>
+ */
+class PartitionedRowIterator<K, V> implements ViewRowIterator<K, V> {
+
+    // The number of rows fetched by each page request
+    private static final int PAGE_ROWS = 1000;
+    // The number of characters of string keys that are used to interpolate split points
+    private static final int INTERPOLATED_CHARS = 3;
+
+    private final boolean inline;
+    private final boolean ordered;
+    // guarded by itself
+    private final List<Range<K, V>> ranges = new ArrayList<Range<K, V>>();
+    private final List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+    private int running = 0;
+    private int remainingRanges;
+    private int rangeIndex = 0;
+    private Iterator<ViewResponse.Row<K, V>> rows = Collections.<ViewResponse.Row<K, V>>
+            emptyList().iterator();
+    private volatile boolean closed = false;
+
+    /**
+     * @param parameters the query to scan, which must not set key, keys, skip, limit or
+     *                   descending or be paginated
+     * @param partitions the maximum number of ranges to read concurrently
+     * @param ordered    {@code true} to return rows in key order
+     * @param useDocIds  {@code true} to include the doc ID in the split points, which is needed
+     *                   for views where many rows can have the same key
+     * @throws IOException if there is an error sampling the split points
+     */
+    PartitionedRowIterator(ViewQueryParameters<K, V> parameters, int partitions, boolean
+            ordered, boolean useDocIds) throws IOException {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("partitions must be at least 1");
+        }
+        if (parameters.getRowsPerPage() != null || parameters.key != null || parameters.keys !=
+                null || parameters.skip != null || parameters.limit != null || parameters
+                .getDescending()) {
+            throw new IllegalStateException("A partitioned scan cannot be used with pagination " +
+                    "or with key, keys, skip, limit or descending.");
+        }
+        this.inline = CouchDbClient.isAsyncThread();
+        this.ordered = ordered;
+
+        List<JsonObject> splitPoints = sampleSplitPoints(parameters, partitions);
+
+        // Build a query for each range, each range starts at its split point (inclusive) and ends
+        // at the next split point (exclusive). The first and last ranges keep the start and end
+        // of the query.
+        BlockingQueue<Page<K, V>> shared = new LinkedBlockingQueue<Page<K, V>>();
+        JsonObject start = null;
+        for (int i = 0; i <= splitPoints.size(); i++) {
+            JsonObject end = (i < splitPoints.size()) ? splitPoints.get(i) : null;
+            ViewQueryParameters<K, V> range = parameters.copy();
+            if (start != null) {
+                range.startkey = start.get("key");
+                range.startkey_docid = useDocIds ? start.get("id").getAsString() : null;
+            }
+            if (end != null) {
+                range.endkey = end.get("key");
+                range.endkey_docid = useDocIds ? end.get("id").getAsString() : null;
+                range.inclusive_end = false;
+            }
+            ranges.add(new Range<K, V>(range, ordered ? new LinkedBlockingQueue<Page<K, V>>() :
+                    shared));
+            start = end;
+        }
+
+        remainingRanges = ranges.size();
+        if (!inline) {
+            synchronized (ranges) {
+                fetchMore();
+            }
+        }
+    }
+
+    /**
+     * @return the rows to split the query at, in view order and without duplicates
+     */
+    private List<JsonObject> sampleSplitPoints(ViewQueryParameters<K, V> parameters, int
+            partitions) throws IOException {
+        List<JsonObject> splitPoints = new ArrayList<JsonObject>();
+        if (partitions == 1) {
+            return splitPoints;
+        }
+        // The first row of the query, and the end of the query: either its endkey and the offset
+        // of the first row after it, or the last row of the view.
+        List<ViewQueryParameters<K, V>> bounds = new ArrayList<ViewQueryParameters<K, V>>();
+        bounds.add(sampleQuery(parameters, parameters.startkey, parameters.startkey_docid));
+        boolean openEnded = parameters.endkey == null;
+        if (openEnded) {
+            ViewQueryParameters<K, V> last = sampleQuery(parameters, null, null);
+            last.descending = true;
+            bounds.add(last);
+        } else {
+            bounds.add(sampleQuery(parameters, parameters.endkey, parameters.endkey_docid));
+        }
+        List<JsonObject> boundResponses = query(bounds);
+        JsonObject first = firstRow(boundResponses.get(0));
+        Long firstOffset = offset(boundResponses.get(0));
+        if (first == null || firstOffset == null || !first.has("id")) {
+            // No rows, or reduced rows that have no position to split at, so read a single range
+            return splitPoints;
+        }
+        JsonElement lastKey;
+        Long endOffset;
+        if (openEnded) {
+            JsonObject last = firstRow(boundResponses.get(1));
+            lastKey = (last == null) ? null : last.get("key");
+            endOffset = totalRows(boundResponses.get(1));
+        } else {
+            lastKey = parameters.endkey;
+            endOffset = offset(boundResponses.get(1));
+            if (endOffset == null) {
+                endOffset = totalRows(boundResponses.get(1));
+            }
+        }
+        if (lastKey == null || endOffset == null) {
+            return splitPoints;
+        }
+
+        List<ViewQueryParameters<K, V>> samples = new ArrayList<ViewQueryParameters<K, V>>();
+        for (int i = 1; i < partitions; i++) {
+            JsonElement candidate = interpolate(first.get("key"), lastKey, (double) i /
+                    partitions);
+            if (candidate == null) {
+                // The keys cannot be interpolated, so read a single range
+                return splitPoints;
+            }
+            samples.add(sampleQuery(parameters, candidate, null));
+        }
+        // Several candidates can find the same row, so keep one row for each offset
+        Map<Long, JsonObject> rows = new TreeMap<Long, JsonObject>();
+        for (JsonObject response : query(samples)) {
+            JsonObject row = firstRow(response);
+            Long offset = offset(response);
+            if (row != null && offset != null && row.has("id") && offset > firstOffset && offset
+                    < endOffset) {
+                rows.put(offset, row);
+            }
+        }
+        splitPoints.addAll(rows.values());
+        return splitPoints;
+    }
+
+    /**
+     * @return a query for the first row of the view at or after the start key
+     */
+    private static <K, V> ViewQueryParameters<K, V> sampleQuery(ViewQueryParameters<K, V>
+            parameters, JsonElement startkey, String startkeyDocId) {
+        ViewQueryParameters<K, V> sample = parameters.copy();
+        sample.startkey = startkey;
+        sample.startkey_docid = startkeyDocId;
+        sample.endkey = null;
+        sample.endkey_docid = null;
+        sample.inclusive_end = null;
+        sample.include_docs = null;
+        sample.limit = 1;
+        return sample;
+    }
+
+    /**
+     * Runs the queries concurrently on the client's asynchronous executor, or in turn on the
+     * calling thread if it is one of the executor's threads.
+     */
+    private List<JsonObject> query(List<ViewQueryParameters<K, V>> queries) throws IOException {
+        List<JsonObject> responses = new ArrayList<JsonObject>();
+        if (inline) {
+            for (ViewQueryParameters<K, V> query : queries) {
+                responses.add(ViewRequester.getResponseAsJson(query));
+            }
+            return responses;
+        }
+        List<Future<JsonObject>> futures = new ArrayList<Future<JsonObject>>();
+        try {
+            for (final ViewQueryParameters<K, V> query : queries) {
+                futures.add(query.getClient().executeAsync(new Callable<JsonObject>() {
+                    @Override
+                    public JsonObject call() throws Exception {
+                        return ViewRequester.getResponseAsJson(query);
+                    }
+                }));
+            }
+            for (Future<JsonObject> future : futures) {
+                responses.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            for (Future<JsonObject> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return responses;
+    }
+
+    private static JsonObject firstRow(JsonObject response) {
+        JsonElement rows = response.get("rows");
+        if (rows == null || !rows.isJsonArray() || rows.getAsJsonArray().size() == 0) {
+            return null;
+        }
+        return rows.getAsJsonArray().get(0).getAsJsonObject();
+    }
+
+    private static Long offset(JsonObject response) {
+        return getLong(response, "offset");
+    }
+
+    private static Long totalRows(JsonObject response) {
+        return getLong(response, "total_rows");
+    }
+
+    private static Long getLong(JsonObject response, String name) {
+        JsonElement value = response.get(name);
+        return (value == null || !value.isJsonPrimitive()) ? null : value.getAsLong();
+    }
+
+    /**
+     * Interpolates a key part of the way between two keys. Strings are treated as numbers with a
+     * digit for each of their first few characters after the common prefix, and arrays are
+     * interpolated at the first element where they differ.
+     *
+     * @param low      the lower key
+     * @param high     the higher key
+     * @param fraction how far between the keys to interpolate, between 0 and 1
+     * @return the interpolated key, or {@code null} if the keys cannot be interpolated
+     */
+    private static JsonElement interpolate(JsonElement low, JsonElement high, double fraction) {
+        if (low.isJsonPrimitive() && high.isJsonPrimitive()) {
+            JsonPrimitive l = low.getAsJsonPrimitive();
+            JsonPrimitive h = high.getAsJsonPrimitive();
+            if (l.isNumber() && h.isNumber()) {
+                double lowValue = l.getAsDouble();
+                double highValue = h.getAsDouble();
+                return (highValue > lowValue) ? new JsonPrimitive(lowValue + (highValue -
+                        lowValue) * fraction) : null;
+            } else if (l.isString() && h.isString()) {
+                return interpolate(l.getAsString(), h.getAsString(), fraction);
+            }
+        } else if (low.isJsonArray() && high.isJsonArray()) {
+            JsonArray l = low.getAsJsonArray();
+            JsonArray h = high.getAsJsonArray();
+            for (int i = 0; i < l.size() && i < h.size(); i++) {
+                if (!l.get(i).equals(h.get(i))) {
+                    JsonElement element = interpolate(l.get(i), h.get(i), fraction);
+                    if (element == null) {
+                        return null;
+                    }
+                    // Keys that start with the same elements and are shorter collate first
+                    JsonArray key = new JsonArray();
+                    for (int j = 0; j < i; j++) {
+                        key.add(l.get(j));
+                    }
+                    key.add(element);
+                    return key;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static JsonElement interpolate(String low, String high, double fraction) {
+        int prefix = 0;
+        while (prefix < low.length() && prefix < high.length() && low.charAt(prefix) == high
+                .charAt(prefix)) {
+            prefix++;
+        }
+        // Each digit is a character offset from the lowest character in use, or 0 past the end
+        // of the string. Digits, lower and upper case letters are included as whole ranges so
+        // that common IDs interpolate evenly.
+        int min = Character.MAX_VALUE;
+        int max = Character.MIN_VALUE;
+        for (String s : new String[]{low, high}) {
+            for (int i = prefix; i < s.length() && i < prefix + INTERPOLATED_CHARS; i++) {
+                char c = s.charAt(i);
+                char[] range = (c >= '0' && c <= '9') ? new char[]{'0', '9'} : (c >= 'a' && c
+                        <= 'z') ? new char[]{'a', 'z'} : (c >= 'A' && c <= 'Z') ? new
+                        char[]{'A', 'Z'} : new char[]{c, c};
+                min = Math.min(min, range[0]);
+                max = Math.max(max, range[1]);
+            }
+        }
+        if (min > max) {
+            return null;
+        }
+        long base = max - min + 2;
+        long lowValue = 0;
+        long highValue = 0;
+        for (int i = prefix; i < prefix + INTERPOLATED_CHARS; i++) {
+            lowValue = lowValue * base + ((i < low.length()) ? low.charAt(i) - min + 1 : 0);
+            highValue = highValue * base + ((i < high.length()) ? high.charAt(i) - min + 1 : 0);
+        }
+        if (highValue <= lowValue) {
+            return null;
+        }
+        long value = lowValue + (long) ((highValue - lowValue) * fraction);
+        StringBuilder key = new StringBuilder(high.substring(0, prefix));
+        long divisor = 1;
+        for (int i = 1; i < INTERPOLATED_CHARS; i++) {
+            divisor *= base;
+        }
+        for (; divisor > 0; divisor /= base) {
+            long digit = (value / divisor) % base;
+            if (digit == 0) {
+                break;
+            }
+            char c = (char) (min + digit - 1);
+            // A lone surrogate is not valid in a request, use the next valid character instead
+            key.append((c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) ?
+                    '\uE000' : c);
+        }
+        return new JsonPrimitive(key.toString());
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!rows.hasNext()) {
+            if (closed || remainingRanges == 0) {
+                return false;
+            }
+            // in unordered mode every range has the same queue, so the index stays at 0
+            Range<K, V> range = ranges.get(rangeIndex);
+            Page<K, V> page;
+            if (inline) {
+                page = fetch(range.next);
+                range.next = page.next;
+            } else {
+                try {
+                    page = range.pages.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new RuntimeException(e);
+                }
+                synchronized (ranges) {
+                    fetchMore();
+                }
+            }
+            if (page.error != null) {
+                close();
+                //iterators can't throw a checked exception, so wrap in a runtime
+                throw (page.error instanceof RuntimeException) ? (RuntimeException) page.error :
+                        new RuntimeException(page.error);
+            }
+            if (page.next == null) {
+                // End of a range, in ordered mode move on to the next range's queue
+                remainingRanges--;
+                if ((ordered || inline) && rangeIndex < ranges.size() - 1) {
+                    rangeIndex++;
+                }
+            }
+            rows = page.rows.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public ViewResponse.Row<K, V> next() {
+        if (hasNext()) {
+            return rows.next();
+        } else {
+            throw new NoSuchElementException("No more rows");
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            rows = Collections.<ViewResponse.Row<K, V>>emptyList().iterator();
+            synchronized (ranges) {
+                for (Future<Void> task : tasks) {
+                    task.cancel(true);
+                }
+                tasks.clear();
+                for (Range<K, V> range : ranges) {
+                    range.pages.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Submits a task to fetch the next page of each range that has no page being fetched or, in
+     * ordered mode, waiting to be consumed. In unordered mode pages are only submitted while
+     * fewer pages are being fetched or waiting than there are ranges. Must be called while
+     * holding the lock on ranges.
+     */
+    private void fetchMore() {
+        for (Iterator<Future<Void>> i = tasks.iterator(); i.hasNext(); ) {
+            if (i.next().isDone()) {
+                i.remove();
+            }
+        }
+        for (final Range<K, V> range : ranges) {
+            if (closed) {
+                return;
+            }
+            if (range.next == null || range.fetching || (ordered ? !range.pages.isEmpty() :
+                    running + range.pages.size() >= ranges.size())) {
+                continue;
+            }
+            final ViewQueryParameters<K, V> query = range.next;
+            try {
+                tasks.add(query.getClient().executeAsync(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        Page<K, V> page = fetch(query);
+                        synchronized (ranges) {
+                            running--;
+                            range.fetching = false;
+                            range.next = page.next;
+                            if (!closed) {
+                                range.pages.add(page);
+                                fetchMore();
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                range.next = null;
+                range.pages.add(new Page<K, V>(null, null, e));
+                return;
+            }
+            range.fetching = true;
+            running++;
+        }
+    }
+
+    /**
+     * Fetches a page of a range, with one extra row to find the start of the following page.
+     *
+     * @param query the query for the page
+     * @return the page, or the error fetching it
+     */
+    private static <K, V> Page<K, V> fetch(ViewQueryParameters<K, V> query) {
+        ViewQueryParameters<K, V> pageQuery = query.copy();
+        pageQuery.limit = PAGE_ROWS + 1;
+        try {
+            JsonElement rows = ViewRequester.getResponseAsJson(pageQuery).get("rows");
+            List<ViewResponse.Row<K, V>> page = new ArrayList<ViewResponse.Row<K, V>>();
+            ViewQueryParameters<K, V> next = null;
+            if (rows != null && rows.isJsonArray()) {
+                JsonArray array = rows.getAsJsonArray();
+                for (int i = 0; i < array.size() && i < PAGE_ROWS; i++) {
+                    page.add(new RowImpl<K, V>(pageQuery, array.get(i)));
+                }
+                if (array.size() > PAGE_ROWS) {
+                    // The extra row is the first row of the following page
+                    JsonObject first = array.get(PAGE_ROWS).getAsJsonObject();
+                    next = query.copy();
+                    next.startkey = first.get("key");
+                    next.startkey_docid = first.has("id") ? first.get("id").getAsString() : null;
+                }
+            }
+            return new Page<K, V>(page, next, null);
+        } catch (Exception e) {
+            return new Page<K, V>(null, null, e);
+        }
+    }
+
+    private static final class Range<K, V> {
+        private final BlockingQueue<Page<K, V>> pages;
+        // guarded by the iterator's ranges, the query for the next page or null once every page
+        // has been fetched
+        private ViewQueryParameters<K, V> next;
+        private boolean fetching = false;
+
+        Range(ViewQueryParameters<K, V> next, BlockingQueue<Page<K, V>> pages) {
+            this.next = next;
+            this.pages = pages;
+        }
+    }
+
+    private static final class Page<K, V> {
+        private final List<ViewResponse.Row<K, V>> rows;
+        // the query for the following page of the range, null if this is its last page
+        private final ViewQueryParameters<K, V> next;
+        private final Exception error;
+
+        Page(List<ViewResponse.Row<K, V>> rows, ViewQueryParameters<K, V> next, Exception
+                error) {
+            this.rows = rows;
+            this.next = next;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.internal.views;
+
+import com.cloudant.client.api.views.ViewResponse;
+import com.cloudant.client.api.views.ViewRowIterator;
+import com.cloudant.client.org.lightcouch.CouchDbClient;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Iterates the rows of every page of a view request, fetching the following pages on the
+ * client's asynchronous executor while the rows of the current page are consumed.
+ * <P>
+ * Each page request needs the last row of the previous page, so pages are fetched in sequence.
+ * Each task fetches one page and then submits the task for the next page, unless
+ * {@code prefetchPages} pages are already waiting to be consumed. In that case the consumer
+ * submits the next task when it takes a page. No task ever waits for the consumer, so an
+ * iterator that is abandoned without being closed does not hold an executor thread.
+ * </P>
+ * <P>
+ * When created from a task on the client's asynchronous executor the pages are fetched in turn
+ * on the consuming thread, as waiting for a task queued behind the caller on a small executor
+ * would never finish.
+ * </P>
+ */
+class PrefetchingRowIterator<K, V> implements ViewRowIterator<K, V> {
+
+    private final ViewRequestImpl<K, V> request;
+    private final ViewQueryParameters<K, V> parameters;
+    private final int prefetchPages;
+    private final boolean inline;
+    private final BlockingQueue<Page<K, V>> pages = new LinkedBlockingQueue<Page<K, V>>();
+    // only used by the one fetch in progress
+    private ViewResponse<K, V> lastFetched = null;
+    private boolean fetchedAll = false;
+    // guarded by pages, the fetch in progress if any
+    private Future<Void> fetcher = null;
+    private Iterator<ViewResponse.Row<K, V>> rows = Collections.<ViewResponse.Row<K, V>>
+            emptyList().iterator();
+    private boolean lastPage = false;
+    private volatile boolean closed = false;
+
+    PrefetchingRowIterator(ViewRequestImpl<K, V> request, ViewQueryParameters<K, V>
+            parameters, int prefetchPages) {
+        if (prefetchPages < 1) {
+            throw new IllegalArgumentException("prefetchPages must be at least 1");
+        }
+        this.request = request;
+        this.parameters = parameters;
+        this.prefetchPages = prefetchPages;
+        this.inline = CouchDbClient.isAsyncThread();
+        if (!inline) {
+            synchronized (pages) {
+                fetchMore();
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!rows.hasNext()) {
+            if (lastPage || closed) {
+                return false;
+            }
+            Page<K, V> page;
+            if (inline) {
+                page = fetch();
+            } else {
+                try {
+                    page = pages.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new RuntimeException(e);
+                }
+                synchronized (pages) {
+                    fetchMore();
+                }
+            }
+            if (page.error != null) {
+                close();
+                //iterators can't throw a checked exception, so wrap in a runtime
+                throw (page.error instanceof RuntimeException) ? (RuntimeException) page.error :
+                        new RuntimeException(page.error);
+            }
+            lastPage = !page.response.hasNextPage();
+            rows = page.response.getRows().iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public ViewResponse.Row<K, V> next() {
+        if (hasNext()) {
+            return rows.next();
+        } else {
+            throw new NoSuchElementException("No more rows");
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            rows = Collections.<ViewResponse.Row<K, V>>emptyList().iterator();
+            synchronized (pages) {
+                if (fetcher != null) {
+                    fetcher.cancel(true);
+                }
+                pages.clear();
+            }
+        }
+    }
+
+    /**
+     * Fetches the page after the last page fetched.
+     *
+     * @return the page, or the error fetching it
+     */
+    private Page<K, V> fetch() {
+        try {
+            ViewResponse<K, V> page = (lastFetched == null) ? request.getResponse() :
+                    lastFetched.nextPage();
+            lastFetched = page;
+            fetchedAll = !page.hasNextPage();
+            return new Page<K, V>(page, null);
+        } catch (Exception e) {
+            fetchedAll = true;
+            return new Page<K, V>(null, e);
+        }
+    }
+
+    /**
+     * Submits a task to fetch the next page, unless one is already running, every page has been
+     * fetched or enough pages are waiting to be consumed. Must be called while holding the lock
+     * on pages.
+     */
+    private void fetchMore() {
+        if (fetcher != null || closed || fetchedAll || pages.size() >= prefetchPages) {
+            return;
+        }
+        try {
+            fetcher = parameters.getClient().executeAsync(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    Page<K, V> page = fetch();
+                    synchronized (pages) {
+                        pages.add(page);
+                        fetcher = null;
+                        fetchMore();
+                    }
+                    return null;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            fetchedAll = true;
+            pages.add(new Page<K, V>(null, e));
+        }
+    }
+
+    private static final class Page<K, V> {
+        private final ViewResponse<K, V> response;
+        private final Exception error;
+
+        Page(ViewResponse<K, V> response, Exception error) {
+            this.response = response;
+            this.error = error;
+        }
+    }
+}
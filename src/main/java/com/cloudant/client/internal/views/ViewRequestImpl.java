@@ -16,10 +16,13 @@ package com.cloudant.client.internal.views;
 
 import com.cloudant.client.api.views.ViewRequest;
 import com.cloudant.client.api.views.ViewResponse;
+import com.cloudant.client.api.views.ViewRowIterator;
 import com.google.gson.JsonObject;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 class ViewRequestImpl<K, V> implements ViewRequest<K, V> {
 
@@ -35,6 +38,33 @@ class ViewRequestImpl<K, V> implements ViewRequest<K, V> {
         return new ViewResponseImpl<K, V>(viewQueryParameters, response);
     }
 
+    @Override
+    public Future<ViewResponse<K, V>> getResponseAsync() {
+        return viewQueryParameters.getClient().executeAsync(new Callable<ViewResponse<K, V>>() {
+            @Override
+            public ViewResponse<K, V> call() throws IOException {
+                return getResponse();
+            }
+        });
+    }
+
+    @Override
+    public ViewRowIterator<K, V> getRowIterator() throws IOException {
+        return new ViewRowIteratorImpl<K, V>(viewQueryParameters, ViewRequester
+                .getResponseAsStream(viewQueryParameters));
+    }
+
+    @Override
+    public ViewRowIterator<K, V> getPagedRowIterator(int prefetchPages) {
+        return new PrefetchingRowIterator<K, V>(this, viewQueryParameters, prefetchPages);
+    }
+
+    @Override
+    public ViewRowIterator<K, V> getPartitionedRowIterator(int partitions, boolean ordered)
+            throws IOException {
+        return new PartitionedRowIterator<K, V>(viewQueryParameters, partitions, ordered, true);
+    }
+
     @Override
     public ViewResponse<K, V> getResponse(String paginationToken) throws IOException {
         if (paginationToken == null) {
@@ -28,6 +28,11 @@ class ViewRequester {
         return executeRequestWithResponseAsJson(parameters, parameters.asGetRequest());
     }
 
+    static InputStream getResponseAsStream(ViewQueryParameters parameters) throws IOException {
+        return parameters.getClient().executeRequest(parameters.asGetRequest())
+                .responseAsInputStream();
+    }
+
     static JsonObject executeRequestWithResponseAsJson(ViewQueryParameters parameters,
                                                        HttpConnection request) throws IOException {
         CloudantClient client = parameters.getClient();
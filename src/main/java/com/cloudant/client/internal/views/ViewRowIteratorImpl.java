@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.internal.views;
+
+import com.cloudant.client.api.views.ViewResponse;
+import com.cloudant.client.api.views.ViewRowIterator;
+import com.cloudant.client.org.lightcouch.internal.CouchDbUtil;
+import com.google.gson.JsonElement;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the "rows" array of a view response with a {@link JsonReader} so that only the current
+ * row is held in memory.
+ */
+class ViewRowIteratorImpl<K, V> implements ViewRowIterator<K, V> {
+
+    private final ViewQueryParameters<K, V> parameters;
+    private final TypeAdapter<JsonElement> rowAdapter;
+    private final JsonReader reader;
+    private final Integer rowsPerPage;
+    private int rowCount = 0;
+    private boolean closed = false;
+    private ViewResponse.Row<K, V> next = null;
+
+    ViewRowIteratorImpl(ViewQueryParameters<K, V> parameters, InputStream response) throws
+            IOException {
+        this.parameters = parameters;
+        this.rowAdapter = parameters.getClient().getGson().getAdapter(JsonElement.class);
+        this.reader = new JsonReader(new InputStreamReader(response, "UTF-8"));
+        // A paginated request asks for one extra row to find the start of the next page, that row
+        // is not part of this page so is not returned.
+        this.rowsPerPage = parameters.getRowsPerPage();
+        try {
+            // Skip over the other response fields (e.g. total_rows, offset) until the rows array
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("rows".equals(reader.nextName())) {
+                    reader.beginArray();
+                    return;
+                }
+                reader.skipValue();
+            }
+            // There was no rows array
+            close();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (closed) {
+            return false;
+        }
+        try {
+            if ((rowsPerPage == null || rowCount < rowsPerPage) && reader.hasNext()) {
+                next = new RowImpl<K, V>(parameters, rowAdapter.read(reader));
+                rowCount++;
+                return true;
+            } else {
+                close();
+                return false;
+            }
+        } catch (IOException e) {
+            close();
+            //iterators can't throw a checked exception, so wrap in a runtime
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public ViewResponse.Row<K, V> next() {
+        if (hasNext()) {
+            ViewResponse.Row<K, V> row = next;
+            next = null;
+            return row;
+        } else {
+            throw new NoSuchElementException("No more rows");
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            CouchDbUtil.close(reader);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+
+package com.cloudant.client.org.lightcouch;
+
+import com.cloudant.http.HttpConnection;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.List;
+
+/**
+ * Writes the {@code {"docs":[...]}} body of a {@code _bulk_docs} request straight to the
+ * connection, serializing one document at a time, so that the request body is never held in
+ * memory.
+ */
+class BulkDocsBodyWriter implements HttpConnection.RequestBodyWriter {
+
+    private final Gson gson;
+    private final List<?> documents;
+    private final boolean allOrNothing;
+
+    BulkDocsBodyWriter(Gson gson, List<?> documents, boolean allOrNothing) {
+        this.gson = gson;
+        this.documents = documents;
+        this.allOrNothing = allOrNothing;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, "UTF-8"));
+        writer.beginObject();
+        if (allOrNothing) {
+            writer.name("all_or_nothing").value(true);
+        }
+        writer.name("docs").beginArray();
+        for (Object document : documents) {
+            if (document == null) {
+                writer.nullValue();
+            } else {
+                gson.toJson(document, document.getClass(), writer);
+            }
+        }
+        writer.endArray();
+        writer.endObject();
+        // flush the encoder's buffer, the stream must not be closed
+        writer.flush();
+    }
+}
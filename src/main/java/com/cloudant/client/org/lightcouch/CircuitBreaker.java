@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.org.lightcouch;
+
+import com.cloudant.client.api.model.CircuitBreakerPolicy;
+import com.cloudant.http.CircuitBreakerListener;
+import com.cloudant.http.CircuitBreakerListener.State;
+import com.cloudant.http.HttpConnection;
+import com.cloudant.http.HttpConnectionInterceptorContext;
+import com.cloudant.http.HttpConnectionResponseInterceptor;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a circuit breaker for each host, following a {@link CircuitBreakerPolicy}.
+ * <P>
+ * The breaker is checked by the connection factory returned from {@link #wrap} before each
+ * attempt of a request is sent, so that a request to a host whose breaker is open fails with a
+ * {@link CircuitBreakerOpenException} instead of waiting for a timeout. The outcome of each
+ * attempt is recorded by this response interceptor, or by {@link CouchDbClient} calling
+ * {@link #failed} if the attempt failed with an exception.
+ * </P>
+ */
+class CircuitBreaker implements HttpConnectionResponseInterceptor {
+
+    private static final Logger logger = Logger.getLogger(CircuitBreaker.class
+            .getCanonicalName());
+
+    private final CircuitBreakerPolicy policy;
+    private final CircuitBreakerListener listener;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<String,
+            Circuit>();
+    // when each connection let through by the breaker was opened, to measure its response
+    // time; other connections using the interceptor, such as cookie requests, are not recorded
+    private final Map<HttpURLConnection, Long> attemptStart = Collections.synchronizedMap(new
+            WeakHashMap<HttpURLConnection, Long>());
+
+    /**
+     * @param policy   the policy for each host's breaker
+     * @param listener the listener for state changes, or null
+     */
+    CircuitBreaker(CircuitBreakerPolicy policy, CircuitBreakerListener listener) {
+        this.policy = policy;
+        this.listener = listener;
+        this.slowCallNanos = policy.getSlowCallDuration(TimeUnit.NANOSECONDS);
+        this.openNanos = policy.getOpenDuration(TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param delegate the factory to open connections with
+     * @return a factory that opens connections with the delegate if the host's breaker allows
+     */
+    HttpConnection.HttpUrlConnectionFactory wrap(final HttpConnection.HttpUrlConnectionFactory
+                                                         delegate) {
+        return new HttpConnection.HttpUrlConnectionFactory() {
+            @Override
+            public HttpURLConnection openConnection(URL url) throws IOException {
+                circuitFor(url).acquire();
+                long start = System.nanoTime();
+                HttpURLConnection connection = delegate.openConnection(url);
+                attemptStart.put(connection, start);
+                return connection;
+            }
+
+            @Override
+            public void setProxy(URL proxyUrl) {
+                delegate.setProxy(proxyUrl);
+            }
+        };
+    }
+
+    /**
+     * @param url a URL on the host
+     * @return false if a request to the host would be rejected because its breaker is open
+     */
+    boolean allows(URL url) {
+        Circuit circuit = circuits.get(key(url));
+        return circuit == null || circuit.allows();
+    }
+
+    /**
+     * Called when an attempt of a request failed with an exception.
+     *
+     * @param connection the request that failed
+     */
+    void failed(HttpConnection connection) {
+        HttpURLConnection urlConnection = connection.getConnection();
+        if (urlConnection == null || attemptStart.remove(urlConnection) == null) {
+            return;
+        }
+        Circuit circuit = circuits.get(key(urlConnection.getURL()));
+        if (circuit != null) {
+            circuit.record(true, false);
+        }
+    }
+
+    @Override
+    public HttpConnectionInterceptorContext interceptResponse(HttpConnectionInterceptorContext
+                                                                      context) {
+        HttpURLConnection connection = context.connection.getConnection();
+        Long start = attemptStart.remove(connection);
+        Circuit circuit = circuits.get(key(connection.getURL()));
+        if (start == null || circuit == null) {
+            return context;
+        }
+        try {
+            boolean failure = connection.getResponseCode() / 100 == 5;
+            boolean slow = System.nanoTime() - start >= slowCallNanos;
+            circuit.record(failure, slow);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to get response code from request", e);
+        }
+        return context;
+    }
+
+    private Circuit circuitFor(URL url) {
+        String key = key(url);
+        Circuit circuit = circuits.get(key);
+        if (circuit == null) {
+            Circuit created = new Circuit(key);
+            circuit = circuits.putIfAbsent(key, created);
+            if (circuit == null) {
+                circuit = created;
+            }
+        }
+        return circuit;
+    }
+
+    private static String key(URL url) {
+        int port = (url.getPort() < 0) ? url.getDefaultPort() : url.getPort();
+        return url.getProtocol() + "://" + url.getHost().toLowerCase(Locale.ENGLISH) + ":" + port;
+    }
+
+    private final class Circuit {
+
+        private final String host;
+        // the outcomes of the most recent attempts in CLOSED state
+        private final boolean[] failed = new boolean[policy.getWindowSize()];
+        private final boolean[] slow = new boolean[policy.getWindowSize()];
+        private int calls = 0;
+        private int next = 0;
+        private int failures = 0;
+        private int slowCalls = 0;
+        private State state = State.CLOSED;
+        private long changedAtNanos = System.nanoTime();
+        // trial attempts let through and completed in HALF_OPEN state
+        private int trialsStarted = 0;
+        private int trialsCompleted = 0;
+
+        Circuit(String host) {
+            this.host = host;
+        }
+
+        synchronized boolean allows() {
+            long openFor = System.nanoTime() - changedAtNanos;
+            switch (state) {
+                case OPEN:
+                    return openFor >= openNanos;
+                case HALF_OPEN:
+                    return trialsStarted < policy.getHalfOpenCalls() || openFor >= openNanos;
+                default:
+                    return true;
+            }
+        }
+
+        /**
+         * Lets an attempt through or throws if the breaker is open.
+         */
+        void acquire() {
+            State from = null;
+            synchronized (this) {
+                long now = System.nanoTime();
+                if (state == State.OPEN) {
+                    if (now - changedAtNanos < openNanos) {
+                        throw new CircuitBreakerOpenException(host);
+                    }
+                    from = moveTo(State.HALF_OPEN, now);
+                }
+                if (state == State.HALF_OPEN) {
+                    if (trialsStarted >= policy.getHalfOpenCalls()) {
+                        if (now - changedAtNanos < openNanos) {
+                            throw new CircuitBreakerOpenException(host);
+                        }
+                        // the outcomes of the trials were not recorded, so try again
+                        trialsStarted = 0;
+                        trialsCompleted = 0;
+                        changedAtNanos = now;
+                    }
+                    trialsStarted++;
+                }
+            }
+            notifyListener(from, State.HALF_OPEN);
+        }
+
+        void record(boolean failure, boolean slowCall) {
+            State from = null;
+            State to = null;
+            synchronized (this) {
+                if (state == State.HALF_OPEN) {
+                    trialsCompleted++;
+                    if (failure || slowCall) {
+                        to = State.OPEN;
+                    } else if (trialsCompleted >= policy.getHalfOpenCalls()) {
+                        to = State.CLOSED;
+                    }
+                } else if (state == State.CLOSED) {
+                    if (calls == failed.length) {
+                        failures -= failed[next] ? 1 : 0;
+                        slowCalls -= slow[next] ? 1 : 0;
+                    } else {
+                        calls++;
+                    }
+                    failed[next] = failure;
+                    slow[next] = slowCall;
+                    failures += failure ? 1 : 0;
+                    slowCalls += slowCall ? 1 : 0;
+                    next = (next + 1) % failed.length;
+                    boolean enough = calls >= Math.min(policy.getMinimumCalls(), failed.length);
+                    if (enough && (failures >= policy.getFailureRateThreshold() * calls ||
+                            slowCalls >= policy.getSlowCallRateThreshold() * calls)) {
+                        to = State.OPEN;
+                    }
+                }
+                if (to != null) {
+                    from = moveTo(to, System.nanoTime());
+                }
+            }
+            notifyListener(from, to);
+        }
+
+        /**
+         * @return the previous state
+         */
+        private State moveTo(State to, long now) {
+            State from = state;
+            state = to;
+            changedAtNanos = now;
+            trialsStarted = 0;
+            trialsCompleted = 0;
+            calls = 0;
+            next = 0;
+            failures = 0;
+            slowCalls = 0;
+            return from;
+        }
+
+        private void notifyListener(State from, State to) {
+            if (from == null) {
+                return;
+            }
+            if (to == State.OPEN) {
+                logger.warning("Circuit breaker opened for " + host);
+            } else if (to == State.CLOSED) {
+                logger.info("Circuit breaker closed for " + host);
+            }
+            if (listener != null) {
+                try {
+                    listener.stateChanged(host, from, to);
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Circuit breaker listener failed", e);
+                }
+            }
+        }
+    }
+}
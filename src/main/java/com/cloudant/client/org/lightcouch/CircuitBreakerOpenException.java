@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.org.lightcouch;
+
+/**
+ * <P>
+ * CouchDbException thrown instead of sending a request when the circuit breaker for the host is
+ * open because too many recent requests to it failed or were slow.
+ * </P>
+ *
+ * @see com.cloudant.client.api.ClientBuilder#circuitBreaker(com.cloudant.client.api.model
+ * .CircuitBreakerPolicy)
+ * @since 2.4.0
+ */
+public class CircuitBreakerOpenException extends CouchDbException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String host;
+
+    public CircuitBreakerOpenException(String host) {
+        super("Circuit breaker is open for " + host);
+        this.host = host;
+    }
+
+    /**
+     * @return the host the request was for, as {@code protocol://host:port}
+     */
+    public String getHost() {
+        return host;
+    }
+}
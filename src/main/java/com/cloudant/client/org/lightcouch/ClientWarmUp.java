@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.org.lightcouch;
+
+import static com.cloudant.client.org.lightcouch.internal.CouchDbUtil.close;
+
+import com.cloudant.client.api.model.WarmUpOptions;
+import com.cloudant.http.Http;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Warms up a client with {@link WarmUpOptions}: creates the Gson type adapters for the types,
+ * then sends concurrent requests for the server root to open connections and get a session
+ * cookie. Each request waits for the others to receive their response before reading its body,
+ * so that they cannot reuse each other's connection.
+ */
+class ClientWarmUp implements Callable<Void> {
+
+    private static final Logger logger = Logger.getLogger(ClientWarmUp.class.getCanonicalName());
+
+    private final CouchDbClient client;
+    private final WarmUpOptions options;
+    private final URI root;
+
+    ClientWarmUp(CouchDbClient client, WarmUpOptions options, URI root) {
+        this.client = client;
+        this.options = options;
+        this.root = root;
+    }
+
+    @Override
+    public Void call() throws Exception {
+        Gson gson = client.getGson();
+        for (Type type : options.getTypes()) {
+            gson.getAdapter(TypeToken.get(type));
+        }
+        int connections = options.getConnections();
+        try {
+            if (connections > 0) {
+                openConnections(connections);
+            }
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Client warm-up failed", e);
+            throw e;
+        }
+        return null;
+    }
+
+    private void openConnections(int connections) throws Exception {
+        final CountDownLatch responded = new CountDownLatch(connections);
+        ExecutorService requests = Executors.newFixedThreadPool(connections, new
+                WarmUpThreadFactory());
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>(connections);
+            for (int i = 0; i < connections; i++) {
+                results.add(requests.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        InputStream in = null;
+                        try {
+                            // not coalesced, each request must open its own connection
+                            in = client.executeDirect(Http.GET(root)).responseAsInputStream();
+                        } finally {
+                            responded.countDown();
+                        }
+                        try {
+                            responded.await();
+                            IOUtils.toByteArray(in);
+                        } finally {
+                            close(in);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            requests.shutdownNow();
+        }
+    }
+
+    private static final class WarmUpThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "cloudant-warm-up-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -74,6 +74,7 @@ public abstract class CouchDatabaseBase {
 
     /**
      * Finds an Object of the specified type.
+     * <p>If the client has a document cache the document is read through it.
      *
      * @param <T>       Object type.
      * @param classType The class of type T.
@@ -85,7 +86,22 @@ public abstract class CouchDatabaseBase {
         assertNotEmpty(classType, "Class");
         assertNotEmpty(id, "id");
         final URI uri = new DatabaseURIHelper(dbUri).documentUri(id);
-        return couchDbClient.get(uri, classType);
+        DocumentCache cache = couchDbClient.getDocumentCache();
+        if (cache != null) {
+            return cache.get(uri, classType);
+        }
+        InputStream response = null;
+        try {
+            // a hedged or coalesced request may have been completed by another connection
+            HttpConnection connection = couchDbClient.execute(Http.GET(uri));
+            response = connection.responseAsInputStream();
+            couchDbClient.documentRead(uri, connection.getConnection().getHeaderField("ETag"));
+            return getResponse(response, classType, getGson());
+        } catch (IOException e) {
+            throw new CouchDbException("Error retrieving server response", e);
+        } finally {
+            close(response);
+        }
     }
 
     /**
@@ -207,15 +223,30 @@ public abstract class CouchDatabaseBase {
      * @return {@link Response}
      */
     public Response post(Object object) {
+        return post(object, -1);
+    }
+
+    /**
+     * Saves an object in the database using HTTP <tt>POST</tt> request with a specific write
+     * quorum.
+     * <p>The database will be responsible for generating the document id.
+     *
+     * @param object      The object to save
+     * @param writeQuorum The write quorum, or -1 to use the database default
+     * @return {@link Response}
+     */
+    public Response post(Object object, int writeQuorum) {
         assertNotEmpty(object, "object");
-        InputStream response = null;
-        try {
-            response = couchDbClient.post(new DatabaseURIHelper(dbUri).getDatabaseUri(),
-                    getGson().toJson(object));
-            return getResponse(response, Response.class, getGson());
-        } finally {
-            close(response);
+        DatabaseURIHelper uri = new DatabaseURIHelper(dbUri);
+        if (writeQuorum > -1) {
+            uri.query("w", writeQuorum);
         }
+        HttpConnection connection = Http.POST(uri.build(), "application/json");
+        connection.setRequestBody(getGson().toJson(object));
+        Response response = couchDbClient.executeToResponse(connection);
+        couchDbClient.documentWritten(new DatabaseURIHelper(dbUri).documentUri(response.getId()),
+                response.getRev());
+        return response;
     }
 
     /**
@@ -230,6 +261,63 @@ public abstract class CouchDatabaseBase {
         return couchDbClient.put(getDBUri(), object, false);
     }
 
+    /**
+     * Saves or updates a document, replacing the current revision of the document if it exists.
+     * <p>The revision to update is taken from the client's revision cache if it is enabled, so
+     * that the document does not need to be read first. If the revision is not known or is out
+     * of date the write fails with a conflict; the current revision is then read with a
+     * <tt>HEAD</tt> request and the write is sent again.
+     *
+     * @param object The object to save or update, it must have an <code>_id</code> value
+     * @return {@link Response}
+     * @throws DocumentConflictException If the document was changed again between reading its
+     *                                   revision and writing it.
+     */
+    public Response upsert(Object object) {
+        assertNotEmpty(object, "object");
+        JsonObject json = getGson().toJsonTree(object).getAsJsonObject();
+        String id = getAsString(json, "_id");
+        assertNotEmpty(id, "id");
+        URI uri = new DatabaseURIHelper(dbUri).documentUri(id);
+        RevisionCache revisions = couchDbClient.getRevisionCache();
+        String rev = (revisions == null) ? null : revisions.get(uri);
+        try {
+            return putRevision(json, rev);
+        } catch (DocumentConflictException e) {
+            return putRevision(json, currentRevision(uri));
+        }
+    }
+
+    private Response putRevision(JsonObject json, String rev) {
+        if (rev == null) {
+            json.remove("_rev");
+        } else {
+            json.addProperty("_rev", rev);
+        }
+        return couchDbClient.put(getDBUri(), json, rev == null);
+    }
+
+    /**
+     * @return the current revision of the document from the ETag of a <tt>HEAD</tt> request, or
+     * null if the document does not exist
+     */
+    private String currentRevision(URI uri) {
+        InputStream response = null;
+        try {
+            HttpConnection connection = couchDbClient.execute(Http.HEAD(uri));
+            response = connection.responseAsInputStream();
+            String etag = connection.getConnection().getHeaderField("ETag");
+            couchDbClient.documentRead(uri, etag);
+            return RevisionCache.revFromETag(etag);
+        } catch (NoDocumentException e) {
+            return null;
+        } catch (IOException e) {
+            throw new CouchDbException("Error retrieving server response", e);
+        } finally {
+            close(response);
+        }
+    }
+
     /**
      * Removes a document from the database.
      * <p>The object must have the correct <code>_id</code> and <code>_rev</code> values.
@@ -259,7 +347,9 @@ public abstract class CouchDatabaseBase {
         assertNotEmpty(id, "id");
         assertNotEmpty(rev, "rev");
         final URI uri = new DatabaseURIHelper(dbUri).documentUri(id, rev);
-        return couchDbClient.delete(uri);
+        Response response = couchDbClient.delete(uri);
+        couchDbClient.documentWritten(new DatabaseURIHelper(dbUri).documentUri(id), null);
+        return response;
     }
 
     /**
@@ -274,17 +364,12 @@ public abstract class CouchDatabaseBase {
         InputStream responseStream = null;
         HttpConnection connection;
         try {
-            final JsonObject jsonObject = new JsonObject();
-            if(allOrNothing) {
-                jsonObject.addProperty("all_or_nothing", true);
-            }
             final URI uri = new DatabaseURIHelper(dbUri).bulkDocsUri();
-            jsonObject.add("docs", getGson().toJsonTree(objects));
             connection = Http.POST(uri, "application/json");
-            if (jsonObject.toString().length() != 0) {
-                connection.setRequestBody(jsonObject.toString());
-            }
-            couchDbClient.execute(connection);
+            // the body is written as it is sent, so its length is not known
+            connection.setRequestBody(new BulkDocsBodyWriter(getGson(), objects, allOrNothing),
+                    -1);
+            connection = couchDbClient.execute(connection);
             responseStream = connection.responseAsInputStream();
             List<Response> bulkResponses = getResponseList(responseStream, getGson(),
                     new TypeToken<List<Response>>() {
@@ -292,6 +377,13 @@ public abstract class CouchDatabaseBase {
             for(Response response : bulkResponses) {
                 response.setStatusCode(connection.getConnection().getResponseCode());
                 response.setReason(connection.getConnection().getResponseMessage());
+                response.setTimings(connection.getTimings());
+                if (response.getId() != null) {
+                    // a failed write leaves the revision unknown
+                    couchDbClient.documentWritten(new DatabaseURIHelper(dbUri).documentUri
+                            (response.getId()), (response.getError() == null) ? response
+                            .getRev() : null);
+                }
             }
             return bulkResponses;
         }
@@ -348,7 +440,10 @@ public abstract class CouchDatabaseBase {
             }
         }
         final URI uri = new DatabaseURIHelper(dbUri).attachmentUri(docId, docRev, name);
-        return couchDbClient.put(uri, in, contentType);
+        Response response = couchDbClient.put(uri, in, contentType);
+        couchDbClient.documentWritten(new DatabaseURIHelper(dbUri).documentUri(docId), response
+                .getRev());
+        return response;
     }
 
     /**
@@ -368,20 +463,35 @@ public abstract class CouchDatabaseBase {
     public String invokeUpdateHandler(String updateHandlerUri, String docId, Params params) {
         assertNotEmpty(updateHandlerUri, "uri");
         final String[] v = updateHandlerUri.split("/");
-        final InputStream response;
-        final URI uri;
+        HttpConnection connection;
         DatabaseURIHelper uriHelper = new DatabaseURIHelper(dbUri).path("_design").path(v[0])
                 .path("_update").path(v[1]).query(params);
         if (docId != null && !docId.isEmpty()) {
             //Create PUT request using doc Id
-            uri = uriHelper.path(docId).build();
-            response = couchDbClient.put(uri);
+            connection = Http.PUT(uriHelper.path(docId).build(), "application/json");
         } else {
             //If no doc Id, create POST request
-            uri = uriHelper.build();
-            response = couchDbClient.post(uri, null);
+            connection = Http.POST(uriHelper.build(), "application/json");
+        }
+        InputStream response = null;
+        try {
+            connection = couchDbClient.execute(connection);
+            response = connection.responseAsInputStream();
+            // The server names the document the handler wrote, if any, and its new revision
+            String writtenId = connection.getConnection().getHeaderField("X-Couch-Id");
+            if (writtenId == null && docId != null && !docId.isEmpty()) {
+                writtenId = docId;
+            }
+            if (writtenId != null) {
+                couchDbClient.documentWritten(new DatabaseURIHelper(dbUri).documentUri
+                        (writtenId), connection.getConnection().getHeaderField
+                        ("X-Couch-Update-NewRev"));
+            }
+            return streamToString(response);
+        } catch (IOException e) {
+            close(response);
+            throw new CouchDbException("Error retrieving server response", e);
         }
-        return streamToString(response);
     }
 
     /**
@@ -21,15 +21,22 @@ import static com.cloudant.client.org.lightcouch.internal.CouchDbUtil.generateUU
 import static com.cloudant.client.org.lightcouch.internal.CouchDbUtil.getAsString;
 import static com.cloudant.client.org.lightcouch.internal.CouchDbUtil.getResponse;
 
+import com.cloudant.client.api.model.ConnectionPoolStats;
+import com.cloudant.client.api.model.DocumentCacheStats;
+import com.cloudant.client.api.model.EndpointStats;
+import com.cloudant.client.api.model.WarmUpOptions;
 import com.cloudant.client.internal.DatabaseURIHelper;
 import com.cloudant.client.internal.URIBase;
 import com.cloudant.client.org.lightcouch.internal.GsonHelper;
 import com.cloudant.http.Http;
 import com.cloudant.http.HttpConnection;
+import com.cloudant.http.HttpConnectionInterceptorChain;
 import com.cloudant.http.HttpConnectionRequestInterceptor;
 import com.cloudant.http.HttpConnectionResponseInterceptor;
+import com.cloudant.http.RequestTimingListener;
 import com.cloudant.http.interceptors.HttpConnectionInterceptorException;
 import com.cloudant.http.internal.DefaultHttpUrlConnectionFactory;
+import com.cloudant.http.internal.ok.InstrumentedSocketFactory;
 import com.cloudant.http.internal.ok.OkHttpClientHttpUrlConnectionFactory;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -52,10 +59,20 @@ import java.lang.reflect.Type;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 
 /**
@@ -73,14 +90,51 @@ public class CouchDbClient {
 
     private URI clientUri;
 
-    private List<HttpConnectionRequestInterceptor> requestInterceptors;
-    private List<HttpConnectionResponseInterceptor> responseInterceptors;
+    // built once and shared by every request
+    private final HttpConnectionInterceptorChain interceptorChain;
+
+    private final RequestTimingListener timingListener;
+
+    // null if no requests are hedged
+    private final RequestHedger hedger;
+
+    // null if there is only one endpoint
+    private final EndpointRouter router;
+
+    // null if no circuit breaker is configured
+    private final CircuitBreaker breaker;
+
+    // null if identical GET requests are not coalesced
+    private final RequestCoalescer coalescer;
+
+    private final DocumentCache documentCache;
+
+    private final RevisionCache revisionCache;
+
+    // the default deadline of requests in nanoseconds, or 0 for no deadline
+    private final long requestDeadlineNanos;
+
+    // the System.nanoTime() deadline set by withDeadline for requests made by the current thread
+    private final ThreadLocal<Long> scopedDeadline = new ThreadLocal<Long>();
+
+    // opens the connections of requests to the client's URL when there is only one endpoint
+    private final HttpConnection.HttpUrlConnectionFactory requestFactory;
+
+    private final ExecutorService asyncExecutor;
+    // true if the executor was created by this client and so should be shutdown with it
+    private final boolean ownsAsyncExecutor;
+    // set while a task submitted to the executor of any client is running on the current
+    // thread, as clients can share an executor
+    private static final ThreadLocal<Boolean> inAsyncTask = new ThreadLocal<Boolean>();
 
     private HttpConnection.HttpUrlConnectionFactory factory =
             (OkHttpClientHttpUrlConnectionFactory.isOkUsable())
                     ? new OkHttpClientHttpUrlConnectionFactory()
                     : new DefaultHttpUrlConnectionFactory();
 
+    // a separate pool for change feeds, null if feeds use the pool of other requests
+    private final OkHttpClientHttpUrlConnectionFactory feedFactory;
+
     CouchDbClient(CouchDbConfig config) {
         final CouchDbProperties props = config.getProperties();
 
@@ -97,30 +151,104 @@ public class CouchDbClient {
         if (OkHttpClientHttpUrlConnectionFactory.isOkUsable() && props.getMaxConnections() > 0) {
             OkHttpClientHttpUrlConnectionFactory factory = new
                     OkHttpClientHttpUrlConnectionFactory();
-            //keep connections open for as long as possible, anything over 2.5 minutes will be
-            //longer than the server
-            ConnectionPool pool = new ConnectionPool(props.getMaxConnections(), TimeUnit.MINUTES
-                    .toMillis(3));
+            //idle connections are evicted from the pool after the keep-alive duration
+            ConnectionPool pool = new ConnectionPool(props.getMaxConnections(), props
+                    .getConnectionKeepAliveMillis());
             factory.getOkHttpClient().setConnectionPool(pool);
             this.factory = factory;
         } else {
             factory = new DefaultHttpUrlConnectionFactory();
         }
 
+        //long-lived feeds can get their own pool so they cannot take connections from short
+        //requests; the size only bounds idle connections, not the feeds open at the same time
+        if (factory instanceof OkHttpClientHttpUrlConnectionFactory && props
+                .getFeedConnectionPoolSize() > 0) {
+            this.feedFactory = new OkHttpClientHttpUrlConnectionFactory();
+            feedFactory.getOkHttpClient().setConnectionPool(new ConnectionPool(props
+                    .getFeedConnectionPoolSize(), props.getConnectionKeepAliveMillis()));
+        } else {
+            this.feedFactory = null;
+        }
+
         //set the proxy if it has been configured
         if (props.getProxyURL() != null) {
             factory.setProxy(props.getProxyURL());
+            if (feedFactory != null) {
+                feedFactory.setProxy(props.getProxyURL());
+            }
+        }
+
+        HttpConnection.HttpUrlConnectionFactory baseFactory = (feedFactory == null) ? factory :
+                new FeedSeparatingFactory(factory, feedFactory);
+
+        List<HttpConnectionRequestInterceptor> requestInterceptors = new
+                ArrayList<HttpConnectionRequestInterceptor>();
+        List<HttpConnectionResponseInterceptor> responseInterceptors = new
+                ArrayList<HttpConnectionResponseInterceptor>();
+
+        if (props.getCircuitBreakerPolicy() != null) {
+            this.breaker = new CircuitBreaker(props.getCircuitBreakerPolicy(), props
+                    .getCircuitBreakerListener());
+            this.requestFactory = breaker.wrap(baseFactory);
+        } else {
+            this.breaker = null;
+            this.requestFactory = baseFactory;
         }
 
-        this.requestInterceptors = new ArrayList<HttpConnectionRequestInterceptor>();
-        this.responseInterceptors = new ArrayList<HttpConnectionResponseInterceptor>();
+        if (props.getEndpoints() != null && !props.getEndpoints().isEmpty()) {
+            this.router = new EndpointRouter(props.getCouchDbURL(), props.getEndpoints(), props
+                    .isPinWritesToPrimary(), props.getEndpointProbeIntervalMillis(),
+                    baseFactory, breaker);
+            //first so that failures are seen before any other interceptor acts on them
+            responseInterceptors.add(router);
+        } else {
+            this.router = null;
+        }
+        if (breaker != null) {
+            responseInterceptors.add(breaker);
+        }
 
         if (props.getRequestInterceptors() != null) {
-            this.requestInterceptors.addAll(props.getRequestInterceptors());
+            requestInterceptors.addAll(props.getRequestInterceptors());
         }
 
         if (props.getResponseInterceptors() != null) {
-            this.responseInterceptors.addAll(props.getResponseInterceptors());
+            responseInterceptors.addAll(props.getResponseInterceptors());
+        }
+        this.interceptorChain = new HttpConnectionInterceptorChain(requestInterceptors,
+                responseInterceptors);
+
+        this.timingListener = props.getRequestTimingListener();
+
+        this.coalescer = props.isCoalesceReads() ? new RequestCoalescer(this) : null;
+
+        this.documentCache = (props.getDocumentCachePolicy() == null) ? null : new
+                DocumentCache(this, props.getDocumentCachePolicy());
+        this.revisionCache = (props.getRevisionCacheSize() > 0) ? new RevisionCache(props
+                .getRevisionCacheSize()) : null;
+
+        this.requestDeadlineNanos = TimeUnit.MILLISECONDS.toNanos(props
+                .getRequestDeadlineMillis());
+
+        if (props.getLookupHedgePolicy() != null || props.getQueryHedgePolicy() != null) {
+            // each request in flight can have a duplicate in flight as well
+            this.hedger = new RequestHedger(props.getLookupHedgePolicy(), props
+                    .getQueryHedgePolicy(), timingListener, Math.max(1, props
+                    .getMaxConnections()) * 2);
+        } else {
+            this.hedger = null;
+        }
+
+        if (props.getAsyncExecutor() != null) {
+            this.asyncExecutor = props.getAsyncExecutor();
+            this.ownsAsyncExecutor = false;
+        } else {
+            //default to a fixed size pool of daemon threads, one per connection, the threads are
+            //only started when tasks are submitted
+            this.asyncExecutor = Executors.newFixedThreadPool(Math.max(1, props
+                    .getMaxConnections()), new AsyncThreadFactory());
+            this.ownsAsyncExecutor = true;
         }
     }
 
@@ -140,11 +268,205 @@ public class CouchDbClient {
      * Connection manager is no longer used.
      */
     public void shutdown() {
-        // Delete the cookie _session if there is one
-        HttpConnection conn = execute(Http.DELETE(new URIBase(clientUri).path("_session")
-                .build()));
+        try {
+            // Delete the cookie _session if there is one
+            HttpConnection conn = execute(Http.DELETE(new URIBase(clientUri).path("_session")
+                    .build()));
+
+            // The execute method handles non-2xx response codes by throwing a CouchDbException.
+        } finally {
+            if (ownsAsyncExecutor) {
+                asyncExecutor.shutdown();
+            }
+            if (hedger != null) {
+                hedger.shutdown();
+            }
+            if (router != null) {
+                router.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Submits a task for asynchronous execution on the executor of this client.
+     *
+     * @param task the task to execute
+     * @param <T>  the result type of the task
+     * @return a Future representing the pending result of the task
+     */
+    public <T> Future<T> submit(final Callable<T> task) {
+        return asyncExecutor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                Boolean outer = inAsyncTask.get();
+                inAsyncTask.set(Boolean.TRUE);
+                try {
+                    return task.call();
+                } finally {
+                    inAsyncTask.set(outer);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return true if the current thread is running a task submitted with {@link
+     * #submit(Callable)} to any client, so must not wait for other tasks that might be queued
+     * behind it
+     */
+    public static boolean isAsyncThread() {
+        return inAsyncTask.get() != null;
+    }
+
+    /**
+     * Runs an operation with a deadline for all the requests it makes on the calling thread.
+     * A deadline that is already set for the calling thread is kept if it is earlier.
+     *
+     * @param timeout   the time allowed for the operation
+     * @param unit      the unit of the timeout
+     * @param operation the operation to run
+     * @param <T>       the result type of the operation
+     * @return the result of the operation
+     * @throws Exception if the operation threw an exception
+     */
+    public <T> T withDeadline(long timeout, TimeUnit unit, Callable<T> operation) throws
+            Exception {
+        Long outer = scopedDeadline.get();
+        long deadlineAt = System.nanoTime() + unit.toNanos(timeout);
+        if (outer != null && outer - deadlineAt < 0) {
+            deadlineAt = outer;
+        }
+        scopedDeadline.set(deadlineAt);
+        try {
+            return operation.call();
+        } finally {
+            if (outer == null) {
+                scopedDeadline.remove();
+            } else {
+                scopedDeadline.set(outer);
+            }
+        }
+    }
+
+    /**
+     * Warms up this client by creating Gson type adapters, opening connections and getting a
+     * session cookie.
+     *
+     * @param options the warm-up options
+     * @return a Future that completes when the warm-up has finished, on this thread unless the
+     * options are for an asynchronous warm-up
+     */
+    public Future<Void> warmUp(WarmUpOptions options) {
+        ClientWarmUp warmUp = new ClientWarmUp(this, options, clientUri);
+        if (options.isAsync()) {
+            return asyncExecutor.submit(warmUp);
+        }
+        FutureTask<Void> task = new FutureTask<Void>(warmUp);
+        task.run();
+        return task;
+    }
+
+    /**
+     * @return statistics for the connection pool, or {@code null} if the JVM built-in pooling for
+     * HttpUrlConnection is in use because OkHttp is not available
+     */
+    public ConnectionPoolStats getConnectionPoolStats() {
+        if (!(factory instanceof OkHttpClientHttpUrlConnectionFactory)) {
+            return null;
+        }
+        return poolStats((OkHttpClientHttpUrlConnectionFactory) factory);
+    }
+
+    /**
+     * @return the document cache, or {@code null} if documents are not cached
+     */
+    DocumentCache getDocumentCache() {
+        return documentCache;
+    }
+
+    /**
+     * @return the revision cache, or {@code null} if revisions are not cached
+     */
+    RevisionCache getRevisionCache() {
+        return revisionCache;
+    }
+
+    /**
+     * Records that a document has been written, so that it is removed from the document cache
+     * and its revision is cached.
+     *
+     * @param documentUri the URI of the document, without query parameters
+     * @param rev         the new revision of the document, or null if it is not known or the
+     *                    document was deleted
+     */
+    void documentWritten(URI documentUri, String rev) {
+        if (documentCache != null) {
+            documentCache.invalidate(documentUri);
+        }
+        if (revisionCache != null) {
+            revisionCache.put(documentUri, rev);
+        }
+    }
+
+    /**
+     * Records the revision of a document that has been read.
+     *
+     * @param documentUri the URI of the document, without query parameters
+     * @param etag        the ETag header of the response
+     */
+    void documentRead(URI documentUri, String etag) {
+        if (revisionCache != null && etag != null) {
+            revisionCache.put(documentUri, RevisionCache.revFromETag(etag));
+        }
+    }
+
+    /**
+     * @return statistics for the document cache, or {@code null} if documents are not cached
+     */
+    public DocumentCacheStats getDocumentCacheStats() {
+        return (documentCache == null) ? null : documentCache.getStats();
+    }
+
+    /**
+     * @return statistics for the connection pool for change feeds, or {@code null} if feeds use
+     * the pool of other requests
+     */
+    public ConnectionPoolStats getFeedConnectionPoolStats() {
+        return (feedFactory == null) ? null : poolStats(feedFactory);
+    }
+
+    private static ConnectionPoolStats poolStats(OkHttpClientHttpUrlConnectionFactory okFactory) {
+        InstrumentedSocketFactory sockets = okFactory.getSocketFactory();
+        // HTTP/1.1 connections are only held in the pool while they are idle
+        int idle = okFactory.getOkHttpClient().getConnectionPool().getHttpConnectionCount();
+        long opened = sockets.getConnectedCount();
+        long closed = sockets.getClosedCount();
+        int active = (int) Math.max(0, opened - closed - idle);
+        return new ConnectionPoolStats(idle, active, opened, closed, sockets.getConnectNanos());
+    }
 
-        // The execute method handles non-2xx response codes by throwing a CouchDbException.
+    /**
+     * @return the state of each endpoint requests are routed to, or an empty list if there is
+     * only one endpoint
+     */
+    public List<EndpointStats> getEndpointStats() {
+        if (router == null) {
+            return Collections.emptyList();
+        }
+        return router.getStats();
+    }
+
+    /**
+     * Closes the idle connections in the connection pool. Connections in use are not affected.
+     */
+    public void evictIdleConnections() {
+        if (factory instanceof OkHttpClientHttpUrlConnectionFactory) {
+            ((OkHttpClientHttpUrlConnectionFactory) factory).getOkHttpClient().getConnectionPool()
+                    .evictAll();
+        }
+        if (feedFactory != null) {
+            feedFactory.getOkHttpClient().getConnectionPool().evictAll();
+        }
     }
 
     /**
@@ -288,10 +610,13 @@ public class CouchDbClient {
     public Response executeToResponse(HttpConnection connection) {
         InputStream is = null;
         try {
-            is = this.executeToInputStream(connection);
+            // a hedged request may have been completed by a duplicate connection
+            connection = execute(connection);
+            is = connection.responseAsInputStream();
             Response response = getResponse(is, Response.class, getGson());
             response.setStatusCode(connection.getConnection().getResponseCode());
             response.setReason(connection.getConnection().getResponseMessage());
+            response.setTimings(connection.getTimings());
             return response;
         } catch (IOException e) {
             throw new CouchDbException("Error retrieving response code or message.", e);
@@ -328,7 +653,11 @@ public class CouchDbClient {
     public <T> T get(URI uri, Class<T> classType) {
         HttpConnection connection = Http.GET(uri);
         InputStream response = executeToInputStream(connection);
-        return getResponse(response, classType, getGson());
+        try {
+            return getResponse(response, classType, getGson());
+        } finally {
+            close(response);
+        }
     }
 
     /**
@@ -413,7 +742,9 @@ public class CouchDbClient {
         HttpConnection connection = Http.PUT(httpUri, "application/json");
         connection.setRequestBody(json.toString());
 
-        return executeToResponse(connection);
+        Response response = executeToResponse(connection);
+        documentWritten(new DatabaseURIHelper(uri).documentUri(id), response.getRev());
+        return response;
     }
 
     /**
@@ -456,14 +787,30 @@ public class CouchDbClient {
      * @throws CouchDbException for HTTP error codes or if an IOException was thrown
      */
     public HttpConnection execute(HttpConnection connection) {
+        if (coalescer != null && RequestCoalescer.canCoalesce(connection)) {
+            return coalescer.execute(connection);
+        }
+        return executeDirect(connection);
+    }
+
+    /**
+     * Execute a HTTP request without coalescing it with identical requests.
+     *
+     * @see #execute(HttpConnection)
+     */
+    HttpConnection executeDirect(HttpConnection connection) {
 
         //set our HttpUrlFactory on the connection
-        connection.connectionFactory = factory;
+        connection.connectionFactory = (router == null) ? requestFactory : router.factoryFor
+                (connection);
 
         // all CouchClient requests want to receive application/json responses
         connection.requestProperties.put("Accept", "application/json");
-        connection.responseInterceptors.addAll(this.responseInterceptors);
-        connection.requestInterceptors.addAll(this.requestInterceptors);
+        connection.setInterceptorChain(interceptorChain);
+        if (timingListener != null) {
+            connection.setRequestTimingListener(timingListener);
+        }
+        applyDeadline(connection);
         InputStream es = null; // error stream - response from server for a 500 etc
 
         // first try to execute our request and get the input stream with the server's response
@@ -472,7 +819,7 @@ public class CouchDbClient {
         // specific exceptions
         try {
             try {
-                connection = connection.execute();
+                connection = send(connection);
             } catch (HttpConnectionInterceptorException e) {
                 CouchDbException exception = new CouchDbException(connection.getConnection()
                         .getResponseMessage(), connection.getConnection().getResponseCode());
@@ -485,6 +832,10 @@ public class CouchDbClient {
             // everything ok? return the stream
             if (code / 100 == 2) { // success [200,299]
                 return connection;
+            } else if (code == HttpURLConnection.HTTP_NOT_MODIFIED && connection
+                    .requestProperties.containsKey("If-None-Match")) {
+                // the expected response to a conditional request when the resource is unchanged
+                return connection;
             } else {
                 final CouchDbException ex;
                 switch (code) {
@@ -501,7 +852,7 @@ public class CouchDbClient {
                         ex = new CouchDbException(response, code);
                         break;
                 }
-                es = connection.getConnection().getErrorStream();
+                es = connection.responseAsErrorStream();
                 //if there is an error stream try to deserialize into the typed exception
                 if (es != null) {
                     //read the error stream into memory
@@ -538,6 +889,65 @@ public class CouchDbClient {
         }
     }
 
+    /**
+     * Sets the earliest of the request's own deadline, the deadline of the calling thread set by
+     * {@link #withDeadline(long, TimeUnit, Callable)} and the default deadline on the request.
+     * Feeds do not get the default deadline as they can be read until they are stopped.
+     */
+    private void applyDeadline(HttpConnection connection) {
+        long timeoutNanos = deadlineFor(connection);
+        if (timeoutNanos > 0) {
+            connection.setDeadline(timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * @param connection a request that has not been executed
+     * @return the time the request would be allowed by {@link #applyDeadline(HttpConnection)},
+     * or 0 if it would not have a deadline
+     * @throws DeadlineExceededException if the deadline of the calling thread has passed
+     */
+    long deadlineFor(HttpConnection connection) {
+        long timeoutNanos = connection.getDeadline(TimeUnit.NANOSECONDS);
+        if (timeoutNanos == 0 && requestDeadlineNanos > 0 && !FeedSeparatingFactory.isFeed
+                (connection.url)) {
+            timeoutNanos = requestDeadlineNanos;
+        }
+        Long scoped = scopedDeadline.get();
+        if (scoped != null) {
+            long remainingNanos = scoped - System.nanoTime();
+            if (remainingNanos <= 0) {
+                throw new DeadlineExceededException(String.format("Deadline exceeded before %s" +
+                        " %s was sent", connection.getRequestMethod(), connection.url));
+            }
+            if (timeoutNanos == 0 || remainingNanos < timeoutNanos) {
+                timeoutNanos = remainingNanos;
+            }
+        }
+        return timeoutNanos;
+    }
+
+    /**
+     * Executes the request, hedged if configured, and sends it again if it fails and another
+     * endpoint can be tried. Failures are recorded by the circuit breaker if there is one.
+     */
+    private HttpConnection send(HttpConnection connection) throws IOException {
+        int failovers = (router == null) ? 0 : router.getEndpointCount() - 1;
+        while (true) {
+            try {
+                return (hedger == null) ? connection.execute() : hedger.execute(connection);
+            } catch (IOException e) {
+                if (breaker != null) {
+                    breaker.failed(connection);
+                }
+                if (failovers-- > 0 && router.failedOver(connection, e)) {
+                    continue;
+                }
+                throw e;
+            }
+        }
+    }
+
     /**
      * Execute the HttpConnection request and return the InputStream if there were no errors.
      *
@@ -552,4 +962,60 @@ public class CouchDbClient {
             throw new CouchDbException("Error retrieving server response", ioe);
         }
     }
+
+    /**
+     * Opens the connections of change feed requests with a separate factory, so that they use
+     * its connection pool.
+     */
+    private static final class FeedSeparatingFactory implements HttpConnection
+            .HttpUrlConnectionFactory {
+
+        // feeds that hold a connection open until the next change or the timeout
+        private static final Pattern FEED = Pattern.compile("(^|&)feed=(continuous|longpoll" +
+                "|eventsource)(&|$)");
+
+        private final HttpConnection.HttpUrlConnectionFactory requests;
+        private final HttpConnection.HttpUrlConnectionFactory feeds;
+
+        FeedSeparatingFactory(HttpConnection.HttpUrlConnectionFactory requests, HttpConnection
+                .HttpUrlConnectionFactory feeds) {
+            this.requests = requests;
+            this.feeds = feeds;
+        }
+
+        static boolean isFeed(URL url) {
+            String query = url.getQuery();
+            return query != null && FEED.matcher(query).find();
+        }
+
+        @Override
+        public HttpURLConnection openConnection(URL url) throws IOException {
+            return (isFeed(url) ? feeds : requests).openConnection(url);
+        }
+
+        @Override
+        public void setProxy(URL proxyUrl) {
+            requests.setProxy(proxyUrl);
+            feeds.setProxy(proxyUrl);
+        }
+    }
+
+    /**
+     * Creates named daemon threads for the default asynchronous executor so that an idle pool
+     * does not prevent the JVM from exiting.
+     */
+    private static final class AsyncThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger poolCount = new AtomicInteger();
+        private final AtomicInteger threadCount = new AtomicInteger();
+        private final int poolNumber = poolCount.incrementAndGet();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, String.format("cloudant-async-%d-%d", poolNumber,
+                    threadCount.incrementAndGet()));
+            t.setDaemon(true);
+            return t;
+        }
+    }
 }
@@ -15,13 +15,21 @@
 
 package com.cloudant.client.org.lightcouch;
 
+import com.cloudant.client.api.model.CircuitBreakerPolicy;
+import com.cloudant.client.api.model.DocumentCachePolicy;
+import com.cloudant.client.api.model.HedgePolicy;
+import com.cloudant.client.api.model.WarmUpOptions;
+import com.cloudant.http.CircuitBreakerListener;
 import com.cloudant.http.HttpConnectionRequestInterceptor;
 import com.cloudant.http.HttpConnectionResponseInterceptor;
+import com.cloudant.http.RequestTimingListener;
 
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represents configuration properties for connecting to CouchDB.
@@ -36,7 +44,26 @@ public class CouchDbProperties {
 
     //default to 6 connections
     private int maxConnections = 6;
+    // 0 for feeds to share the pool of other requests
+    private int feedConnectionPoolSize = 0;
+    //keep idle connections open for as long as possible, anything over 2.5 minutes will be
+    //longer than the server
+    private long connectionKeepAliveMillis = TimeUnit.MINUTES.toMillis(3);
     private URL proxyURL;
+    private ExecutorService asyncExecutor;
+    private RequestTimingListener requestTimingListener;
+    private HedgePolicy lookupHedgePolicy;
+    private HedgePolicy queryHedgePolicy;
+    private List<URL> endpoints = new ArrayList<URL>();
+    private boolean pinWritesToPrimary = true;
+    private long endpointProbeIntervalMillis = TimeUnit.SECONDS.toMillis(30);
+    private CircuitBreakerPolicy circuitBreakerPolicy;
+    private CircuitBreakerListener circuitBreakerListener;
+    private WarmUpOptions warmUpOptions;
+    private boolean coalesceReads = false;
+    private long requestDeadlineMillis = 0;
+    private DocumentCachePolicy documentCachePolicy;
+    private int revisionCacheSize = 0;
 
     private List<HttpConnectionRequestInterceptor> requestInterceptors = new ArrayList
             <HttpConnectionRequestInterceptor>();
@@ -51,6 +78,14 @@ public class CouchDbProperties {
         return maxConnections;
     }
 
+    public int getFeedConnectionPoolSize() {
+        return feedConnectionPoolSize;
+    }
+
+    public long getConnectionKeepAliveMillis() {
+        return connectionKeepAliveMillis;
+    }
+
     public URL getProxyURL() {
         return proxyURL;
     }
@@ -64,11 +99,149 @@ public class CouchDbProperties {
         return this;
     }
 
+    public CouchDbProperties setFeedConnectionPoolSize(int feedConnectionPoolSize) {
+        this.feedConnectionPoolSize = feedConnectionPoolSize;
+        return this;
+    }
+
+    public CouchDbProperties setConnectionKeepAliveMillis(long connectionKeepAliveMillis) {
+        this.connectionKeepAliveMillis = connectionKeepAliveMillis;
+        return this;
+    }
+
     public CouchDbProperties setProxyURL(URL proxyURL) {
         this.proxyURL = proxyURL;
         return this;
     }
 
+    public ExecutorService getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    public CouchDbProperties setAsyncExecutor(ExecutorService asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+        return this;
+    }
+
+    public RequestTimingListener getRequestTimingListener() {
+        return requestTimingListener;
+    }
+
+    public CouchDbProperties setRequestTimingListener(RequestTimingListener
+                                                              requestTimingListener) {
+        this.requestTimingListener = requestTimingListener;
+        return this;
+    }
+
+    public HedgePolicy getLookupHedgePolicy() {
+        return lookupHedgePolicy;
+    }
+
+    public CouchDbProperties setLookupHedgePolicy(HedgePolicy lookupHedgePolicy) {
+        this.lookupHedgePolicy = lookupHedgePolicy;
+        return this;
+    }
+
+    public HedgePolicy getQueryHedgePolicy() {
+        return queryHedgePolicy;
+    }
+
+    public CouchDbProperties setQueryHedgePolicy(HedgePolicy queryHedgePolicy) {
+        this.queryHedgePolicy = queryHedgePolicy;
+        return this;
+    }
+
+    public List<URL> getEndpoints() {
+        return endpoints;
+    }
+
+    public CouchDbProperties setEndpoints(List<URL> endpoints) {
+        this.endpoints = endpoints;
+        return this;
+    }
+
+    public boolean isPinWritesToPrimary() {
+        return pinWritesToPrimary;
+    }
+
+    public CouchDbProperties setPinWritesToPrimary(boolean pinWritesToPrimary) {
+        this.pinWritesToPrimary = pinWritesToPrimary;
+        return this;
+    }
+
+    public long getEndpointProbeIntervalMillis() {
+        return endpointProbeIntervalMillis;
+    }
+
+    public CouchDbProperties setEndpointProbeIntervalMillis(long endpointProbeIntervalMillis) {
+        this.endpointProbeIntervalMillis = endpointProbeIntervalMillis;
+        return this;
+    }
+
+    public CircuitBreakerPolicy getCircuitBreakerPolicy() {
+        return circuitBreakerPolicy;
+    }
+
+    public CouchDbProperties setCircuitBreakerPolicy(CircuitBreakerPolicy circuitBreakerPolicy) {
+        this.circuitBreakerPolicy = circuitBreakerPolicy;
+        return this;
+    }
+
+    public CircuitBreakerListener getCircuitBreakerListener() {
+        return circuitBreakerListener;
+    }
+
+    public CouchDbProperties setCircuitBreakerListener(CircuitBreakerListener
+                                                               circuitBreakerListener) {
+        this.circuitBreakerListener = circuitBreakerListener;
+        return this;
+    }
+
+    public WarmUpOptions getWarmUpOptions() {
+        return warmUpOptions;
+    }
+
+    public CouchDbProperties setWarmUpOptions(WarmUpOptions warmUpOptions) {
+        this.warmUpOptions = warmUpOptions;
+        return this;
+    }
+
+    public boolean isCoalesceReads() {
+        return coalesceReads;
+    }
+
+    public CouchDbProperties setCoalesceReads(boolean coalesceReads) {
+        this.coalesceReads = coalesceReads;
+        return this;
+    }
+
+    public long getRequestDeadlineMillis() {
+        return requestDeadlineMillis;
+    }
+
+    public CouchDbProperties setRequestDeadlineMillis(long requestDeadlineMillis) {
+        this.requestDeadlineMillis = requestDeadlineMillis;
+        return this;
+    }
+
+    public DocumentCachePolicy getDocumentCachePolicy() {
+        return documentCachePolicy;
+    }
+
+    public CouchDbProperties setDocumentCachePolicy(DocumentCachePolicy documentCachePolicy) {
+        this.documentCachePolicy = documentCachePolicy;
+        return this;
+    }
+
+    public int getRevisionCacheSize() {
+        return revisionCacheSize;
+    }
+
+    public CouchDbProperties setRevisionCacheSize(int revisionCacheSize) {
+        this.revisionCacheSize = revisionCacheSize;
+        return this;
+    }
+
     public List<HttpConnectionRequestInterceptor> getRequestInterceptors() {
         return requestInterceptors;
     }
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.org.lightcouch;
+
+/**
+ * <P>
+ * CouchDbException thrown when a request does not complete before its deadline. The connection
+ * of the request is closed when the deadline passes, so the deadline bounds the time spent on
+ * all the attempts of the request, including the time to get a session cookie and to read the
+ * response body.
+ * </P>
+ *
+ * @see com.cloudant.client.api.ClientBuilder#requestDeadline(long, java.util.concurrent.TimeUnit)
+ * @see com.cloudant.http.HttpConnection#setDeadline(long, java.util.concurrent.TimeUnit)
+ * @since 2.4.0
+ */
+public class DeadlineExceededException extends CouchDbException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+
+    public DeadlineExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
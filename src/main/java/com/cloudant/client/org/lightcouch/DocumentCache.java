@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.org.lightcouch;
+
+import static com.cloudant.client.org.lightcouch.internal.CouchDbUtil.getResponse;
+
+import com.cloudant.client.api.model.DocumentCachePolicy;
+import com.cloudant.client.api.model.DocumentCacheStats;
+import com.cloudant.http.Http;
+import com.cloudant.http.HttpConnection;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A least recently used cache of document response bodies and their ETags, used to revalidate
+ * documents with conditional requests so that unchanged documents are not sent again by the
+ * server.
+ * <P>
+ * Each read parses the cached body into a new object, as callers may modify the documents they
+ * are returned.
+ * </P>
+ * <P>
+ * A document invalidated while it is being read from the server is not stored when the read
+ * completes, as the response may have been sent before the write that invalidated it.
+ * </P>
+ *
+ * @see DocumentCachePolicy
+ */
+class DocumentCache {
+
+    private final CouchDbClient client;
+    private final long maximumSize;
+    private final long timeToLiveNanos;
+    private final long revalidateAfterNanos;
+
+    // in access order, so the first entry is the least recently used; guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16,
+            0.75f, true);
+    // the documents being read from the server; guarded by this
+    private final Map<String, Generation> reads = new HashMap<String, Generation>();
+    private long size = 0;
+    private long hits = 0;
+    private long revalidations = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    DocumentCache(CouchDbClient client, DocumentCachePolicy policy) {
+        this.client = client;
+        this.maximumSize = policy.getMaximumSize();
+        this.timeToLiveNanos = policy.getTimeToLive(TimeUnit.NANOSECONDS);
+        this.revalidateAfterNanos = policy.getRevalidateAfter(TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets a document from the cache, revalidating it with the server if necessary, or from the
+     * server if it is not cached.
+     *
+     * @param uri       the URI of the document
+     * @param classType the class to parse the document into
+     * @return the document
+     */
+    <T> T get(URI uri, Class<T> classType) {
+        String key = uri.toString();
+        long start = System.nanoTime();
+        Entry entry = lookup(key, start);
+        if (entry != null && start - entry.validatedAt < revalidateAfterNanos) {
+            synchronized (this) {
+                hits++;
+            }
+            return parse(entry.body, classType);
+        }
+
+        HttpConnection request = Http.GET(uri);
+        if (entry != null) {
+            request.requestProperties.put("If-None-Match", entry.etag);
+        }
+        long generation = startRead(key);
+        try {
+            // a hedged or coalesced request may have been completed by another connection
+            HttpConnection connection = client.execute(request);
+            byte[] body = connection.responseAsBytes();
+            HttpURLConnection response = connection.getConnection();
+            if (entry != null && response.getResponseCode() == HttpURLConnection
+                    .HTTP_NOT_MODIFIED) {
+                revalidated(entry, start);
+                client.documentRead(uri, entry.etag);
+                return parse(entry.body, classType);
+            }
+            String etag = response.getHeaderField("ETag");
+            client.documentRead(uri, etag);
+            store(key, new Entry(body, etag, start), generation);
+            return parse(body, classType);
+        } catch (IOException e) {
+            throw new CouchDbException("Error retrieving server response", e);
+        } finally {
+            endRead(key);
+        }
+    }
+
+    /**
+     * Removes a document from the cache, for example because it has been updated.
+     *
+     * @param uri the URI of the document
+     */
+    synchronized void invalidate(URI uri) {
+        String key = uri.toString();
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.body.length;
+        }
+        Generation read = reads.get(key);
+        if (read != null) {
+            // the reads in flight may return the document from before the write
+            read.value++;
+        }
+    }
+
+    synchronized DocumentCacheStats getStats() {
+        return new DocumentCacheStats(hits, revalidations, misses, evictions, entries.size(),
+                size);
+    }
+
+    private <T> T parse(byte[] body, Class<T> classType) {
+        return getResponse(new ByteArrayInputStream(body), classType, client.getGson());
+    }
+
+    private synchronized Entry lookup(String key, long now) {
+        Entry entry = entries.get(key);
+        if (entry != null && now - entry.validatedAt >= timeToLiveNanos) {
+            entries.remove(key);
+            size -= entry.body.length;
+            evictions++;
+            return null;
+        }
+        return entry;
+    }
+
+    private synchronized void revalidated(Entry entry, long validatedAt) {
+        revalidations++;
+        entry.validatedAt = validatedAt;
+    }
+
+    /**
+     * Records that a document is being read from the server.
+     *
+     * @return the generation of the document, to pass to {@link #store(String, Entry, long)}
+     */
+    private synchronized long startRead(String key) {
+        Generation read = reads.get(key);
+        if (read == null) {
+            read = new Generation();
+            reads.put(key, read);
+        }
+        read.readers++;
+        return read.value;
+    }
+
+    private synchronized void endRead(String key) {
+        Generation read = reads.get(key);
+        if (--read.readers == 0) {
+            reads.remove(key);
+        }
+    }
+
+    private synchronized void store(String key, Entry entry, long generation) {
+        misses++;
+        if (reads.get(key).value != generation) {
+            // invalidated since the read started, a later read may have stored a newer body
+            return;
+        }
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+            size -= previous.body.length;
+        }
+        // documents without an ETag cannot be revalidated
+        if (entry.etag == null || entry.body.length > maximumSize) {
+            return;
+        }
+        entries.put(key, entry);
+        size += entry.body.length;
+        Iterator<Map.Entry<String, Entry>> leastRecentlyUsed = entries.entrySet().iterator();
+        while (size > maximumSize) {
+            Entry evicted = leastRecentlyUsed.next().getValue();
+            leastRecentlyUsed.remove();
+            size -= evicted.body.length;
+            evictions++;
+        }
+    }
+
+    /**
+     * The reads of a document in flight, and the number of times it has been invalidated while
+     * they were.
+     */
+    private static final class Generation {
+
+        int readers = 0;
+        long value = 0;
+    }
+
+    private static final class Entry {
+
+        final byte[] body;
+        final String etag;
+        // the System.nanoTime() the server last confirmed the body was current
+        volatile long validatedAt;
+
+        Entry(byte[] body, String etag, long validatedAt) {
+            this.body = body;
+            this.etag = etag;
+            this.validatedAt = validatedAt;
+        }
+    }
+}
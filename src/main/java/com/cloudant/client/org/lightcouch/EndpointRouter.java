@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.org.lightcouch;
+
+import com.cloudant.client.api.model.EndpointStats;
+import com.cloudant.http.HttpConnection;
+import com.cloudant.http.HttpConnectionInterceptorContext;
+import com.cloudant.http.HttpConnectionResponseInterceptor;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.NoRouteToHostException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Routes requests for the client's URL across several endpoints serving the same data.
+ * <P>
+ * Requests are sent to the healthy endpoint with the lowest exponentially weighted moving
+ * average (EWMA) response time, except writes which go to the primary endpoint if they are
+ * pinned. The routing is done by the connection factories so that each attempt of a request,
+ * including a replay, is routed separately.
+ * </P>
+ * <P>
+ * An endpoint is marked unhealthy by a connection error or a 5xx response. GET and HEAD requests
+ * failing with a 5xx response are replayed by this response interceptor, and requests failing
+ * with a connection error are retried by {@link CouchDbClient} if {@link #failedOver} allows. All
+ * endpoints are probed periodically with a request for the server root, which brings recovered
+ * endpoints back and keeps the response times of unused endpoints up to date.
+ * </P>
+ */
+class EndpointRouter implements HttpConnectionResponseInterceptor {
+
+    private static final Logger logger = Logger.getLogger(EndpointRouter.class
+            .getCanonicalName());
+    // weight of the newest response time in the moving average
+    private static final double ALPHA = 0.3;
+    private static final int PROBE_TIMEOUT_MILLIS = 10000;
+
+    private final Endpoint[] endpoints;
+    private final HttpConnection.HttpUrlConnectionFactory delegate;
+    // opens routed connections, checking the circuit breaker if there is one
+    private final HttpConnection.HttpUrlConnectionFactory routed;
+    private final CircuitBreaker breaker;
+    private final boolean pinWrites;
+    // when each connection opened by the routing factories was opened, to measure its response
+    // time; other connections using the interceptor, such as cookie requests, are not recorded
+    private final Map<HttpURLConnection, Long> attemptStart = Collections.synchronizedMap(new
+            WeakHashMap<HttpURLConnection, Long>());
+    private final ScheduledExecutorService prober;
+    private final HttpConnection.HttpUrlConnectionFactory readFactory = new RoutingFactory(false);
+    private final HttpConnection.HttpUrlConnectionFactory writeFactory = new RoutingFactory(true);
+
+    /**
+     * @param primary              the client's URL, which all request URLs are built from
+     * @param others               the other endpoints
+     * @param pinWrites            true to send writes only to the primary endpoint
+     * @param probeIntervalMillis  the time between health probes of the endpoints
+     * @param delegate             the factory to open connections with
+     * @param breaker              the circuit breaker to check before routing a request to an
+     *                             endpoint, or null
+     */
+    EndpointRouter(URL primary, List<URL> others, boolean pinWrites, long probeIntervalMillis,
+                   HttpConnection.HttpUrlConnectionFactory delegate, CircuitBreaker breaker) {
+        this.endpoints = new Endpoint[others.size() + 1];
+        this.endpoints[0] = new Endpoint(primary);
+        for (int i = 0; i < others.size(); i++) {
+            this.endpoints[i + 1] = new Endpoint(others.get(i));
+        }
+        this.pinWrites = pinWrites;
+        this.delegate = delegate;
+        this.breaker = breaker;
+        this.routed = (breaker == null) ? delegate : breaker.wrap(delegate);
+        this.prober = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "cloudant-endpoint-probe");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        prober.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                probe();
+            }
+        }, probeIntervalMillis, probeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void shutdown() {
+        prober.shutdownNow();
+    }
+
+    int getEndpointCount() {
+        return endpoints.length;
+    }
+
+    /**
+     * @param connection the request to route
+     * @return the factory to open the request's connections with
+     */
+    HttpConnection.HttpUrlConnectionFactory factoryFor(HttpConnection connection) {
+        return isIdempotent(connection.getRequestMethod()) ? readFactory : writeFactory;
+    }
+
+    List<EndpointStats> getStats() {
+        List<EndpointStats> stats = new ArrayList<EndpointStats>(endpoints.length);
+        for (Endpoint endpoint : endpoints) {
+            stats.add(new EndpointStats(endpoint.url, endpoint.healthy, (long) endpoint
+                    .latencyNanos, endpoint.requests.get(), endpoint.failures.get()));
+        }
+        return stats;
+    }
+
+    /**
+     * Called when a request failed with an exception to mark its endpoint unhealthy.
+     *
+     * @param connection the request that failed
+     * @param e          the exception it failed with
+     * @return true if the request can be sent again to another endpoint
+     */
+    boolean failedOver(HttpConnection connection, IOException e) {
+        HttpURLConnection urlConnection = connection.getConnection();
+        Endpoint failed = (urlConnection == null) ? null : endpointOf(urlConnection.getURL());
+        if (failed == null) {
+            return false;
+        }
+        failed.failed();
+        logger.log(Level.WARNING, "Request to " + failed.url + " failed", e);
+
+        String method = connection.getRequestMethod();
+        if (!isIdempotent(method)) {
+            // a pinned write has no other endpoint to go to, and any other write might have
+            // been received unless the connection could not be made
+            boolean notSent = e instanceof ConnectException || e instanceof
+                    UnknownHostException || e instanceof NoRouteToHostException;
+            if (pinWrites || !notSent) {
+                return false;
+            }
+        }
+        // only an in-memory body can be sent again
+        InputStream body = connection.getRequestBody();
+        return body == null || body instanceof ByteArrayInputStream;
+    }
+
+    @Override
+    public HttpConnectionInterceptorContext interceptResponse(HttpConnectionInterceptorContext
+                                                                      context) {
+        HttpURLConnection connection = context.connection.getConnection();
+        Long start = attemptStart.remove(connection);
+        Endpoint endpoint = endpointOf(connection.getURL());
+        if (start == null || endpoint == null) {
+            return context;
+        }
+        try {
+            int code = connection.getResponseCode();
+            if (code / 100 == 5) {
+                endpoint.failed();
+                if (isIdempotent(context.connection.getRequestMethod()) && hasHealthyEndpoint()) {
+                    logger.warning("Failing over after " + code + " response from " + endpoint
+                            .url);
+                    // Discard the error response so the connection can be reused
+                    IOUtils.closeQuietly(connection.getErrorStream());
+                    context.replayRequest = true;
+                }
+            } else {
+                endpoint.succeeded(System.nanoTime() - start);
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to get response code from request", e);
+        }
+        return context;
+    }
+
+    private static boolean isIdempotent(String method) {
+        return "GET".equals(method) || "HEAD".equals(method);
+    }
+
+    private Endpoint endpointOf(URL url) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.isFor(url)) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    private boolean hasHealthyEndpoint() {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.healthy) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the healthy endpoint with the lowest response time or, if none are healthy, the
+     * endpoint that failed longest ago; endpoints with an open circuit breaker are not healthy
+     */
+    private Endpoint select() {
+        Endpoint best = null;
+        for (Endpoint endpoint : endpoints) {
+            boolean usable = endpoint.healthy && (breaker == null || breaker.allows(endpoint
+                    .url));
+            if (usable && (best == null || endpoint.latencyNanos < best.latencyNanos)) {
+                best = endpoint;
+            }
+        }
+        if (best == null) {
+            for (Endpoint endpoint : endpoints) {
+                if (best == null || endpoint.failedAtNanos - best.failedAtNanos < 0) {
+                    best = endpoint;
+                }
+            }
+        }
+        return best;
+    }
+
+    private void probe() {
+        for (Endpoint endpoint : endpoints) {
+            long start = System.nanoTime();
+            HttpURLConnection connection = null;
+            try {
+                connection = delegate.openConnection(endpoint.url);
+                connection.setConnectTimeout(PROBE_TIMEOUT_MILLIS);
+                connection.setReadTimeout(PROBE_TIMEOUT_MILLIS);
+                int code = connection.getResponseCode();
+                if (code / 100 == 5) {
+                    endpoint.failed();
+                    IOUtils.closeQuietly(connection.getErrorStream());
+                } else {
+                    if (!endpoint.healthy) {
+                        logger.info("Endpoint " + endpoint.url + " has recovered");
+                    }
+                    endpoint.succeeded(System.nanoTime() - start);
+                    IOUtils.closeQuietly(code / 100 == 2 ? connection.getInputStream() :
+                            connection.getErrorStream());
+                }
+            } catch (IOException e) {
+                endpoint.failed();
+                if (connection != null) {
+                    connection.disconnect();
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Failed to probe " + endpoint.url, e);
+            }
+        }
+    }
+
+    /**
+     * Opens connections to the endpoint chosen for each attempt of a request.
+     */
+    private final class RoutingFactory implements HttpConnection.HttpUrlConnectionFactory {
+
+        private final boolean write;
+
+        RoutingFactory(boolean write) {
+            this.write = write;
+        }
+
+        @Override
+        public HttpURLConnection openConnection(URL url) throws IOException {
+            Endpoint from = endpointOf(url);
+            if (from == null) {
+                // not a request for the client's URL
+                return routed.openConnection(url);
+            }
+            Endpoint to = (write && pinWrites) ? endpoints[0] : select();
+            to.requests.incrementAndGet();
+            long start = System.nanoTime();
+            HttpURLConnection connection = routed.openConnection((to == from) ? url : new URL(to
+                    .url.getProtocol(), to.url.getHost(), to.url.getPort(), url.getFile()));
+            attemptStart.put(connection, start);
+            return connection;
+        }
+
+        @Override
+        public void setProxy(URL proxyUrl) {
+            routed.setProxy(proxyUrl);
+        }
+    }
+
+    private static final class Endpoint {
+
+        private final URL url;
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private volatile boolean healthy = true;
+        private volatile long failedAtNanos = System.nanoTime();
+        // 0 until the first response, so that every endpoint is tried
+        private volatile double latencyNanos = 0;
+
+        Endpoint(URL url) {
+            this.url = url;
+        }
+
+        boolean isFor(URL other) {
+            return port(url) == port(other) && url.getHost().equalsIgnoreCase(other.getHost())
+                    && url.getProtocol().equals(other.getProtocol());
+        }
+
+        private static int port(URL url) {
+            return (url.getPort() < 0) ? url.getDefaultPort() : url.getPort();
+        }
+
+        synchronized void succeeded(long nanos) {
+            latencyNanos = (latencyNanos == 0) ? nanos : ALPHA * nanos + (1 - ALPHA) *
+                    latencyNanos;
+            healthy = true;
+        }
+
+        void failed() {
+            failures.incrementAndGet();
+            failedAtNanos = System.nanoTime();
+            healthy = false;
+        }
+    }
+}
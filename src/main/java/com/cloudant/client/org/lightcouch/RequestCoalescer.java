@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.org.lightcouch;
+
+import com.cloudant.http.Http;
+import com.cloudant.http.HttpConnection;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces identical concurrent GET requests so that they share one request to the server.
+ * <P>
+ * The first request for a URL is sent and the others for the same URL wait for its response. If
+ * no other request joined by the time the response headers arrive the response is returned
+ * unchanged, so that large responses can still be streamed; otherwise the body is read into
+ * memory and each request gets a copy of the response. Error responses are shared by throwing
+ * the same exception to every request. A waiting request stops waiting when its deadline passes.
+ * </P>
+ * <P>
+ * Only GET requests without request properties or interceptors of their own are coalesced, so
+ * that requests with conditional headers or their own handling are sent separately. Feeds are
+ * never coalesced.
+ * </P>
+ */
+class RequestCoalescer {
+
+    private final CouchDbClient client;
+    private final ConcurrentMap<String, Call> inFlight = new ConcurrentHashMap<String, Call>();
+
+    RequestCoalescer(CouchDbClient client) {
+        this.client = client;
+    }
+
+    /**
+     * @param request a request before the client has added its request properties
+     * @return true if the request can share the response of an identical request
+     */
+    static boolean canCoalesce(HttpConnection request) {
+        if (!"GET".equals(request.getRequestMethod()) || !request.requestProperties.isEmpty()
+                || !request.requestInterceptors.isEmpty() || !request.responseInterceptors
+                .isEmpty()) {
+            return false;
+        }
+        String path = request.url.getPath();
+        return !path.contains("/_changes") && !path.endsWith("/_db_updates");
+    }
+
+    /**
+     * Executes the request, or waits for an identical request in flight.
+     *
+     * @param request the request to execute
+     * @return the executed request, or a request with a copy of the shared response
+     */
+    HttpConnection execute(HttpConnection request) {
+        String key = request.url.toString();
+        Call call = new Call();
+        while (true) {
+            Call existing = inFlight.putIfAbsent(key, call);
+            if (existing == null) {
+                break;
+            }
+            if (existing.join()) {
+                return existing.await(client.deadlineFor(request), request);
+            }
+            // the request completed before it could be joined
+            inFlight.remove(key, existing);
+        }
+
+        boolean completed = false;
+        RuntimeException failure = null;
+        try {
+            HttpConnection executed = client.executeDirect(request);
+            boolean joined = call.close();
+            inFlight.remove(key, call);
+            if (!joined) {
+                completed = true;
+                return executed;
+            }
+            HttpURLConnection connection = executed.getConnection();
+            BufferedResponse response = new BufferedResponse(executed.url, connection
+                    .getResponseCode(), connection.getResponseMessage(), connection
+                    .getHeaderFields(), executed.responseAsBytes());
+            call.completed(response);
+            completed = true;
+            return response.replay();
+        } catch (IOException e) {
+            failure = new CouchDbException("Error retrieving server response", e);
+            throw failure;
+        } catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (!completed) {
+                // however the request failed the waiting requests must not wait for it forever
+                inFlight.remove(key, call);
+                call.failed((failure != null) ? failure : new CouchDbException("Error " +
+                        "retrieving server response"));
+            }
+        }
+    }
+
+    /**
+     * A request in flight and the requests waiting for its response.
+     */
+    private static final class Call {
+
+        private boolean closed = false;
+        private boolean joined = false;
+        private boolean done = false;
+        private BufferedResponse response = null;
+        private RuntimeException failure = null;
+
+        /**
+         * @return true if the request is still in flight and the caller can wait for it
+         */
+        synchronized boolean join() {
+            if (closed) {
+                return false;
+            }
+            joined = true;
+            return true;
+        }
+
+        /**
+         * Stops other requests joining once the response has been received.
+         *
+         * @return true if any request joined
+         */
+        synchronized boolean close() {
+            closed = true;
+            return joined;
+        }
+
+        synchronized void completed(BufferedResponse response) {
+            this.response = response;
+            done = true;
+            notifyAll();
+        }
+
+        synchronized void failed(RuntimeException failure) {
+            closed = true;
+            this.failure = failure;
+            done = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits for the response of the request in flight.
+         *
+         * @param timeoutNanos the time the waiting request is allowed, or 0 if it does not have
+         *                     a deadline
+         * @param request      the waiting request
+         * @return a request with a copy of the response
+         * @throws DeadlineExceededException if the time allowed passes before the response is
+         *                                   received
+         */
+        synchronized HttpConnection await(long timeoutNanos, HttpConnection request) {
+            long deadline = System.nanoTime() + timeoutNanos;
+            try {
+                while (!done) {
+                    if (timeoutNanos <= 0) {
+                        wait();
+                    } else {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            throw new DeadlineExceededException(String.format("Deadline of %d " +
+                                    "ms exceeded waiting for the response to %s %s", TimeUnit
+                                    .NANOSECONDS.toMillis(timeoutNanos), request
+                                    .getRequestMethod(), request.url));
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CouchDbException("Interrupted while waiting for a shared response.", e);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return response.replay();
+        }
+    }
+
+    /**
+     * A response read into memory, which is replayed to each request sharing it.
+     */
+    private static final class BufferedResponse {
+
+        private final URL url;
+        private final int code;
+        private final String message;
+        private final Map<String, List<String>> headers = new TreeMap<String, List<String>>
+                (String.CASE_INSENSITIVE_ORDER);
+        private final byte[] body;
+
+        BufferedResponse(URL url, int code, String message, Map<String, List<String>> headers,
+                         byte[] body) {
+            this.url = url;
+            this.code = code;
+            this.message = message;
+            this.body = body;
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                String name = header.getKey();
+                // the body has already been decoded and its length is known
+                if (name != null && !"Content-Encoding".equalsIgnoreCase(name) && !
+                        "Transfer-Encoding".equalsIgnoreCase(name)) {
+                    this.headers.put(name, header.getValue());
+                }
+            }
+            this.headers.put("Content-Length", Collections.singletonList(String.valueOf(body
+                    .length)));
+        }
+
+        /**
+         * @return an executed request with a copy of this response
+         */
+        HttpConnection replay() {
+            HttpConnection replay = Http.GET(url);
+            replay.connectionFactory = new HttpConnection.HttpUrlConnectionFactory() {
+                @Override
+                public HttpURLConnection openConnection(URL url) throws IOException {
+                    return new ReplayConnection(BufferedResponse.this);
+                }
+
+                @Override
+                public void setProxy(URL proxyUrl) {
+                }
+            };
+            try {
+                return replay.execute();
+            } catch (IOException e) {
+                // a replay does not do any I/O
+                throw new CouchDbException("Error replaying shared response", e);
+            }
+        }
+    }
+
+    /**
+     * A connection that returns a buffered response instead of connecting to the server.
+     */
+    private static final class ReplayConnection extends HttpURLConnection {
+
+        private final BufferedResponse response;
+
+        ReplayConnection(BufferedResponse response) {
+            super(response.url);
+            this.response = response;
+        }
+
+        @Override
+        public void connect() {
+            connected = true;
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return response.code;
+        }
+
+        @Override
+        public String getResponseMessage() {
+            return response.message;
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            return Collections.unmodifiableMap(response.headers);
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            List<String> values = response.headers.get(name);
+            return (values == null || values.isEmpty()) ? null : values.get(values.size() - 1);
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(response.body);
+        }
+    }
+}
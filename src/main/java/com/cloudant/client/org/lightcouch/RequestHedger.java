@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.org.lightcouch;
+
+import com.cloudant.client.api.model.HedgePolicy;
+import com.cloudant.http.Http;
+import com.cloudant.http.HttpConnection;
+import com.cloudant.http.RequestTimingListener;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes GET requests with a {@link HedgePolicy}. The request is sent on a hedging thread while
+ * the calling thread waits for it; if it has not completed after the policy's delay a duplicate
+ * is sent and whichever completes first is returned. The other request is disconnected when it
+ * completes. It is not disconnected while in flight because OkHttp transparently retries a GET
+ * request whose connection fails, which would send a third request.
+ * <P>
+ * Requests to {@code _view}, {@code _all_docs} and {@code _search} are hedged with the query
+ * policy and other GET requests with the lookup policy. Feeds and session requests are never
+ * hedged.
+ * </P>
+ * <P>
+ * The number of hedging threads is bounded. When they are all busy a request is executed on the
+ * calling thread without hedging, and a duplicate is not sent.
+ * </P>
+ */
+class RequestHedger {
+
+    private static final Logger logger = Logger.getLogger(RequestHedger.class.getCanonicalName());
+
+    private final Tracker lookups;
+    private final Tracker queries;
+    private final RequestTimingListener timingListener;
+    private final ExecutorService hedgeExecutor;
+
+    /**
+     * @param lookupPolicy   the policy for document and other lookups, or null to not hedge them
+     * @param queryPolicy    the policy for view and search queries, or null to not hedge them
+     * @param timingListener the listener to set on duplicate requests, or null
+     * @param maxThreads     the maximum number of requests and duplicates in flight on hedging
+     *                       threads
+     */
+    RequestHedger(HedgePolicy lookupPolicy, HedgePolicy queryPolicy, RequestTimingListener
+            timingListener, int maxThreads) {
+        this.lookups = (lookupPolicy == null) ? null : new Tracker(lookupPolicy);
+        this.queries = (queryPolicy == null) ? null : new Tracker(queryPolicy);
+        this.timingListener = timingListener;
+        // idle threads are stopped, like a cached thread pool, but there are at most maxThreads
+        this.hedgeExecutor = new ThreadPoolExecutor(0, maxThreads, 60L, TimeUnit.SECONDS, new
+                SynchronousQueue<Runnable>(), new HedgeThreadFactory());
+    }
+
+    void shutdown() {
+        hedgeExecutor.shutdownNow();
+    }
+
+    /**
+     * Executes the request, hedging it if its policy allows.
+     *
+     * @param request the request to execute
+     * @return the executed request, or the duplicate if it completed first
+     * @throws IOException if the request, and the duplicate if one was sent, failed
+     */
+    HttpConnection execute(HttpConnection request) throws IOException {
+        Tracker tracker = trackerFor(request);
+        if (tracker == null) {
+            return request.execute();
+        }
+        long start = System.nanoTime();
+        long delayNanos = tracker.requested();
+        if (delayNanos < 0) {
+            // not enough response times recorded yet to know which requests are slow
+            request.execute();
+            tracker.record(System.nanoTime() - start);
+            return request;
+        }
+
+        // copied before the request is sent as interceptors modify the request's properties
+        Map<String, String> requestProperties = new HashMap<String, String>(request
+                .requestProperties);
+        Race race = new Race();
+        try {
+            race.start(request);
+        } catch (RejectedExecutionException e) {
+            // all the hedging threads are busy
+            request.execute();
+            tracker.record(System.nanoTime() - start);
+            return request;
+        }
+        HttpConnection winner = race.await(delayNanos);
+        if (winner == null && tracker.tryHedge()) {
+            try {
+                race.start(duplicate(request, requestProperties));
+            } catch (RejectedExecutionException e) {
+                logger.log(Level.FINE, "No hedging thread available for a duplicate request", e);
+            }
+        }
+        if (winner == null) {
+            winner = race.await(-1);
+        }
+        tracker.record(System.nanoTime() - start);
+        return winner;
+    }
+
+    private Tracker trackerFor(HttpConnection request) {
+        if (!"GET".equals(request.getRequestMethod())) {
+            return null;
+        }
+        String path = request.url.getPath();
+        if (path.endsWith("/_session") || path.contains("/_changes") || path.endsWith
+                ("/_db_updates")) {
+            return null;
+        }
+        if (path.contains("/_view/") || path.endsWith("/_all_docs") || path.contains
+                ("/_search/")) {
+            return queries;
+        }
+        return lookups;
+    }
+
+    private HttpConnection duplicate(HttpConnection request, Map<String, String>
+            requestProperties) {
+        HttpConnection copy = Http.GET(request.url);
+        copy.requestProperties.putAll(requestProperties);
+        copy.connectionFactory = request.connectionFactory;
+        copy.setInterceptorChain(request.getInterceptorChain());
+        copy.requestInterceptors.addAll(request.requestInterceptors);
+        copy.responseInterceptors.addAll(request.responseInterceptors);
+        copy.setRequestTimingListener(timingListener);
+        long remainingNanos = request.getRemainingTime(TimeUnit.NANOSECONDS);
+        if (remainingNanos >= 0) {
+            // the duplicate must complete before the deadline of the original request
+            copy.setDeadline(Math.max(1, remainingNanos), TimeUnit.NANOSECONDS);
+        }
+        return copy;
+    }
+
+    /**
+     * A request and its possible duplicate executing on hedging threads; the first to complete
+     * is the winner.
+     */
+    private final class Race {
+
+        private int outstanding = 0;
+        private HttpConnection winner = null;
+        private Exception failure = null;
+        // set if the caller stopped waiting, so there will be no winner
+        private boolean abandoned = false;
+
+        /**
+         * @throws RejectedExecutionException if all the hedging threads are busy
+         */
+        synchronized void start(final HttpConnection request) {
+            hedgeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        request.execute();
+                        completed(request);
+                    } catch (Exception e) {
+                        failed(e);
+                    }
+                }
+            });
+            outstanding++;
+        }
+
+        private void completed(HttpConnection request) {
+            boolean lost;
+            synchronized (this) {
+                outstanding--;
+                lost = winner != null || abandoned;
+                if (!lost) {
+                    winner = request;
+                    notifyAll();
+                }
+            }
+            if (lost) {
+                request.disconnect();
+            }
+        }
+
+        private synchronized void failed(Exception e) {
+            outstanding--;
+            if (failure == null) {
+                failure = e;
+            } else {
+                logger.log(Level.FINE, "Hedged request failed", e);
+            }
+            notifyAll();
+        }
+
+        /**
+         * Waits for a request to complete.
+         *
+         * @param timeoutNanos the time to wait, or -1 to wait until a request completes or they
+         *                     all fail
+         * @return the first request to complete, or null if none completed within the timeout
+         * @throws IOException if all the requests failed
+         */
+        synchronized HttpConnection await(long timeoutNanos) throws IOException {
+            long deadline = System.nanoTime() + timeoutNanos;
+            try {
+                while (winner == null && outstanding > 0) {
+                    if (timeoutNanos < 0) {
+                        wait();
+                    } else {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            return null;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                }
+            } catch (InterruptedException e) {
+                abandoned = true;
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for a hedged request");
+            }
+            if (winner != null) {
+                return winner;
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            }
+            throw (RuntimeException) failure;
+        }
+    }
+
+    /**
+     * Records recent response times to calculate the hedging delay, and the budget of duplicate
+     * requests.
+     */
+    private static final class Tracker {
+
+        private static final int WINDOW = 256;
+        // the delay is recalculated after this many response times are recorded
+        private static final int RECALCULATE = 16;
+        // at most this many duplicate requests can be saved up by a quiet period
+        private static final double MAX_TOKENS = 10;
+
+        private final HedgePolicy policy;
+        private final long minDelayNanos;
+        private final long[] samples = new long[WINDOW];
+        private long count = 0;
+        private long delayNanos = -1;
+        private double tokens = 0;
+
+        Tracker(HedgePolicy policy) {
+            this.policy = policy;
+            this.minDelayNanos = policy.getMinDelay(TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Adds to the budget for a new request.
+         *
+         * @return the delay before hedging the request, or -1 if there are not enough response
+         * times recorded yet
+         */
+        synchronized long requested() {
+            tokens = Math.min(MAX_TOKENS, tokens + policy.getBudget());
+            return delayNanos;
+        }
+
+        synchronized boolean tryHedge() {
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        synchronized void record(long nanos) {
+            samples[(int) (count % WINDOW)] = nanos;
+            count++;
+            if (count % RECALCULATE == 0) {
+                long[] sorted = Arrays.copyOf(samples, (int) Math.min(count, WINDOW));
+                Arrays.sort(sorted);
+                int index = (int) Math.ceil(policy.getPercentile() / 100 * sorted.length) - 1;
+                delayNanos = Math.max(minDelayNanos, sorted[Math.max(0, index)]);
+            }
+        }
+    }
+
+    private static final class HedgeThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger poolCount = new AtomicInteger();
+        private final AtomicInteger threadCount = new AtomicInteger();
+        private final int poolNumber = poolCount.incrementAndGet();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, String.format("cloudant-hedge-%d-%d", poolNumber,
+                    threadCount.incrementAndGet()));
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
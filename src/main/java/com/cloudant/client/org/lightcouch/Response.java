@@ -15,6 +15,8 @@
 
 package com.cloudant.client.org.lightcouch;
 
+import com.cloudant.http.RequestTimings;
+
 /**
  * Contains the response returned from CouchDB.
  * <p/>
@@ -34,6 +36,8 @@ public class Response {
 
     private int code;
 
+    private transient RequestTimings timings;
+
     /**
      * @return the <tt>id</tt> of the response
      */
@@ -75,4 +79,16 @@ public class Response {
     void setStatusCode(int code) {
         this.code = code;
     }
+
+    /**
+     * @return the timings of the request that returned this response, or {@code null} if they
+     * are not available
+     */
+    public RequestTimings getTimings() {
+        return timings;
+    }
+
+    void setTimings(RequestTimings timings) {
+        this.timings = timings;
+    }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.client.org.lightcouch;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of the latest known revision of documents, learnt from the
+ * responses to writes and reads made with the client, so that documents can be updated without
+ * first reading them.
+ * <P>
+ * A cached revision may be out of date if the document has been changed by another client; a
+ * write with it then fails with a conflict.
+ * </P>
+ */
+class RevisionCache {
+
+    private final Map<String, String> revisions;
+
+    RevisionCache(final int maxDocuments) {
+        this.revisions = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxDocuments;
+            }
+        };
+    }
+
+    /**
+     * @param documentUri the URI of the document
+     * @return the latest known revision of the document, or null if it is not known
+     */
+    synchronized String get(URI documentUri) {
+        return revisions.get(documentUri.toString());
+    }
+
+    /**
+     * @param documentUri the URI of the document
+     * @param rev         the latest revision of the document, or null if it is not known, for
+     *                    example because the document has been deleted
+     */
+    synchronized void put(URI documentUri, String rev) {
+        if (rev == null) {
+            revisions.remove(documentUri.toString());
+        } else {
+            revisions.put(documentUri.toString(), rev);
+        }
+    }
+
+    /**
+     * @param etag the value of an ETag header of a document response
+     * @return the document revision in the ETag, or null if there was no ETag
+     */
+    static String revFromETag(String etag) {
+        if (etag == null) {
+            return null;
+        }
+        // the revision is sent as a quoted string
+        return (etag.length() >= 2 && etag.startsWith("\"") && etag.endsWith("\"")) ? etag
+                .substring(1, etag.length() - 1) : etag;
+    }
+}
@@ -142,6 +142,34 @@ final public class CouchDbUtil {
     }
 
 
+    /**
+     * Counts the bytes of the UTF-8 encoding of a String without encoding it.
+     *
+     * @param s the String to measure
+     * @return the number of bytes in the UTF-8 encoding of the String
+     */
+    public static long utf8Length(CharSequence s) {
+        long length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character
+                    .isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // an unpaired surrogate is encoded as a replacement character '?'
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
     /**
      * @return A JSON element as a String, or null if not found, from the response
      */
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.http;
+
+/**
+ * Receives the state changes of the circuit breaker kept for each host a client sends requests
+ * to.
+ * <P>
+ * Listeners are called on the thread of the request that caused the change so should return
+ * quickly.
+ * </P>
+ *
+ * @see com.cloudant.client.api.ClientBuilder#circuitBreakerListener(CircuitBreakerListener)
+ * @since 2.4.0
+ */
+public interface CircuitBreakerListener {
+
+    /**
+     * The states of a circuit breaker.
+     */
+    enum State {
+        /**
+         * Requests are sent and their outcomes recorded.
+         */
+        CLOSED,
+        /**
+         * Requests fail immediately without being sent.
+         */
+        OPEN,
+        /**
+         * A limited number of trial requests are sent to find out if the host has recovered.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Called when the circuit breaker for a host changes state.
+     *
+     * @param host the host as {@code protocol://host:port}
+     * @param from the previous state
+     * @param to   the new state
+     */
+    void stateChanged(String host, State from, State to);
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.http;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules the tasks that abort requests when their deadline passes, on a single daemon thread
+ * shared by all requests.
+ */
+final class DeadlineTimer {
+
+    // cancelled tasks stay in the queue until they are due, so it is purged periodically
+    private static final int PURGE_INTERVAL = 1024;
+
+    private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "cloudant-deadline");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private static final AtomicInteger cancelled = new AtomicInteger();
+
+    private DeadlineTimer() {
+    }
+
+    static Future<?> schedule(Runnable task, long delayNanos) {
+        return timer.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    static void cancel(Future<?> task) {
+        if (task.cancel(false) && cancelled.incrementAndGet() % PURGE_INTERVAL == 0) {
+            timer.purge();
+        }
+    }
+}
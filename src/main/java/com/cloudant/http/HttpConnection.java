@@ -10,6 +10,7 @@
 
 package com.cloudant.http;
 
+import com.cloudant.client.org.lightcouch.DeadlineExceededException;
 import com.cloudant.http.interceptors.BasicAuthInterceptor;
 import com.cloudant.http.internal.AgentHelper;
 import com.cloudant.http.internal.DefaultHttpUrlConnectionFactory;
@@ -17,6 +18,7 @@ import com.cloudant.http.internal.DefaultHttpUrlConnectionFactory;
 import org.apache.commons.io.IOUtils;
 
 import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -26,6 +28,9 @@ import java.net.URL;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -71,11 +76,12 @@ public class HttpConnection  {
     public final URL url;
     private final String contentType;
 
-    // created in executeInternal
-    private HttpURLConnection connection;
+    // created in executeInternal, volatile as it is disconnected by the deadline timer
+    private volatile HttpURLConnection connection;
 
     // set by the various setRequestBody() methods
     private InputStream input;
+    private RequestBodyWriter bodyWriter;
     private long inputLength;
 
     public final HashMap<String, String> requestProperties;
@@ -83,6 +89,9 @@ public class HttpConnection  {
     public final List<HttpConnectionRequestInterceptor> requestInterceptors;
     public final List<HttpConnectionResponseInterceptor> responseInterceptors;
 
+    // shared interceptors, run before this connection's own interceptors
+    private HttpConnectionInterceptorChain interceptorChain = HttpConnectionInterceptorChain.EMPTY;
+
     /**
      * A connectionFactory for opening the URLs, can be set, but configured with a default
      */
@@ -90,6 +99,25 @@ public class HttpConnection  {
 
     private int numberOfRetries = 10;
 
+    // set by an interceptor to decode or measure the response body
+    private ResponseStreamFilter responseStreamFilter = null;
+
+    private final RequestTimings timings;
+    private RequestTimingListener timingListener = null;
+    private boolean completed = false;
+    // true while the attempts are made, when response bodies read by interceptors belong to an
+    // attempt that may be replayed, so closing them must not complete the request
+    private boolean executing = false;
+    // true if an interceptor read the whole body of the current attempt
+    private boolean attemptBodyRead = false;
+
+    // the time allowed for the request in nanoseconds, or 0 for no deadline
+    private long deadlineNanos = 0;
+    // the System.nanoTime() of the deadline, set when the request is first executed
+    private long deadlineAt = 0;
+    private volatile boolean aborted = false;
+    private Future<?> deadlineTask = null;
+
     public HttpConnection(String requestMethod,
                           URL url,
                           String contentType) {
@@ -99,6 +127,7 @@ public class HttpConnection  {
         this.requestProperties = new HashMap<String, String>();
         this.requestInterceptors = new LinkedList<HttpConnectionRequestInterceptor>();
         this.responseInterceptors = new LinkedList<HttpConnectionResponseInterceptor>();
+        this.timings = new RequestTimings(requestMethod, url);
     }
 
     /**
@@ -112,6 +141,59 @@ public class HttpConnection  {
         return this;
     }
 
+    /**
+     * Sets the time allowed for this request, from when {@link #execute()} is first called until
+     * the response body stream is closed. The deadline includes the time spent on retries,
+     * getting a session cookie and reading the response. When the deadline passes the
+     * connection is closed and a {@link DeadlineExceededException} is thrown.
+     * This method <strong>must</strong> be called before {@link #execute()}
+     *
+     * @param timeout the time allowed for the request
+     * @param unit    the unit of the timeout
+     * @return an {@link HttpConnection} for method chaining
+     * @since 2.4.0
+     */
+    public HttpConnection setDeadline(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout must be positive");
+        }
+        this.deadlineNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    /**
+     * @param unit the unit to return the time in
+     * @return the time allowed for this request, or 0 if it does not have a deadline
+     * @since 2.4.0
+     */
+    public long getDeadline(TimeUnit unit) {
+        return unit.convert(deadlineNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the time left before the deadline of this request, for example to give a request made
+     * on behalf of this request the same deadline.
+     *
+     * @param unit the unit to return the time in
+     * @return the time left, 0 if the deadline has passed, or -1 if this request does not have a
+     * deadline or has not been executed
+     * @since 2.4.0
+     */
+    public long getRemainingTime(TimeUnit unit) {
+        if (deadlineAt == 0) {
+            return -1;
+        }
+        return unit.convert(Math.max(0, deadlineAt - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the HTTP method of this request
+     * @since 2.4.0
+     */
+    public String getRequestMethod() {
+        return requestMethod;
+    }
+
     /**
      * Set the String of request body data to be sent to the server.
      *
@@ -122,6 +204,7 @@ public class HttpConnection  {
         try {
             byte[] inputBytes = input.getBytes("UTF-8");
             this.input = new ByteArrayInputStream(inputBytes);
+            this.bodyWriter = null;
             // input is in bytes, not characters
             this.inputLength = inputBytes.length;
         } catch (UnsupportedEncodingException e) {
@@ -138,6 +221,7 @@ public class HttpConnection  {
      */
     public HttpConnection setRequestBody(final byte[] input) {
         this.input = new ByteArrayInputStream(input);
+        this.bodyWriter = null;
         this.inputLength = input.length;
         return this;
     }
@@ -149,6 +233,7 @@ public class HttpConnection  {
      */
     public HttpConnection setRequestBody(InputStream input) {
         this.input = input;
+        this.bodyWriter = null;
         // -1 signals inputLength unknown
         this.inputLength = -1;
         return this;
@@ -162,10 +247,122 @@ public class HttpConnection  {
      */
     public HttpConnection setRequestBody(InputStream input, long inputLength) {
         this.input = input;
+        this.bodyWriter = null;
+        this.inputLength = inputLength;
+        return this;
+    }
+
+    /**
+     * Set a writer of request body data, which writes the body straight to the connection's
+     * OutputStream instead of the body being held in memory. The writer is called again if the
+     * request is replayed.
+     *
+     * @param bodyWriter  writes the request body data to be sent to the server
+     * @param inputLength length of the request body data in bytes, or -1 to send it chunked
+     * @return an {@link HttpConnection} for method chaining
+     * @since 2.4.0
+     */
+    public HttpConnection setRequestBody(RequestBodyWriter bodyWriter, long inputLength) {
+        this.input = null;
+        this.bodyWriter = bodyWriter;
         this.inputLength = inputLength;
         return this;
     }
 
+    /**
+     * Get the request body data set by one of the {@code setRequestBody} methods, for use by
+     * request interceptors. Interceptors that read the stream must replace it with a new body.
+     *
+     * @return the InputStream of request body data, or {@code null} if there is no request body
+     * or the body is written by a {@link RequestBodyWriter}
+     * @since 2.4.0
+     */
+    public InputStream getRequestBody() {
+        return input;
+    }
+
+    /**
+     * Get the request body writer set by {@link #setRequestBody(RequestBodyWriter, long)}, for
+     * use by request interceptors.
+     *
+     * @return the writer of the request body, or {@code null} if the body is not written by a
+     * {@link RequestBodyWriter}
+     * @since 2.4.0
+     */
+    public RequestBodyWriter getRequestBodyWriter() {
+        return bodyWriter;
+    }
+
+    /**
+     * @return the length of the request body data in bytes, or -1 if it is not known
+     * @since 2.4.0
+     */
+    public long getRequestBodyLength() {
+        return inputLength;
+    }
+
+    /**
+     * Sets a filter that is applied to the response body stream before it is returned by the
+     * {@code responseAs} methods, for example to decode a compressed response. Typically set by
+     * a request interceptor.
+     *
+     * @param responseStreamFilter the filter to apply to the response body
+     * @return an {@link HttpConnection} for method chaining
+     * @since 2.4.0
+     */
+    public HttpConnection setResponseStreamFilter(ResponseStreamFilter responseStreamFilter) {
+        this.responseStreamFilter = responseStreamFilter;
+        return this;
+    }
+
+    /**
+     * Sets an immutable chain of interceptors, typically shared by all the requests of a client,
+     * that run after the interceptors in {@link #requestInterceptors} and
+     * {@link #responseInterceptors}, as a client's interceptors always have.
+     *
+     * @param interceptorChain the shared interceptors
+     * @return an {@link HttpConnection} for method chaining
+     * @since 2.4.0
+     */
+    public HttpConnection setInterceptorChain(HttpConnectionInterceptorChain interceptorChain) {
+        this.interceptorChain = (interceptorChain == null) ? HttpConnectionInterceptorChain.EMPTY
+                : interceptorChain;
+        return this;
+    }
+
+    /**
+     * @return the shared interceptors set on this connection, not including the interceptors in
+     * {@link #requestInterceptors} and {@link #responseInterceptors}
+     * @since 2.4.0
+     */
+    public HttpConnectionInterceptorChain getInterceptorChain() {
+        return interceptorChain;
+    }
+
+    /**
+     * Sets a listener to be called with the timings of this request when the response body
+     * stream is closed.
+     *
+     * @param timingListener the listener to call when the request completes
+     * @return an {@link HttpConnection} for method chaining
+     * @since 2.4.0
+     */
+    public HttpConnection setRequestTimingListener(RequestTimingListener timingListener) {
+        this.timingListener = timingListener;
+        return this;
+    }
+
+    /**
+     * Get the time spent in each phase of this request. The timings are complete when the
+     * response body stream has been closed.
+     *
+     * @return the timings of this request
+     * @since 2.4.0
+     */
+    public RequestTimings getTimings() {
+        return timings;
+    }
+
     /**
      * <p>
      * Execute request without returning data from server.
@@ -178,15 +375,49 @@ public class HttpConnection  {
      * @throws IOException if there was a problem writing data to the server
      */
     public HttpConnection execute() throws IOException {
+        startDeadline();
+        executing = true;
+        try {
+            executeAttempts();
+            executing = false;
+            if (attemptBodyRead) {
+                // the response returned is the one an interceptor has already read
+                complete();
+            }
+            return this;
+        } catch (IOException e) {
+            cancelDeadline();
+            throw checkDeadline(e);
+        } catch (RuntimeException e) {
+            executing = false;
+            if (attemptBodyRead) {
+                complete();
+            } else {
+                cancelDeadline();
+            }
+            throw e;
+        } finally {
+            executing = false;
+        }
+    }
+
+    private HttpConnection executeAttempts() throws IOException {
             boolean retry = true;
             int n = numberOfRetries;
+            // added once, it runs after the other request interceptors on every attempt
+            HttpConnectionRequestInterceptor basicAuthInterceptor = (url.getUserInfo() != null)
+                    ? new BasicAuthInterceptor(url.getUserInfo()) : null;
+            timings.start();
             while (retry && n-- > 0) {
+                if (isDeadlineExceeded()) {
+                    throw deadlineExceeded(null);
+                }
+                timings.attempt();
+                attemptBodyRead = false;
+                long phaseStart = System.nanoTime();
                 connection = connectionFactory.openConnection(url);
 
                 connection.setRequestProperty("User-Agent", AgentHelper.USER_AGENT);
-                if (url.getUserInfo() != null) {
-                    requestInterceptors.add(new BasicAuthInterceptor(url.getUserInfo()));
-                }
 
                 // always read the result, so we can retrieve the HTTP response code
                 connection.setDoInput(true);
@@ -197,9 +428,18 @@ public class HttpConnection  {
 
                 HttpConnectionInterceptorContext currentContext = new HttpConnectionInterceptorContext(this);
 
-                for (HttpConnectionRequestInterceptor requestInterceptor : requestInterceptors) {
-                    currentContext = requestInterceptor.interceptRequest(currentContext);
+                if (!requestInterceptors.isEmpty()) {
+                    for (HttpConnectionRequestInterceptor requestInterceptor :
+                            requestInterceptors) {
+                        currentContext = requestInterceptor.interceptRequest(currentContext);
+                    }
+                }
+                currentContext = interceptorChain.interceptRequest(currentContext);
+                if (basicAuthInterceptor != null) {
+                    currentContext = basicAuthInterceptor.interceptRequest(currentContext);
                 }
+                phaseStart = timings.add(RequestTimings.Phase.REQUEST_INTERCEPTORS, phaseStart);
+                limitTimeouts();
 
                 //set request properties after interceptors, in case the interceptors have added
                 // to the properties map
@@ -207,7 +447,11 @@ public class HttpConnection  {
                     connection.setRequestProperty(key, requestProperties.get(key));
                 }
 
-                if (input != null) {
+                if (input != null || bodyWriter != null) {
+                    // An in-memory body can be sent again if the request is replayed
+                    if (input instanceof ByteArrayInputStream) {
+                        input.reset();
+                    }
                     connection.setDoOutput(true);
                     if (inputLength != -1) {
                         // TODO on 1.7 upwards this method takes a long, otherwise int
@@ -225,7 +469,19 @@ public class HttpConnection  {
                     // attachments) if the server is going to reject our request. Reasons for rejecting
                     // requests could be 401 Unauthorized (eg cookie needs to be refreshed), etc.
                     connection.setRequestProperty("Expect", "100-continue");
+                }
+
+                // connect explicitly so that the time to get a connection can be measured
+                connection.connect();
+                phaseStart = timings.add(RequestTimings.Phase.CONNECT, phaseStart);
 
+                if (bodyWriter != null) {
+                    OutputStream os = connection.getOutputStream();
+                    bodyWriter.writeTo(os);
+                    // not closed, as for a body read from input below
+                    os.flush();
+                    phaseStart = timings.add(RequestTimings.Phase.REQUEST_BODY, phaseStart);
+                } else if (input != null) {
                     int bufSize = 1024;
                     int nRead = 0;
                     byte[] buf = new byte[bufSize];
@@ -238,11 +494,21 @@ public class HttpConnection  {
                     os.flush();
                     // we do not call os.close() - on some JVMs this incurs a delay of several seconds
                     // see http://stackoverflow.com/questions/19860436
+                    phaseStart = timings.add(RequestTimings.Phase.REQUEST_BODY, phaseStart);
                 }
 
-                for (HttpConnectionResponseInterceptor responseInterceptor : responseInterceptors) {
-                    currentContext = responseInterceptor.interceptResponse(currentContext);
+                // wait for the response headers
+                connection.getResponseCode();
+                phaseStart = timings.add(RequestTimings.Phase.TIME_TO_FIRST_BYTE, phaseStart);
+
+                if (!responseInterceptors.isEmpty()) {
+                    for (HttpConnectionResponseInterceptor responseInterceptor :
+                            responseInterceptors) {
+                        currentContext = responseInterceptor.interceptResponse(currentContext);
+                    }
                 }
+                currentContext = interceptorChain.interceptResponse(currentContext);
+                timings.add(RequestTimings.Phase.RESPONSE_INTERCEPTORS, phaseStart);
 
                 // retry flag is set from the final step in the response interceptRequest pipeline
                 retry = currentContext.replayRequest;
@@ -269,7 +535,7 @@ public class HttpConnection  {
         if (connection == null) {
             throw new IOException("Attempted to read response from server before calling execute()");
         }
-        InputStream is = connection.getInputStream();
+        InputStream is = timed(filter(connection.getInputStream()));
         String string = IOUtils.toString(is);
         is.close();
         connection.disconnect();
@@ -290,7 +556,7 @@ public class HttpConnection  {
         if (connection == null) {
             throw new IOException("Attempted to read response from server before calling execute()");
         }
-        InputStream is = connection.getInputStream();
+        InputStream is = timed(filter(connection.getInputStream()));
         byte[] bytes = IOUtils.toByteArray(is);
         is.close();
         connection.disconnect();
@@ -311,10 +577,142 @@ public class HttpConnection  {
         if (connection == null) {
             throw new IOException("Attempted to read response from server before calling execute()");
         }
-        InputStream is = connection.getInputStream();
+        InputStream is = timed(filter(connection.getInputStream()));
         return is;
     }
 
+    /**
+     * <p>
+     * Return the body of an error response from the server as an InputStream.
+     * </p>
+     * <p>
+     * <b>Important:</b> you must call <code>execute()</code> before calling this method.
+     * </p>
+     * @return InputStream of the error response body from the server, or {@code null} if
+     * there is no error response body
+     * @throws IOException if there was a problem reading data from the server
+     * @since 2.4.0
+     */
+    public InputStream responseAsErrorStream() throws IOException {
+        if (connection == null) {
+            throw new IOException("Attempted to read response from server before calling execute()");
+        }
+        InputStream es = connection.getErrorStream();
+        if (es == null) {
+            // there is no body to read so the request is complete, unless an interceptor is
+            // checking the response of an attempt that may be replayed
+            if (executing) {
+                attemptBodyRead = true;
+            } else {
+                complete();
+            }
+            return null;
+        }
+        return timed(filter(es));
+    }
+
+    private void startDeadline() {
+        if (deadlineNanos == 0) {
+            return;
+        }
+        if (deadlineAt == 0) {
+            deadlineAt = System.nanoTime() + deadlineNanos;
+        }
+        long remaining = deadlineAt - System.nanoTime();
+        if (remaining <= 0) {
+            throw deadlineExceeded(null);
+        }
+        deadlineTask = DeadlineTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                aborted = true;
+                HttpURLConnection current = connection;
+                if (current != null) {
+                    current.disconnect();
+                }
+            }
+        }, remaining);
+    }
+
+    private void cancelDeadline() {
+        if (deadlineTask != null) {
+            DeadlineTimer.cancel(deadlineTask);
+            deadlineTask = null;
+        }
+    }
+
+    private boolean isDeadlineExceeded() {
+        return aborted || (deadlineAt != 0 && System.nanoTime() - deadlineAt >= 0);
+    }
+
+    /**
+     * Limits the connect and read timeouts of the current attempt to the time left, so that a
+     * blocked connect or read fails at the deadline even before the connection is closed.
+     */
+    private void limitTimeouts() {
+        if (deadlineAt == 0) {
+            return;
+        }
+        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineAt - System.nanoTime()) + 1;
+        int timeout = (int) Math.min(Integer.MAX_VALUE, Math.max(1, remainingMillis));
+        if (connection.getConnectTimeout() == 0 || connection.getConnectTimeout() > timeout) {
+            connection.setConnectTimeout(timeout);
+        }
+        if (connection.getReadTimeout() == 0 || connection.getReadTimeout() > timeout) {
+            connection.setReadTimeout(timeout);
+        }
+    }
+
+    /**
+     * @param e the exception thrown by the request
+     * @return the exception, if the deadline has not passed
+     * @throws DeadlineExceededException if the deadline has passed
+     */
+    private IOException checkDeadline(IOException e) {
+        if (isDeadlineExceeded()) {
+            throw deadlineExceeded(e);
+        }
+        return e;
+    }
+
+    private DeadlineExceededException deadlineExceeded(IOException cause) {
+        return new DeadlineExceededException(String.format("Deadline of %d ms exceeded for %s %s",
+                TimeUnit.NANOSECONDS.toMillis(deadlineNanos), requestMethod, url), cause);
+    }
+
+    private InputStream timed(InputStream responseBody) {
+        return new TimedInputStream(responseBody);
+    }
+
+    private void complete() {
+        if (completed) {
+            return;
+        }
+        completed = true;
+        cancelDeadline();
+        int code = 0;
+        try {
+            code = connection.getResponseCode();
+        } catch (IOException e) {
+            // the response code was read in execute so this is not expected
+        }
+        timings.complete(code);
+        if (timingListener != null) {
+            try {
+                timingListener.requestCompleted(timings);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Request timing listener threw an exception", e);
+            }
+        }
+    }
+
+    private InputStream filter(InputStream responseBody) throws IOException {
+        if (responseStreamFilter == null) {
+            return responseBody;
+        }
+        return responseStreamFilter.filter(connection, responseBody);
+    }
+
     /**
      * Get the underlying HttpURLConnection object, allowing clients to set/get properties not
      * exposed here.
@@ -334,6 +732,67 @@ public class HttpConnection  {
         connection.disconnect();
     }
 
+    /**
+     * Records the time spent waiting in reads of the response body, and the time between reads
+     * when the stream is closed.
+     */
+    private final class TimedInputStream extends FilterInputStream {
+
+        private final long openedNanos = System.nanoTime();
+        // the body of an attempt read by an interceptor only adds to the timings
+        private final boolean completesRequest = !executing;
+        private long readNanos = 0;
+        private boolean closed = false;
+
+        TimedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read();
+            } catch (IOException e) {
+                throw checkDeadline(e);
+            } finally {
+                readNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                throw checkDeadline(e);
+            } finally {
+                readNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!completed && !closed) {
+                    closed = true;
+                    long openNanos = System.nanoTime() - openedNanos;
+                    timings.addNanos(RequestTimings.Phase.RESPONSE_BODY, readNanos);
+                    timings.addNanos(RequestTimings.Phase.RESPONSE_PROCESSING, Math.max(0,
+                            openNanos - readNanos));
+                    if (completesRequest) {
+                        complete();
+                    } else {
+                        attemptBodyRead = true;
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Factory used by HttpConnection to produce HttpUrlConnections.
      */
@@ -357,4 +816,43 @@ public class HttpConnection  {
         void setProxy(URL proxyUrl);
     }
 
+    /**
+     * Writes a request body to the connection's OutputStream.
+     *
+     * @see #setRequestBody(RequestBodyWriter, long)
+     * @since 2.4.0
+     */
+    public interface RequestBodyWriter {
+
+        /**
+         * Called by HttpConnection each time the request is sent. The implementation must write
+         * the same body each time and must not close the stream.
+         *
+         * @param out the stream to write the request body to
+         * @throws IOException if there is an issue writing the body
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Filter applied to response body streams by HttpConnection.
+     *
+     * @see #setResponseStreamFilter(ResponseStreamFilter)
+     * @since 2.4.0
+     */
+    public interface ResponseStreamFilter {
+
+        /**
+         * Called by HttpConnection when the response body is read.
+         *
+         * @param connection   the connection the response was received on, for example to read
+         *                     the response headers
+         * @param responseBody the response body as received from the server
+         * @return the InputStream to read the response body from
+         * @throws IOException if there is an issue reading the response
+         */
+        InputStream filter(HttpURLConnection connection, InputStream responseBody) throws
+                IOException;
+    }
+
 }
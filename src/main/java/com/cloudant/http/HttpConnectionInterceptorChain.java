@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.http;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable sequence of request and response interceptors that can be shared by any number
+ * of {@link HttpConnection}s.
+ * <P>
+ * A client builds its chain once and sets it on each request with
+ * {@link HttpConnection#setInterceptorChain(HttpConnectionInterceptorChain)}, so requests do not
+ * copy the client's interceptors. The chain's interceptors run after any interceptors added to
+ * the {@link HttpConnection#requestInterceptors} or {@link HttpConnection#responseInterceptors}
+ * of an individual connection.
+ * </P>
+ *
+ * @since 2.4.0
+ */
+public final class HttpConnectionInterceptorChain {
+
+    /**
+     * A chain with no interceptors.
+     */
+    public static final HttpConnectionInterceptorChain EMPTY = new
+            HttpConnectionInterceptorChain(Collections.<HttpConnectionRequestInterceptor>emptyList(),
+            Collections.<HttpConnectionResponseInterceptor>emptyList());
+
+    private final HttpConnectionRequestInterceptor[] requestInterceptors;
+    private final HttpConnectionResponseInterceptor[] responseInterceptors;
+
+    /**
+     * Creates a chain from copies of the lists of interceptors, later changes to the lists do
+     * not affect the chain.
+     *
+     * @param requestInterceptors  the request interceptors in the order they are run
+     * @param responseInterceptors the response interceptors in the order they are run
+     */
+    public HttpConnectionInterceptorChain(List<? extends HttpConnectionRequestInterceptor>
+                                                  requestInterceptors,
+                                          List<? extends HttpConnectionResponseInterceptor>
+                                                  responseInterceptors) {
+        this.requestInterceptors = requestInterceptors.toArray(new
+                HttpConnectionRequestInterceptor[requestInterceptors.size()]);
+        this.responseInterceptors = responseInterceptors.toArray(new
+                HttpConnectionResponseInterceptor[responseInterceptors.size()]);
+    }
+
+    /**
+     * @return an unmodifiable list of the request interceptors in the order they are run
+     */
+    public List<HttpConnectionRequestInterceptor> getRequestInterceptors() {
+        return Collections.unmodifiableList(Arrays.asList(requestInterceptors));
+    }
+
+    /**
+     * @return an unmodifiable list of the response interceptors in the order they are run
+     */
+    public List<HttpConnectionResponseInterceptor> getResponseInterceptors() {
+        return Collections.unmodifiableList(Arrays.asList(responseInterceptors));
+    }
+
+    /**
+     * Creates a chain with additional interceptors run after the interceptors of this chain.
+     *
+     * @param requestInterceptors  the request interceptors to add
+     * @param responseInterceptors the response interceptors to add
+     * @return the new chain, or this chain if there are no interceptors to add
+     */
+    public HttpConnectionInterceptorChain append(List<? extends HttpConnectionRequestInterceptor>
+                                                         requestInterceptors,
+                                                 List<? extends HttpConnectionResponseInterceptor>
+                                                         responseInterceptors) {
+        if (requestInterceptors.isEmpty() && responseInterceptors.isEmpty()) {
+            return this;
+        }
+        List<HttpConnectionRequestInterceptor> requests = new
+                ArrayList<HttpConnectionRequestInterceptor>(getRequestInterceptors());
+        requests.addAll(requestInterceptors);
+        List<HttpConnectionResponseInterceptor> responses = new
+                ArrayList<HttpConnectionResponseInterceptor>(getResponseInterceptors());
+        responses.addAll(responseInterceptors);
+        return new HttpConnectionInterceptorChain(requests, responses);
+    }
+
+    /**
+     * Creates a chain without an interceptor, for example so that an interceptor can make a
+     * request of its own that it does not intercept.
+     *
+     * @param interceptor the interceptor to remove
+     * @return the new chain
+     */
+    public HttpConnectionInterceptorChain without(HttpConnectionInterceptor interceptor) {
+        List<HttpConnectionRequestInterceptor> requests = new
+                ArrayList<HttpConnectionRequestInterceptor>(getRequestInterceptors());
+        requests.remove(interceptor);
+        List<HttpConnectionResponseInterceptor> responses = new
+                ArrayList<HttpConnectionResponseInterceptor>(getResponseInterceptors());
+        responses.remove(interceptor);
+        return new HttpConnectionInterceptorChain(requests, responses);
+    }
+
+    HttpConnectionInterceptorContext interceptRequest(HttpConnectionInterceptorContext context) {
+        for (HttpConnectionRequestInterceptor requestInterceptor : requestInterceptors) {
+            context = requestInterceptor.interceptRequest(context);
+        }
+        return context;
+    }
+
+    HttpConnectionInterceptorContext interceptResponse(HttpConnectionInterceptorContext context) {
+        for (HttpConnectionResponseInterceptor responseInterceptor : responseInterceptors) {
+            context = responseInterceptor.interceptResponse(context);
+        }
+        return context;
+    }
+}
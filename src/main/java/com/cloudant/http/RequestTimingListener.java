@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.http;
+
+/**
+ * Receives the timings of requests when they complete.
+ * <P>
+ * A request completes when its response body stream is closed. Listeners are called on the
+ * thread that closes the stream so should return quickly, for example by recording the timings
+ * in a histogram.
+ * </P>
+ *
+ * @see com.cloudant.client.api.ClientBuilder#requestTimingListener(RequestTimingListener)
+ * @since 2.4.0
+ */
+public interface RequestTimingListener {
+
+    /**
+     * Called when a request has completed.
+     *
+     * @param timings the timings of the request
+     */
+    void requestCompleted(RequestTimings timings);
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.http;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time spent in each phase of a request made by an {@link HttpConnection}.
+ * <P>
+ * If a request is replayed, for example after a cookie renewal or a retry, the times for each
+ * attempt are added together. The timings are complete when the response body stream has been
+ * closed, which is when a {@link RequestTimingListener} is notified.
+ * </P>
+ *
+ * @see RequestTimingListener
+ * @since 2.4.0
+ */
+public class RequestTimings {
+
+    /**
+     * The phases of a request.
+     */
+    public enum Phase {
+        /**
+         * Running request interceptors, including any wait by a throttle or to get a session
+         * cookie.
+         */
+        REQUEST_INTERCEPTORS,
+        /**
+         * Obtaining a connection: a pooled connection is reused immediately, a new connection
+         * includes the DNS lookup, TCP connect and TLS handshake.
+         */
+        CONNECT,
+        /**
+         * Writing the request body.
+         */
+        REQUEST_BODY,
+        /**
+         * Waiting for the response headers after the request was sent, the time to first byte.
+         */
+        TIME_TO_FIRST_BYTE,
+        /**
+         * Running response interceptors, including any wait before a retry.
+         */
+        RESPONSE_INTERCEPTORS,
+        /**
+         * Waiting for response body data to be received.
+         */
+        RESPONSE_BODY,
+        /**
+         * Processing the response body between reads, typically deserializing it.
+         */
+        RESPONSE_PROCESSING
+    }
+
+    private final String method;
+    private final URL url;
+    private final long[] nanos = new long[Phase.values().length];
+    private long startNanos;
+    private long totalNanos;
+    private int attempts;
+    private int statusCode;
+
+    RequestTimings(String method, URL url) {
+        this.method = method;
+        this.url = url;
+    }
+
+    void start() {
+        startNanos = System.nanoTime();
+    }
+
+    void attempt() {
+        attempts++;
+    }
+
+    /**
+     * Adds the time since {@code since} to a phase.
+     *
+     * @return the current time, to start timing the next phase
+     */
+    long add(Phase phase, long since) {
+        long now = System.nanoTime();
+        nanos[phase.ordinal()] += now - since;
+        return now;
+    }
+
+    void addNanos(Phase phase, long time) {
+        nanos[phase.ordinal()] += time;
+    }
+
+    void complete(int statusCode) {
+        this.statusCode = statusCode;
+        this.totalNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * @return the HTTP method of the request
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the URL of the request
+     */
+    public URL getUrl() {
+        return url;
+    }
+
+    /**
+     * @return the status code of the final response, or 0 if the request has not completed
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return the number of times the request was sent
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @param phase the phase of the request
+     * @param unit  the unit to return the time in
+     * @return the time spent in the phase
+     */
+    public long getTime(Phase phase, TimeUnit unit) {
+        return unit.convert(nanos[phase.ordinal()], TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param unit the unit to return the time in
+     * @return the time from the start of the request until the response body was closed, or 0
+     * if the request has not completed
+     */
+    public long getTotalTime(TimeUnit unit) {
+        return unit.convert(totalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("RequestTimings [")
+                .append(method).append(' ').append(url)
+                .append(", status=").append(statusCode)
+                .append(", attempts=").append(attempts)
+                .append(", totalMillis=").append(getTotalTime(TimeUnit.MILLISECONDS));
+        for (Phase phase : Phase.values()) {
+            sb.append(", ").append(phase).append('=').append(getTime(phase, TimeUnit
+                    .MILLISECONDS));
+        }
+        return sb.append(']').toString();
+    }
+}
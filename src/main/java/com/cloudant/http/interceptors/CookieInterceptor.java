@@ -14,8 +14,11 @@
 
 package com.cloudant.http.interceptors;
 
+import com.cloudant.client.org.lightcouch.CouchDbException;
+import com.cloudant.client.org.lightcouch.DeadlineExceededException;
 import com.cloudant.http.Http;
 import com.cloudant.http.HttpConnection;
+import com.cloudant.http.HttpConnectionInterceptorChain;
 import com.cloudant.http.HttpConnectionInterceptorContext;
 import com.cloudant.http.HttpConnectionRequestInterceptor;
 import com.cloudant.http.HttpConnectionResponseInterceptor;
@@ -29,10 +32,19 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.net.HttpCookie;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -48,15 +60,45 @@ import java.util.logging.Logger;
  *
  * If the request to get the cookie for use in future request fails with a 401 status code
  * (or any status that indicates client error) cookie authentication will not be attempted again.
+ *
+ * Only one thread renews the cookie at a time, other threads that need a new cookie wait for it
+ * instead of making their own session requests. If the server sets a lifetime for the cookie it
+ * is renewed in the background before it expires, and a cookie refreshed by the server in the
+ * response to any request replaces the current one.
+ *
+ * A separate cookie is kept for each server, identified by protocol, host and port, as a session
+ * cookie from one server is not accepted by another when requests are routed to more than one.
+ *
+ * A request waiting for another thread to renew the cookie waits no longer than its deadline, and
+ * background renewals run one at a time on a single daemon thread shared by all interceptors.
  */
 public class CookieInterceptor implements HttpConnectionRequestInterceptor,
         HttpConnectionResponseInterceptor {
 
     private final static Logger logger = Logger.getLogger(CookieInterceptor.class
             .getCanonicalName());
+    // the fraction of the cookie lifetime after which it is renewed in the background
+    private static final double REFRESH_FRACTION = 0.8;
+    private static final String AUTH_SESSION = "AuthSession";
+    // the longest a background renewal waits for the session request
+    private static final long REFRESH_TIMEOUT_SECONDS = 60;
+
+    private static final ExecutorService refresher = Executors.newSingleThreadExecutor(new
+            ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "cloudant-cookie-refresh");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
     private final byte[] sessionRequestBody;
-    private String cookie = null;
-    private boolean shouldAttemptCookieRequest = true;
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<String,
+            Session>();
+    // the session used most recently, to avoid a lookup when there is only one server
+    private volatile Session lastSession = null;
+    private volatile boolean shouldAttemptCookieRequest = true;
 
     /**
      * Constructs a cookie interceptor.
@@ -81,13 +123,21 @@ public class CookieInterceptor implements HttpConnectionRequestInterceptor,
     public HttpConnectionInterceptorContext interceptRequest(HttpConnectionInterceptorContext
                                                                      context) {
 
-        HttpURLConnection connection = context.connection.getConnection();
-
         if (shouldAttemptCookieRequest) {
-            if (cookie == null) {
-                cookie = getCookie(connection.getURL(), context);
+            Session session = session(context);
+            String currentCookie = session.cookie;
+            if (currentCookie == null) {
+                currentCookie = renewCookie(session, null, context);
+            } else if (System.nanoTime() - session.refreshAtNanos >= 0) {
+                refreshInBackground(session, currentCookie, context);
+            }
+            // set the cookie on the HttpConnection so we know which cookie a request was sent
+            // with when the response is received
+            if (currentCookie != null) {
+                context.connection.requestProperties.put("Cookie", currentCookie);
+            } else {
+                context.connection.requestProperties.remove("Cookie");
             }
-            connection.setRequestProperty("Cookie", cookie);
         }
 
         return context;
@@ -103,7 +153,7 @@ public class CookieInterceptor implements HttpConnectionRequestInterceptor,
             switch (statusCode) {
                 case HttpURLConnection.HTTP_FORBIDDEN: //403
                     //check if it was an expiry case
-                    InputStream errorStream = connection.getErrorStream();
+                    InputStream errorStream = context.connection.responseAsErrorStream();
                     String errorString = new String(IOUtils.toString(errorStream, "UTF-8"));
                     try {
                         JsonObject errorResponse = new Gson().fromJson(errorString, JsonObject
@@ -131,12 +181,16 @@ public class CookieInterceptor implements HttpConnectionRequestInterceptor,
                     renewCookie = true;
                     break;
                 default:
+                    // the server may have refreshed the cookie
+                    cookieRefreshed(session(context), context.connection.requestProperties.get
+                            ("Cookie"), connection.getHeaderField("Set-Cookie"));
                     break;
             }
             if (renewCookie) {
-                cookie = getCookie(connection.getURL(), context);
+                String renewed = renewCookie(session(context), context.connection
+                        .requestProperties.get("Cookie"), context);
                 // Don't resend request, failed to get cookie
-                if (cookie != null) {
+                if (renewed != null) {
                     context.replayRequest = true;
                 } else {
                     context.replayRequest = false;
@@ -149,7 +203,181 @@ public class CookieInterceptor implements HttpConnectionRequestInterceptor,
 
     }
 
-    private String getCookie(URL url, HttpConnectionInterceptorContext context) {
+    /**
+     * @return the session for the server the request is sent to
+     */
+    private Session session(HttpConnectionInterceptorContext context) {
+        URL url = context.connection.getConnection().getURL();
+        Session session = lastSession;
+        if (session == null || !session.isFor(url)) {
+            String key = url.getProtocol() + "://" + url.getHost() + ":" + url.getPort();
+            session = sessions.get(key);
+            if (session == null) {
+                Session newSession = new Session(url);
+                session = sessions.putIfAbsent(key, newSession);
+                if (session == null) {
+                    session = newSession;
+                }
+            }
+            lastSession = session;
+        }
+        return session;
+    }
+
+    /**
+     * Gets a new cookie to replace a stale one. If another thread is already getting a new
+     * cookie this waits for it, and if the stale cookie has already been replaced the current
+     * cookie is returned without making a session request.
+     *
+     * @param session     the session of the server the request is sent to
+     * @param staleCookie the cookie that needs replacing, or null if there was no cookie
+     * @param context     the context of the request that needs the cookie
+     * @return the new cookie, or null if a cookie could not be obtained
+     * @throws DeadlineExceededException if the deadline of the request passes while waiting for
+     *                                   another thread to renew the cookie
+     */
+    private String renewCookie(Session session, String staleCookie,
+                               HttpConnectionInterceptorContext context) {
+        // the session request must complete before the deadline of the request
+        return renewCookie(session, staleCookie, context.connection.getConnection().getURL(),
+                interceptors(context), context.connection.getRemainingTime(TimeUnit
+                        .NANOSECONDS), false);
+    }
+
+    private String renewCookie(Session session, String staleCookie, URL url,
+                               HttpConnectionInterceptorChain interceptors, long deadlineNanos,
+                               boolean background) {
+        // held while getting a new cookie so that only one session request is made at a time
+        try {
+            if (deadlineNanos < 0) {
+                session.lock.lockInterruptibly();
+            } else if (!session.lock.tryLock(deadlineNanos, TimeUnit.NANOSECONDS)) {
+                if (background) {
+                    // the cookie is being renewed by a request
+                    return session.cookie;
+                }
+                throw new DeadlineExceededException("Deadline exceeded while waiting for a " +
+                        "session cookie from " + url.getHost());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CouchDbException("Interrupted while waiting for a session cookie.", e);
+        }
+        try {
+            String currentCookie = session.cookie;
+            boolean isStale = (staleCookie == null) ? currentCookie == null : staleCookie.equals
+                    (currentCookie);
+            if (!isStale || !shouldAttemptCookieRequest) {
+                // another thread has already renewed the cookie, or given up
+                return currentCookie;
+            }
+            String cookieHeader = getCookie(url, interceptors, deadlineNanos);
+            if (cookieHeader != null) {
+                storeCookie(session, cookieHeader);
+            } else if (background) {
+                // the current cookie has not expired yet, it will be renewed when it is rejected
+                session.refreshAtNanos = Long.MAX_VALUE;
+            } else {
+                session.cookie = null;
+            }
+            return session.cookie;
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    /**
+     * Renews the cookie on the refresh thread before it expires, unless a renewal is already in
+     * progress. The request continues with the current cookie.
+     */
+    private void refreshInBackground(final Session session, final String currentCookie,
+                                     HttpConnectionInterceptorContext context) {
+        if (!session.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        // copy what is needed from the context as the request carries on in this thread
+        final URL url = context.connection.getConnection().getURL();
+        final HttpConnectionInterceptorChain interceptors = interceptors(context);
+        refresher.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    renewCookie(session, currentCookie, url, interceptors, TimeUnit.SECONDS
+                            .toNanos(REFRESH_TIMEOUT_SECONDS), true);
+                } catch (CouchDbException e) {
+                    logger.log(Level.WARNING, "Failed to renew cookie in the background", e);
+                } finally {
+                    session.refreshing.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Replaces the cookie a request was sent with if the server refreshed it in the response.
+     *
+     * @param session    the session of the server the request was sent to
+     * @param sentCookie the cookie the request was sent with
+     * @param setCookie  the value of the Set-Cookie response header
+     */
+    private void cookieRefreshed(Session session, String sentCookie, String setCookie) {
+        // an empty AuthSession cookie is sent when a session is deleted
+        if (sentCookie == null || setCookie == null || !setCookie.startsWith(AUTH_SESSION + "=")
+                || setCookie.startsWith(AUTH_SESSION + "=;")) {
+            return;
+        }
+        if (!session.lock.tryLock()) {
+            // the cookie is being renewed, which will replace it anyway
+            return;
+        }
+        try {
+            // only replace the cookie if it has not been renewed since the request was sent
+            if (sentCookie.equals(session.cookie)) {
+                storeCookie(session, setCookie);
+            }
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the cookie from a Set-Cookie header and schedules its background renewal from the
+     * lifetime in the header. Must be called holding the session's lock.
+     */
+    private static void storeCookie(Session session, String setCookie) {
+        long maxAgeSeconds = -1;
+        try {
+            for (HttpCookie httpCookie : HttpCookie.parse(setCookie)) {
+                maxAgeSeconds = httpCookie.getMaxAge();
+            }
+        } catch (IllegalArgumentException e) {
+            logger.log(Level.FINE, "Could not parse the cookie lifetime", e);
+        }
+        if (maxAgeSeconds > 0) {
+            session.refreshAtNanos = System.nanoTime() + (long) (TimeUnit.SECONDS.toNanos
+                    (maxAgeSeconds) * REFRESH_FRACTION);
+        } else {
+            // no lifetime so the cookie is only renewed when it is rejected
+            session.refreshAtNanos = Long.MAX_VALUE;
+        }
+        int end = setCookie.indexOf(";");
+        session.cookie = (end < 0) ? setCookie : setCookie.substring(0, end);
+    }
+
+    /**
+     * @return the interceptors of the request that needs the cookie, in the order they run for
+     * that request, to use for the session request
+     */
+    private static HttpConnectionInterceptorChain interceptors(HttpConnectionInterceptorContext
+                                                                       context) {
+        HttpConnectionInterceptorChain chain = context.connection.getInterceptorChain();
+        return new HttpConnectionInterceptorChain(context.connection.requestInterceptors, context
+                .connection.responseInterceptors).append(chain.getRequestInterceptors(), chain
+                .getResponseInterceptors());
+    }
+
+    private String getCookie(URL url, HttpConnectionInterceptorChain interceptors, long
+            deadlineNanos) {
         try {
             URL sessionURL = new URL(String.format("%s://%s:%d/_session",
                     url.getProtocol(),
@@ -160,12 +388,10 @@ public class CookieInterceptor implements HttpConnectionRequestInterceptor,
             conn.setRequestBody(sessionRequestBody);
 
             //when we request the session we need all interceptors except this one
-
-            conn.requestInterceptors.addAll(context.connection.requestInterceptors);
-            conn.requestInterceptors.remove(this);
-            conn.responseInterceptors.addAll(context.connection.responseInterceptors);
-            conn.responseInterceptors.remove(this);
-
+            conn.setInterceptorChain(interceptors.without(this));
+            if (deadlineNanos >= 0) {
+                conn.setDeadline(Math.max(1, deadlineNanos), TimeUnit.NANOSECONDS);
+            }
 
             HttpURLConnection connection = conn.execute().getConnection();
             String cookieHeader = connection.getHeaderField("Set-Cookie");
@@ -173,10 +399,15 @@ public class CookieInterceptor implements HttpConnectionRequestInterceptor,
 
             if (responseCode / 100 == 2) {
 
-                if (sessionHasStarted(connection.getInputStream())) {
-                    return cookieHeader.substring(0, cookieHeader.indexOf(";"));
-                } else {
-                    return null;
+                InputStream responseStream = conn.responseAsInputStream();
+                try {
+                    if (cookieHeader != null && sessionHasStarted(responseStream)) {
+                        return cookieHeader;
+                    } else {
+                        return null;
+                    }
+                } finally {
+                    IOUtils.closeQuietly(responseStream);
                 }
 
             } else if (responseCode == 401) {
@@ -225,4 +456,31 @@ public class CookieInterceptor implements HttpConnectionRequestInterceptor,
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * The cookie for a server.
+     */
+    private static final class Session {
+
+        private final String protocol;
+        private final String host;
+        private final int port;
+        private final AtomicBoolean refreshing = new AtomicBoolean(false);
+        // held while the cookie is renewed or replaced
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile String cookie = null;
+        // System.nanoTime() after which the cookie should be renewed in the background
+        private volatile long refreshAtNanos = Long.MAX_VALUE;
+
+        Session(URL url) {
+            this.protocol = url.getProtocol();
+            this.host = url.getHost();
+            this.port = url.getPort();
+        }
+
+        boolean isFor(URL url) {
+            return port == url.getPort() && host.equals(url.getHost()) && protocol.equals(url
+                    .getProtocol());
+        }
+    }
 }
@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.http.interceptors;
+
+import com.cloudant.http.HttpConnection;
+import com.cloudant.http.HttpConnectionInterceptorContext;
+import com.cloudant.http.HttpConnectionRequestInterceptor;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.net.HttpURLConnection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses request bodies and accepts compressed responses using gzip content encoding.
+ * <P>
+ * The interceptor adds an {@code Accept-Encoding: gzip} header to each request and transparently
+ * decompresses responses with a {@code Content-Encoding: gzip} header before they are returned
+ * by {@link HttpConnection#responseAsInputStream()} and the other {@code responseAs} methods.
+ * </P>
+ * <P>
+ * Request bodies set from a String or byte array that are at least the threshold size are
+ * compressed and sent with a {@code Content-Encoding: gzip} header. Request bodies written by a
+ * {@link HttpConnection.RequestBodyWriter}, for example bulk requests, are compressed as they are
+ * written unless their length is known to be below the threshold. Request bodies set from an
+ * InputStream, for example attachments, are sent unchanged.
+ * </P>
+ * <P>
+ * The interceptor counts the bytes of request and response bodies before and after compression,
+ * which can be read at any time, for example to export as metrics.
+ * </P>
+ * <P>Example usage:</P>
+ * <pre>
+ * {@code
+ * GzipInterceptor gzip = new GzipInterceptor(1024);
+ * CloudantClient client = ClientBuilder.account("example")
+ *                                      .interceptors(gzip)
+ *                                      .build();
+ * // later
+ * double ratio = gzip.getResponseCompressionRatio();
+ * }
+ * </pre>
+ *
+ * @see com.cloudant.client.api.ClientBuilder#gzip(int)
+ * @since 2.4.0
+ */
+public class GzipInterceptor implements HttpConnectionRequestInterceptor {
+
+    private static final Logger logger = Logger.getLogger(GzipInterceptor.class
+            .getCanonicalName());
+
+    private static final String GZIP = "gzip";
+
+    private final int threshold;
+
+    private final AtomicLong requestBytes = new AtomicLong();
+    private final AtomicLong requestBytesSent = new AtomicLong();
+    private final AtomicLong compressedRequestCount = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private final AtomicLong responseBytesReceived = new AtomicLong();
+    private final AtomicLong compressedResponseCount = new AtomicLong();
+
+    private final HttpConnection.ResponseStreamFilter decoder = new HttpConnection
+            .ResponseStreamFilter() {
+
+        @Override
+        public InputStream filter(HttpURLConnection connection, InputStream responseBody)
+                throws IOException {
+            InputStream received = new CountingInputStream(responseBody, responseBytesReceived);
+            if (GZIP.equalsIgnoreCase(connection.getContentEncoding())) {
+                // HEAD, 204 and 304 responses can have the header without a body to decode
+                received = new LazyGzipInputStream(received, compressedResponseCount);
+            }
+            return new CountingInputStream(received, responseBytes);
+        }
+    };
+
+    /**
+     * @param threshold the minimum size in bytes of a request body to compress
+     */
+    public GzipInterceptor(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold must not be negative");
+        }
+        this.threshold = threshold;
+    }
+
+    @Override
+    public HttpConnectionInterceptorContext interceptRequest(HttpConnectionInterceptorContext
+                                                                     context) {
+        HttpConnection connection = context.connection;
+        connection.requestProperties.put("Accept-Encoding", GZIP);
+        connection.setResponseStreamFilter(decoder);
+
+        // Session requests are form encoded and a replayed request already has a compressed body
+        if (connection.url.getPath().endsWith("/_session") || GZIP.equals(connection
+                .requestProperties.get("Content-Encoding"))) {
+            return context;
+        }
+        long length = connection.getRequestBodyLength();
+        HttpConnection.RequestBodyWriter bodyWriter = connection.getRequestBodyWriter();
+        if (bodyWriter != null) {
+            if (length < 0 || length >= threshold) {
+                // the sizes are counted as the body is written
+                connection.setRequestBody(new CompressingBodyWriter(bodyWriter), -1);
+                connection.requestProperties.put("Content-Encoding", GZIP);
+                compressedRequestCount.incrementAndGet();
+            } else {
+                requestBytes.addAndGet(length);
+                requestBytesSent.addAndGet(length);
+            }
+            return context;
+        }
+        InputStream body = connection.getRequestBody();
+        if (body == null || length < 0) {
+            return context;
+        }
+        requestBytes.addAndGet(length);
+        // Only in-memory bodies can be compressed without buffering a stream
+        if (length >= threshold && body instanceof ByteArrayInputStream) {
+            try {
+                byte[] uncompressed = IOUtils.toByteArray(body);
+                byte[] compressed = compress(uncompressed);
+                // Send whichever is smaller, the body has been read so must be set again
+                if (compressed.length < uncompressed.length) {
+                    connection.setRequestBody(compressed);
+                    connection.requestProperties.put("Content-Encoding", GZIP);
+                    compressedRequestCount.incrementAndGet();
+                    length = compressed.length;
+                } else {
+                    connection.setRequestBody(uncompressed);
+                }
+            } catch (IOException e) {
+                // Not expected for in-memory streams
+                logger.log(Level.WARNING, "Failed to compress request body", e);
+            }
+        }
+        requestBytesSent.addAndGet(length);
+        return context;
+    }
+
+    private static byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4 + 64);
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        try {
+            gzip.write(data);
+        } finally {
+            gzip.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the total size in bytes of request bodies before compression
+     */
+    public long getRequestBytes() {
+        return requestBytes.get();
+    }
+
+    /**
+     * @return the total size in bytes of request bodies sent, after compression
+     */
+    public long getRequestBytesSent() {
+        return requestBytesSent.get();
+    }
+
+    /**
+     * @return the number of request bodies that were compressed
+     */
+    public long getCompressedRequestCount() {
+        return compressedRequestCount.get();
+    }
+
+    /**
+     * @return the total size in bytes of response bodies read, after decompression
+     */
+    public long getResponseBytes() {
+        return responseBytes.get();
+    }
+
+    /**
+     * @return the total size in bytes of response bodies received, before decompression
+     */
+    public long getResponseBytesReceived() {
+        return responseBytesReceived.get();
+    }
+
+    /**
+     * @return the number of compressed responses received
+     */
+    public long getCompressedResponseCount() {
+        return compressedResponseCount.get();
+    }
+
+    /**
+     * @return the ratio of the size of request bodies before compression to the size sent, or 1
+     * if no request bodies have been sent
+     */
+    public double getRequestCompressionRatio() {
+        return ratio(requestBytes.get(), requestBytesSent.get());
+    }
+
+    /**
+     * @return the ratio of the size of response bodies after decompression to the size
+     * received, or 1 if no response bodies have been read
+     */
+    public double getResponseCompressionRatio() {
+        return ratio(responseBytes.get(), responseBytesReceived.get());
+    }
+
+    private static double ratio(long uncompressed, long compressed) {
+        return (compressed == 0) ? 1 : (double) uncompressed / compressed;
+    }
+
+    /**
+     * Compresses the body written by another writer.
+     */
+    private final class CompressingBodyWriter implements HttpConnection.RequestBodyWriter {
+
+        private final HttpConnection.RequestBodyWriter bodyWriter;
+
+        CompressingBodyWriter(HttpConnection.RequestBodyWriter bodyWriter) {
+            this.bodyWriter = bodyWriter;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            GZIPOutputStream gzip = new GZIPOutputStream(new CountingOutputStream(out,
+                    requestBytesSent));
+            bodyWriter.writeTo(new CountingOutputStream(gzip, requestBytes));
+            // writes the gzip trailer, the connection's stream is not closed
+            gzip.close();
+        }
+    }
+
+    /**
+     * Adds the number of bytes written to a stream to a counter. Closing the stream flushes it
+     * but does not close the underlying stream.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private final AtomicLong counter;
+
+        CountingOutputStream(OutputStream out, AtomicLong counter) {
+            super(out);
+            this.counter = counter;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            counter.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            counter.addAndGet(len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /**
+     * Decompresses a gzip stream, reading the gzip header on the first read rather than when it
+     * is created so that an empty body reads as empty instead of failing.
+     */
+    private static final class LazyGzipInputStream extends InputStream {
+
+        private final InputStream in;
+        private final AtomicLong compressedCount;
+        private InputStream decoded = null;
+
+        LazyGzipInputStream(InputStream in, AtomicLong compressedCount) {
+            this.in = in;
+            this.compressedCount = compressedCount;
+        }
+
+        private InputStream decoded() throws IOException {
+            if (decoded == null) {
+                PushbackInputStream body = new PushbackInputStream(in);
+                int first = body.read();
+                if (first == -1) {
+                    decoded = body;
+                } else {
+                    body.unread(first);
+                    compressedCount.incrementAndGet();
+                    decoded = new GZIPInputStream(body);
+                }
+            }
+            return decoded;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return decoded().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return decoded().read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return decoded().skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (decoded == null) ? 0 : decoded.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (decoded != null) {
+                decoded.close();
+            } else {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Adds the number of bytes read from a stream to a counter.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private final AtomicLong counter;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                counter.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                counter.addAndGet(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            counter.addAndGet(skipped);
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.http.interceptors;
+
+import com.cloudant.http.HttpConnection;
+import com.cloudant.http.HttpConnectionInterceptorContext;
+import com.cloudant.http.HttpConnectionResponseInterceptor;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Replays requests that fail with a 429 Too Many Requests response or a transient server error.
+ * <P>
+ * A 429 response means the request was rejected before it was processed, so requests of any
+ * method are replayed. The 5xx responses 500, 502, 503 and 504 may be returned after the request
+ * has been processed, so they are only replayed for idempotent requests (GET, HEAD, PUT, DELETE
+ * and OPTIONS).
+ * </P>
+ * <P>
+ * Before a replay the interceptor waits for the time in the response's {@code Retry-After}
+ * header if there is one, otherwise for a random time between zero and an exponentially
+ * increasing limit ("full jitter"). Waits are capped at the maximum delay. Replays happen within
+ * the retry loop of {@link HttpConnection#execute()} so are also bounded by
+ * {@link HttpConnection#setNumberOfRetries(int)}.
+ * </P>
+ * <P>
+ * Requests with a body read from an InputStream, for example attachments, are not replayed as
+ * the body cannot be sent again. A request is not replayed if the wait would take it past its
+ * deadline.
+ * </P>
+ * <P>
+ * The interceptor keeps counts of the retries it has made which can be read at any time, for
+ * example to export as metrics.
+ * </P>
+ * <P>Example usage:</P>
+ * <pre>
+ * {@code
+ * RetryInterceptor retries = new RetryInterceptor(3, 250, 30000, TimeUnit.MILLISECONDS);
+ * CloudantClient client = ClientBuilder.account("example")
+ *                                      .interceptors(retries)
+ *                                      .build();
+ * // later
+ * long rateLimited = retries.getRateLimitedCount();
+ * }
+ * </pre>
+ *
+ * @since 2.4.0
+ */
+public class RetryInterceptor implements HttpConnectionResponseInterceptor {
+
+    private static final Logger logger = Logger.getLogger(RetryInterceptor.class
+            .getCanonicalName());
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final int maxRetries;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final Random random = new Random();
+
+    // Retries made so far for each request that is in progress
+    private final Map<HttpConnection, Integer> attempts = Collections.synchronizedMap(new
+            WeakHashMap<HttpConnection, Integer>());
+
+    private final AtomicLong rateLimitedCount = new AtomicLong();
+    private final AtomicLong serverErrorCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong exhaustedCount = new AtomicLong();
+    private final AtomicLong totalDelayMillis = new AtomicLong();
+
+    /**
+     * Creates a RetryInterceptor that retries a request up to 3 times with an initial delay of
+     * 250 milliseconds and a maximum delay of 30 seconds.
+     */
+    public RetryInterceptor() {
+        this(3, 250, 30000, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param maxRetries   the maximum number of times to replay a request
+     * @param initialDelay the upper bound of the random wait before the first replay, which
+     *                     doubles for each subsequent replay
+     * @param maxDelay     the longest time to wait before a replay, including a time
+     *                     requested by a {@code Retry-After} header
+     * @param unit         the unit of {@code initialDelay} and {@code maxDelay}
+     */
+    public RetryInterceptor(int maxRetries, long initialDelay, long maxDelay, TimeUnit unit) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries must not be negative");
+        }
+        this.maxRetries = maxRetries;
+        this.initialDelayMillis = unit.toMillis(initialDelay);
+        this.maxDelayMillis = unit.toMillis(maxDelay);
+    }
+
+    @Override
+    public HttpConnectionInterceptorContext interceptResponse(HttpConnectionInterceptorContext
+                                                                      context) {
+        HttpURLConnection connection = context.connection.getConnection();
+        try {
+            int code = connection.getResponseCode();
+            boolean rateLimited = code == HTTP_TOO_MANY_REQUESTS;
+            if (!rateLimited && !(isTransientServerError(code) && isIdempotent(connection
+                    .getRequestMethod()))) {
+                attempts.remove(context.connection);
+                return context;
+            }
+            if (rateLimited) {
+                rateLimitedCount.incrementAndGet();
+            } else {
+                serverErrorCount.incrementAndGet();
+            }
+
+            Integer previousAttempts = attempts.get(context.connection);
+            int attempt = (previousAttempts == null) ? 0 : previousAttempts;
+            if (attempt >= maxRetries) {
+                logger.fine("Not retrying " + code + " response, maximum retries reached");
+                exhaustedCount.incrementAndGet();
+                attempts.remove(context.connection);
+                return context;
+            }
+
+            if (!canReplay(context.connection)) {
+                logger.fine("Not retrying " + code + " response, the request body cannot be " +
+                        "sent again");
+                attempts.remove(context.connection);
+                return context;
+            }
+
+            long delay = getDelay(connection.getHeaderField("Retry-After"), attempt);
+            long remaining = context.connection.getRemainingTime(TimeUnit.MILLISECONDS);
+            if (remaining >= 0 && delay >= remaining) {
+                logger.fine("Not retrying " + code + " response, waiting " + delay + " ms " +
+                        "would pass the deadline");
+                attempts.remove(context.connection);
+                return context;
+            }
+            logger.fine("Retrying " + code + " response after " + delay + " ms");
+            // Discard the error response so the connection can be reused
+            IOUtils.closeQuietly(connection.getErrorStream());
+            Thread.sleep(delay);
+            totalDelayMillis.addAndGet(delay);
+            retryCount.incrementAndGet();
+            attempts.put(context.connection, attempt + 1);
+            context.replayRequest = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            attempts.remove(context.connection);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to get response code from request", e);
+        }
+        return context;
+    }
+
+    private long getDelay(String retryAfter, int attempt) {
+        Long requested = parseRetryAfter(retryAfter);
+        if (requested != null) {
+            return Math.min(Math.max(requested, 0), maxDelayMillis);
+        }
+        // Full jitter: a random wait up to an exponentially increasing limit
+        long limit = Math.min(maxDelayMillis, initialDelayMillis << Math.min(attempt, 30));
+        return (limit > 0) ? (long) (random.nextDouble() * limit) : 0;
+    }
+
+    /**
+     * @return the delay in milliseconds from a Retry-After header in either delta-seconds or
+     * HTTP-date form, or {@code null} if there is no valid header
+     */
+    private static Long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return null;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            // Not delta-seconds so try HTTP-date
+        }
+        try {
+            // SimpleDateFormat is not thread safe so create one for each use
+            SimpleDateFormat httpDate = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz",
+                    Locale.US);
+            Date date = httpDate.parse(retryAfter.trim());
+            return date.getTime() - System.currentTimeMillis();
+        } catch (ParseException e) {
+            logger.fine("Ignoring invalid Retry-After header: " + retryAfter);
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the request has no body, or a body that can be sent again
+     */
+    private static boolean canReplay(HttpConnection connection) {
+        if (connection.getRequestBodyWriter() != null) {
+            return true;
+        }
+        InputStream body = connection.getRequestBody();
+        // HttpConnection only rewinds an in-memory body
+        return body == null || body instanceof ByteArrayInputStream;
+    }
+
+    private static boolean isTransientServerError(int code) {
+        return code == HttpURLConnection.HTTP_INTERNAL_ERROR
+                || code == HttpURLConnection.HTTP_BAD_GATEWAY
+                || code == HttpURLConnection.HTTP_UNAVAILABLE
+                || code == HttpURLConnection.HTTP_GATEWAY_TIMEOUT;
+    }
+
+    private static boolean isIdempotent(String method) {
+        return "GET".equals(method) || "HEAD".equals(method) || "PUT".equals(method) || "DELETE"
+                .equals(method) || "OPTIONS".equals(method);
+    }
+
+    /**
+     * @return the number of 429 Too Many Requests responses received
+     */
+    public long getRateLimitedCount() {
+        return rateLimitedCount.get();
+    }
+
+    /**
+     * @return the number of retryable 5xx responses received for idempotent requests
+     */
+    public long getServerErrorCount() {
+        return serverErrorCount.get();
+    }
+
+    /**
+     * @return the number of times a request has been replayed
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * @return the number of requests that still failed after the maximum number of retries
+     */
+    public long getExhaustedCount() {
+        return exhaustedCount.get();
+    }
+
+    /**
+     * @param unit the unit to return the time in
+     * @return the total time spent waiting before replaying requests
+     */
+    public long getTotalDelay(TimeUnit unit) {
+        return unit.convert(totalDelayMillis.get(), TimeUnit.MILLISECONDS);
+    }
+}
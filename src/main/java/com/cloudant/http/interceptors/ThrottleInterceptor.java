@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.http.interceptors;
+
+import com.cloudant.client.org.lightcouch.CouchDbException;
+import com.cloudant.client.org.lightcouch.DeadlineExceededException;
+import com.cloudant.http.HttpConnection;
+import com.cloudant.http.HttpConnectionInterceptorContext;
+import com.cloudant.http.HttpConnectionRequestInterceptor;
+
+import java.net.HttpURLConnection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Paces requests on the client so that each class of request stays under a configured rate,
+ * rather than sending bursts of requests that are rejected with 429 Too Many Requests.
+ * <P>
+ * Requests are classified as {@link RequestClass#QUERY} if the path contains a {@code _find},
+ * {@code _view} or {@code _search} segment or ends with {@code _all_docs} or {@code _bulk_get},
+ * which are read with POST as well as GET, otherwise as {@link RequestClass#LOOKUP} for GET and
+ * HEAD or {@link RequestClass#WRITE} for other methods. Requests to {@code _session} are not
+ * throttled. Each class has a token bucket that refills at its rate and holds up to one second of
+ * tokens, so short bursts up to the rate are allowed. A request that finds its bucket empty
+ * reserves the next token and the calling thread waits until it is due. If the request has a
+ * deadline that would pass before then the token is given back and a
+ * {@link DeadlineExceededException} is thrown without waiting.
+ * </P>
+ * <P>
+ * The interceptor keeps statistics for each class that can be read at any time.
+ * </P>
+ * <P>Example usage:</P>
+ * <pre>
+ * {@code
+ * ThrottleInterceptor throttle = new ThrottleInterceptor(100, 50, 5);
+ * CloudantClient client = ClientBuilder.account("example")
+ *                                      .interceptors(throttle)
+ *                                      .build();
+ * // later
+ * int waiting = throttle.getQueueDepth(ThrottleInterceptor.RequestClass.QUERY);
+ * }
+ * </pre>
+ *
+ * @see com.cloudant.client.api.ClientBuilder#throttle(double, double, double)
+ * @since 2.4.0
+ */
+public class ThrottleInterceptor implements HttpConnectionRequestInterceptor {
+
+    /**
+     * The classes of request that are throttled separately.
+     */
+    public enum RequestClass {
+        /**
+         * Reads of documents and other resources by GET or HEAD
+         */
+        LOOKUP,
+        /**
+         * Requests with methods other than GET or HEAD that are not queries
+         */
+        WRITE,
+        /**
+         * Requests to {@code _find}, {@code _view}, {@code _search}, {@code _all_docs} or
+         * {@code _bulk_get}
+         */
+        QUERY
+    }
+
+    private final Map<RequestClass, TokenBucket> buckets = new EnumMap<RequestClass,
+            TokenBucket>(RequestClass.class);
+
+    /**
+     * @param lookupsPerSecond the maximum rate of lookup requests, or 0 for no limit
+     * @param writesPerSecond  the maximum rate of write requests, or 0 for no limit
+     * @param queriesPerSecond the maximum rate of query requests, or 0 for no limit
+     */
+    public ThrottleInterceptor(double lookupsPerSecond, double writesPerSecond, double
+            queriesPerSecond) {
+        buckets.put(RequestClass.LOOKUP, new TokenBucket(lookupsPerSecond));
+        buckets.put(RequestClass.WRITE, new TokenBucket(writesPerSecond));
+        buckets.put(RequestClass.QUERY, new TokenBucket(queriesPerSecond));
+    }
+
+    @Override
+    public HttpConnectionInterceptorContext interceptRequest(HttpConnectionInterceptorContext
+                                                                     context) {
+        HttpURLConnection connection = context.connection.getConnection();
+        String path = connection.getURL().getPath();
+        if (path.endsWith("/_session")) {
+            return context;
+        }
+        try {
+            if (!buckets.get(classify(connection.getRequestMethod(), path)).acquire(context
+                    .connection)) {
+                throw new DeadlineExceededException(String.format("Deadline exceeded waiting " +
+                        "to send %s %s", connection.getRequestMethod(), connection.getURL()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CouchDbException("Interrupted while waiting to send request.", e);
+        }
+        return context;
+    }
+
+    private static RequestClass classify(String method, String path) {
+        if (path.contains("/_find") || path.contains("/_view/") || path.contains("/_search/")
+                || path.endsWith("/_all_docs") || path.endsWith("/_bulk_get")) {
+            return RequestClass.QUERY;
+        } else if ("GET".equals(method) || "HEAD".equals(method)) {
+            return RequestClass.LOOKUP;
+        } else {
+            return RequestClass.WRITE;
+        }
+    }
+
+    /**
+     * @param requestClass the class of request
+     * @return the number of requests currently waiting to be sent
+     */
+    public int getQueueDepth(RequestClass requestClass) {
+        return buckets.get(requestClass).waiting.get();
+    }
+
+    /**
+     * @param requestClass the class of request
+     * @return the total number of requests of the class that have been sent
+     */
+    public long getRequestCount(RequestClass requestClass) {
+        return buckets.get(requestClass).requests.get();
+    }
+
+    /**
+     * @param requestClass the class of request
+     * @return the number of requests of the class that had to wait before being sent
+     */
+    public long getThrottledCount(RequestClass requestClass) {
+        return buckets.get(requestClass).throttled.get();
+    }
+
+    /**
+     * @param requestClass the class of request
+     * @param unit         the unit to return the time in
+     * @return the total time requests of the class have waited before being sent
+     */
+    public long getTotalWaitTime(RequestClass requestClass, TimeUnit unit) {
+        return unit.convert(buckets.get(requestClass).totalWaitNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param requestClass the class of request
+     * @param unit         the unit to return the time in
+     * @return the longest time a request of the class has waited before being sent
+     */
+    public long getMaxWaitTime(RequestClass requestClass, TimeUnit unit) {
+        return unit.convert(buckets.get(requestClass).maxWaitNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    private static final class TokenBucket {
+
+        private final double tokensPerNano;
+        private final double capacity;
+
+        // Guarded by this
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong throttled = new AtomicLong();
+        private final AtomicLong totalWaitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+
+        TokenBucket(double perSecond) {
+            this.tokensPerNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+            // Allow a burst of up to one second of requests, but at least one request
+            this.capacity = Math.max(1, perSecond);
+            this.tokens = capacity;
+        }
+
+        /**
+         * Takes a token, waiting until it is due if the bucket is empty.
+         *
+         * @param request the request the token is for
+         * @return true if the token was taken, or false if it would not be due before the
+         * deadline of the request
+         */
+        boolean acquire(HttpConnection request) throws InterruptedException {
+            requests.incrementAndGet();
+            if (tokensPerNano <= 0) {
+                return true;
+            }
+            long remainingNanos = request.getRemainingTime(TimeUnit.NANOSECONDS);
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+                lastRefill = now;
+                // Take the token even if it is not available yet, the balance going negative
+                // reserves a place for this request behind the others already waiting.
+                tokens -= 1;
+                waitNanos = (tokens < 0) ? (long) (-tokens / tokensPerNano) : 0;
+                if (remainingNanos >= 0 && waitNanos >= remainingNanos) {
+                    // give the place back to the requests behind this one
+                    tokens += 1;
+                    return false;
+                }
+            }
+            if (waitNanos > 0) {
+                throttled.incrementAndGet();
+                waiting.incrementAndGet();
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } finally {
+                    waiting.decrementAndGet();
+                }
+                totalWaitNanos.addAndGet(waitNanos);
+                long max;
+                while ((max = maxWaitNanos.get()) < waitNanos && !maxWaitNanos.compareAndSet(max,
+                        waitNanos)) {
+                    // retry until the max is updated or another thread recorded a longer wait
+                }
+            }
+            return true;
+        }
+    }
+}
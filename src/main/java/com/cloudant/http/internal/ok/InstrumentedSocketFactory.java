@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.http.internal.ok;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.SocketFactory;
+
+/**
+ * A SocketFactory that counts the sockets opened and closed through it and the time spent
+ * connecting them, so that the churn of pooled connections can be observed.
+ */
+public class InstrumentedSocketFactory extends SocketFactory {
+
+    private final AtomicLong connected = new AtomicLong();
+    private final AtomicLong closed = new AtomicLong();
+    private final AtomicLong connectNanos = new AtomicLong();
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return new InstrumentedSocket();
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return connect(new InetSocketAddress(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+            throws IOException {
+        Socket socket = new InstrumentedSocket();
+        socket.bind(new InetSocketAddress(localHost, localPort));
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return connect(new InetSocketAddress(host, port));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int
+            localPort) throws IOException {
+        Socket socket = new InstrumentedSocket();
+        socket.bind(new InetSocketAddress(localAddress, localPort));
+        socket.connect(new InetSocketAddress(address, port));
+        return socket;
+    }
+
+    private Socket connect(SocketAddress address) throws IOException {
+        Socket socket = new InstrumentedSocket();
+        socket.connect(address);
+        return socket;
+    }
+
+    /**
+     * @return the number of sockets that have been connected
+     */
+    public long getConnectedCount() {
+        return connected.get();
+    }
+
+    /**
+     * @return the number of connected sockets that have been closed
+     */
+    public long getClosedCount() {
+        return closed.get();
+    }
+
+    /**
+     * @return the total time in nanoseconds spent connecting sockets
+     */
+    public long getConnectNanos() {
+        return connectNanos.get();
+    }
+
+    private final class InstrumentedSocket extends Socket {
+
+        private final AtomicBoolean isConnected = new AtomicBoolean(false);
+
+        @Override
+        public void connect(SocketAddress endpoint, int timeout) throws IOException {
+            long start = System.nanoTime();
+            try {
+                super.connect(endpoint, timeout);
+            } finally {
+                connectNanos.addAndGet(System.nanoTime() - start);
+            }
+            isConnected.set(true);
+            connected.incrementAndGet();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            // Only count the first close of a connected socket
+            if (isConnected.compareAndSet(true, false)) {
+                closed.incrementAndGet();
+            }
+            super.close();
+        }
+    }
+}
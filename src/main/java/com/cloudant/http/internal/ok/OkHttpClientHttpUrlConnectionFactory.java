@@ -29,6 +29,7 @@ public class OkHttpClientHttpUrlConnectionFactory extends DefaultHttpUrlConnecti
 
     private final OkHttpClient client;
     private final OkUrlFactory factory;
+    private final InstrumentedSocketFactory socketFactory = new InstrumentedSocketFactory();
 
     private final static boolean okUsable;
 
@@ -49,6 +50,7 @@ public class OkHttpClientHttpUrlConnectionFactory extends DefaultHttpUrlConnecti
 
     public OkHttpClientHttpUrlConnectionFactory() {
         client = new OkHttpClient();
+        client.setSocketFactory(socketFactory);
         factory = new OkUrlFactory(client);
     }
 
@@ -67,5 +69,9 @@ public class OkHttpClientHttpUrlConnectionFactory extends DefaultHttpUrlConnecti
         return client;
     }
 
+    public InstrumentedSocketFactory getSocketFactory() {
+        return socketFactory;
+    }
+
 
 }
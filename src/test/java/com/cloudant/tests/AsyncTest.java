@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.cloudant.client.api.CloudantClient;
+import com.cloudant.client.api.Database;
+import com.cloudant.client.api.model.Response;
+import com.cloudant.client.api.views.Key;
+import com.cloudant.client.api.views.ViewResponse;
+import com.cloudant.client.org.lightcouch.NoDocumentException;
+import com.cloudant.tests.util.MockWebServerResource;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class AsyncTest {
+
+    @Rule
+    public MockWebServerResource serverResource = new MockWebServerResource();
+    public MockWebServer server;
+
+    @Before
+    public void setup() {
+        server = serverResource.getServer();
+    }
+
+    /**
+     * Validates that a find request completes on the configured executor and the result is
+     * available from the Future.
+     */
+    @Test
+    public void findAsync() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"_id\":\"foo\",\"_rev\":\"1-abc\"}"));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                    .asyncExecutor(executor)
+                    .build();
+            Database db = c.database("animaldb", false);
+            Future<Foo> future = db.findAsync(Foo.class, "foo");
+            Foo foo = future.get(10, TimeUnit.SECONDS);
+            assertEquals("The document ID should be correct", "foo", foo.get_id());
+            assertEquals("The document rev should be correct", "1-abc", foo.get_rev());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Validates that an error response is delivered as the cause of the ExecutionException.
+     */
+    @Test
+    public void findAsyncNotFound() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(404).setBody
+                ("{\"error\":\"not_found\",\"reason\":\"missing\"}"));
+
+        CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server).build();
+        Database db = c.database("animaldb", false);
+        try {
+            db.findAsync(Foo.class, "foo").get(10, TimeUnit.SECONDS);
+            fail("An ExecutionException should be thrown for a 404");
+        } catch (ExecutionException e) {
+            assertTrue("The cause should be a NoDocumentException", e.getCause() instanceof
+                    NoDocumentException);
+        }
+    }
+
+    /**
+     * Validates the asynchronous save and view request methods.
+     */
+    @Test
+    public void saveAndViewAsync() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(201).setBody
+                ("{\"ok\":true,\"id\":\"foo\",\"rev\":\"1-abc\"}"));
+        server.enqueue(new MockResponse().setBody("{\"total_rows\":1,\"offset\":0,\"rows\":[" +
+                "{\"id\":\"foo\",\"key\":\"a\",\"value\":1}]}"));
+
+        CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server).build();
+        Database db = c.database("animaldb", false);
+        Response response = db.saveAsync(new Foo("foo")).get(10, TimeUnit.SECONDS);
+        assertEquals("The response rev should be correct", "1-abc", response.getRev());
+
+        ViewResponse<String, Integer> viewResponse = db.getViewRequestBuilder("ddoc", "view")
+                .newRequest(Key.Type.STRING, Integer.class)
+                .build()
+                .getResponseAsync()
+                .get(10, TimeUnit.SECONDS);
+        assertEquals("There should be one row", 1, viewResponse.getRows().size());
+        assertEquals("The value should be correct", Integer.valueOf(1), viewResponse.getValues()
+                .get(0));
+    }
+}
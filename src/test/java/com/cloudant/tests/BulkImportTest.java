@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+
+package com.cloudant.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.cloudant.client.api.Database;
+import com.cloudant.client.api.ImportListener;
+import com.cloudant.client.api.model.BulkOptions;
+import com.cloudant.client.api.model.BulkResult;
+import com.cloudant.client.api.model.Response;
+import com.cloudant.client.org.lightcouch.CouchDbException;
+import com.cloudant.tests.util.MockWebServerResource;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BulkImportTest {
+
+    @Rule
+    public MockWebServerResource mockWebServerResource = new MockWebServerResource();
+    private MockWebServer server;
+    private Database db;
+    private final AtomicInteger received = new AtomicInteger();
+    private final AtomicInteger produced = new AtomicInteger();
+    private final AtomicInteger maxBuffered = new AtomicInteger();
+
+    /**
+     * Responds to {@code _bulk_docs} requests with a revision for each document, or a conflict
+     * for documents with an ID starting "conflict".
+     */
+    private class BulkDocsDispatcher extends Dispatcher {
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            JsonArray docs = new JsonParser().parse(request.getBody().readUtf8())
+                    .getAsJsonObject().getAsJsonArray("docs");
+            int buffered = produced.get() - received.addAndGet(docs.size());
+            while (true) {
+                int max = maxBuffered.get();
+                if (buffered <= max || maxBuffered.compareAndSet(max, buffered)) {
+                    break;
+                }
+            }
+            Thread.sleep(10);
+            JsonArray responses = new JsonArray();
+            for (JsonElement doc : docs) {
+                String id = doc.getAsJsonObject().get("_id").getAsString();
+                JsonObject response = new JsonObject();
+                response.addProperty("id", id);
+                if (id.startsWith("conflict")) {
+                    response.addProperty("error", "conflict");
+                    response.addProperty("reason", "Document update conflict.");
+                } else {
+                    response.addProperty("rev", "1-abc");
+                }
+                responses.add(response);
+            }
+            return new MockResponse().setResponseCode(201).setBody(responses.toString());
+        }
+    }
+
+    /**
+     * Records the calls to an import listener.
+     */
+    private static class RecordingListener implements ImportListener {
+
+        final List<Long> failedIndexes = new ArrayList<Long>();
+        final List<String> failedErrors = new ArrayList<String>();
+        long documents = 0;
+        long failures = 0;
+        int progressCalls = 0;
+
+        @Override
+        public void documentFailed(long index, Object document, Response response) {
+            failedIndexes.add(index);
+            failedErrors.add(response.getError());
+        }
+
+        @Override
+        public void progress(long documents, long failures) {
+            assertTrue("Progress should not go backwards", documents >= this.documents);
+            this.documents = documents;
+            this.failures = failures;
+            progressCalls++;
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        server = mockWebServerResource.getServer();
+        server.setDispatcher(new BulkDocsDispatcher());
+        db = CloudantClientHelper.newMockWebServerClientBuilder(server).build().database
+                ("animaldb", false);
+    }
+
+    /**
+     * Validates that newline-delimited JSON is imported in chunks, skipping blank lines, and
+     * that failures and progress are reported to the listener.
+     */
+    @Test
+    public void importNdjson() throws Exception {
+        StringBuilder ndjson = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            String id = (i == 4) ? "conflict4" : "doc" + i;
+            ndjson.append("{\"_id\":\"").append(id).append("\"}\n");
+            if (i == 6) {
+                ndjson.append("\n");
+            }
+        }
+        RecordingListener listener = new RecordingListener();
+        BulkResult result = db.bulkImport(new ByteArrayInputStream(ndjson.toString().getBytes
+                ("UTF-8")), new BulkOptions().chunkSize(3).concurrency(2), listener);
+
+        assertEquals(10, result.getDocumentCount());
+        assertEquals(1, result.getFailureCount());
+        assertEquals("There should be a request per chunk", 4, result.getRequestCount());
+        assertTrue("Responses should not be kept", result.getResponses().isEmpty());
+        assertEquals(Arrays.asList(4L), listener.failedIndexes);
+        assertEquals(Arrays.asList("conflict"), listener.failedErrors);
+        assertEquals("Progress should be reported per chunk", 4, listener.progressCalls);
+        assertEquals(10, listener.documents);
+        assertEquals(1, listener.failures);
+    }
+
+    /**
+     * Validates that documents are only read from the iterator as chunks are sent, so that the
+     * number of documents held in memory is bounded.
+     */
+    @Test
+    public void importAppliesBackpressure() throws Exception {
+        final int total = 500;
+        Iterator<Foo> documents = new Iterator<Foo>() {
+            @Override
+            public boolean hasNext() {
+                return produced.get() < total;
+            }
+
+            @Override
+            public Foo next() {
+                return new Foo("doc" + produced.incrementAndGet());
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        BulkResult result = db.bulkImport(documents, new BulkOptions().chunkSize(10)
+                .concurrency(2), null);
+
+        assertEquals(total, result.getDocumentCount());
+        assertEquals(50, result.getRequestCount());
+        // the other chunk in flight, the chunk being built and the document that ends it
+        assertTrue("No more than 21 documents should be read ahead but " + maxBuffered.get() +
+                " were", maxBuffered.get() <= 21);
+    }
+
+    /**
+     * Validates that a line that is not a JSON object stops the import.
+     */
+    @Test
+    public void invalidLine() throws Exception {
+        try {
+            db.bulkImport(new StringReader("{\"_id\":\"doc0\"}\n{\"_id\":\n"), new BulkOptions(),
+                    null);
+            fail("A CouchDbException should be thrown for the invalid line");
+        } catch (CouchDbException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("line 2"));
+        }
+        assertEquals("No documents should be sent", 0, server.getRequestCount());
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.cloudant.client.api.CloudantClient;
+import com.cloudant.client.api.Database;
+import com.cloudant.client.api.model.BulkOptions;
+import com.cloudant.client.api.model.BulkResult;
+import com.cloudant.client.api.model.Response;
+import com.cloudant.client.org.lightcouch.CouchDbException;
+import com.cloudant.tests.util.MockWebServerResource;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class ChunkedBulkTest {
+
+    @Rule
+    public MockWebServerResource serverResource = new MockWebServerResource();
+    public MockWebServer server;
+    private Database db;
+
+    @Before
+    public void setup() throws Exception {
+        server = serverResource.getServer();
+        CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server).build();
+        db = c.database("animaldb", false);
+    }
+
+    private static List<Foo> docs(String... ids) {
+        List<Foo> docs = new ArrayList<Foo>();
+        for (String id : ids) {
+            docs.add(new Foo(id));
+        }
+        return docs;
+    }
+
+    /**
+     * Validates that documents are split into chunks and that only the document that failed with
+     * a transient error is resubmitted.
+     */
+    @Test
+    public void chunksAndRetriesTransientFailures() throws Exception {
+        // Concurrency of 1 so the mock responses are consumed in a predictable order
+        server.enqueue(new MockResponse().setResponseCode(201).setBody("[" +
+                "{\"id\":\"a\",\"rev\":\"1-a\"}," +
+                "{\"id\":\"b\",\"error\":\"timeout\",\"reason\":\"timeout\"}]"));
+        server.enqueue(new MockResponse().setResponseCode(201).setBody
+                ("[{\"id\":\"b\",\"rev\":\"1-b\"}]"));
+        server.enqueue(new MockResponse().setResponseCode(201).setBody("[" +
+                "{\"id\":\"c\",\"rev\":\"1-c\"}," +
+                "{\"id\":\"d\",\"error\":\"conflict\",\"reason\":\"Document update conflict.\"}]"));
+
+        BulkResult result = db.bulk(docs("a", "b", "c", "d"), new BulkOptions().chunkSize(2)
+                .concurrency(1));
+
+        assertEquals(4, result.getDocumentCount());
+        assertEquals("1-a", result.getResponses().get(0).getRev());
+        assertEquals("1-b", result.getResponses().get(1).getRev());
+        assertEquals("1-c", result.getResponses().get(2).getRev());
+        assertEquals("conflict", result.getResponses().get(3).getError());
+        assertEquals("Only the conflict should be a failure", 1, result.getFailureCount());
+        assertEquals("There should be three requests", 3, result.getRequestCount());
+        assertEquals("One document should have been retried", 1, result.getRetriedDocumentCount());
+        assertTrue("Bytes sent should be recorded", result.getBytesSent() > 0);
+
+        server.takeRequest(10, TimeUnit.SECONDS);
+        String retryBody = server.takeRequest(10, TimeUnit.SECONDS).getBody().readUtf8();
+        assertTrue("The retry should contain b", retryBody.contains("\"b\""));
+        assertFalse("The retry should not contain a", retryBody.contains("\"a\""));
+    }
+
+    /**
+     * Validates that the body of a bulk request is written as it is sent, using chunked transfer
+     * encoding.
+     */
+    @Test
+    public void bulkBodyStreamed() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(201).setBody("[" +
+                "{\"id\":\"a\",\"rev\":\"1-a\"},{\"id\":\"b\",\"rev\":\"1-b\"}]"));
+
+        List<Response> responses = db.bulk(docs("a", "b"));
+        assertEquals("1-b", responses.get(1).getRev());
+
+        RecordedRequest request = server.takeRequest(10, TimeUnit.SECONDS);
+        assertEquals("chunked", request.getHeader("Transfer-Encoding"));
+        JsonObject body = new JsonParser().parse(request.getBody().readUtf8())
+                .getAsJsonObject();
+        assertEquals(2, body.getAsJsonArray("docs").size());
+        assertEquals("b", body.getAsJsonArray("docs").get(1).getAsJsonObject().get("_id")
+                .getAsString());
+    }
+
+    /**
+     * Validates that a chunk is retried after a 429 response to the whole request and that other
+     * errors are thrown.
+     */
+    @Test
+    public void retriesTransientRequestFailures() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(429).setBody
+                ("{\"error\":\"too_many_requests\",\"reason\":\"slow down\"}"));
+        server.enqueue(new MockResponse().setResponseCode(201).setBody
+                ("[{\"id\":\"a\",\"rev\":\"1-a\"}]"));
+        server.enqueue(new MockResponse().setResponseCode(400).setBody
+                ("{\"error\":\"bad_request\",\"reason\":\"invalid\"}"));
+
+        BulkResult result = db.bulk(docs("a"), new BulkOptions());
+        assertEquals("1-a", result.getResponses().get(0).getRev());
+        assertEquals("There should be two requests", 2, result.getRequestCount());
+
+        try {
+            db.bulk(docs("b"), new BulkOptions());
+            fail("A CouchDbException should be thrown for a 400 response");
+        } catch (CouchDbException e) {
+            assertEquals(400, e.getStatusCode());
+        }
+        assertEquals("The 400 should not be retried", 3, server.getRequestCount());
+    }
+
+    /**
+     * Validates that a request that may have been written by the server is not sent again, so
+     * that the documents are not written twice.
+     */
+    @Test
+    public void serverErrorNotResent() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503).setBody
+                ("{\"error\":\"service_unavailable\",\"reason\":\"down\"}"));
+        try {
+            db.bulk(docs("a"), new BulkOptions());
+            fail("A CouchDbException should be thrown for a 503 response");
+        } catch (CouchDbException e) {
+            assertEquals(503, e.getStatusCode());
+        }
+        assertEquals("The request should not be resent", 1, server.getRequestCount());
+    }
+
+    /**
+     * Validates that the size of the documents is counted in UTF-8 bytes, even without a byte
+     * limit.
+     */
+    @Test
+    public void bytesCountedInUtf8() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(201).setBody
+                ("[{\"id\":\"\u00e9\u00e9\",\"rev\":\"1-a\"}]"));
+
+        JsonObject doc = new JsonObject();
+        doc.addProperty("_id", "\u00e9\u00e9");
+        BulkResult result = db.bulk(Collections.singletonList(doc), new BulkOptions().chunkBytes
+                (0));
+        // {"_id":"éé"} is 12 characters but 14 bytes, each é taking two
+        assertEquals(14, result.getBytesSent());
+    }
+
+    /**
+     * Validates that a chunked bulk request made from a task on a single thread executor does not
+     * wait for tasks queued behind it.
+     */
+    @Test
+    public void nestedInAsyncTask() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(201).setBody
+                ("[{\"id\":\"a\",\"rev\":\"1-a\"}]"));
+        server.enqueue(new MockResponse().setResponseCode(201).setBody
+                ("[{\"id\":\"b\",\"rev\":\"1-b\"}]"));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                    .asyncExecutor(executor)
+                    .build();
+            final Database single = c.database("animaldb", false);
+
+            BulkResult result = c.executeAsync(new Callable<BulkResult>() {
+                @Override
+                public BulkResult call() {
+                    return single.bulk(docs("a", "b"), new BulkOptions().chunkSize(1));
+                }
+            }).get(10, TimeUnit.SECONDS);
+            assertEquals("1-b", result.getResponses().get(1).getRev());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Validates that a chunk the executor rejects fails the bulk request instead of waiting for
+     * its permit.
+     */
+    @Test
+    public void rejectedChunkFails() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        Database rejecting = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .asyncExecutor(executor)
+                .build().database("animaldb", false);
+        try {
+            rejecting.bulk(docs("a", "b", "c"), new BulkOptions().chunkSize(1).concurrency(1));
+            fail("The bulk request should fail because its chunk was rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertEquals("No request should be sent", 0, server.getRequestCount());
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.cloudant.client.api.ClientBuilder;
+import com.cloudant.client.api.Database;
+import com.cloudant.client.api.model.CircuitBreakerPolicy;
+import com.cloudant.client.org.lightcouch.CircuitBreakerOpenException;
+import com.cloudant.client.org.lightcouch.CouchDbException;
+import com.cloudant.http.CircuitBreakerListener;
+import com.cloudant.tests.util.MockWebServerResource;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CircuitBreakerTest {
+
+    @Rule
+    public MockWebServerResource mockWebServerResource = new MockWebServerResource();
+    private MockWebServer server;
+    private StatusDispatcher dispatcher;
+    private final List<CircuitBreakerListener.State> states = new
+            CopyOnWriteArrayList<CircuitBreakerListener.State>();
+
+    private static class StatusDispatcher extends Dispatcher {
+
+        final AtomicInteger requests = new AtomicInteger();
+        volatile int status = 200;
+        volatile long delayMillis = 0;
+        volatile long sessionDelayMillis = 0;
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            if (request.getPath().startsWith("/_session")) {
+                TimeUnit.MILLISECONDS.sleep(sessionDelayMillis);
+                return new MockResponse().setHeader("Set-Cookie", "AuthSession=s; Version=1; " +
+                        "Path=/; HttpOnly").setBody("{\"ok\":true,\"name\":\"user\"," +
+                        "\"roles\":[]}");
+            }
+            requests.incrementAndGet();
+            TimeUnit.MILLISECONDS.sleep(delayMillis);
+            if (status != 200) {
+                return new MockResponse().setResponseCode(status).setBody
+                        ("{\"error\":\"internal_server_error\",\"reason\":\"down\"}");
+            }
+            return new MockResponse().setBody("{\"_id\":\"foo\",\"_rev\":\"1-abc\"}");
+        }
+    }
+
+    @Before
+    public void setup() {
+        server = mockWebServerResource.getServer();
+        dispatcher = new StatusDispatcher();
+        server.setDispatcher(dispatcher);
+    }
+
+    private Database database(CircuitBreakerPolicy policy) throws Exception {
+        return database(CloudantClientHelper.newMockWebServerClientBuilder(server), policy);
+    }
+
+    private Database database(ClientBuilder builder, CircuitBreakerPolicy policy) throws
+            Exception {
+        return builder
+                .circuitBreaker(policy)
+                .circuitBreakerListener(new CircuitBreakerListener() {
+                    @Override
+                    public void stateChanged(String host, State from, State to) {
+                        states.add(to);
+                    }
+                })
+                .build().database("animaldb", false);
+    }
+
+    private static void find(Database db, int times) {
+        for (int i = 0; i < times; i++) {
+            try {
+                db.find(Foo.class, "foo");
+            } catch (CircuitBreakerOpenException e) {
+                throw e;
+            } catch (CouchDbException e) {
+                // expected for error responses
+            }
+        }
+    }
+
+    private static void assertOpen(Database db) {
+        try {
+            db.find(Foo.class, "foo");
+            fail("The request should fail with a CircuitBreakerOpenException");
+        } catch (CircuitBreakerOpenException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Validates that the breaker opens when the failure rate reaches the threshold and requests
+     * then fail without being sent.
+     */
+    @Test
+    public void opensOnFailures() throws Exception {
+        Database db = database(new CircuitBreakerPolicy().windowSize(4).minimumCalls(4)
+                .failureRateThreshold(0.5));
+        find(db, 2);
+        dispatcher.status = 500;
+        find(db, 2);
+
+        assertOpen(db);
+        assertEquals("The rejected request should not be sent", 4, dispatcher.requests.get());
+        assertEquals(Arrays.asList(CircuitBreakerListener.State.OPEN), states);
+    }
+
+    /**
+     * Validates that the breaker opens when the slow call rate reaches the threshold.
+     */
+    @Test
+    public void opensOnSlowCalls() throws Exception {
+        Database db = database(new CircuitBreakerPolicy().minimumCalls(2)
+                .slowCallDuration(100, TimeUnit.MILLISECONDS).slowCallRateThreshold(1));
+        dispatcher.delayMillis = 200;
+        find(db, 2);
+
+        assertOpen(db);
+        assertEquals(2, dispatcher.requests.get());
+    }
+
+    /**
+     * Validates that cookie session requests made by the interceptors are not recorded by the
+     * breaker, as they are not opened through it.
+     */
+    @Test
+    public void sessionRequestsNotRecorded() throws Exception {
+        Database db = database(CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .username("user").password("pass"), new CircuitBreakerPolicy().minimumCalls(2)
+                .slowCallDuration(100, TimeUnit.MILLISECONDS).slowCallRateThreshold(1));
+        // only the first request is slow, as it waits for the session request
+        dispatcher.sessionDelayMillis = 200;
+        find(db, 3);
+
+        assertEquals("The breaker should stay closed", 0, states.size());
+    }
+
+    /**
+     * Validates that the breaker closes after the trial requests of the half-open state succeed.
+     */
+    @Test
+    public void closesAfterRecovery() throws Exception {
+        Database db = database(new CircuitBreakerPolicy().minimumCalls(2).halfOpenCalls(2)
+                .openDuration(200, TimeUnit.MILLISECONDS));
+        dispatcher.status = 500;
+        find(db, 2);
+        assertOpen(db);
+
+        dispatcher.status = 200;
+        TimeUnit.MILLISECONDS.sleep(300);
+        find(db, 3);
+
+        assertEquals(5, dispatcher.requests.get());
+        assertEquals(Arrays.asList(CircuitBreakerListener.State.OPEN, CircuitBreakerListener
+                .State.HALF_OPEN, CircuitBreakerListener.State.CLOSED), states);
+    }
+
+    /**
+     * Validates that the breaker opens again if a trial request of the half-open state fails.
+     */
+    @Test
+    public void reopensOnTrialFailure() throws Exception {
+        Database db = database(new CircuitBreakerPolicy().minimumCalls(2)
+                .openDuration(200, TimeUnit.MILLISECONDS));
+        dispatcher.status = 500;
+        find(db, 2);
+        assertOpen(db);
+
+        TimeUnit.MILLISECONDS.sleep(300);
+        find(db, 1);
+
+        assertOpen(db);
+        assertEquals(3, dispatcher.requests.get());
+        assertEquals(Arrays.asList(CircuitBreakerListener.State.OPEN, CircuitBreakerListener
+                .State.HALF_OPEN, CircuitBreakerListener.State.OPEN), states);
+    }
+}
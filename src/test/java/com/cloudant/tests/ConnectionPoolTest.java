@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.cloudant.client.api.Changes;
+import com.cloudant.client.api.CloudantClient;
+import com.cloudant.client.api.Database;
+import com.cloudant.client.api.model.ConnectionPoolStats;
+import com.cloudant.tests.util.MockWebServerResource;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class ConnectionPoolTest {
+
+    @Rule
+    public MockWebServerResource serverResource = new MockWebServerResource();
+    public MockWebServer server;
+
+    @Before
+    public void setup() throws Exception {
+        server = serverResource.getServer();
+    }
+
+    private static void enqueueDocs(MockWebServer server, int count) {
+        for (int i = 0; i < count; i++) {
+            server.enqueue(new MockResponse().setBody("{\"_id\":\"foo\",\"_rev\":\"1-abc\"}"));
+        }
+    }
+
+    /**
+     * Validates that sequential requests reuse a pooled connection and that idle connections
+     * can be evicted.
+     */
+    @Test
+    public void connectionReusedAndEvicted() throws Exception {
+        CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server).build();
+        enqueueDocs(server, 3);
+        for (int i = 0; i < 3; i++) {
+            c.database("animaldb", false).find(Foo.class, "foo");
+        }
+
+        ConnectionPoolStats stats = c.getConnectionPoolStats();
+        assertNotNull("Stats should be available with OkHttp", stats);
+        assertEquals("One connection should be opened and reused", 1, stats
+                .getOpenedConnections());
+        assertEquals(1, stats.getIdleConnections());
+        assertEquals(0, stats.getActiveConnections());
+        assertTrue("Connect time should be recorded", stats.getConnectTime(TimeUnit
+                .NANOSECONDS) > 0);
+
+        c.evictIdleConnections();
+        stats = c.getConnectionPoolStats();
+        assertEquals(0, stats.getIdleConnections());
+        assertEquals(1, stats.getClosedConnections());
+    }
+
+    /**
+     * Validates that idle connections are evicted after the keep-alive duration.
+     */
+    @Test
+    public void idleConnectionEvictedAfterKeepAlive() throws Exception {
+        CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .connectionKeepAlive(100, TimeUnit.MILLISECONDS)
+                .build();
+        enqueueDocs(server, 1);
+        c.database("animaldb", false).find(Foo.class, "foo");
+
+        // Wait for the pool's cleanup to run
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        ConnectionPoolStats stats = c.getConnectionPoolStats();
+        while (stats.getClosedConnections() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            stats = c.getConnectionPoolStats();
+        }
+        assertEquals(1, stats.getClosedConnections());
+        assertEquals(0, stats.getIdleConnections());
+    }
+
+    /**
+     * Validates that a continuous changes feed uses the feed connection pool and does not take
+     * a connection from the pool for other requests.
+     */
+    @Test
+    public void feedUsesSeparatePool() throws Exception {
+        CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .feedConnectionPoolSize(2)
+                .build();
+        Database db = c.database("animaldb", false);
+        server.enqueue(new MockResponse().setBody("{\"seq\":\"1-abc\",\"id\":\"foo\"," +
+                "\"changes\":[{\"rev\":\"1-abc\"}]}\n{\"last_seq\":\"1-abc\"}\n"));
+        enqueueDocs(server, 1);
+
+        Changes changes = db.changes().continuousChanges();
+        assertTrue(changes.hasNext());
+        assertEquals("foo", changes.next().getId());
+        db.find(Foo.class, "foo");
+
+        assertEquals("The feed should open a connection from the feed pool", 1, c
+                .getFeedConnectionPoolStats().getOpenedConnections());
+        assertEquals("The lookup should open a connection from the request pool", 1, c
+                .getConnectionPoolStats().getOpenedConnections());
+        changes.stop();
+    }
+
+    /**
+     * Validates that feeds use the pool for other requests unless a feed pool is configured.
+     */
+    @Test
+    public void feedPoolDisabledByDefault() throws Exception {
+        CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server).build();
+        assertNull(c.getFeedConnectionPoolStats());
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.cloudant.client.api.CloudantClient;
+import com.cloudant.client.api.Database;
+import com.cloudant.client.org.lightcouch.DeadlineExceededException;
+import com.cloudant.tests.util.MockWebServerResource;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CookieInterceptorTest {
+
+    @Rule
+    public MockWebServerResource serverResource = new MockWebServerResource();
+    public MockWebServer server;
+    private SessionDispatcher dispatcher;
+    private CloudantClient client;
+    private Database db;
+
+    /**
+     * Issues numbered session cookies and only accepts the most recent one.
+     */
+    private static class SessionDispatcher extends Dispatcher {
+
+        final AtomicInteger sessions = new AtomicInteger();
+        volatile String maxAge = null;
+        volatile boolean acceptOldCookies = false;
+        volatile String refreshCookie = null;
+        volatile long sessionDelayMillis = 200;
+
+        String currentCookie() {
+            return "AuthSession=s" + sessions.get();
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            if (request.getPath().startsWith("/_session")) {
+                // slow session responses make concurrent renewals overlap
+                TimeUnit.MILLISECONDS.sleep(sessionDelayMillis);
+                int session = sessions.incrementAndGet();
+                String setCookie = "AuthSession=s" + session + "; Version=1; Path=/; HttpOnly";
+                if (maxAge != null) {
+                    setCookie += "; Max-Age=" + maxAge;
+                }
+                return new MockResponse().setHeader("Set-Cookie", setCookie)
+                        .setBody("{\"ok\":true,\"name\":\"user\",\"roles\":[]}");
+            }
+            String cookie = request.getHeader("Cookie");
+            if (cookie == null || !(acceptOldCookies || cookie.equals(currentCookie()))) {
+                return new MockResponse().setResponseCode(401)
+                        .setBody("{\"error\":\"unauthorized\",\"reason\":\"expired\"}");
+            }
+            MockResponse response = new MockResponse().setBody
+                    ("{\"_id\":\"foo\",\"_rev\":\"1-abc\"}");
+            if (refreshCookie != null) {
+                response.setHeader("Set-Cookie", refreshCookie + "; Version=1; Path=/; HttpOnly");
+            }
+            return response;
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        server = serverResource.getServer();
+        dispatcher = new SessionDispatcher();
+        server.setDispatcher(dispatcher);
+        client = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .username("user")
+                .password("pass")
+                .build();
+        db = client.database("animaldb", false);
+    }
+
+    /**
+     * Validates that when the cookie expires under concurrent load only one request gets a new
+     * cookie and the others wait for it.
+     */
+    @Test
+    public void singleFlightRenewal() throws Exception {
+        db.find(Foo.class, "foo");
+        assertEquals(1, dispatcher.sessions.get());
+
+        // Expire the cookie by starting a new session on the server
+        dispatcher.sessions.incrementAndGet();
+
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Foo>> finds = new ArrayList<Future<Foo>>();
+            for (int i = 0; i < threads; i++) {
+                finds.add(executor.submit(new Callable<Foo>() {
+                    @Override
+                    public Foo call() throws Exception {
+                        return db.find(Foo.class, "foo");
+                    }
+                }));
+            }
+            for (Future<Foo> find : finds) {
+                assertEquals("1-abc", find.get(10, TimeUnit.SECONDS).get_rev());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals("Only one session request should renew the cookie", 3, dispatcher.sessions
+                .get());
+    }
+
+    /**
+     * Validates that a request waiting for another thread to get a cookie gives up when its
+     * deadline passes.
+     */
+    @Test
+    public void renewalWaitBoundedByDeadline() throws Exception {
+        dispatcher.sessionDelayMillis = 2000;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Foo> renewing = executor.submit(new Callable<Foo>() {
+                @Override
+                public Foo call() throws Exception {
+                    return db.find(Foo.class, "foo");
+                }
+            });
+            // let the other thread start the session request
+            TimeUnit.MILLISECONDS.sleep(200);
+            long start = System.nanoTime();
+            try {
+                client.withDeadline(300, TimeUnit.MILLISECONDS, new Callable<Foo>() {
+                    @Override
+                    public Foo call() throws Exception {
+                        return db.find(Foo.class, "foo");
+                    }
+                });
+                fail("The request should fail with a DeadlineExceededException");
+            } catch (DeadlineExceededException e) {
+                assertTrue("The request should not wait for the session request", TimeUnit
+                        .NANOSECONDS.toMillis(System.nanoTime() - start) < 1500);
+            }
+            assertEquals("1-abc", renewing.get(10, TimeUnit.SECONDS).get_rev());
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, dispatcher.sessions.get());
+    }
+
+    /**
+     * Validates that a cookie with a lifetime is renewed in the background before it expires.
+     */
+    @Test
+    public void proactiveRenewal() throws Exception {
+        dispatcher.maxAge = "1";
+        dispatcher.acceptOldCookies = true;
+        db.find(Foo.class, "foo");
+        assertEquals(1, dispatcher.sessions.get());
+
+        // Wait for most of the lifetime to pass, the next request starts the renewal
+        TimeUnit.MILLISECONDS.sleep(900);
+        db.find(Foo.class, "foo");
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (dispatcher.sessions.get() < 2 && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        assertEquals("The cookie should have been renewed", 2, dispatcher.sessions.get());
+    }
+
+    /**
+     * Validates that a cookie refreshed by the server in a response is used for later requests.
+     */
+    @Test
+    public void serverRefreshedCookieUsed() throws Exception {
+        dispatcher.acceptOldCookies = true;
+        db.find(Foo.class, "foo");
+        dispatcher.refreshCookie = "AuthSession=refreshed";
+        db.find(Foo.class, "foo");
+        dispatcher.refreshCookie = null;
+        db.find(Foo.class, "foo");
+
+        // Skip the session request and first two lookups
+        for (int i = 0; i < 3; i++) {
+            server.takeRequest(10, TimeUnit.SECONDS);
+        }
+        assertEquals("AuthSession=refreshed", server.takeRequest(10, TimeUnit.SECONDS)
+                .getHeader("Cookie"));
+        assertEquals(1, dispatcher.sessions.get());
+    }
+}
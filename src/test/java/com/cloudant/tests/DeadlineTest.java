@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.cloudant.client.api.CloudantClient;
+import com.cloudant.client.api.Database;
+import com.cloudant.client.org.lightcouch.DeadlineExceededException;
+import com.cloudant.http.Http;
+import com.cloudant.http.HttpConnection;
+import com.cloudant.http.HttpConnectionInterceptorContext;
+import com.cloudant.http.HttpConnectionResponseInterceptor;
+import com.cloudant.http.RequestTimingListener;
+import com.cloudant.http.RequestTimings;
+import com.cloudant.tests.util.MockWebServerResource;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.QueueDispatcher;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DeadlineTest {
+
+    @Rule
+    public MockWebServerResource mockWebServerResource = new MockWebServerResource();
+    private MockWebServer server;
+    private DelayDispatcher dispatcher;
+
+    private static class DelayDispatcher extends Dispatcher {
+
+        final AtomicInteger requests = new AtomicInteger();
+        volatile long delayMillis = 0;
+        volatile long bodyDelayMillis = 0;
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            requests.incrementAndGet();
+            TimeUnit.MILLISECONDS.sleep(delayMillis);
+            MockResponse response = new MockResponse().setBody("{\"_id\":\"foo\"," +
+                    "\"_rev\":\"1-abc\"}");
+            if (bodyDelayMillis > 0) {
+                // send the body a byte at a time
+                response.throttleBody(1, bodyDelayMillis, TimeUnit.MILLISECONDS);
+            }
+            return response;
+        }
+    }
+
+    @Before
+    public void setup() {
+        server = mockWebServerResource.getServer();
+        dispatcher = new DelayDispatcher();
+        server.setDispatcher(dispatcher);
+    }
+
+    private static void assertDeadlineExceeded(Database db, long withinMillis) {
+        long start = System.nanoTime();
+        try {
+            db.find(Foo.class, "foo");
+            fail("The request should fail with a DeadlineExceededException");
+        } catch (DeadlineExceededException e) {
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("The request should be aborted at the deadline, took " + elapsedMillis +
+                    " ms", elapsedMillis < withinMillis);
+        }
+    }
+
+    /**
+     * Validates that the default deadline aborts a request whose response body is slow, after
+     * the response headers have been received.
+     */
+    @Test
+    public void defaultDeadlineAbortsSlowBody() throws Exception {
+        Database db = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .requestDeadline(300, TimeUnit.MILLISECONDS)
+                .build().database("animaldb", false);
+        dispatcher.bodyDelayMillis = 100;
+        assertDeadlineExceeded(db, 1000);
+    }
+
+    /**
+     * Validates that the deadline spans all the attempts of a request that is retried.
+     */
+    @Test
+    public void deadlineSpansRetries() throws Exception {
+        Database db = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .requestDeadline(350, TimeUnit.MILLISECONDS)
+                .interceptors(new HttpConnectionResponseInterceptor() {
+                    @Override
+                    public HttpConnectionInterceptorContext interceptResponse
+                            (HttpConnectionInterceptorContext context) {
+                        context.replayRequest = true;
+                        return context;
+                    }
+                })
+                .build().database("animaldb", false);
+        dispatcher.delayMillis = 100;
+        assertDeadlineExceeded(db, 1000);
+        assertTrue("The request should not be retried after the deadline", dispatcher.requests
+                .get() <= 4);
+    }
+
+    /**
+     * Validates that a deadline set for an operation applies to its requests, and that requests
+     * completing in time are not affected.
+     */
+    @Test
+    public void withDeadline() throws Exception {
+        CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server).build();
+        final Database db = c.database("animaldb", false);
+        Foo foo = c.withDeadline(2, TimeUnit.SECONDS, new Callable<Foo>() {
+            @Override
+            public Foo call() throws Exception {
+                return db.find(Foo.class, "foo");
+            }
+        });
+        assertEquals("foo", foo.get_id());
+
+        dispatcher.delayMillis = 1000;
+        long start = System.nanoTime();
+        try {
+            c.withDeadline(200, TimeUnit.MILLISECONDS, new Callable<Foo>() {
+                @Override
+                public Foo call() throws Exception {
+                    return db.find(Foo.class, "foo");
+                }
+            });
+            fail("The operation should fail with a DeadlineExceededException");
+        } catch (DeadlineExceededException e) {
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 900);
+        }
+    }
+
+    /**
+     * Validates that a deadline can be set on a request made with executeRequest.
+     */
+    @Test(expected = DeadlineExceededException.class)
+    public void requestDeadline() throws Exception {
+        CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server).build();
+        dispatcher.delayMillis = 1000;
+        HttpConnection request = Http.GET(new URL(server.url("/animaldb/foo").toString()))
+                .setDeadline(200, TimeUnit.MILLISECONDS);
+        c.executeRequest(request).responseAsString();
+    }
+
+    /**
+     * Validates that reading the body of a 403 credentials_expired response while renewing the
+     * cookie does not complete the request, so the deadline still applies to the replayed
+     * request and the timing listener is called once for the response returned.
+     */
+    @Test
+    public void deadlineAppliesAfterCookieRenewal() throws Exception {
+        server.setDispatcher(new QueueDispatcher());
+        server.enqueue(MockWebServerResource.OK_COOKIE);
+        server.enqueue(new MockResponse().setResponseCode(403).setBody
+                ("{\"error\":\"credentials_expired\", \"reason\":\"Session expired\"}"));
+        server.enqueue(MockWebServerResource.OK_COOKIE);
+        // the body takes 3 seconds to send, a byte every 100 ms
+        server.enqueue(new MockResponse().setBody("{\"_id\":\"foo\",\"_rev\":\"1-abc\"}")
+                .throttleBody(1, 100, TimeUnit.MILLISECONDS));
+
+        final List<RequestTimings> completed = new CopyOnWriteArrayList<RequestTimings>();
+        Database db = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .username("a")
+                .password("b")
+                .requestDeadline(500, TimeUnit.MILLISECONDS)
+                .requestTimingListener(new RequestTimingListener() {
+                    @Override
+                    public void requestCompleted(RequestTimings timings) {
+                        completed.add(timings);
+                    }
+                })
+                .build().database("animaldb", false);
+        assertDeadlineExceeded(db, 2000);
+        assertEquals("There should be four requests", 4, server.getRequestCount());
+        assertEquals("The listener should be called once", 1, completed.size());
+        assertEquals("The timings should be for the replayed response", 200, completed.get(0)
+                .getStatusCode());
+        assertEquals("The timings should include both attempts", 2, completed.get(0)
+                .getAttempts());
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.cloudant.client.api.CloudantClient;
+import com.cloudant.client.api.Database;
+import com.cloudant.client.api.model.DocumentCachePolicy;
+import com.cloudant.client.api.model.DocumentCacheStats;
+import com.cloudant.client.api.model.Params;
+import com.cloudant.tests.util.MockWebServerResource;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class DocumentCacheTest {
+
+    @Rule
+    public MockWebServerResource mockWebServerResource = new MockWebServerResource();
+    private MockWebServer server;
+    private RevisionDispatcher dispatcher;
+
+    /**
+     * Serves documents with their revision as the ETag, and responds 304 to conditional
+     * requests for the current revision.
+     */
+    private static class RevisionDispatcher extends Dispatcher {
+
+        final List<RecordedRequest> gets = new CopyOnWriteArrayList<RecordedRequest>();
+        volatile String rev = "1-abc";
+        volatile long getDelayMillis = 0;
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            String id = request.getPath().substring(request.getPath().lastIndexOf('/') + 1);
+            if ("PUT".equals(request.getMethod())) {
+                rev = "2-def";
+                return new MockResponse().setResponseCode(201).setBody("{\"ok\":true,\"id\":\""
+                        + id + "\",\"rev\":\"" + rev + "\"}");
+            }
+            gets.add(request);
+            String etag = "\"" + rev + "\"";
+            MockResponse response;
+            if (etag.equals(request.getHeader("If-None-Match"))) {
+                response = new MockResponse().setResponseCode(304).setHeader("ETag", etag);
+            } else {
+                response = new MockResponse().setHeader("ETag", etag).setBody("{\"_id\":\"" +
+                        id + "\",\"_rev\":\"" + rev + "\"}");
+            }
+            // the response is delayed after it is made, so a write can overtake it
+            TimeUnit.MILLISECONDS.sleep(getDelayMillis);
+            return response;
+        }
+    }
+
+    @Before
+    public void setup() {
+        server = mockWebServerResource.getServer();
+        dispatcher = new RevisionDispatcher();
+        server.setDispatcher(dispatcher);
+    }
+
+    private CloudantClient client(DocumentCachePolicy policy) throws Exception {
+        return CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .documentCache(policy)
+                .build();
+    }
+
+    /**
+     * Validates that a cached document is revalidated with its ETag and returned from the cache
+     * when the server responds 304.
+     */
+    @Test
+    public void revalidated() throws Exception {
+        CloudantClient c = client(new DocumentCachePolicy());
+        Database db = c.database("animaldb", false);
+        db.find(Foo.class, "foo");
+        Foo foo = db.find(Foo.class, "foo");
+
+        assertEquals("1-abc", foo.get_rev());
+        assertEquals(2, dispatcher.gets.size());
+        assertNull(dispatcher.gets.get(0).getHeader("If-None-Match"));
+        assertEquals("\"1-abc\"", dispatcher.gets.get(1).getHeader("If-None-Match"));
+        DocumentCacheStats stats = c.getDocumentCacheStats();
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getRevalidations());
+    }
+
+    /**
+     * Validates that a document that has changed on the server replaces the cached document.
+     */
+    @Test
+    public void changedDocumentReplaced() throws Exception {
+        CloudantClient c = client(new DocumentCachePolicy());
+        Database db = c.database("animaldb", false);
+        db.find(Foo.class, "foo");
+        dispatcher.rev = "2-def";
+
+        assertEquals("2-def", db.find(Foo.class, "foo").get_rev());
+        assertEquals("2-def", db.find(Foo.class, "foo").get_rev());
+        DocumentCacheStats stats = c.getDocumentCacheStats();
+        assertEquals(2, stats.getMisses());
+        assertEquals(1, stats.getRevalidations());
+    }
+
+    /**
+     * Validates that a document is returned without a request within the revalidation interval.
+     */
+    @Test
+    public void hitWithinRevalidationInterval() throws Exception {
+        CloudantClient c = client(new DocumentCachePolicy().revalidateAfter(1, TimeUnit
+                .MINUTES));
+        Database db = c.database("animaldb", false);
+        db.find(Foo.class, "foo");
+        db.find(Foo.class, "foo");
+
+        assertEquals(1, dispatcher.gets.size());
+        assertEquals(1, c.getDocumentCacheStats().getHits());
+    }
+
+    /**
+     * Validates that the least recently used document is evicted when the cache is full.
+     */
+    @Test
+    public void leastRecentlyUsedEvicted() throws Exception {
+        // each body is 28 bytes, so only one fits
+        CloudantClient c = client(new DocumentCachePolicy().maximumSize(50).revalidateAfter(1,
+                TimeUnit.MINUTES));
+        Database db = c.database("animaldb", false);
+        db.find(Foo.class, "foo");
+        db.find(Foo.class, "bar");
+        db.find(Foo.class, "bar");
+
+        DocumentCacheStats stats = c.getDocumentCacheStats();
+        assertEquals(1, stats.getEvictions());
+        assertEquals(1, stats.getDocuments());
+        assertEquals(1, stats.getHits());
+        assertEquals(28, stats.getSize());
+    }
+
+    /**
+     * Validates that a document updated with the client is removed from the cache.
+     */
+    @Test
+    public void invalidatedOnUpdate() throws Exception {
+        CloudantClient c = client(new DocumentCachePolicy().revalidateAfter(1, TimeUnit
+                .MINUTES));
+        Database db = c.database("animaldb", false);
+        Foo foo = db.find(Foo.class, "foo");
+        db.update(foo);
+
+        assertEquals("2-def", db.find(Foo.class, "foo").get_rev());
+        assertEquals(2, dispatcher.gets.size());
+    }
+
+    /**
+     * Validates that a document is removed from the cache when an attachment is saved to it.
+     */
+    @Test
+    public void invalidatedOnAttachmentSave() throws Exception {
+        CloudantClient c = client(new DocumentCachePolicy().revalidateAfter(1, TimeUnit
+                .MINUTES));
+        Database db = c.database("animaldb", false);
+        db.find(Foo.class, "foo");
+        db.saveAttachment(new ByteArrayInputStream("text".getBytes("UTF-8")), "att.txt",
+                "text/plain", "foo", "1-abc");
+
+        assertEquals("2-def", db.find(Foo.class, "foo").get_rev());
+        assertEquals(2, dispatcher.gets.size());
+    }
+
+    /**
+     * Validates that a document is removed from the cache when an update handler is invoked
+     * for it.
+     */
+    @Test
+    public void invalidatedOnUpdateHandler() throws Exception {
+        CloudantClient c = client(new DocumentCachePolicy().revalidateAfter(1, TimeUnit
+                .MINUTES));
+        Database db = c.database("animaldb", false);
+        db.find(Foo.class, "foo");
+        db.invokeUpdateHandler("ddoc/handler", "foo", new Params().addParam("field", "value"));
+
+        assertEquals("2-def", db.find(Foo.class, "foo").get_rev());
+        assertEquals(2, dispatcher.gets.size());
+    }
+
+    /**
+     * Validates that a document read before an update, but received after it, is not cached.
+     */
+    @Test
+    public void staleReadNotStored() throws Exception {
+        CloudantClient c = client(new DocumentCachePolicy().revalidateAfter(1, TimeUnit
+                .MINUTES));
+        final Database db = c.database("animaldb", false);
+        dispatcher.getDelayMillis = 500;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Foo> read = executor.submit(new Callable<Foo>() {
+                @Override
+                public Foo call() throws Exception {
+                    return db.find(Foo.class, "foo");
+                }
+            });
+            // update the document while the read is in flight
+            TimeUnit.MILLISECONDS.sleep(200);
+            Foo foo = new Foo("foo");
+            foo.set_rev("1-abc");
+            db.update(foo);
+            assertEquals("1-abc", read.get(10, TimeUnit.SECONDS).get_rev());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        dispatcher.getDelayMillis = 0;
+        assertEquals("2-def", db.find(Foo.class, "foo").get_rev());
+        assertEquals(2, dispatcher.gets.size());
+    }
+}
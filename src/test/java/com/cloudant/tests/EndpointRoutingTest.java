@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.cloudant.client.api.ClientBuilder;
+import com.cloudant.client.api.CloudantClient;
+import com.cloudant.client.api.Database;
+import com.cloudant.client.api.model.EndpointStats;
+import com.cloudant.tests.util.MockWebServerResource;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EndpointRoutingTest {
+
+    @Rule
+    public MockWebServerResource primaryResource = new MockWebServerResource();
+    @Rule
+    public MockWebServerResource secondaryResource = new MockWebServerResource();
+    private MockWebServer primary;
+    private MockWebServer secondary;
+    private EndpointDispatcher primaryDispatcher;
+    private EndpointDispatcher secondaryDispatcher;
+
+    /**
+     * Records the methods of document requests and answers health probes of the server root and
+     * session requests with a cookie that expires after a second.
+     */
+    private static class EndpointDispatcher extends Dispatcher {
+
+        final List<String> methods = new CopyOnWriteArrayList<String>();
+        final AtomicInteger sessions = new AtomicInteger();
+        volatile int status = 200;
+        volatile long delayMillis = 0;
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            if ("/".equals(request.getPath())) {
+                return new MockResponse().setBody("{\"couchdb\":\"Welcome\"}");
+            }
+            if (request.getPath().startsWith("/_session")) {
+                return new MockResponse().setHeader("Set-Cookie", "AuthSession=s" + sessions
+                        .incrementAndGet() + "; Version=1; Path=/; HttpOnly; Max-Age=1")
+                        .setBody("{\"ok\":true,\"name\":\"user\",\"roles\":[]}");
+            }
+            methods.add(request.getMethod());
+            TimeUnit.MILLISECONDS.sleep(delayMillis);
+            if (status != 200) {
+                return new MockResponse().setResponseCode(status).setBody
+                        ("{\"error\":\"internal_server_error\",\"reason\":\"down\"}");
+            }
+            return new MockResponse().setBody("{\"ok\":true,\"_id\":\"foo\",\"id\":\"foo\"," +
+                    "\"_rev\":\"1-abc\",\"rev\":\"1-abc\"}");
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        primary = primaryResource.getServer();
+        secondary = secondaryResource.getServer();
+        primaryDispatcher = new EndpointDispatcher();
+        secondaryDispatcher = new EndpointDispatcher();
+        primary.setDispatcher(primaryDispatcher);
+        secondary.setDispatcher(secondaryDispatcher);
+    }
+
+    private Database database(ClientBuilder builder) throws Exception {
+        return builder.build().database("animaldb", false);
+    }
+
+    private ClientBuilder builder() throws Exception {
+        return CloudantClientHelper.newMockWebServerClientBuilder(primary)
+                .endpoints(secondary.url("/").url());
+    }
+
+    /**
+     * Validates that a read fails over to another endpoint when the connection fails.
+     */
+    @Test
+    public void failoverOnConnectionError() throws Exception {
+        // a port with nothing listening on it
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        Database db = database(ClientBuilder.url(new URL("http://localhost:" + port))
+                .endpoints(secondary.url("/").url()));
+
+        assertEquals("1-abc", db.find(Foo.class, "foo").get_rev());
+        assertEquals(1, secondaryDispatcher.methods.size());
+    }
+
+    /**
+     * Validates that a read fails over to another endpoint after a 5xx response and the failed
+     * endpoint is marked unhealthy.
+     */
+    @Test
+    public void failoverOn5xx() throws Exception {
+        CloudantClient client = builder().build();
+        Database db = client.database("animaldb", false);
+        primaryDispatcher.status = 500;
+
+        assertEquals("1-abc", db.find(Foo.class, "foo").get_rev());
+        assertEquals(1, primaryDispatcher.methods.size());
+        assertEquals(1, secondaryDispatcher.methods.size());
+        List<EndpointStats> stats = client.getEndpointStats();
+        assertFalse("The primary should be unhealthy", stats.get(0).isHealthy());
+        assertTrue("The secondary should be healthy", stats.get(1).isHealthy());
+    }
+
+    /**
+     * Validates that writes go to the primary endpoint even when reads are routed elsewhere.
+     */
+    @Test
+    public void writesPinnedToPrimary() throws Exception {
+        Database db = database(builder());
+        primaryDispatcher.status = 500;
+        db.find(Foo.class, "foo");
+        primaryDispatcher.status = 200;
+
+        db.save(new Foo("foo"));
+        db.find(Foo.class, "foo");
+
+        assertEquals("The write should go to the primary", "PUT", primaryDispatcher.methods.get
+                (1));
+        assertEquals("Reads should go to the healthy secondary", 2, secondaryDispatcher.methods
+                .size());
+    }
+
+    /**
+     * Validates that reads are routed to the endpoint with the lowest response time.
+     */
+    @Test
+    public void readsRoutedToFastestEndpoint() throws Exception {
+        Database db = database(builder());
+        primaryDispatcher.delayMillis = 200;
+        for (int i = 0; i < 10; i++) {
+            db.find(Foo.class, "foo");
+        }
+        assertTrue("Most reads should go to the faster endpoint", secondaryDispatcher.methods
+                .size() >= 8);
+    }
+
+    /**
+     * Validates that a health probe brings a recovered endpoint back.
+     */
+    @Test
+    public void recoveredEndpointProbed() throws Exception {
+        CloudantClient client = builder()
+                .endpointProbeInterval(100, TimeUnit.MILLISECONDS)
+                .build();
+        primaryDispatcher.status = 500;
+        client.database("animaldb", false).find(Foo.class, "foo");
+        assertFalse(client.getEndpointStats().get(0).isHealthy());
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (!client.getEndpointStats().get(0).isHealthy() && System.currentTimeMillis() <
+                deadline) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        assertTrue("The probe should mark the primary healthy", client.getEndpointStats().get
+                (0).isHealthy());
+    }
+
+    /**
+     * Validates that session requests renewing the cookie in the background, which are not
+     * opened by the router, are not recorded as response times of an endpoint.
+     */
+    @Test
+    public void backgroundCookieRenewalNotRecorded() throws Exception {
+        CloudantClient client = builder()
+                .username("user")
+                .password("pass")
+                .build();
+        Database db = client.database("animaldb", false);
+        // each endpoint is tried once and gets its own cookie
+        db.find(Foo.class, "foo");
+        db.find(Foo.class, "foo");
+
+        // Wait for most of the lifetime to pass, the next request starts the renewal
+        TimeUnit.MILLISECONDS.sleep(900);
+        db.find(Foo.class, "foo");
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (primaryDispatcher.sessions.get() + secondaryDispatcher.sessions.get() < 3 &&
+                System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        assertEquals("The cookie should have been renewed", 3, primaryDispatcher.sessions.get()
+                + secondaryDispatcher.sessions.get());
+        // the session response is handled after the server has counted the session
+        TimeUnit.MILLISECONDS.sleep(200);
+
+        for (EndpointStats stats : client.getEndpointStats()) {
+            assertTrue("The response time should not include the renewal: " + stats, stats
+                    .getLatency(TimeUnit.SECONDS) < 10);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.cloudant.client.api.CloudantClient;
+import com.cloudant.client.api.Database;
+import com.cloudant.client.api.DocumentIterator;
+import com.cloudant.client.api.model.FindAllOptions;
+import com.cloudant.tests.util.MockWebServerResource;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FindAllTest {
+
+    @Rule
+    public MockWebServerResource mockWebServerResource = new MockWebServerResource();
+    private MockWebServer server;
+    private Database db;
+    private final List<Integer> chunkSizes = new CopyOnWriteArrayList<Integer>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    /**
+     * Responds to {@code _all_docs} requests with keys: IDs starting "missing" are not found,
+     * IDs starting "deleted" have been deleted and the others exist.
+     */
+    private class AllDocsDispatcher extends Dispatcher {
+
+        volatile int status = 200;
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            int concurrent = inFlight.incrementAndGet();
+            try {
+                while (true) {
+                    int max = maxInFlight.get();
+                    if (concurrent <= max || maxInFlight.compareAndSet(max, concurrent)) {
+                        break;
+                    }
+                }
+                // keep the request in flight long enough for the others to be sent
+                Thread.sleep(50);
+                if (status != 200) {
+                    return new MockResponse().setResponseCode(status).setBody
+                            ("{\"error\":\"internal_server_error\",\"reason\":\"down\"}");
+                }
+                JsonArray keys = new JsonParser().parse(request.getBody().readUtf8())
+                        .getAsJsonObject().getAsJsonArray("keys");
+                chunkSizes.add(keys.size());
+                JsonArray rows = new JsonArray();
+                for (JsonElement key : keys) {
+                    String id = key.getAsString();
+                    JsonObject row = new JsonObject();
+                    row.addProperty("key", id);
+                    if (id.startsWith("missing")) {
+                        row.addProperty("error", "not_found");
+                    } else {
+                        JsonObject value = new JsonObject();
+                        value.addProperty("rev", "1-abc");
+                        row.addProperty("id", id);
+                        row.add("value", value);
+                        if (id.startsWith("deleted")) {
+                            value.addProperty("deleted", true);
+                            row.add("doc", null);
+                        } else {
+                            JsonObject doc = new JsonObject();
+                            doc.addProperty("_id", id);
+                            doc.addProperty("_rev", "1-abc");
+                            row.add("doc", doc);
+                        }
+                    }
+                    rows.add(row);
+                }
+                JsonObject body = new JsonObject();
+                body.addProperty("total_rows", 100);
+                body.add("rows", rows);
+                return new MockResponse().setBody(body.toString());
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private AllDocsDispatcher dispatcher;
+
+    @Before
+    public void setup() throws Exception {
+        server = mockWebServerResource.getServer();
+        dispatcher = new AllDocsDispatcher();
+        server.setDispatcher(dispatcher);
+        db = CloudantClientHelper.newMockWebServerClientBuilder(server).build().database
+                ("animaldb", false);
+    }
+
+    private static List<String> ids(String prefix, int count) {
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            ids.add(prefix + i);
+        }
+        return ids;
+    }
+
+    private static List<String> readIds(DocumentIterator<Foo> documents) {
+        List<String> ids = new ArrayList<String>();
+        try {
+            while (documents.hasNext()) {
+                ids.add(documents.next().get_id());
+            }
+        } finally {
+            documents.close();
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Validates that the documents that exist are returned and the missing and deleted IDs are
+     * reported separately.
+     */
+    @Test
+    public void foundMissingAndDeleted() throws Exception {
+        List<String> ids = new ArrayList<String>();
+        ids.addAll(ids("doc", 3));
+        ids.add("missing0");
+        ids.add("deleted0");
+        DocumentIterator<Foo> documents = db.findAll(ids, Foo.class);
+
+        assertEquals(ids("doc", 3), readIds(documents));
+        assertEquals(Arrays.asList("missing0"), documents.getMissingIds());
+        assertEquals(Arrays.asList("deleted0"), documents.getDeletedIds());
+        assertEquals("One request should be sent", 1, server.getRequestCount());
+    }
+
+    /**
+     * Validates that the IDs are fetched in chunks of the chunk size, with no more than the
+     * configured number of requests in flight.
+     */
+    @Test
+    public void chunksFetchedConcurrently() throws Exception {
+        DocumentIterator<Foo> documents = db.findAll(ids("doc", 25), Foo.class, new
+                FindAllOptions().chunkSize(4).concurrency(3));
+
+        List<String> expected = ids("doc", 25);
+        Collections.sort(expected);
+        assertEquals(expected, readIds(documents));
+        assertEquals("There should be a request per chunk", 7, server.getRequestCount());
+        List<Integer> sizes = new ArrayList<Integer>(chunkSizes);
+        Collections.sort(sizes);
+        assertEquals(Arrays.asList(1, 4, 4, 4, 4, 4, 4), sizes);
+        assertTrue("Chunks should be fetched concurrently", maxInFlight.get() > 1);
+        assertTrue("No more than 3 requests should be in flight", maxInFlight.get() <= 3);
+    }
+
+    /**
+     * Validates that repeated IDs are only fetched and returned once.
+     */
+    @Test
+    public void duplicateIds() throws Exception {
+        DocumentIterator<Foo> documents = db.findAll(Arrays.asList("doc0", "doc1", "doc0",
+                "doc1"), Foo.class);
+
+        assertEquals(Arrays.asList("doc0", "doc1"), readIds(documents));
+        assertEquals(Arrays.asList(2), chunkSizes);
+    }
+
+    /**
+     * Validates that no requests are sent for an empty collection of IDs.
+     */
+    @Test
+    public void noIds() throws Exception {
+        DocumentIterator<Foo> documents = db.findAll(Collections.<String>emptyList(), Foo
+                .class);
+
+        assertFalse(documents.hasNext());
+        assertEquals(0, server.getRequestCount());
+    }
+
+    /**
+     * Validates that documents can be fetched from an asynchronous task when the executor has
+     * no other threads to fetch them with.
+     */
+    @Test
+    public void findAllInAsyncTask() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                    .asyncExecutor(executor)
+                    .build();
+            final Database asyncDb = c.database("animaldb", false);
+            List<String> found = c.executeAsync(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws Exception {
+                    return readIds(asyncDb.findAll(ids("doc", 10), Foo.class, new
+                            FindAllOptions().chunkSize(2)));
+                }
+            }).get(10, TimeUnit.SECONDS);
+            List<String> expected = ids("doc", 10);
+            Collections.sort(expected);
+            assertEquals(expected, found);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Validates that the readers stop when the iterator is closed before all the documents
+     * have been read.
+     */
+    @Test
+    public void readersStopWhenClosed() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                    .asyncExecutor(executor)
+                    .build();
+            // more documents than can be read ahead of the consumer
+            DocumentIterator<Foo> documents = c.database("animaldb", false).findAll(ids("doc",
+                    1500), Foo.class, new FindAllOptions().chunkSize(1500).concurrency(1));
+            assertTrue(documents.hasNext());
+            documents.next();
+            documents.close();
+
+            // the only executor thread is free again once the reader has stopped
+            assertEquals("The reader should stop", "done", c.executeAsync(new
+                    Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return "done";
+                }
+            }).get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Validates that no executor thread waits for the documents to be read, so an iterator that
+     * is abandoned without being closed does not hold the executor.
+     */
+    @Test
+    public void readersDoNotWaitForConsumer() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                    .asyncExecutor(executor)
+                    .build();
+            DocumentIterator<Foo> documents = c.database("animaldb", false).findAll(ids("doc",
+                    1500), Foo.class, new FindAllOptions().chunkSize(100).concurrency(2));
+            assertTrue(documents.hasNext());
+            documents.next();
+
+            // the only executor thread is free although the iterator was not closed
+            assertEquals("The readers should not wait", "done", c.executeAsync(new
+                    Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return "done";
+                }
+            }).get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Validates that an error response is thrown when advancing the iterator.
+     */
+    @Test
+    public void errorThrown() throws Exception {
+        dispatcher.status = 500;
+        DocumentIterator<Foo> documents = db.findAll(ids("doc", 3), Foo.class);
+        try {
+            documents.hasNext();
+            fail("The error response should be thrown");
+        } catch (RuntimeException e) {
+            // expected
+        } finally {
+            documents.close();
+        }
+    }
+}
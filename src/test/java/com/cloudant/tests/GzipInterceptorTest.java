@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.cloudant.client.api.CloudantClient;
+import com.cloudant.client.api.Database;
+import com.cloudant.client.org.lightcouch.NoDocumentException;
+import com.cloudant.http.interceptors.GzipInterceptor;
+import com.cloudant.tests.util.MockWebServerResource;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import okio.Buffer;
+
+public class GzipInterceptorTest {
+
+    @Rule
+    public MockWebServerResource serverResource = new MockWebServerResource();
+    public MockWebServer server;
+    private GzipInterceptor gzip;
+    private Database db;
+
+    @Before
+    public void setup() throws Exception {
+        server = serverResource.getServer();
+        gzip = new GzipInterceptor(256);
+        CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .interceptors(gzip)
+                .build();
+        db = c.database("animaldb", false);
+    }
+
+    private static MockResponse gzipResponse(int code, String body) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(body.getBytes("UTF-8"));
+        out.close();
+        return new MockResponse().setResponseCode(code)
+                .setHeader("Content-Encoding", "gzip")
+                .setBody(new Buffer().write(bytes.toByteArray()));
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Validates that gzip responses are requested and decompressed.
+     */
+    @Test
+    public void responseDecompressed() throws Exception {
+        String title = repeat("compressible ", 100);
+        server.enqueue(gzipResponse(200, "{\"_id\":\"foo\",\"_rev\":\"1-abc\",\"title\":\"" +
+                title + "\"}"));
+
+        Foo foo = db.find(Foo.class, "foo");
+        assertEquals(title, foo.getTitle());
+
+        RecordedRequest request = server.takeRequest(10, TimeUnit.SECONDS);
+        assertEquals("gzip", request.getHeader("Accept-Encoding"));
+        assertEquals(1, gzip.getCompressedResponseCount());
+        assertTrue("The response should be larger after decompression",
+                gzip.getResponseCompressionRatio() > 1);
+    }
+
+    /**
+     * Validates that a request body over the threshold is compressed.
+     */
+    @Test
+    public void largeRequestCompressed() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(201).setBody
+                ("{\"ok\":true,\"id\":\"foo\",\"rev\":\"1-abc\"}"));
+
+        String title = repeat("compressible ", 100);
+        db.post(new Foo("foo", title));
+
+        RecordedRequest request = server.takeRequest(10, TimeUnit.SECONDS);
+        assertEquals("gzip", request.getHeader("Content-Encoding"));
+        String body = IOUtils.toString(new GZIPInputStream(request.getBody().inputStream()),
+                "UTF-8");
+        assertTrue("The decompressed body should contain the title", body.contains(title));
+        assertEquals(1, gzip.getCompressedRequestCount());
+        assertEquals(request.getBodySize(), gzip.getRequestBytesSent());
+        assertTrue("The request should be smaller after compression",
+                gzip.getRequestCompressionRatio() > 1);
+    }
+
+    /**
+     * Validates that a bulk request body, which is written as it is sent, is compressed as it is
+     * written.
+     */
+    @Test
+    public void bulkRequestCompressed() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(201).setBody
+                ("[{\"id\":\"foo0\",\"rev\":\"1-abc\"},{\"id\":\"foo1\",\"rev\":\"1-abc\"}]"));
+
+        String title = repeat("compressible ", 100);
+        List<Foo> docs = new ArrayList<Foo>();
+        docs.add(new Foo("foo0", title));
+        docs.add(new Foo("foo1", title));
+        db.bulk(docs);
+
+        RecordedRequest request = server.takeRequest(10, TimeUnit.SECONDS);
+        assertEquals("gzip", request.getHeader("Content-Encoding"));
+        String body = IOUtils.toString(new GZIPInputStream(request.getBody().inputStream()),
+                "UTF-8");
+        assertTrue("The decompressed body should contain the documents", body.startsWith
+                ("{\"docs\":[{") && body.contains("foo1"));
+        assertEquals(1, gzip.getCompressedRequestCount());
+        assertEquals(body.getBytes("UTF-8").length, gzip.getRequestBytes());
+        assertEquals(request.getBodySize(), gzip.getRequestBytesSent());
+    }
+
+    /**
+     * Validates that a request body under the threshold is sent unchanged.
+     */
+    @Test
+    public void smallRequestNotCompressed() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(201).setBody
+                ("{\"ok\":true,\"id\":\"foo\",\"rev\":\"1-abc\"}"));
+
+        db.post(new Foo("foo"));
+
+        RecordedRequest request = server.takeRequest(10, TimeUnit.SECONDS);
+        assertNull(request.getHeader("Content-Encoding"));
+        assertEquals(0, gzip.getCompressedRequestCount());
+        assertEquals(gzip.getRequestBytes(), gzip.getRequestBytesSent());
+    }
+
+    /**
+     * Validates that a response with a gzip content encoding but no body, as returned for a
+     * {@code HEAD} request, is read as empty rather than failing to decompress.
+     */
+    @Test
+    public void emptyResponseNotDecompressed() throws Exception {
+        server.enqueue(new MockResponse().setHeader("Content-Encoding", "gzip")
+                .setHeader("ETag", "\"1-abc\""));
+
+        assertTrue("The document should exist", db.contains("foo"));
+        assertEquals(0, gzip.getCompressedResponseCount());
+    }
+
+    /**
+     * Validates that a compressed error response is decompressed before it is deserialized.
+     */
+    @Test
+    public void errorResponseDecompressed() throws Exception {
+        server.enqueue(gzipResponse(404, "{\"error\":\"not_found\",\"reason\":\"missing\"}"));
+        try {
+            db.find(Foo.class, "foo");
+            fail("A NoDocumentException should be thrown");
+        } catch (NoDocumentException e) {
+            assertEquals("not_found", e.getError());
+            assertEquals("missing", e.getReason());
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.cloudant.client.api.ClientBuilder;
+import com.cloudant.client.api.CloudantClient;
+import com.cloudant.client.api.Database;
+import com.cloudant.client.api.model.HedgePolicy;
+import com.cloudant.tests.util.MockWebServerResource;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HedgingTest {
+
+    // enough fast requests for the hedging delay to be calculated
+    private static final int WARM_UP = 16;
+
+    @Rule
+    public MockWebServerResource serverResource = new MockWebServerResource();
+    public MockWebServer server;
+    private SlowRequestDispatcher dispatcher;
+
+    /**
+     * Delays the response to one request.
+     */
+    private static class SlowRequestDispatcher extends Dispatcher {
+
+        final AtomicInteger requests = new AtomicInteger();
+        volatile int slowRequest = -1;
+        volatile long delayMillis = 0;
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            if (requests.incrementAndGet() == slowRequest) {
+                TimeUnit.SECONDS.sleep(2);
+            }
+            TimeUnit.MILLISECONDS.sleep(delayMillis);
+            return new MockResponse().setBody("{\"_id\":\"foo\",\"_rev\":\"1-abc\"}");
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        server = serverResource.getServer();
+        dispatcher = new SlowRequestDispatcher();
+        server.setDispatcher(dispatcher);
+    }
+
+    private Database database(HedgePolicy policy) throws Exception {
+        return database(policy, ClientBuilder.DEFAULT_MAX_CONNECTIONS);
+    }
+
+    private Database database(HedgePolicy policy, int maxConnections) throws Exception {
+        CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .hedgeLookups(policy)
+                .maxConnections(maxConnections)
+                .build();
+        Database db = c.database("animaldb", false);
+        for (int i = 0; i < WARM_UP; i++) {
+            db.find(Foo.class, "foo");
+        }
+        return db;
+    }
+
+    /**
+     * Validates that a slow lookup is answered by the duplicate request.
+     */
+    @Test
+    public void slowLookupHedged() throws Exception {
+        Database db = database(new HedgePolicy().minDelay(200, TimeUnit.MILLISECONDS).budget(1));
+        dispatcher.slowRequest = WARM_UP + 1;
+
+        long start = System.nanoTime();
+        Foo foo = db.find(Foo.class, "foo");
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals("1-abc", foo.get_rev());
+        assertTrue("The duplicate response should be used, took " + millis + " ms", millis <
+                1500);
+        assertEquals("A duplicate request should be sent", WARM_UP + 2, dispatcher.requests
+                .get());
+    }
+
+    /**
+     * Validates that no duplicate request is sent when the budget does not allow it.
+     */
+    @Test
+    public void budgetLimitsHedging() throws Exception {
+        Database db = database(new HedgePolicy().minDelay(200, TimeUnit.MILLISECONDS).budget(0));
+        dispatcher.slowRequest = WARM_UP + 1;
+
+        assertEquals("1-abc", db.find(Foo.class, "foo").get_rev());
+        assertEquals("No duplicate request should be sent", WARM_UP + 1, dispatcher.requests
+                .get());
+    }
+
+    /**
+     * Validates that no more than two hedging threads per connection are started, and requests
+     * made when they are all busy are executed without hedging.
+     */
+    @Test
+    public void hedgingThreadsBounded() throws Exception {
+        final Database db = database(new HedgePolicy().minDelay(200, TimeUnit.MILLISECONDS)
+                .budget(1), 1);
+        dispatcher.delayMillis = 500;
+        int before = hedgeThreads();
+
+        int lookups = 6;
+        ExecutorService executor = Executors.newFixedThreadPool(lookups);
+        try {
+            List<Future<Foo>> finds = new ArrayList<Future<Foo>>();
+            for (int i = 0; i < lookups; i++) {
+                finds.add(executor.submit(new Callable<Foo>() {
+                    @Override
+                    public Foo call() throws Exception {
+                        return db.find(Foo.class, "foo");
+                    }
+                }));
+            }
+            for (Future<Foo> find : finds) {
+                assertEquals("1-abc", find.get(10, TimeUnit.SECONDS).get_rev());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue("No more than two hedging threads should be started", hedgeThreads() -
+                before <= 2);
+    }
+
+    private static int hedgeThreads() {
+        int count = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().startsWith("cloudant-hedge-")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Validates that requests faster than the hedging delay are not duplicated.
+     */
+    @Test
+    public void fastLookupNotHedged() throws Exception {
+        Database db = database(new HedgePolicy().minDelay(500, TimeUnit.MILLISECONDS).budget(1));
+        for (int i = 0; i < 5; i++) {
+            db.find(Foo.class, "foo");
+        }
+        assertEquals("No duplicate requests should be sent", WARM_UP + 5, dispatcher.requests
+                .get());
+    }
+}
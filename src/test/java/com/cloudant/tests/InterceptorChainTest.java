@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.cloudant.client.api.CloudantClient;
+import com.cloudant.client.api.Database;
+import com.cloudant.http.Http;
+import com.cloudant.http.HttpConnection;
+import com.cloudant.http.HttpConnectionInterceptorChain;
+import com.cloudant.http.HttpConnectionInterceptorContext;
+import com.cloudant.http.HttpConnectionRequestInterceptor;
+import com.cloudant.http.HttpConnectionResponseInterceptor;
+import com.cloudant.tests.util.MockWebServerResource;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class InterceptorChainTest {
+
+    @Rule
+    public MockWebServerResource serverResource = new MockWebServerResource();
+    public MockWebServer server;
+
+    @Before
+    public void setup() throws Exception {
+        server = serverResource.getServer();
+    }
+
+    /**
+     * Records the chain each request was made with.
+     */
+    private static class ChainRecorder implements HttpConnectionRequestInterceptor {
+
+        final List<HttpConnectionInterceptorChain> chains = new
+                ArrayList<HttpConnectionInterceptorChain>();
+
+        @Override
+        public HttpConnectionInterceptorContext interceptRequest(HttpConnectionInterceptorContext
+                                                                         context) {
+            chains.add(context.connection.getInterceptorChain());
+            return context;
+        }
+    }
+
+    /**
+     * Validates that all the requests of a client share the same interceptor chain and that
+     * nothing is copied into the connection's own interceptor lists.
+     */
+    @Test
+    public void chainSharedByRequests() throws Exception {
+        ChainRecorder recorder = new ChainRecorder();
+        CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .interceptors(recorder)
+                .build();
+        Database db = c.database("animaldb", false);
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setBody("{\"_id\":\"foo\",\"_rev\":\"1-abc\"}"));
+            db.find(Foo.class, "foo");
+        }
+
+        assertEquals(3, recorder.chains.size());
+        HttpConnectionInterceptorChain chain = recorder.chains.get(0);
+        assertTrue("The chain should contain the interceptor", chain.getRequestInterceptors()
+                .contains(recorder));
+        for (HttpConnectionInterceptorChain requestChain : recorder.chains) {
+            assertTrue("Every request should use the same chain", chain == requestChain);
+        }
+    }
+
+    /**
+     * Records the name of each interceptor as it runs.
+     */
+    private static class OrderRecorder implements HttpConnectionRequestInterceptor,
+            HttpConnectionResponseInterceptor {
+
+        private final String name;
+        private final List<String> order;
+
+        OrderRecorder(String name, List<String> order) {
+            this.name = name;
+            this.order = order;
+        }
+
+        @Override
+        public HttpConnectionInterceptorContext interceptRequest(HttpConnectionInterceptorContext
+                                                                         context) {
+            order.add("request " + name);
+            return context;
+        }
+
+        @Override
+        public HttpConnectionInterceptorContext interceptResponse
+                (HttpConnectionInterceptorContext context) {
+            order.add("response " + name);
+            return context;
+        }
+    }
+
+    /**
+     * Validates that the interceptors of a connection run before the client's, as they did
+     * before the client's interceptors were shared in a chain.
+     */
+    @Test
+    public void connectionInterceptorsRunFirst() throws Exception {
+        List<String> order = new ArrayList<String>();
+        CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .interceptors(new OrderRecorder("client", order))
+                .build();
+        server.enqueue(new MockResponse());
+        HttpConnection conn = Http.GET(c.getBaseUri().toURL());
+        OrderRecorder own = new OrderRecorder("connection", order);
+        conn.requestInterceptors.add(own);
+        conn.responseInterceptors.add(own);
+        c.executeRequest(conn).responseAsString();
+
+        assertEquals(Arrays.asList("request connection", "request client", "response " +
+                "connection", "response client"), order);
+    }
+
+    /**
+     * Validates that the chain cannot be modified.
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void chainImmutable() throws Exception {
+        HttpConnectionInterceptorChain chain = new HttpConnectionInterceptorChain(Collections
+                .singletonList(new ChainRecorder()), Collections
+                .<HttpConnectionResponseInterceptor>emptyList());
+        chain.getRequestInterceptors().clear();
+    }
+
+    /**
+     * Validates that replaying a request to a URL with user info sends the basic auth header on
+     * every attempt without adding to the connection's interceptors.
+     */
+    @Test
+    public void basicAuthNotAddedOnReplay() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse());
+        }
+        URL url = server.getUrl("/");
+        HttpConnection conn = Http.GET(new URL(url.getProtocol() + "://user:pass@" + url
+                .getHost() + ":" + url.getPort() + "/"));
+        conn.responseInterceptors.add(new HttpConnectionResponseInterceptor() {
+            int replays = 2;
+
+            @Override
+            public HttpConnectionInterceptorContext interceptResponse
+                    (HttpConnectionInterceptorContext context) {
+                context.replayRequest = replays-- > 0;
+                return context;
+            }
+        });
+        conn.execute().responseAsString();
+
+        assertEquals(3, conn.getTimings().getAttempts());
+        assertTrue("No request interceptors should have been added", conn.requestInterceptors
+                .isEmpty());
+        for (int i = 0; i < 3; i++) {
+            String authorization = server.takeRequest(10, TimeUnit.SECONDS).getHeader
+                    ("Authorization");
+            assertNotNull("Each attempt should have basic auth", authorization);
+            assertTrue(authorization.startsWith("Basic "));
+        }
+    }
+}
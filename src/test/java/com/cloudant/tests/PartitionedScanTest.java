@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.cloudant.client.api.CloudantClient;
+import com.cloudant.client.api.Database;
+import com.cloudant.client.api.views.ViewResponse;
+import com.cloudant.client.api.views.ViewRowIterator;
+import com.cloudant.tests.util.MockWebServerResource;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class PartitionedScanTest {
+
+    private static final int DOC_COUNT = 25;
+
+    private int docCount = DOC_COUNT;
+
+    @Rule
+    public MockWebServerResource serverResource = new MockWebServerResource();
+    public MockWebServer server;
+    private Database db;
+
+    @Before
+    public void setup() throws Exception {
+        server = serverResource.getServer();
+        server.setDispatcher(new AllDocsDispatcher());
+        CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server).build();
+        db = c.database("animaldb", false);
+    }
+
+    /**
+     * Validates that an ordered partitioned scan returns every document once, in ID order.
+     */
+    @Test
+    public void orderedScan() throws Exception {
+        List<String> ids = scan(4, true);
+        assertEquals(expectedIds(), ids);
+        // first and last row + 3 samples + 4 ranges
+        assertEquals(9, server.getRequestCount());
+    }
+
+    /**
+     * Validates that an unordered partitioned scan returns every document once.
+     */
+    @Test
+    public void unorderedScan() throws Exception {
+        List<String> ids = scan(4, false);
+        Collections.sort(ids);
+        assertEquals(expectedIds(), ids);
+    }
+
+    /**
+     * Validates that asking for more partitions than there are documents still returns every
+     * document once.
+     */
+    @Test
+    public void morePartitionsThanRows() throws Exception {
+        List<String> ids = scan(DOC_COUNT * 2, true);
+        assertEquals(expectedIds(), ids);
+    }
+
+    /**
+     * Validates that a scan of a key range is split within that range and returns only the
+     * documents in it.
+     */
+    @Test
+    public void rangeScan() throws Exception {
+        ViewRowIterator<String, String> rows = db.getAllDocsRequestBuilder()
+                .startKey(id(5))
+                .endKey(id(20))
+                .build()
+                .getPartitionedRowIterator(4, true);
+        assertEquals(expectedIds().subList(5, 21), read(rows));
+        // first row and end of the range + 3 samples + 4 ranges
+        assertEquals(9, server.getRequestCount());
+        for (int i = 0; i < server.getRequestCount(); i++) {
+            assertFalse("No request should skip rows", server.takeRequest().getPath().contains
+                    ("skip="));
+        }
+    }
+
+    /**
+     * Validates that a partitioned scan made from a task on a single thread executor reads the
+     * ranges itself instead of waiting for tasks queued behind it.
+     */
+    @Test
+    public void nestedInAsyncTask() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                    .asyncExecutor(executor)
+                    .build();
+            final Database single = c.database("animaldb", false);
+
+            List<String> ids = c.executeAsync(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws Exception {
+                    return read(single.getAllDocsRequestBuilder().build()
+                            .getPartitionedRowIterator(4, false));
+                }
+            }).get(10, TimeUnit.SECONDS);
+            assertEquals(expectedIds(), ids);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Validates that ranges of more rows than fit in a page are read a page at a time, each page
+     * starting at the row after the previous page.
+     */
+    @Test
+    public void rangesReadInPages() throws Exception {
+        docCount = 2500;
+        List<String> ids = scan(2, true);
+        assertEquals(expectedIds(), ids);
+        // first and last row + 1 sample + 2 pages for each of the 2 ranges
+        assertEquals(7, server.getRequestCount());
+    }
+
+    /**
+     * Validates that no executor thread waits for the rows to be read, so a scan that is
+     * abandoned without being closed does not hold the executor.
+     */
+    @Test
+    public void abandonedScanDoesNotHoldExecutor() throws Exception {
+        docCount = 2500;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                    .asyncExecutor(executor)
+                    .build();
+            for (boolean ordered : new boolean[]{true, false}) {
+                ViewRowIterator<String, String> rows = c.database("animaldb", false)
+                        .getAllDocsRequestBuilder().build().getPartitionedRowIterator(4,
+                                ordered);
+                assertTrue(rows.hasNext());
+                rows.next();
+
+                // the only executor thread is free although the scan was not closed
+                assertEquals("The ranges should not wait", "done", c.executeAsync(new
+                        Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return "done";
+                    }
+                }).get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<String> scan(int partitions, boolean ordered) throws Exception {
+        return read(db.getAllDocsRequestBuilder().build().getPartitionedRowIterator(partitions,
+                ordered));
+    }
+
+    private static List<String> read(ViewRowIterator<String, String> rows) {
+        List<String> ids = new ArrayList<String>();
+        try {
+            while (rows.hasNext()) {
+                ViewResponse.Row<String, String> row = rows.next();
+                assertEquals("The value should be the rev", "1-" + row.getId(), row.getValue());
+                ids.add(row.getKey());
+            }
+        } finally {
+            rows.close();
+        }
+        return ids;
+    }
+
+    private List<String> expectedIds() {
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < docCount; i++) {
+            ids.add(id(i));
+        }
+        return ids;
+    }
+
+    private static String id(int i) {
+        return String.format("doc%04d", i);
+    }
+
+    /**
+     * A minimal _all_docs implementation supporting startkey, endkey, inclusive_end, descending,
+     * skip and limit.
+     */
+    private final class AllDocsDispatcher extends Dispatcher {
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            Map<String, String> query = new HashMap<String, String>();
+            String path = request.getPath();
+            assertTrue("The request should be for _all_docs", path.startsWith
+                    ("/animaldb/_all_docs"));
+            int queryStart = path.indexOf('?');
+            if (queryStart > 0) {
+                for (String pair : path.substring(queryStart + 1).split("&")) {
+                    String[] kv = pair.split("=", 2);
+                    try {
+                        query.put(kv[0], URLDecoder.decode(kv[1], "UTF-8"));
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+            String startkey = (query.containsKey("startkey")) ? new JsonParser().parse(query.get
+                    ("startkey")).getAsString() : null;
+            String endkey = (query.containsKey("endkey")) ? new JsonParser().parse(query.get
+                    ("endkey")).getAsString() : null;
+            boolean inclusiveEnd = !"false".equals(query.get("inclusive_end"));
+            boolean descending = "true".equals(query.get("descending"));
+            int skip = (query.containsKey("skip")) ? Integer.parseInt(query.get("skip")) : 0;
+            int limit = (query.containsKey("limit")) ? Integer.parseInt(query.get("limit")) :
+                    Integer.MAX_VALUE;
+
+            List<String> ids = expectedIds();
+            if (descending) {
+                Collections.reverse(ids);
+            }
+            int direction = descending ? -1 : 1;
+            JsonArray rows = new JsonArray();
+            int offset = 0;
+            int matched = 0;
+            for (String id : ids) {
+                if (startkey != null && id.compareTo(startkey) * direction < 0) {
+                    offset++;
+                    continue;
+                }
+                if (rows.size() >= limit) {
+                    break;
+                }
+                if (endkey != null) {
+                    int c = id.compareTo(endkey) * direction;
+                    if (c > 0 || (c == 0 && !inclusiveEnd)) {
+                        break;
+                    }
+                }
+                if (matched++ < skip) {
+                    continue;
+                }
+                JsonObject row = new JsonObject();
+                row.addProperty("id", id);
+                row.addProperty("key", id);
+                JsonObject value = new JsonObject();
+                value.addProperty("rev", "1-" + id);
+                row.add("value", value);
+                rows.add(row);
+            }
+            JsonObject response = new JsonObject();
+            response.addProperty("total_rows", DOC_COUNT);
+            response.addProperty("offset", offset);
+            response.add("rows", rows);
+            return new MockResponse().setBody(response.toString());
+        }
+    }
+}
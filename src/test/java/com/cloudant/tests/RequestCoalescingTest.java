@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.cloudant.client.api.CloudantClient;
+import com.cloudant.client.api.Database;
+import com.cloudant.client.org.lightcouch.DeadlineExceededException;
+import com.cloudant.client.org.lightcouch.NoDocumentException;
+import com.cloudant.tests.util.MockWebServerResource;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RequestCoalescingTest {
+
+    private static final int THREADS = 8;
+
+    @Rule
+    public MockWebServerResource serverResource = new MockWebServerResource();
+    public MockWebServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile long delayMillis = 300;
+    private ExecutorService executor;
+    private CloudantClient client;
+
+    @Before
+    public void setup() throws Exception {
+        server = serverResource.getServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                requests.incrementAndGet();
+                // slow responses so that the concurrent requests overlap
+                TimeUnit.MILLISECONDS.sleep(delayMillis);
+                if (request.getPath().endsWith("/missing")) {
+                    return new MockResponse().setResponseCode(404).setBody
+                            ("{\"error\":\"not_found\",\"reason\":\"missing\"}");
+                }
+                if (request.getPath().endsWith("/slowbody")) {
+                    return new MockResponse().setBody("{\"_id\":\"slowbody\"," +
+                            "\"_rev\":\"1-abc\"}").setBodyDelay(2, TimeUnit.SECONDS);
+                }
+                return new MockResponse().setBody("{\"_id\":\"foo\",\"_rev\":\"1-abc\"}");
+            }
+        });
+        // a thread for each concurrent lookup and one for a lookup started before them
+        executor = Executors.newFixedThreadPool(THREADS + 1);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private Database database(boolean coalesce) throws Exception {
+        client = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .coalesceReads(coalesce)
+                .maxConnections(THREADS)
+                .build();
+        return client.database("animaldb", false);
+    }
+
+    private List<Future<Foo>> findConcurrently(final Database db, final String id) {
+        List<Future<Foo>> finds = new ArrayList<Future<Foo>>();
+        for (int i = 0; i < THREADS; i++) {
+            finds.add(executor.submit(new Callable<Foo>() {
+                @Override
+                public Foo call() throws Exception {
+                    return db.find(Foo.class, id);
+                }
+            }));
+        }
+        return finds;
+    }
+
+    /**
+     * Validates that identical concurrent lookups share one request and each gets the document.
+     */
+    @Test
+    public void identicalLookupsCoalesced() throws Exception {
+        Database db = database(true);
+        for (Future<Foo> find : findConcurrently(db, "foo")) {
+            assertEquals("1-abc", find.get().get_rev());
+        }
+        assertEquals("The lookups should share a request", 1, requests.get());
+    }
+
+    /**
+     * Validates that an error response is shared by the coalesced lookups.
+     */
+    @Test
+    public void errorShared() throws Exception {
+        Database db = database(true);
+        for (Future<Foo> find : findConcurrently(db, "missing")) {
+            try {
+                find.get();
+                fail("The lookup should fail with a NoDocumentException");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof NoDocumentException);
+            }
+        }
+        assertEquals(1, requests.get());
+    }
+
+    /**
+     * Validates that the lookups waiting for a shared request fail when it fails while its
+     * response is being read, rather than waiting forever.
+     */
+    @Test
+    public void readFailureShared() throws Exception {
+        final Database db = database(true);
+        Future<Foo> first = executor.submit(new Callable<Foo>() {
+            @Override
+            public Foo call() throws Exception {
+                return client.withDeadline(1, TimeUnit.SECONDS, new Callable<Foo>() {
+                    @Override
+                    public Foo call() throws Exception {
+                        return db.find(Foo.class, "slowbody");
+                    }
+                });
+            }
+        });
+        // join the request before its response headers are received
+        TimeUnit.MILLISECONDS.sleep(100);
+        List<Future<Foo>> finds = findConcurrently(db, "slowbody");
+        finds.add(first);
+        for (Future<Foo> find : finds) {
+            try {
+                find.get(10, TimeUnit.SECONDS);
+                fail("The lookup should fail with a DeadlineExceededException");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof DeadlineExceededException);
+            }
+        }
+        assertEquals(1, requests.get());
+    }
+
+    /**
+     * Validates that a lookup waiting for a shared request stops waiting when its own deadline
+     * passes.
+     */
+    @Test
+    public void waitBoundedByDeadline() throws Exception {
+        delayMillis = 2000;
+        final Database db = database(true);
+        Future<Foo> first = executor.submit(new Callable<Foo>() {
+            @Override
+            public Foo call() throws Exception {
+                return db.find(Foo.class, "foo");
+            }
+        });
+        TimeUnit.MILLISECONDS.sleep(200);
+        long start = System.nanoTime();
+        try {
+            client.withDeadline(300, TimeUnit.MILLISECONDS, new Callable<Foo>() {
+                @Override
+                public Foo call() throws Exception {
+                    return db.find(Foo.class, "foo");
+                }
+            });
+            fail("The lookup should fail with a DeadlineExceededException");
+        } catch (DeadlineExceededException e) {
+            assertTrue("The lookup should not wait for the shared request", TimeUnit
+                    .NANOSECONDS.toMillis(System.nanoTime() - start) < 1500);
+        }
+        assertEquals("1-abc", first.get(10, TimeUnit.SECONDS).get_rev());
+        assertEquals(1, requests.get());
+    }
+
+    /**
+     * Validates that sequential lookups are each sent to the server.
+     */
+    @Test
+    public void sequentialLookupsNotCoalesced() throws Exception {
+        Database db = database(true);
+        db.find(Foo.class, "foo");
+        db.find(Foo.class, "foo");
+        assertEquals(2, requests.get());
+    }
+
+    /**
+     * Validates that requests are not coalesced unless enabled.
+     */
+    @Test
+    public void notCoalescedByDefault() throws Exception {
+        Database db = database(false);
+        for (Future<Foo> find : findConcurrently(db, "foo")) {
+            find.get();
+        }
+        assertEquals(THREADS, requests.get());
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.cloudant.client.api.CloudantClient;
+import com.cloudant.client.api.Database;
+import com.cloudant.client.api.model.Response;
+import com.cloudant.client.org.lightcouch.NoDocumentException;
+import com.cloudant.http.RequestTimingListener;
+import com.cloudant.http.RequestTimings;
+import com.cloudant.http.RequestTimings.Phase;
+import com.cloudant.tests.util.MockWebServerResource;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+public class RequestTimingTest {
+
+    @Rule
+    public MockWebServerResource serverResource = new MockWebServerResource();
+    public MockWebServer server;
+    private final List<RequestTimings> completed = new CopyOnWriteArrayList<RequestTimings>();
+    private Database db;
+
+    @Before
+    public void setup() throws Exception {
+        server = serverResource.getServer();
+        CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .requestTimingListener(new RequestTimingListener() {
+                    @Override
+                    public void requestCompleted(RequestTimings timings) {
+                        completed.add(timings);
+                    }
+                })
+                .build();
+        db = c.database("animaldb", false);
+    }
+
+    /**
+     * Validates that the time waiting for the response headers and body is attributed to the
+     * right phases.
+     */
+    @Test
+    public void phasesTimed() throws Exception {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                // Delay the response headers, then the body
+                TimeUnit.MILLISECONDS.sleep(200);
+                return new MockResponse().setBody("{\"_id\":\"foo\",\"_rev\":\"1-abc\"}")
+                        .setBodyDelay(200, TimeUnit.MILLISECONDS);
+            }
+        });
+
+        db.find(Foo.class, "foo");
+
+        assertEquals(1, completed.size());
+        RequestTimings timings = completed.get(0);
+        assertEquals("GET", timings.getMethod());
+        assertEquals(200, timings.getStatusCode());
+        assertEquals(1, timings.getAttempts());
+        assertTrue("The time to first byte should include the header delay", timings.getTime
+                (Phase.TIME_TO_FIRST_BYTE, TimeUnit.MILLISECONDS) >= 150);
+        assertTrue("The response body time should include the body delay", timings.getTime
+                (Phase.RESPONSE_BODY, TimeUnit.MILLISECONDS) >= 150);
+        assertTrue("The total should include both delays", timings.getTotalTime(TimeUnit
+                .MILLISECONDS) >= 300);
+    }
+
+    /**
+     * Validates that the timings are attached to a write response.
+     */
+    @Test
+    public void timingsOnResponse() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(201).setBody
+                ("{\"ok\":true,\"id\":\"foo\",\"rev\":\"1-abc\"}"));
+
+        Response response = db.save(new Foo("foo"));
+
+        RequestTimings timings = response.getTimings();
+        assertNotNull("The response should have timings", timings);
+        assertEquals("PUT", timings.getMethod());
+        assertEquals(201, timings.getStatusCode());
+        assertTrue("The request should be complete", timings.getTotalTime(TimeUnit.NANOSECONDS)
+                > 0);
+        assertEquals(1, completed.size());
+        assertSame(timings, completed.get(0));
+    }
+
+    /**
+     * Validates that the listener is called for an error response.
+     */
+    @Test
+    public void errorResponseTimed() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(404).setBody
+                ("{\"error\":\"not_found\",\"reason\":\"missing\"}"));
+        try {
+            db.find(Foo.class, "foo");
+            fail("A NoDocumentException should be thrown");
+        } catch (NoDocumentException e) {
+            // expected
+        }
+        assertEquals(1, completed.size());
+        assertEquals(404, completed.get(0).getStatusCode());
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.cloudant.client.api.CloudantClient;
+import com.cloudant.client.api.Database;
+import com.cloudant.client.org.lightcouch.CouchDbException;
+import com.cloudant.http.interceptors.RetryInterceptor;
+import com.cloudant.tests.util.MockWebServerResource;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+public class RetryInterceptorTest {
+
+    @Rule
+    public MockWebServerResource serverResource = new MockWebServerResource();
+    public MockWebServer server;
+    private RetryInterceptor retries;
+    private Database db;
+
+    @Before
+    public void setup() throws Exception {
+        server = serverResource.getServer();
+        retries = new RetryInterceptor(2, 1, 100, TimeUnit.MILLISECONDS);
+        CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .interceptors(retries)
+                .build();
+        db = c.database("animaldb", false);
+    }
+
+    /**
+     * Validates that a GET rate limited with a Retry-After header is replayed and succeeds.
+     */
+    @Test
+    public void retryAfter429() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "0")
+                .setBody("{\"error\":\"too_many_requests\",\"reason\":\"slow down\"}"));
+        server.enqueue(new MockResponse().setBody("{\"_id\":\"foo\",\"_rev\":\"1-abc\"}"));
+
+        Foo foo = db.find(Foo.class, "foo");
+        assertEquals("1-abc", foo.get_rev());
+        assertEquals(2, server.getRequestCount());
+        assertEquals(1, retries.getRateLimitedCount());
+        assertEquals(1, retries.getRetryCount());
+        assertEquals(0, retries.getExhaustedCount());
+    }
+
+    /**
+     * Validates that a rate limited POST is replayed with the same request body.
+     */
+    @Test
+    public void postReplayedAfter429() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(429));
+        server.enqueue(new MockResponse().setResponseCode(201).setBody
+                ("{\"ok\":true,\"id\":\"foo\",\"rev\":\"1-abc\"}"));
+
+        db.post(new Foo("foo"));
+        String first = server.takeRequest(10, TimeUnit.SECONDS).getBody().readUtf8();
+        String second = server.takeRequest(10, TimeUnit.SECONDS).getBody().readUtf8();
+        assertEquals("The replayed body should be the same", first, second);
+    }
+
+    /**
+     * Validates that a 503 response to a non-idempotent POST is not replayed.
+     */
+    @Test
+    public void postNotReplayedAfter503() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        try {
+            db.post(new Foo("foo"));
+            fail("A 503 should be thrown");
+        } catch (CouchDbException e) {
+            assertEquals(503, e.getStatusCode());
+        }
+        assertEquals(1, server.getRequestCount());
+        assertEquals(0, retries.getRetryCount());
+    }
+
+    /**
+     * Validates that a 503 response to a GET is replayed until the maximum number of retries.
+     */
+    @Test
+    public void retriesExhausted() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setResponseCode(503));
+        }
+        try {
+            db.find(Foo.class, "foo");
+            fail("A 503 should be thrown");
+        } catch (CouchDbException e) {
+            assertEquals(503, e.getStatusCode());
+        }
+        assertEquals(3, server.getRequestCount());
+        assertEquals(3, retries.getServerErrorCount());
+        assertEquals(2, retries.getRetryCount());
+        assertEquals(1, retries.getExhaustedCount());
+    }
+
+    /**
+     * Validates that a request with a body read from a stream is not replayed, as the body
+     * cannot be sent again.
+     */
+    @Test
+    public void streamedBodyNotReplayed() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(429).setBody
+                ("{\"error\":\"too_many_requests\",\"reason\":\"slow down\"}"));
+        try {
+            db.saveAttachment(new BufferedInputStream(new ByteArrayInputStream("content"
+                    .getBytes("UTF-8"))), "att.txt", "text/plain", "foo", "1-abc");
+            fail("A CouchDbException should be thrown for the 429 response");
+        } catch (CouchDbException e) {
+            assertEquals(429, e.getStatusCode());
+        }
+        assertEquals("The request should not be replayed", 1, server.getRequestCount());
+    }
+
+    /**
+     * Validates that a request is not replayed if the wait would pass its deadline.
+     */
+    @Test
+    public void notReplayedPastDeadline() throws Exception {
+        RetryInterceptor slow = new RetryInterceptor(2, 1, 30, TimeUnit.SECONDS);
+        CloudantClient slowClient = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .interceptors(slow)
+                .build();
+        final Database slowDb = slowClient.database("animaldb", false);
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "10")
+                .setBody("{\"error\":\"too_many_requests\",\"reason\":\"slow down\"}"));
+        long start = System.nanoTime();
+        try {
+            slowClient.withDeadline(1, TimeUnit.SECONDS, new Callable<Foo>() {
+                @Override
+                public Foo call() {
+                    return slowDb.find(Foo.class, "foo");
+                }
+            });
+            fail("A CouchDbException should be thrown for the 429 response");
+        } catch (CouchDbException e) {
+            assertEquals(429, e.getStatusCode());
+        }
+        assertTrue("The request should not wait for the Retry-After time", System.nanoTime() -
+                start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(1, server.getRequestCount());
+        assertEquals(0, slow.getRetryCount());
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import com.cloudant.client.api.Database;
+import com.cloudant.client.api.model.Response;
+import com.cloudant.tests.util.MockWebServerResource;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class RevisionCacheTest {
+
+    @Rule
+    public MockWebServerResource mockWebServerResource = new MockWebServerResource();
+    private MockWebServer server;
+    private DocumentDispatcher dispatcher;
+
+    /**
+     * Keeps the current revision of each document and rejects writes of any other revision
+     * with a conflict.
+     */
+    private static class DocumentDispatcher extends Dispatcher {
+
+        final Map<String, Integer> generations = new ConcurrentHashMap<String, Integer>();
+        final List<String> requests = new CopyOnWriteArrayList<String>();
+        final List<String> sentRevs = new CopyOnWriteArrayList<String>();
+
+        String rev(String id) {
+            return generations.get(id) + "-abc";
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            requests.add(request.getMethod());
+            String path = request.getPath();
+            if (path.endsWith("/_bulk_docs")) {
+                JsonArray docs = new JsonParser().parse(request.getBody().readUtf8())
+                        .getAsJsonObject().getAsJsonArray("docs");
+                JsonArray responses = new JsonArray();
+                for (JsonElement doc : docs) {
+                    String id = doc.getAsJsonObject().get("_id").getAsString();
+                    responses.add(write(id));
+                }
+                return new MockResponse().setResponseCode(201).setBody(responses.toString());
+            }
+            String id = path.substring(path.lastIndexOf('/') + 1);
+            Integer generation = generations.get(id);
+            if ("PUT".equals(request.getMethod())) {
+                JsonElement rev = new JsonParser().parse(request.getBody().readUtf8())
+                        .getAsJsonObject().get("_rev");
+                sentRevs.add((rev == null) ? null : rev.getAsString());
+                if (generation != null && (rev == null || !rev(id).equals(rev.getAsString()))) {
+                    return new MockResponse().setResponseCode(409).setBody
+                            ("{\"error\":\"conflict\",\"reason\":\"Document update conflict.\"}");
+                }
+                return new MockResponse().setResponseCode(201).setBody(write(id).toString());
+            }
+            if (generation == null) {
+                return new MockResponse().setResponseCode(404).setBody
+                        ("{\"error\":\"not_found\",\"reason\":\"missing\"}");
+            }
+            MockResponse response = new MockResponse().setHeader("ETag", "\"" + rev(id) + "\"");
+            if ("GET".equals(request.getMethod())) {
+                response.setBody("{\"_id\":\"" + id + "\",\"_rev\":\"" + rev(id) + "\"}");
+            }
+            return response;
+        }
+
+        private JsonObject write(String id) {
+            Integer generation = generations.get(id);
+            generations.put(id, (generation == null) ? 1 : generation + 1);
+            JsonObject response = new JsonObject();
+            response.addProperty("ok", true);
+            response.addProperty("id", id);
+            response.addProperty("rev", rev(id));
+            return response;
+        }
+    }
+
+    @Before
+    public void setup() {
+        server = mockWebServerResource.getServer();
+        dispatcher = new DocumentDispatcher();
+        server.setDispatcher(dispatcher);
+    }
+
+    private Database database(int revisionCacheSize) throws Exception {
+        return CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .revisionCache(revisionCacheSize)
+                .build().database("animaldb", false);
+    }
+
+    /**
+     * Validates that an upsert after a save uses the revision from the save response.
+     */
+    @Test
+    public void upsertAfterSave() throws Exception {
+        Database db = database(100);
+        db.save(new Foo("foo"));
+        Response response = db.upsert(new Foo("foo"));
+
+        assertEquals("2-abc", response.getRev());
+        assertEquals(Arrays.asList("PUT", "PUT"), dispatcher.requests);
+        assertEquals(Arrays.asList(null, "1-abc"), dispatcher.sentRevs);
+    }
+
+    /**
+     * Validates that an upsert after a read uses the revision from the ETag of the response.
+     */
+    @Test
+    public void upsertAfterFind() throws Exception {
+        dispatcher.generations.put("foo", 3);
+        Database db = database(100);
+        db.find(Foo.class, "foo");
+        db.upsert(new Foo("foo"));
+
+        assertEquals(Arrays.asList("GET", "PUT"), dispatcher.requests);
+        assertEquals(Arrays.asList("3-abc"), dispatcher.sentRevs);
+    }
+
+    /**
+     * Validates that an upsert after a bulk write uses the revision from the bulk response.
+     */
+    @Test
+    public void upsertAfterBulk() throws Exception {
+        Database db = database(100);
+        db.bulk(Arrays.asList(new Foo("foo"), new Foo("bar")));
+        db.upsert(new Foo("bar"));
+
+        assertEquals(Arrays.asList("POST", "PUT"), dispatcher.requests);
+        assertEquals(Arrays.asList("1-abc"), dispatcher.sentRevs);
+    }
+
+    /**
+     * Validates that an upsert of a new document is a single write.
+     */
+    @Test
+    public void upsertNewDocument() throws Exception {
+        Database db = database(0);
+        Response response = db.upsert(new Foo("foo"));
+
+        assertEquals("1-abc", response.getRev());
+        assertEquals(Arrays.asList("PUT"), dispatcher.requests);
+    }
+
+    /**
+     * Validates that an upsert with an unknown or stale revision reads the current revision
+     * with a HEAD request after the conflict and writes again.
+     */
+    @Test
+    public void upsertAfterConflict() throws Exception {
+        Database db = database(100);
+        db.save(new Foo("foo"));
+        // changed by another client
+        dispatcher.generations.put("foo", 5);
+        Response response = db.upsert(new Foo("foo"));
+
+        assertEquals("6-abc", response.getRev());
+        assertEquals(Arrays.asList("PUT", "PUT", "HEAD", "PUT"), dispatcher.requests);
+        assertEquals(Arrays.asList(null, "1-abc", "5-abc"), dispatcher.sentRevs);
+    }
+}
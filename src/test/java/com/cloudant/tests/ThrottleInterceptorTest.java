@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.cloudant.client.api.CloudantClient;
+import com.cloudant.client.api.Database;
+import com.cloudant.client.api.DocumentIterator;
+import com.cloudant.client.api.views.Key;
+import com.cloudant.client.org.lightcouch.DeadlineExceededException;
+import com.cloudant.http.interceptors.ThrottleInterceptor;
+import com.cloudant.http.interceptors.ThrottleInterceptor.RequestClass;
+import com.cloudant.tests.util.MockWebServerResource;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+public class ThrottleInterceptorTest {
+
+    @Rule
+    public MockWebServerResource serverResource = new MockWebServerResource();
+    public MockWebServer server;
+    private ThrottleInterceptor throttle;
+    private CloudantClient client;
+    private Database db;
+
+    @Before
+    public void setup() throws Exception {
+        server = serverResource.getServer();
+        // 4 lookups per second, writes unlimited, 1 query per second
+        throttle = new ThrottleInterceptor(4, 0, 1);
+        client = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .interceptors(throttle)
+                .build();
+        db = client.database("animaldb", false);
+    }
+
+    /**
+     * Validates that lookups beyond the burst capacity wait for tokens.
+     */
+    @Test
+    public void lookupsAreThrottled() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            server.enqueue(new MockResponse().setBody("{\"_id\":\"foo\",\"_rev\":\"1-abc\"}"));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < 6; i++) {
+            db.find(Foo.class, "foo");
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // The first 4 use the initial burst, the next 2 wait for tokens to refill at a quarter
+        // second each, less the time the earlier requests took
+        assertEquals(6, throttle.getRequestCount(RequestClass.LOOKUP));
+        assertEquals(2, throttle.getThrottledCount(RequestClass.LOOKUP));
+        assertTrue("Requests should have been delayed, elapsed " + elapsedMillis, elapsedMillis
+                >= 400);
+        assertTrue("Wait time should be recorded", throttle.getTotalWaitTime(RequestClass
+                .LOOKUP, TimeUnit.NANOSECONDS) > 0);
+        assertTrue("Max wait should be at most a token interval", throttle.getMaxWaitTime
+                (RequestClass.LOOKUP, TimeUnit.MILLISECONDS) <= 500);
+        assertEquals(0, throttle.getQueueDepth(RequestClass.LOOKUP));
+    }
+
+    /**
+     * Validates that a request whose deadline would pass before its token is due fails without
+     * waiting, and gives the token back for the next request.
+     */
+    @Test
+    public void waitBoundedByDeadline() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            server.enqueue(new MockResponse().setBody("{\"_id\":\"foo\",\"_rev\":\"1-abc\"}"));
+        }
+        for (int i = 0; i < 4; i++) {
+            db.find(Foo.class, "foo");
+        }
+        long start = System.nanoTime();
+        try {
+            client.withDeadline(100, TimeUnit.MILLISECONDS, new Callable<Foo>() {
+                @Override
+                public Foo call() throws Exception {
+                    return db.find(Foo.class, "foo");
+                }
+            });
+            fail("The lookup should fail with a DeadlineExceededException");
+        } catch (DeadlineExceededException e) {
+            assertTrue("The lookup should not wait for a token", TimeUnit.NANOSECONDS.toMillis
+                    (System.nanoTime() - start) < 100);
+        }
+        assertEquals("The lookup should not be sent", 4, server.getRequestCount());
+
+        // the next lookup only waits for the token the failed lookup gave back
+        db.find(Foo.class, "foo");
+        assertTrue("Max wait should be at most a token interval", throttle.getMaxWaitTime
+                (RequestClass.LOOKUP, TimeUnit.MILLISECONDS) <= 250);
+    }
+
+    /**
+     * Validates that view requests are counted as queries and that unlimited writes are not
+     * delayed.
+     */
+    @Test
+    public void requestsAreClassified() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"total_rows\":0,\"offset\":0,\"rows\":[]}"));
+        server.enqueue(new MockResponse().setResponseCode(201).setBody
+                ("{\"ok\":true,\"id\":\"foo\",\"rev\":\"1-abc\"}"));
+        server.enqueue(new MockResponse().setResponseCode(201).setBody
+                ("{\"ok\":true,\"id\":\"foo\",\"rev\":\"1-abc\"}"));
+
+        db.getViewRequestBuilder("ddoc", "view").newRequest(Key.Type.STRING, Object.class)
+                .build().getResponse();
+        db.post(new Foo());
+        db.post(new Foo());
+        // a POST to _all_docs reads documents so is a query, not a write
+        server.enqueue(new MockResponse().setBody("{\"rows\":[{\"key\":\"foo\"," +
+                "\"error\":\"not_found\"}]}"));
+        DocumentIterator<Foo> docs = db.findAll(Collections.singletonList("foo"), Foo.class);
+        try {
+            assertFalse(docs.hasNext());
+        } finally {
+            docs.close();
+        }
+
+        assertEquals(2, throttle.getRequestCount(RequestClass.QUERY));
+        assertEquals(2, throttle.getRequestCount(RequestClass.WRITE));
+        assertEquals(0, throttle.getThrottledCount(RequestClass.WRITE));
+        assertEquals(0, throttle.getRequestCount(RequestClass.LOOKUP));
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.cloudant.client.api.CloudantClient;
+import com.cloudant.client.api.Database;
+import com.cloudant.client.api.views.Key;
+import com.cloudant.client.api.views.ViewResponse;
+import com.cloudant.client.api.views.ViewRowIterator;
+import com.cloudant.client.org.lightcouch.CouchDbException;
+import com.cloudant.tests.util.MockWebServerResource;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class ViewRowIteratorTest {
+
+    private static final String THREE_ROWS = "{\"total_rows\":3,\"offset\":0,\"rows\":[" +
+            "{\"id\":\"doc1\",\"key\":\"a\",\"value\":1}," +
+            "{\"id\":\"doc2\",\"key\":\"b\",\"value\":2}," +
+            "{\"id\":\"doc3\",\"key\":\"c\",\"value\":3}" +
+            "]}";
+
+    @Rule
+    public MockWebServerResource serverResource = new MockWebServerResource();
+    public MockWebServer server;
+    private Database db;
+
+    @Before
+    public void setup() throws Exception {
+        server = serverResource.getServer();
+        CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server).build();
+        db = c.database("animaldb", false);
+    }
+
+    /**
+     * Validates that all rows are returned in order with their id, key and value.
+     */
+    @Test
+    public void iterateRows() throws Exception {
+        server.enqueue(new MockResponse().setBody(THREE_ROWS));
+
+        ViewRowIterator<String, Integer> rows = db.getViewRequestBuilder("ddoc", "view")
+                .newRequest(Key.Type.STRING, Integer.class)
+                .build()
+                .getRowIterator();
+        List<String> keys = new ArrayList<String>();
+        try {
+            while (rows.hasNext()) {
+                ViewResponse.Row<String, Integer> row = rows.next();
+                keys.add(row.getKey());
+                assertEquals("doc" + row.getValue(), row.getId());
+            }
+        } finally {
+            rows.close();
+        }
+        assertEquals(3, keys.size());
+        assertEquals("a", keys.get(0));
+        assertEquals("c", keys.get(2));
+    }
+
+    /**
+     * Validates that a paginated request does not return the extra row used to find the start of
+     * the next page.
+     */
+    @Test
+    public void paginatedRequestReturnsOnePage() throws Exception {
+        server.enqueue(new MockResponse().setBody(THREE_ROWS));
+
+        ViewRowIterator<String, Integer> rows = db.getViewRequestBuilder("ddoc", "view")
+                .newPaginatedRequest(Key.Type.STRING, Integer.class)
+                .rowsPerPage(2)
+                .build()
+                .getRowIterator();
+        assertEquals("a", rows.next().getKey());
+        assertEquals("b", rows.next().getKey());
+        assertFalse("There should be no more rows", rows.hasNext());
+        try {
+            rows.next();
+            fail("NoSuchElementException should be thrown after the last row");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Validates that a response with an empty rows array produces an empty iterator.
+     */
+    @Test
+    public void noRows() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"total_rows\":0,\"offset\":0,\"rows\":[]}"));
+
+        ViewRowIterator<String, Integer> rows = db.getViewRequestBuilder("ddoc", "view")
+                .newRequest(Key.Type.STRING, Integer.class)
+                .build()
+                .getRowIterator();
+        assertFalse("There should be no rows", rows.hasNext());
+        assertEquals("The request should have been made", 1, server.getRequestCount());
+    }
+
+    /**
+     * Validates that the paged iterator returns the rows of every page in order and requests
+     * the next page starting from the look-ahead row of the previous page.
+     */
+    @Test
+    public void pagedIteratorReturnsAllPages() throws Exception {
+        server.enqueue(new MockResponse().setBody(THREE_ROWS));
+        server.enqueue(new MockResponse().setBody("{\"total_rows\":4,\"offset\":2,\"rows\":[" +
+                "{\"id\":\"doc3\",\"key\":\"c\",\"value\":3}," +
+                "{\"id\":\"doc4\",\"key\":\"d\",\"value\":4}" +
+                "]}"));
+
+        ViewRowIterator<String, Integer> rows = db.getViewRequestBuilder("ddoc", "view")
+                .newPaginatedRequest(Key.Type.STRING, Integer.class)
+                .rowsPerPage(2)
+                .build()
+                .getPagedRowIterator(2);
+        List<String> keys = new ArrayList<String>();
+        try {
+            while (rows.hasNext()) {
+                keys.add(rows.next().getKey());
+            }
+        } finally {
+            rows.close();
+        }
+        assertEquals(Arrays.asList("a", "b", "c", "d"), keys);
+        assertEquals("There should be two requests", 2, server.getRequestCount());
+        server.takeRequest(10, TimeUnit.SECONDS);
+        String secondPage = server.takeRequest(10, TimeUnit.SECONDS).getPath();
+        assertTrue("The second page should start at the look-ahead row", secondPage.contains
+                ("startkey=%22c%22"));
+    }
+
+    /**
+     * Validates that an error fetching a later page is thrown from the iterator after the rows
+     * of the earlier pages.
+     */
+    @Test
+    public void pagedIteratorError() throws Exception {
+        server.enqueue(new MockResponse().setBody(THREE_ROWS));
+        server.enqueue(new MockResponse().setResponseCode(500).setBody
+                ("{\"error\":\"internal_server_error\",\"reason\":\"test\"}"));
+
+        ViewRowIterator<String, Integer> rows = db.getViewRequestBuilder("ddoc", "view")
+                .newPaginatedRequest(Key.Type.STRING, Integer.class)
+                .rowsPerPage(2)
+                .build()
+                .getPagedRowIterator(1);
+        assertEquals("a", rows.next().getKey());
+        assertEquals("b", rows.next().getKey());
+        try {
+            rows.hasNext();
+            fail("The server error should be thrown");
+        } catch (CouchDbException e) {
+            assertEquals(500, e.getStatusCode());
+        }
+        assertFalse("There should be no more rows after an error", rows.hasNext());
+    }
+
+    /**
+     * Validates that a paged iterator used from a task on a single thread executor fetches the
+     * pages itself instead of waiting for a task queued behind it.
+     */
+    @Test
+    public void pagedIteratorNestedInAsyncTask() throws Exception {
+        server.enqueue(new MockResponse().setBody(THREE_ROWS));
+        server.enqueue(new MockResponse().setBody("{\"total_rows\":4,\"offset\":2,\"rows\":[" +
+                "{\"id\":\"doc3\",\"key\":\"c\",\"value\":3}," +
+                "{\"id\":\"doc4\",\"key\":\"d\",\"value\":4}" +
+                "]}"));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                    .asyncExecutor(executor)
+                    .build();
+            final Database single = c.database("animaldb", false);
+
+            List<String> keys = c.executeAsync(new Callable<List<String>>() {
+                @Override
+                public List<String> call() {
+                    ViewRowIterator<String, Integer> rows = single.getViewRequestBuilder
+                            ("ddoc", "view")
+                            .newPaginatedRequest(Key.Type.STRING, Integer.class)
+                            .rowsPerPage(2)
+                            .build()
+                            .getPagedRowIterator(1);
+                    List<String> keys = new ArrayList<String>();
+                    try {
+                        while (rows.hasNext()) {
+                            keys.add(rows.next().getKey());
+                        }
+                    } finally {
+                        rows.close();
+                    }
+                    return keys;
+                }
+            }).get(10, TimeUnit.SECONDS);
+            assertEquals(Arrays.asList("a", "b", "c", "d"), keys);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Validates that a paged iterator that is abandoned without being closed does not hold a
+     * thread of the executor while it has pages waiting to be consumed.
+     */
+    @Test
+    public void abandonedPagedIteratorReleasesExecutor() throws Exception {
+        server.enqueue(new MockResponse().setBody(THREE_ROWS));
+        server.enqueue(new MockResponse().setBody(THREE_ROWS));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                    .asyncExecutor(executor)
+                    .build();
+            ViewRowIterator<String, Integer> rows = c.database("animaldb", false)
+                    .getViewRequestBuilder("ddoc", "view")
+                    .newPaginatedRequest(Key.Type.STRING, Integer.class)
+                    .rowsPerPage(2)
+                    .build()
+                    .getPagedRowIterator(1);
+            assertEquals("a", rows.next().getKey());
+
+            // the single thread is free to run other tasks while the next page waits
+            assertEquals("done", c.executeAsync(new Callable<String>() {
+                @Override
+                public String call() {
+                    return "done";
+                }
+            }).get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
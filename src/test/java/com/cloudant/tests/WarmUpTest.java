@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.cloudant.client.api.CloudantClient;
+import com.cloudant.client.api.model.ConnectionPoolStats;
+import com.cloudant.client.api.model.WarmUpOptions;
+import com.cloudant.tests.util.MockWebServerResource;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class WarmUpTest {
+
+    @Rule
+    public MockWebServerResource serverResource = new MockWebServerResource();
+    public MockWebServer server;
+    private final List<String> paths = new CopyOnWriteArrayList<String>();
+
+    @Before
+    public void setup() throws Exception {
+        server = serverResource.getServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                paths.add(request.getPath());
+                if (request.getPath().startsWith("/_session")) {
+                    return new MockResponse().setHeader("Set-Cookie", "AuthSession=s1; " +
+                            "Version=1; Path=/; HttpOnly")
+                            .setBody("{\"ok\":true,\"name\":\"user\",\"roles\":[]}");
+                }
+                if ("/".equals(request.getPath())) {
+                    return new MockResponse().setBody("{\"couchdb\":\"Welcome\"}");
+                }
+                return new MockResponse().setBody("{\"_id\":\"foo\",\"_rev\":\"1-abc\"}");
+            }
+        });
+    }
+
+    /**
+     * Validates that building a client with a warm-up opens the connections and leaves them in
+     * the pool.
+     */
+    @Test
+    public void connectionsOpened() throws Exception {
+        CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .warmUp(new WarmUpOptions().connections(3).types(Foo.class))
+                .build();
+
+        assertTrue("The warm-up should be complete", c.getWarmUp().isDone());
+        ConnectionPoolStats stats = c.getConnectionPoolStats();
+        assertEquals(3, stats.getOpenedConnections());
+        assertEquals(3, stats.getIdleConnections());
+
+        c.database("animaldb", false).find(Foo.class, "foo");
+        assertEquals("The lookup should reuse a connection", 3, c.getConnectionPoolStats()
+                .getOpenedConnections());
+    }
+
+    /**
+     * Validates that the session cookie is obtained by the warm-up, so the first request does
+     * not need to get it.
+     */
+    @Test
+    public void sessionCookieObtained() throws Exception {
+        CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .username("user")
+                .password("pass")
+                .warmUp(new WarmUpOptions().connections(2))
+                .build();
+        assertEquals("One session should be requested", 1, count("/_session"));
+
+        paths.clear();
+        c.database("animaldb", false).find(Foo.class, "foo");
+        assertEquals("The lookup should not request a session", 0, count("/_session"));
+    }
+
+    /**
+     * Validates that an asynchronous warm-up completes in the background.
+     */
+    @Test
+    public void asyncWarmUp() throws Exception {
+        CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .warmUp(new WarmUpOptions().connections(2).async(true))
+                .build();
+        c.getWarmUp().get(10, TimeUnit.SECONDS);
+        assertEquals(2, c.getConnectionPoolStats().getOpenedConnections());
+    }
+
+    /**
+     * Validates that a failed warm-up does not prevent the client from being built and the
+     * failure is reported by the Future.
+     */
+    @Test(expected = ExecutionException.class)
+    public void failedWarmUp() throws Exception {
+        server.shutdown();
+        CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .warmUp(new WarmUpOptions())
+                .build();
+        c.getWarmUp().get();
+    }
+
+    private int count(String prefix) {
+        int count = 0;
+        for (String path : paths) {
+            if (path.startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
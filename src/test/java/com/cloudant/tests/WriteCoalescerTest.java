@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.cloudant.client.api.CloudantClient;
+import com.cloudant.client.api.Database;
+import com.cloudant.client.api.WriteCoalescer;
+import com.cloudant.client.api.model.Response;
+import com.cloudant.tests.util.MockWebServerResource;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class WriteCoalescerTest {
+
+    @Rule
+    public MockWebServerResource serverResource = new MockWebServerResource();
+    public MockWebServer server;
+    private Database db;
+
+    @Before
+    public void setup() throws Exception {
+        server = serverResource.getServer();
+        CloudantClient c = CloudantClientHelper.newMockWebServerClientBuilder(server).build();
+        db = c.database("animaldb", false);
+    }
+
+    /**
+     * Validates that writes are sent as a single _bulk_docs request once the document limit is
+     * reached and that each caller receives its own response.
+     */
+    @Test
+    public void batchSentAtDocumentLimit() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(201).setBody("[" +
+                "{\"id\":\"a\",\"rev\":\"1-a\"}," +
+                "{\"id\":\"b\",\"error\":\"conflict\",\"reason\":\"Document update conflict.\"}," +
+                "{\"id\":\"c\",\"rev\":\"2-c\"}]"));
+
+        // Use a long delay so only the document limit can trigger the request
+        WriteCoalescer coalescer = db.writeCoalescer(1, TimeUnit.HOURS, 3, 0);
+        try {
+            List<Future<Response>> futures = new ArrayList<Future<Response>>();
+            futures.add(coalescer.save(new Foo("a")));
+            futures.add(coalescer.save(new Foo("b")));
+            futures.add(coalescer.update(new Foo("c", "title")));
+
+            assertEquals("1-a", futures.get(0).get(10, TimeUnit.SECONDS).getRev());
+            Response conflict = futures.get(1).get(10, TimeUnit.SECONDS);
+            assertEquals("conflict", conflict.getError());
+            assertNull(conflict.getRev());
+            assertEquals("2-c", futures.get(2).get(10, TimeUnit.SECONDS).getRev());
+        } finally {
+            coalescer.close();
+        }
+
+        assertEquals("There should be exactly one request", 1, server.getRequestCount());
+        RecordedRequest request = server.takeRequest(10, TimeUnit.SECONDS);
+        assertEquals("/animaldb/_bulk_docs", request.getPath());
+        String body = request.getBody().readUtf8();
+        assertTrue("The body should contain all three documents", body.contains("\"a\"") && body
+                .contains("\"b\"") && body.contains("\"c\""));
+    }
+
+    /**
+     * Validates that a partial batch is sent once the delay has elapsed.
+     */
+    @Test
+    public void batchSentAfterDelay() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(201).setBody
+                ("[{\"id\":\"a\",\"rev\":\"1-a\"}]"));
+
+        WriteCoalescer coalescer = db.writeCoalescer(10, TimeUnit.MILLISECONDS, 100, 0);
+        try {
+            Future<Response> future = coalescer.save(new Foo("a"));
+            assertEquals("1-a", future.get(10, TimeUnit.SECONDS).getRev());
+        } finally {
+            coalescer.close();
+        }
+        assertEquals("There should be exactly one request", 1, server.getRequestCount());
+    }
+
+    /**
+     * Validates that a document that would take a batch over the byte limit starts a new batch.
+     */
+    @Test
+    public void batchSplitAtByteLimit() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(201).setBody
+                ("[{\"id\":\"a\",\"rev\":\"1-a\"}]"));
+        server.enqueue(new MockResponse().setResponseCode(201).setBody
+                ("[{\"id\":\"b\",\"rev\":\"1-b\"}]"));
+
+        // Each Foo serializes to well over 10 bytes, so no two documents fit in a batch
+        WriteCoalescer coalescer = db.writeCoalescer(1, TimeUnit.HOURS, 100, 10);
+        try {
+            // Wait for each response in turn so the mock responses are served in order
+            assertEquals("1-a", coalescer.save(new Foo("a")).get(10, TimeUnit.SECONDS).getRev());
+            assertEquals("1-b", coalescer.save(new Foo("b")).get(10, TimeUnit.SECONDS).getRev());
+        } finally {
+            coalescer.close();
+        }
+        assertEquals("There should be two requests", 2, server.getRequestCount());
+    }
+
+    /**
+     * Validates that the writes of a batch the executor rejects fail instead of waiting forever.
+     */
+    @Test
+    public void rejectedBatchFails() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        Database rejecting = CloudantClientHelper.newMockWebServerClientBuilder(server)
+                .asyncExecutor(executor)
+                .build().database("animaldb", false);
+
+        WriteCoalescer coalescer = rejecting.writeCoalescer(1, TimeUnit.HOURS, 1, 0);
+        try {
+            coalescer.save(new Foo("a")).get(10, TimeUnit.SECONDS);
+            fail("The write should fail because its batch was rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        } finally {
+            coalescer.close();
+        }
+        assertEquals("No request should be sent", 0, server.getRequestCount());
+    }
+}